@@ -0,0 +1,57 @@
+package net.eightlives.friendlyssl.keystore;
+
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of reading the certificate store's index at startup. Compare with
+ * {@link Pkcs12CodecBenchmark#decode()} times the number of certificates, which is what reading every keystore would
+ * cost instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CertificateIndexBenchmark {
+
+    @Param({"10000", "50000"})
+    public int certificates;
+
+    private Path directory;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("certificate-index");
+        file = directory.resolve("index.dat");
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            for (int i = 0; i < certificates; i++) {
+                String domain = "customer" + i + ".benchmark.friendlyssl.eightlives.net";
+                index.append(new StoredCertificate(domain, "00/" + domain + ".p12",
+                        Instant.ofEpochSecond(1700000000L + i), "ab".repeat(32), "CN=Benchmark CA", "RSA"));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public Map<String, StoredCertificate> open() throws IOException {
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            return index.entries();
+        }
+    }
+}
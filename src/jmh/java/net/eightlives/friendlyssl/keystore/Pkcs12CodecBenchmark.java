@@ -0,0 +1,74 @@
+package net.eightlives.friendlyssl.keystore;
+
+import net.eightlives.friendlyssl.model.Pkcs12Profile;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of writing and loading a keystore in each {@link Pkcs12Profile}. Run with {@code -prof gc} to
+ * also measure allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Pkcs12CodecBenchmark {
+
+    private static final String ALIAS = "friendlyssl";
+    private static final byte[] LOCAL_KEY_ID = new byte[20];
+
+    @Param({"AES_256", "CERTS_IN_CLEAR", "LEGACY"})
+    public Pkcs12Profile profile;
+
+    @Param({"2048", "10000"})
+    public int iterations;
+
+    private Pkcs12Codec codec;
+    private KeyPair keyPair;
+    private List<X509Certificate> certificates;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        keyPair = KeyPairUtils.createKeyPair(2048);
+        X500Name name = new X500Name("CN=benchmark.friendlyssl.eightlives.net");
+        Instant now = Instant.now();
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(name, BigInteger.ONE, Date.from(now),
+                        Date.from(now.plus(90, ChronoUnit.DAYS)), name, keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256WITHRSA").build(keyPair.getPrivate())));
+        certificates = List.of(certificate, certificate);
+
+        codec = new Pkcs12Codec(profile, iterations);
+        encoded = codec.encode(certificates, keyPair.getPrivate(), ALIAS, LOCAL_KEY_ID);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return codec.encode(certificates, keyPair.getPrivate(), ALIAS, LOCAL_KEY_ID);
+    }
+
+    @Benchmark
+    public KeyStore decode() throws Exception {
+        KeyStore store = Pkcs12Codec.decode(new ByteArrayInputStream(encoded));
+        store.getKey(ALIAS, new char[0]);
+        return store;
+    }
+}
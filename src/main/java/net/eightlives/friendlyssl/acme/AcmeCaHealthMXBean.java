@@ -0,0 +1,30 @@
+package net.eightlives.friendlyssl.acme;
+
+import java.util.Map;
+
+/**
+ * JMX view of the health of each configured ACME CA, keyed by ACME session URL. Health is computed from the most
+ * recent certificate orders sent to the CA.
+ */
+public interface AcmeCaHealthMXBean {
+
+    /**
+     * @return the health score per CA, from 0 (unusable) to 1 (every recent order succeeded quickly)
+     */
+    Map<String, Double> getHealthScores();
+
+    /**
+     * @return the share of recent orders per CA that succeeded
+     */
+    Map<String, Double> getSuccessRates();
+
+    /**
+     * @return the 95th percentile duration of recent successful orders per CA, in milliseconds
+     */
+    Map<String, Long> getP95LatencyMillis();
+
+    /**
+     * @return the number of orders per CA that failed since its last successful order
+     */
+    Map<String, Integer> getRecentErrors();
+}
@@ -0,0 +1,76 @@
+package net.eightlives.friendlyssl.acme;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Spaces out requests to each CA so that no more than a given number are sent per second, however many orders are
+ * running. Each CA, told apart by the host of its URLs, is throttled on its own. Up to one second's worth of requests
+ * may be sent at once after a quiet period, then requests are spaced evenly.
+ * <p>
+ * A request waiting for its turn holds that turn, so requests are sent in the order they asked.
+ */
+public class AcmeRequestThrottle {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final LongSupplier nanoTime;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    private static class Slot {
+        private long nextNanos;
+
+        private Slot(long nextNanos) {
+            this.nextNanos = nextNanos;
+        }
+    }
+
+    /**
+     * Construct a new {@link AcmeRequestThrottle}.
+     *
+     * @param requestsPerSecond the number of requests to allow per second to each CA
+     */
+    public AcmeRequestThrottle(double requestsPerSecond) {
+        this(requestsPerSecond, System::nanoTime);
+    }
+
+    AcmeRequestThrottle(double requestsPerSecond, LongSupplier nanoTime) {
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        this.burstNanos = Math.max(0, TimeUnit.SECONDS.toNanos(1) - intervalNanos);
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Block until a request to the given URI may be sent.
+     *
+     * @param uri the URI of the request
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public void acquire(URI uri) throws InterruptedException {
+        long waitNanos = reserve(uri);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Take the next turn to send a request to the given URI.
+     *
+     * @param uri the URI of the request
+     * @return how long to wait before sending the request, in nanoseconds
+     */
+    public long reserve(URI uri) {
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+        long now = nanoTime.getAsLong();
+        Slot slot = slots.computeIfAbsent(host, _ -> new Slot(now - burstNanos));
+        synchronized (slot) {
+            long next = Math.max(slot.nextNanos, now - burstNanos);
+            slot.nextNanos = next + intervalNanos;
+            return Math.max(0, next - now);
+        }
+    }
+}
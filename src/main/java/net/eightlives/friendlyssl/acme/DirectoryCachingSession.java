@@ -0,0 +1,71 @@
+package net.eightlives.friendlyssl.acme;
+
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.provider.AcmeProvider;
+
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+
+/**
+ * A {@link Session} that keeps the ACME directory and its metadata for a fixed time to live instead of revalidating
+ * them with the server whenever the server did not send an expiration. Once the time to live has passed, or the cache
+ * is purged, the directory is fetched again in full.
+ */
+public class DirectoryCachingSession extends Session {
+
+    private final Duration directoryTtl;
+    private final Clock clock;
+
+    /**
+     * Construct a new {@link DirectoryCachingSession}.
+     *
+     * @param serverUri    the ACME server URI
+     * @param directoryTtl how long to keep the directory when the server does not say how long it may be cached
+     * @param clock        the {@link Clock} from which to derive time
+     * @throws IllegalArgumentException if no ACME provider accepts {@code serverUri}
+     */
+    public DirectoryCachingSession(URI serverUri, Duration directoryTtl, Clock clock) {
+        super(serverUri);
+        this.directoryTtl = directoryTtl;
+        this.clock = clock;
+    }
+
+    /**
+     * Construct a new {@link DirectoryCachingSession} that connects through the given {@link AcmeProvider}.
+     *
+     * @param serverUri    the ACME server URI
+     * @param provider     the {@link AcmeProvider} to connect to the ACME server with
+     * @param directoryTtl how long to keep the directory when the server does not say how long it may be cached
+     * @param clock        the {@link Clock} from which to derive time
+     * @throws IllegalArgumentException if {@code provider} does not accept {@code serverUri}
+     */
+    public DirectoryCachingSession(URI serverUri, AcmeProvider provider, Duration directoryTtl, Clock clock) {
+        super(serverUri, provider);
+        this.directoryTtl = directoryTtl;
+        this.clock = clock;
+    }
+
+    @Override
+    public void setDirectoryExpires(ZonedDateTime directoryExpires) {
+        super.setDirectoryExpires(directoryExpires != null
+                ? directoryExpires
+                : ZonedDateTime.now(clock).plus(directoryTtl));
+    }
+
+    /**
+     * Always {@code null}, so an expired directory is fetched in full and its time to live starts over, rather than
+     * being revalidated without renewing its expiration.
+     */
+    @Override
+    public ZonedDateTime getDirectoryLastModified() {
+        return null;
+    }
+
+    @Override
+    public void purgeDirectoryCache() {
+        super.purgeDirectoryCache();
+        super.setDirectoryExpires(null);
+    }
+}
@@ -0,0 +1,31 @@
+package net.eightlives.friendlyssl.acme;
+
+import java.util.Map;
+
+/**
+ * JMX view of the latency of requests made to the ACME server, keyed by endpoint. An endpoint is the request method,
+ * host and the leading path segments of the resource, so requests to different authorizations or orders count
+ * towards the same endpoint.
+ */
+public interface EndpointLatencyMXBean {
+
+    /**
+     * @return the number of completed requests per endpoint
+     */
+    Map<String, Long> getRequestCounts();
+
+    /**
+     * @return the number of requests per endpoint that failed without a response
+     */
+    Map<String, Long> getFailureCounts();
+
+    /**
+     * @return the average time per endpoint from sending a request until its response arrived, in milliseconds
+     */
+    Map<String, Long> getAverageLatencyMillis();
+
+    /**
+     * @return the longest time per endpoint from sending a request until its response arrived, in milliseconds
+     */
+    Map<String, Long> getMaxLatencyMillis();
+}
@@ -0,0 +1,109 @@
+package net.eightlives.friendlyssl.acme;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Records the latency of requests made to the ACME server per endpoint.
+ */
+public class EndpointLatencyRecorder implements EndpointLatencyMXBean {
+
+    /**
+     * Path segments longer than this are taken to identify a resource (an order, authorization, certificate...) rather
+     * than to name an endpoint.
+     */
+    private static final int MAX_ENDPOINT_SEGMENT_LENGTH = 16;
+
+    private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Record a request that received a response.
+     *
+     * @param request the request that was sent
+     * @param latency the time from sending the request until its response arrived
+     */
+    public void recordResponse(HttpRequest request, Duration latency) {
+        EndpointStats endpointStats = stats.computeIfAbsent(endpoint(request), _ -> new EndpointStats());
+        endpointStats.requests.increment();
+        endpointStats.totalNanos.add(latency.toNanos());
+        endpointStats.maxNanos.accumulate(latency.toNanos());
+    }
+
+    /**
+     * Record a request that failed without a response.
+     *
+     * @param request the request that was sent
+     */
+    public void recordFailure(HttpRequest request) {
+        stats.computeIfAbsent(endpoint(request), _ -> new EndpointStats()).failures.increment();
+    }
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        return collect(endpointStats -> endpointStats.requests.sum());
+    }
+
+    @Override
+    public Map<String, Long> getFailureCounts() {
+        return collect(endpointStats -> endpointStats.failures.sum());
+    }
+
+    @Override
+    public Map<String, Long> getAverageLatencyMillis() {
+        return collect(endpointStats -> {
+            long requests = endpointStats.requests.sum();
+            return requests == 0 ? 0 : Duration.ofNanos(endpointStats.totalNanos.sum() / requests).toMillis();
+        });
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencyMillis() {
+        return collect(endpointStats -> Duration.ofNanos(endpointStats.maxNanos.get()).toMillis());
+    }
+
+    /**
+     * Returns the endpoint of the given request: its method, host and the path segments up to the first one that
+     * identifies a resource. Numeric segments and segments longer than {@value #MAX_ENDPOINT_SEGMENT_LENGTH}
+     * characters are taken to identify a resource.
+     *
+     * @param request the request to return the endpoint of
+     * @return the endpoint of {@code request}, e.g. {@code POST acme-v02.api.letsencrypt.org/acme/authz-v3}
+     */
+    static String endpoint(HttpRequest request) {
+        URI uri = request.uri();
+        StringBuilder endpoint = new StringBuilder(request.method()).append(' ').append(uri.getHost());
+        String path = uri.getPath();
+        if (path != null) {
+            for (String segment : path.split("/")) {
+                if (segment.isEmpty()) {
+                    continue;
+                }
+                if (segment.length() > MAX_ENDPOINT_SEGMENT_LENGTH || segment.chars().allMatch(Character::isDigit)) {
+                    break;
+                }
+                endpoint.append('/').append(segment);
+            }
+        }
+        return endpoint.toString();
+    }
+
+    private Map<String, Long> collect(ToLongFunction<EndpointStats> value) {
+        Map<String, Long> values = new TreeMap<>();
+        stats.forEach((endpoint, endpointStats) -> values.put(endpoint, value.applyAsLong(endpointStats)));
+        return values;
+    }
+
+    private static class EndpointStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    }
+}
@@ -0,0 +1,67 @@
+package net.eightlives.friendlyssl.acme;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An {@link HttpClient} that sends every request through another {@link HttpClient} and records how long each took
+ * with an {@link EndpointLatencyRecorder}.
+ */
+public class LatencyRecordingHttpClient extends ForwardingHttpClient {
+
+    private final EndpointLatencyRecorder recorder;
+
+    /**
+     * Construct a new {@link LatencyRecordingHttpClient}.
+     *
+     * @param delegate the {@link HttpClient} to send requests through
+     * @param recorder the {@link EndpointLatencyRecorder} to record latency with
+     */
+    public LatencyRecordingHttpClient(HttpClient delegate, EndpointLatencyRecorder recorder) {
+        super(delegate);
+        this.recorder = recorder;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<T> response = delegate.send(request, responseBodyHandler);
+            recorder.recordResponse(request, Duration.ofNanos(System.nanoTime() - start));
+            return response;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            recorder.recordFailure(request);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> responseBodyHandler) {
+        return record(request, System.nanoTime(), delegate.sendAsync(request, responseBodyHandler));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> responseBodyHandler,
+                                                            HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        return record(request, System.nanoTime(),
+                delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler));
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> record(HttpRequest request, long start,
+                                                          CompletableFuture<HttpResponse<T>> response) {
+        return response.whenComplete((_, failure) -> {
+            if (failure == null) {
+                recorder.recordResponse(request, Duration.ofNanos(System.nanoTime() - start));
+            } else {
+                recorder.recordFailure(request);
+            }
+        });
+    }
+}
@@ -0,0 +1,34 @@
+package net.eightlives.friendlyssl.acme;
+
+/**
+ * JMX view of the nonce pool of a {@link NoncePoolingSession}.
+ */
+public interface NoncePoolMXBean {
+
+    /**
+     * @return the number of unused nonces currently in the pool
+     */
+    int getPooledNonces();
+
+    /**
+     * @return the number of signed requests that took their nonce from the pool instead of fetching one from the
+     * server's newNonce resource first
+     */
+    long getNonceFetchesAvoided();
+
+    /**
+     * @return the number of signed requests that had to fetch a nonce from the server because the pool was empty
+     */
+    long getNonceFetches();
+
+    /**
+     * @return the number of nonces fetched in the background to refill the pool
+     */
+    long getNoncesPrefetched();
+
+    /**
+     * @return the number of signed requests that took a nonce while another request of the same session was in
+     * flight, each of which got a nonce of its own from the pool
+     */
+    long getConcurrentSignedRequests();
+}
@@ -0,0 +1,220 @@
+package net.eightlives.friendlyssl.acme;
+
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.provider.AcmeProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DirectoryCachingSession} that keeps a bounded pool of unused nonces instead of a single shared nonce, so
+ * that signed requests running in parallel on the same session never sign with the same nonce.
+ * <p>
+ * acme4j reads the session nonce twice per signed request (once to decide whether a new nonce must be fetched and
+ * once to sign) and stores the nonce of every response. The first read takes a nonce out of the pool and reserves it
+ * for the calling thread, the second read hands out that reservation, and every nonce stored from a response goes back
+ * into the pool. When a request has to fetch a nonce because the pool is empty, the fetched nonce is reserved for the
+ * fetching thread. Whenever a request leaves the pool below half its capacity, it is refilled in the background.
+ * </p>
+ * <p>
+ * A request that fails before its response, for example because fetching a nonce failed, never stores a nonce. The
+ * next request of the same thread therefore starts by discarding whatever the failed request left, and threads that
+ * have ended are not counted as having a request in flight.
+ * </p>
+ */
+public class NoncePoolingSession extends DirectoryCachingSession implements NoncePoolMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NoncePoolingSession.class);
+
+    /**
+     * How long a pooled nonce is used for. ACME servers expire unused nonces, and older nonces are more likely to have
+     * been expired.
+     */
+    private static final Duration NONCE_TTL = Duration.ofMinutes(1);
+
+    private final int capacity;
+    private final Clock clock;
+    private final BlockingDeque<PooledNonce> pool;
+    private final ThreadLocal<String> reserved = new ThreadLocal<>();
+    private final ThreadLocal<Boolean> fetching = new ThreadLocal<>();
+    private final Set<Thread> requestThreads = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private final AtomicLong fetchesAvoided = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong concurrentSignedRequests = new AtomicLong();
+
+    /**
+     * Construct a new {@link NoncePoolingSession}.
+     *
+     * @param serverUri    the ACME server URI
+     * @param directoryTtl how long to keep the directory when the server does not say how long it may be cached
+     * @param capacity     the largest number of unused nonces to keep
+     * @param clock        the {@link Clock} from which to derive time
+     * @throws IllegalArgumentException if no ACME provider accepts {@code serverUri}, or {@code capacity} is less than 1
+     */
+    public NoncePoolingSession(URI serverUri, Duration directoryTtl, int capacity, Clock clock) {
+        super(serverUri, directoryTtl, clock);
+        this.capacity = capacity;
+        this.clock = clock;
+        this.pool = new LinkedBlockingDeque<>(capacity);
+    }
+
+    /**
+     * Construct a new {@link NoncePoolingSession} that connects through the given {@link AcmeProvider}.
+     *
+     * @param serverUri    the ACME server URI
+     * @param provider     the {@link AcmeProvider} to connect to the ACME server with
+     * @param directoryTtl how long to keep the directory when the server does not say how long it may be cached
+     * @param capacity     the largest number of unused nonces to keep
+     * @param clock        the {@link Clock} from which to derive time
+     * @throws IllegalArgumentException if {@code provider} does not accept {@code serverUri}, or {@code capacity} is
+     *                                  less than 1
+     */
+    public NoncePoolingSession(URI serverUri, AcmeProvider provider, Duration directoryTtl, int capacity, Clock clock) {
+        super(serverUri, provider, directoryTtl, clock);
+        this.capacity = capacity;
+        this.clock = clock;
+        this.pool = new LinkedBlockingDeque<>(capacity);
+    }
+
+    @Override
+    public String getNonce() {
+        String nonce = reserved.get();
+        if (nonce != null) {
+            reserved.remove();
+            return nonce;
+        }
+
+        // Without a reservation this is the first read of a new request, so any earlier request of this thread is over
+        Thread current = Thread.currentThread();
+        fetching.remove();
+        requestThreads.remove(current);
+        requestThreads.removeIf(thread -> !thread.isAlive());
+        if (!requestThreads.isEmpty()) {
+            concurrentSignedRequests.incrementAndGet();
+        }
+        requestThreads.add(current);
+
+        nonce = takeNonce();
+        if (nonce == null) {
+            fetches.incrementAndGet();
+            fetching.set(true);
+        } else {
+            fetchesAvoided.incrementAndGet();
+            reserved.set(nonce);
+        }
+        if (pool.size() < (capacity + 1) / 2) {
+            refill();
+        }
+        return nonce;
+    }
+
+    /**
+     * Store the nonce of a response. While the calling thread fetches a nonce for its request, the fetched nonce is
+     * reserved for it, and acme4j clearing the nonce before the fetch is ignored. Any other response ends the calling
+     * thread's request, whether or not it carried a nonce.
+     */
+    @Override
+    public void setNonce(String nonce) {
+        if (fetching.get() != null) {
+            if (nonce != null) {
+                fetching.remove();
+                reserved.set(nonce);
+            }
+            return;
+        }
+
+        requestThreads.remove(Thread.currentThread());
+        if (nonce != null) {
+            offerNonce(nonce);
+        }
+    }
+
+    @Override
+    public int getPooledNonces() {
+        return pool.size();
+    }
+
+    @Override
+    public long getNonceFetchesAvoided() {
+        return fetchesAvoided.get();
+    }
+
+    @Override
+    public long getNonceFetches() {
+        return fetches.get();
+    }
+
+    @Override
+    public long getNoncesPrefetched() {
+        return prefetched.get();
+    }
+
+    @Override
+    public long getConcurrentSignedRequests() {
+        return concurrentSignedRequests.get();
+    }
+
+    /**
+     * Fetch a fresh nonce from the server's newNonce resource. The nonce arrives through {@link #setNonce(String)}.
+     *
+     * @throws AcmeException if the nonce could not be fetched
+     */
+    protected void fetchNonce() throws AcmeException {
+        try (Connection connection = connect()) {
+            connection.resetNonce(this);
+        }
+    }
+
+    private String takeNonce() {
+        Instant oldest = clock.instant().minus(NONCE_TTL);
+        PooledNonce pooled;
+        while ((pooled = pool.pollLast()) != null) {
+            if (pooled.received().isAfter(oldest)) {
+                return pooled.nonce();
+            }
+        }
+        return null;
+    }
+
+    private void offerNonce(String nonce) {
+        PooledNonce pooled = new PooledNonce(nonce, clock.instant());
+        while (!pool.offerLast(pooled)) {
+            pool.pollFirst();
+        }
+    }
+
+    private void refill() {
+        if (!refilling.compareAndSet(false, true)) {
+            return;
+        }
+        Thread.ofVirtual().name("acme-nonce-prefetch").start(() -> {
+            try {
+                int target = (capacity + 1) / 2;
+                for (int attempt = 0; attempt < target && pool.size() < target; attempt++) {
+                    fetchNonce();
+                    prefetched.incrementAndGet();
+                }
+            } catch (AcmeException | RuntimeException e) {
+                LOG.debug("Could not prefetch nonce", e);
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    private record PooledNonce(String nonce, Instant received) {
+    }
+}
@@ -0,0 +1,194 @@
+package net.eightlives.friendlyssl.acme;
+
+import org.shredzone.acme4j.Login;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.challenge.Challenge;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.DefaultConnection;
+import org.shredzone.acme4j.connector.HttpConnector;
+import org.shredzone.acme4j.connector.NetworkSettings;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.provider.AbstractAcmeProvider;
+import org.shredzone.acme4j.provider.AcmeProvider;
+import org.shredzone.acme4j.toolbox.JSON;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * An {@link AcmeProvider} that connects to the ACME server through one shared {@link HttpClient} instead of building
+ * a new client, and with it new TLS connections, for every {@link Connection}. Everything else is left to the
+ * {@link AcmeProvider} it wraps.
+ * <p>
+ * Requests still use the {@link NetworkSettings} of their session for their timeout, user agent and language, but
+ * the connection settings (proxy, connect timeout, trust) are those the shared client was built with.
+ * </p>
+ * <p>
+ * Instead of one shared client, a factory may be given that builds the client of each {@link Connection}, for when
+ * connections are not to be shared but their requests still need to go through a wrapping client.
+ * </p>
+ */
+public class SharedClientAcmeProvider extends AbstractAcmeProvider {
+
+    private final AcmeProvider delegate;
+    private final Function<NetworkSettings, HttpClient> clientFactory;
+
+    /**
+     * Construct a new {@link SharedClientAcmeProvider}.
+     *
+     * @param delegate   the {@link AcmeProvider} that resolves the ACME server and creates its challenges
+     * @param httpClient the {@link HttpClient} to share between all connections
+     */
+    public SharedClientAcmeProvider(AcmeProvider delegate, HttpClient httpClient) {
+        this(delegate, _ -> httpClient);
+    }
+
+    /**
+     * Construct a new {@link SharedClientAcmeProvider} that builds a client for each connection.
+     *
+     * @param delegate      the {@link AcmeProvider} that resolves the ACME server and creates its challenges
+     * @param clientFactory builds the {@link HttpClient} of a connection from the {@link NetworkSettings} of its
+     *                      session
+     */
+    public SharedClientAcmeProvider(AcmeProvider delegate, Function<NetworkSettings, HttpClient> clientFactory) {
+        this.delegate = delegate;
+        this.clientFactory = clientFactory;
+    }
+
+    @Override
+    public boolean accepts(URI serverUri) {
+        return delegate.accepts(serverUri);
+    }
+
+    @Override
+    public URL resolve(URI serverUri) {
+        return delegate.resolve(serverUri);
+    }
+
+    @Override
+    public Connection connect(URI serverUri, NetworkSettings networkSettings) {
+        return new DefaultConnection(new SharedClientConnector(networkSettings, clientFactory.apply(networkSettings)));
+    }
+
+    /**
+     * Fetches the directory through the shared client, unless the wrapped {@link AcmeProvider} changes how the
+     * directory is read, in which case it is left to fetch the directory itself.
+     */
+    @Override
+    public JSON directory(Session session, URI serverUri) throws AcmeException {
+        if (overridesDirectory(delegate)) {
+            return delegate.directory(session, serverUri);
+        }
+        return super.directory(session, serverUri);
+    }
+
+    @Override
+    public Challenge createChallenge(Login login, JSON data) {
+        return delegate.createChallenge(login, data);
+    }
+
+    /**
+     * @return the {@link AcmeProvider} this provider wraps
+     */
+    public AcmeProvider getDelegate() {
+        return delegate;
+    }
+
+    private static boolean overridesDirectory(AcmeProvider provider) {
+        try {
+            return provider.getClass().getMethod("directory", Session.class, URI.class).getDeclaringClass()
+                    != AbstractAcmeProvider.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
+    /**
+     * An {@link HttpConnector} whose client builder always builds the shared client.
+     */
+    private static class SharedClientConnector extends HttpConnector {
+
+        private final HttpClient httpClient;
+
+        private SharedClientConnector(NetworkSettings networkSettings, HttpClient httpClient) {
+            super(networkSettings);
+            this.httpClient = httpClient;
+        }
+
+        @Override
+        public HttpClient.Builder createClientBuilder() {
+            return new SharedClientBuilder(httpClient);
+        }
+    }
+
+    /**
+     * An {@link HttpClient.Builder} that ignores its settings and builds the shared client, which has been configured
+     * already.
+     */
+    private record SharedClientBuilder(HttpClient httpClient) implements HttpClient.Builder {
+
+        @Override
+        public HttpClient.Builder cookieHandler(CookieHandler cookieHandler) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder connectTimeout(Duration duration) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder sslContext(SSLContext sslContext) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder sslParameters(SSLParameters sslParameters) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder executor(Executor executor) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder followRedirects(HttpClient.Redirect policy) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder version(HttpClient.Version version) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder priority(int priority) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder proxy(ProxySelector proxySelector) {
+            return this;
+        }
+
+        @Override
+        public HttpClient.Builder authenticator(Authenticator authenticator) {
+            return this;
+        }
+
+        @Override
+        public HttpClient build() {
+            return httpClient;
+        }
+    }
+}
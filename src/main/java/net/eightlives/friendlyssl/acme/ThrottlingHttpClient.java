@@ -0,0 +1,55 @@
+package net.eightlives.friendlyssl.acme;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link HttpClient} that sends every request through another {@link HttpClient} once an
+ * {@link AcmeRequestThrottle} allows it.
+ */
+public class ThrottlingHttpClient extends ForwardingHttpClient {
+
+    private final AcmeRequestThrottle throttle;
+
+    /**
+     * Construct a new {@link ThrottlingHttpClient}.
+     *
+     * @param delegate the {@link HttpClient} to send requests through
+     * @param throttle the {@link AcmeRequestThrottle} that spaces out requests
+     */
+    public ThrottlingHttpClient(HttpClient delegate, AcmeRequestThrottle throttle) {
+        super(delegate);
+        this.throttle = throttle;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        throttle.acquire(request.uri());
+        return delegate.send(request, responseBodyHandler);
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> responseBodyHandler) {
+        return CompletableFuture.supplyAsync(() -> null, delayed(request))
+                .thenCompose(_ -> delegate.sendAsync(request, responseBodyHandler));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> responseBodyHandler,
+                                                            HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        return CompletableFuture.supplyAsync(() -> null, delayed(request))
+                .thenCompose(_ -> delegate.sendAsync(request, responseBodyHandler, pushPromiseHandler));
+    }
+
+    private Executor delayed(HttpRequest request) {
+        return CompletableFuture.delayedExecutor(throttle.reserve(request.uri()), TimeUnit.NANOSECONDS);
+    }
+}
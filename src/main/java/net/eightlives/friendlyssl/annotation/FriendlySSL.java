@@ -3,12 +3,17 @@ package net.eightlives.friendlyssl.annotation;
 import net.eightlives.friendlyssl.config.*;
 import net.eightlives.friendlyssl.controller.CertificateChallengeController;
 import net.eightlives.friendlyssl.controller.CertificateController;
+import net.eightlives.friendlyssl.controller.CertificateInventoryController;
 import net.eightlives.friendlyssl.controller.TermsOfServiceController;
 import net.eightlives.friendlyssl.factory.AccountBuilderFactory;
 import net.eightlives.friendlyssl.factory.RecursiveTimerTaskFactory;
+import net.eightlives.friendlyssl.listener.CertificateRenewalAttemptedListener;
+import net.eightlives.friendlyssl.listener.CertificateStoreChangedListener;
 import net.eightlives.friendlyssl.listener.ChallengeTokenRequestedListener;
 import net.eightlives.friendlyssl.listener.FriendlySSLApplicationListener;
 import net.eightlives.friendlyssl.service.*;
+import net.eightlives.friendlyssl.tls.SniKeyManager;
+import net.eightlives.friendlyssl.tls.TomcatSessionResumptionCustomizer;
 import org.springframework.context.annotation.Import;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
@@ -27,21 +32,41 @@ import java.lang.annotation.*;
         FriendlySSLApplicationListener.class,
         CertificateChallengeController.class,
         CertificateController.class,
+        CertificateInventoryController.class,
         TermsOfServiceController.class,
         AutoRenewService.class,
         AcmeAccountService.class,
+        AcmeCaService.class,
+        AcmeSessionService.class,
+        AcmeTransportService.class,
+        BulkRenewalService.class,
+        CertificateInventoryService.class,
         CertificateOrderHandlerService.class,
         CertificateOrderService.class,
+        CertificateStoreService.class,
+        CertificateStoreChangedListener.class,
+        CertificateRenewalAttemptedListener.class,
         ChallengeProcessorService.class,
         ChallengeTokenRequestedListener.class,
         ChallengeTokenStore.class,
+        HandshakeSelfTestService.class,
         CSRService.class,
         LocalIdGeneratorService.class,
+        MBeanRegistrationService.class,
+        OrderJournalService.class,
         PKCS12KeyStoreService.class,
+        PreAuthorizationService.class,
+        RateLimitService.class,
+        RenewalBackoffService.class,
+        RenewalMetricsService.class,
+        SanCoalescingPlanner.class,
         CertificateCreateRenewService.class,
+        OnDemandIssuanceService.class,
         TermsOfServiceService.class,
         UpdateCheckerService.class,
-        AccountBuilderFactory.class
+        AccountBuilderFactory.class,
+        SniKeyManager.class,
+        TomcatSessionResumptionCustomizer.class
 })
 @EnableScheduling
 public @interface FriendlySSL {
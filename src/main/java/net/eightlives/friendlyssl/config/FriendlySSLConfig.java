@@ -1,5 +1,8 @@
 package net.eightlives.friendlyssl.config;
 
+import net.eightlives.friendlyssl.model.AcmeCa;
+import net.eightlives.friendlyssl.model.KeystoreFormat;
+import net.eightlives.friendlyssl.model.Pkcs12Profile;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
@@ -12,17 +15,55 @@ public class FriendlySSLConfig {
 
     private boolean autoRenewEnabled = false;
     private String acmeSessionUrl = "acme://letsencrypt.org/staging";
+    private List<AcmeCa> fallbackCas = new ArrayList<>();
+    private int failoverHoursBefore = 48;
+    private int caHealthWindowHours = 24;
+    private String acmeProfile;
     private String domain;
     private String accountEmail;
     private String certificateKeyAlias = "friendlyssl";
     private String accountPrivateKeyFile = "account.pem";
+    private KeystoreFormat keystoreFormat = KeystoreFormat.PKCS12;
     private String keystoreFile = "keystore.p12";
+    private Pkcs12Profile keystoreProfile = Pkcs12Profile.AES_256;
+    private int keystoreIterations = 10000;
+    private String pemCertificateFile = "fullchain.pem";
+    private String pemPrivateKeyFile = "privkey.pem";
     private String termsOfServiceFile = "tos";
+    private String orderJournalFile = "order-journal.json";
+    private boolean rateLimitEnabled = true;
+    private String rateLimitFile = "rate-limits.json";
+    private List<String> rateLimitPublicSuffixes = new ArrayList<>();
     private int orderTimeoutSeconds = 30;
     private int tokenRequestedTimeoutSeconds = 30;
     private int authChallengeTimeoutSeconds = 20;
+    private int orderDeadlineSeconds = 120;
+    private boolean handshakeSelfTestEnabled = false;
+    private int handshakeSelfTestCount = 3;
+    private boolean sessionResumptionEnabled = false;
+    private int sessionCacheSize = 20480;
+    private int sessionTimeoutSeconds = 86400;
+    private boolean onDemandEnabled = false;
+    private List<String> onDemandAllowedDomains = new ArrayList<>();
+    private int onDemandIssuancesPerHour = 20;
+    private String certificateStoreDirectory = "certificates";
+    private int directoryTtlMinutes = 60;
+    private int noncePoolSize = 8;
+    private boolean acmeSharedConnections = true;
+    private boolean acmeHttp2Enabled = true;
+    private int acmeRequestsPerSecond = 10;
+    private int bulkRenewalConcurrency = 8;
+    private boolean sanCoalescingEnabled = false;
+    private int sanCoalescingMaxNames = 100;
     private int autoRenewalHoursBefore = 72;
+    private double autoRenewalLifetimeFraction = 0.33;
     private int errorRetryWaitHours = 1;
+    private int errorRetryMaxHours = 24;
+    private int circuitBreakerThreshold = 3;
+    private boolean preAuthorizationEnabled = false;
+    private int preAuthorizationHoursBefore = 48;
+    private int shutdownTimeoutSeconds = 10;
+    private int manualOrderQueueLimit = 4;
     private List<String> endpointsInclude = new ArrayList<>();
 
     public boolean isAutoRenewEnabled() {
@@ -41,6 +82,38 @@ public class FriendlySSLConfig {
         this.acmeSessionUrl = acmeSessionUrl;
     }
 
+    public List<AcmeCa> getFallbackCas() {
+        return fallbackCas;
+    }
+
+    public void setFallbackCas(List<AcmeCa> fallbackCas) {
+        this.fallbackCas = fallbackCas;
+    }
+
+    public int getFailoverHoursBefore() {
+        return failoverHoursBefore;
+    }
+
+    public void setFailoverHoursBefore(int failoverHoursBefore) {
+        this.failoverHoursBefore = failoverHoursBefore;
+    }
+
+    public int getCaHealthWindowHours() {
+        return caHealthWindowHours;
+    }
+
+    public void setCaHealthWindowHours(int caHealthWindowHours) {
+        this.caHealthWindowHours = caHealthWindowHours;
+    }
+
+    public String getAcmeProfile() {
+        return acmeProfile;
+    }
+
+    public void setAcmeProfile(String acmeProfile) {
+        this.acmeProfile = acmeProfile;
+    }
+
     public String getDomain() {
         return domain;
     }
@@ -73,6 +146,14 @@ public class FriendlySSLConfig {
         this.accountPrivateKeyFile = accountPrivateKeyFile;
     }
 
+    public KeystoreFormat getKeystoreFormat() {
+        return keystoreFormat;
+    }
+
+    public void setKeystoreFormat(KeystoreFormat keystoreFormat) {
+        this.keystoreFormat = keystoreFormat;
+    }
+
     public String getKeystoreFile() {
         return keystoreFile;
     }
@@ -81,6 +162,38 @@ public class FriendlySSLConfig {
         this.keystoreFile = keystoreFile;
     }
 
+    public Pkcs12Profile getKeystoreProfile() {
+        return keystoreProfile;
+    }
+
+    public void setKeystoreProfile(Pkcs12Profile keystoreProfile) {
+        this.keystoreProfile = keystoreProfile;
+    }
+
+    public int getKeystoreIterations() {
+        return keystoreIterations;
+    }
+
+    public void setKeystoreIterations(int keystoreIterations) {
+        this.keystoreIterations = keystoreIterations;
+    }
+
+    public String getPemCertificateFile() {
+        return pemCertificateFile;
+    }
+
+    public void setPemCertificateFile(String pemCertificateFile) {
+        this.pemCertificateFile = pemCertificateFile;
+    }
+
+    public String getPemPrivateKeyFile() {
+        return pemPrivateKeyFile;
+    }
+
+    public void setPemPrivateKeyFile(String pemPrivateKeyFile) {
+        this.pemPrivateKeyFile = pemPrivateKeyFile;
+    }
+
     public String getTermsOfServiceFile() {
         return termsOfServiceFile;
     }
@@ -89,6 +202,38 @@ public class FriendlySSLConfig {
         this.termsOfServiceFile = termsOfServiceFile;
     }
 
+    public String getOrderJournalFile() {
+        return orderJournalFile;
+    }
+
+    public void setOrderJournalFile(String orderJournalFile) {
+        this.orderJournalFile = orderJournalFile;
+    }
+
+    public boolean isRateLimitEnabled() {
+        return rateLimitEnabled;
+    }
+
+    public void setRateLimitEnabled(boolean rateLimitEnabled) {
+        this.rateLimitEnabled = rateLimitEnabled;
+    }
+
+    public String getRateLimitFile() {
+        return rateLimitFile;
+    }
+
+    public void setRateLimitFile(String rateLimitFile) {
+        this.rateLimitFile = rateLimitFile;
+    }
+
+    public List<String> getRateLimitPublicSuffixes() {
+        return rateLimitPublicSuffixes;
+    }
+
+    public void setRateLimitPublicSuffixes(List<String> rateLimitPublicSuffixes) {
+        this.rateLimitPublicSuffixes = rateLimitPublicSuffixes;
+    }
+
     public int getOrderTimeoutSeconds() {
         return orderTimeoutSeconds;
     }
@@ -113,6 +258,150 @@ public class FriendlySSLConfig {
         this.authChallengeTimeoutSeconds = authChallengeTimeoutSeconds;
     }
 
+    public int getOrderDeadlineSeconds() {
+        return orderDeadlineSeconds;
+    }
+
+    public void setOrderDeadlineSeconds(int orderDeadlineSeconds) {
+        this.orderDeadlineSeconds = orderDeadlineSeconds;
+    }
+
+    public boolean isHandshakeSelfTestEnabled() {
+        return handshakeSelfTestEnabled;
+    }
+
+    public void setHandshakeSelfTestEnabled(boolean handshakeSelfTestEnabled) {
+        this.handshakeSelfTestEnabled = handshakeSelfTestEnabled;
+    }
+
+    public int getHandshakeSelfTestCount() {
+        return handshakeSelfTestCount;
+    }
+
+    public void setHandshakeSelfTestCount(int handshakeSelfTestCount) {
+        this.handshakeSelfTestCount = handshakeSelfTestCount;
+    }
+
+    public boolean isSessionResumptionEnabled() {
+        return sessionResumptionEnabled;
+    }
+
+    public void setSessionResumptionEnabled(boolean sessionResumptionEnabled) {
+        this.sessionResumptionEnabled = sessionResumptionEnabled;
+    }
+
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    public int getSessionTimeoutSeconds() {
+        return sessionTimeoutSeconds;
+    }
+
+    public void setSessionTimeoutSeconds(int sessionTimeoutSeconds) {
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+    }
+
+    public boolean isOnDemandEnabled() {
+        return onDemandEnabled;
+    }
+
+    public void setOnDemandEnabled(boolean onDemandEnabled) {
+        this.onDemandEnabled = onDemandEnabled;
+    }
+
+    public List<String> getOnDemandAllowedDomains() {
+        return onDemandAllowedDomains;
+    }
+
+    public void setOnDemandAllowedDomains(List<String> onDemandAllowedDomains) {
+        this.onDemandAllowedDomains = onDemandAllowedDomains;
+    }
+
+    public int getOnDemandIssuancesPerHour() {
+        return onDemandIssuancesPerHour;
+    }
+
+    public void setOnDemandIssuancesPerHour(int onDemandIssuancesPerHour) {
+        this.onDemandIssuancesPerHour = onDemandIssuancesPerHour;
+    }
+
+    public String getCertificateStoreDirectory() {
+        return certificateStoreDirectory;
+    }
+
+    public void setCertificateStoreDirectory(String certificateStoreDirectory) {
+        this.certificateStoreDirectory = certificateStoreDirectory;
+    }
+
+    public int getDirectoryTtlMinutes() {
+        return directoryTtlMinutes;
+    }
+
+    public void setDirectoryTtlMinutes(int directoryTtlMinutes) {
+        this.directoryTtlMinutes = directoryTtlMinutes;
+    }
+
+    public int getNoncePoolSize() {
+        return noncePoolSize;
+    }
+
+    public void setNoncePoolSize(int noncePoolSize) {
+        this.noncePoolSize = noncePoolSize;
+    }
+
+    public boolean isAcmeSharedConnections() {
+        return acmeSharedConnections;
+    }
+
+    public void setAcmeSharedConnections(boolean acmeSharedConnections) {
+        this.acmeSharedConnections = acmeSharedConnections;
+    }
+
+    public boolean isAcmeHttp2Enabled() {
+        return acmeHttp2Enabled;
+    }
+
+    public void setAcmeHttp2Enabled(boolean acmeHttp2Enabled) {
+        this.acmeHttp2Enabled = acmeHttp2Enabled;
+    }
+
+    public int getAcmeRequestsPerSecond() {
+        return acmeRequestsPerSecond;
+    }
+
+    public void setAcmeRequestsPerSecond(int acmeRequestsPerSecond) {
+        this.acmeRequestsPerSecond = acmeRequestsPerSecond;
+    }
+
+    public int getBulkRenewalConcurrency() {
+        return bulkRenewalConcurrency;
+    }
+
+    public void setBulkRenewalConcurrency(int bulkRenewalConcurrency) {
+        this.bulkRenewalConcurrency = bulkRenewalConcurrency;
+    }
+
+    public boolean isSanCoalescingEnabled() {
+        return sanCoalescingEnabled;
+    }
+
+    public void setSanCoalescingEnabled(boolean sanCoalescingEnabled) {
+        this.sanCoalescingEnabled = sanCoalescingEnabled;
+    }
+
+    public int getSanCoalescingMaxNames() {
+        return sanCoalescingMaxNames;
+    }
+
+    public void setSanCoalescingMaxNames(int sanCoalescingMaxNames) {
+        this.sanCoalescingMaxNames = sanCoalescingMaxNames;
+    }
+
     public int getAutoRenewalHoursBefore() {
         return autoRenewalHoursBefore;
     }
@@ -121,6 +410,14 @@ public class FriendlySSLConfig {
         this.autoRenewalHoursBefore = autoRenewalHoursBefore;
     }
 
+    public double getAutoRenewalLifetimeFraction() {
+        return autoRenewalLifetimeFraction;
+    }
+
+    public void setAutoRenewalLifetimeFraction(double autoRenewalLifetimeFraction) {
+        this.autoRenewalLifetimeFraction = autoRenewalLifetimeFraction;
+    }
+
     public int getErrorRetryWaitHours() {
         return errorRetryWaitHours;
     }
@@ -129,6 +426,54 @@ public class FriendlySSLConfig {
         this.errorRetryWaitHours = errorRetryWaitHours;
     }
 
+    public int getErrorRetryMaxHours() {
+        return errorRetryMaxHours;
+    }
+
+    public void setErrorRetryMaxHours(int errorRetryMaxHours) {
+        this.errorRetryMaxHours = errorRetryMaxHours;
+    }
+
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    public boolean isPreAuthorizationEnabled() {
+        return preAuthorizationEnabled;
+    }
+
+    public void setPreAuthorizationEnabled(boolean preAuthorizationEnabled) {
+        this.preAuthorizationEnabled = preAuthorizationEnabled;
+    }
+
+    public int getPreAuthorizationHoursBefore() {
+        return preAuthorizationHoursBefore;
+    }
+
+    public void setPreAuthorizationHoursBefore(int preAuthorizationHoursBefore) {
+        this.preAuthorizationHoursBefore = preAuthorizationHoursBefore;
+    }
+
+    public int getShutdownTimeoutSeconds() {
+        return shutdownTimeoutSeconds;
+    }
+
+    public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    public int getManualOrderQueueLimit() {
+        return manualOrderQueueLimit;
+    }
+
+    public void setManualOrderQueueLimit(int manualOrderQueueLimit) {
+        this.manualOrderQueueLimit = manualOrderQueueLimit;
+    }
+
     public List<String> getEndpointsInclude() {
         return endpointsInclude;
     }
@@ -1,16 +1,24 @@
 package net.eightlives.friendlyssl.config;
 
+import net.eightlives.friendlyssl.service.MBeanRegistrationService;
+import net.eightlives.friendlyssl.task.SchedulerMetricsMXBean;
+import net.eightlives.friendlyssl.task.VirtualThreadScheduledExecutor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.concurrent.Executors;
+import java.time.Duration;
 import java.util.concurrent.ScheduledExecutorService;
 
 @Configuration
 public class SchedulerConfig {
 
-    @Bean(name = "update-checker-scheduler")
-    public ScheduledExecutorService scheduler() {
-        return Executors.newSingleThreadScheduledExecutor();
+    private static final String NAME = "update-checker-scheduler";
+
+    @Bean(name = NAME, destroyMethod = "close")
+    public ScheduledExecutorService scheduler(FriendlySSLConfig config, MBeanRegistrationService mBeanRegistrationService) {
+        VirtualThreadScheduledExecutor scheduler = new VirtualThreadScheduledExecutor(NAME,
+                Duration.ofSeconds(config.getShutdownTimeoutSeconds()));
+        mBeanRegistrationService.register("Scheduler", NAME, scheduler, SchedulerMetricsMXBean.class);
+        return scheduler;
     }
 }
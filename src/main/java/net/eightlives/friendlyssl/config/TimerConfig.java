@@ -1,16 +1,24 @@
 package net.eightlives.friendlyssl.config;
 
+import net.eightlives.friendlyssl.service.MBeanRegistrationService;
+import net.eightlives.friendlyssl.task.SchedulerMetricsMXBean;
+import net.eightlives.friendlyssl.task.VirtualThreadScheduledExecutor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.concurrent.Executors;
+import java.time.Duration;
 import java.util.concurrent.ScheduledExecutorService;
 
 @Configuration
 public class TimerConfig {
 
-    @Bean(name = "ssl-certificate-monitor")
-    public ScheduledExecutorService timer() {
-        return Executors.newSingleThreadScheduledExecutor();
+    private static final String NAME = "ssl-certificate-monitor";
+
+    @Bean(name = NAME, destroyMethod = "close")
+    public ScheduledExecutorService timer(FriendlySSLConfig config, MBeanRegistrationService mBeanRegistrationService) {
+        VirtualThreadScheduledExecutor timer = new VirtualThreadScheduledExecutor(NAME,
+                Duration.ofSeconds(config.getShutdownTimeoutSeconds()));
+        mBeanRegistrationService.register("Scheduler", NAME, timer, SchedulerMetricsMXBean.class);
+        return timer;
     }
 }
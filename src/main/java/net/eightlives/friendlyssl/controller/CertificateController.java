@@ -7,6 +7,7 @@ import net.eightlives.friendlyssl.service.PKCS12KeyStoreService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -15,7 +16,10 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.security.cert.X509Certificate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Optional;
+import java.util.concurrent.Semaphore;
 
 @ConditionalOnExpression("'${friendly-ssl.endpoints-include}'.contains('certificate')")
 @RestController
@@ -27,31 +31,54 @@ public class CertificateController {
     private final FriendlySSLConfig config;
     private final CertificateCreateRenewService createRenewService;
     private final PKCS12KeyStoreService keyStoreService;
+    private final Semaphore admission;
 
     public CertificateController(FriendlySSLConfig config, CertificateCreateRenewService createRenewService,
                                  PKCS12KeyStoreService keyStoreService) {
         this.config = config;
         this.createRenewService = createRenewService;
         this.keyStoreService = keyStoreService;
+        this.admission = new Semaphore(Math.max(1, config.getManualOrderQueueLimit()));
     }
 
     /**
      * Order a certificate manually. This might be done if the user wants to order early or if there was a previous
      * failure to order (such as when terms of service haven't been agreed to) and the user does not want to wait for
      * the retry.
+     * <p>
+     * A request made while the certificate is being ordered, manually or otherwise, waits for that order and returns
+     * its result. At most {@code friendly-ssl.manual-order-queue-limit} requests are admitted at once, so repeated
+     * requests cannot tie up every request thread waiting for one order.
      *
      * @return <p>200 OK if certificate was ordered successfully</p>
+     * <p>429 Too Many Requests if the order was deferred by a rate limit, with a Retry-After header of when it is
+     * allowed again</p>
+     * <p>503 Service Unavailable if too many requests are already waiting for the order</p>
      * <p>500 Internal Server Error if an exception occurs</p>
      */
     @GetMapping(path = "/order", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<CertificateRenewal> order() {
-        CertificateRenewal certificateRenewal = switch (keyStoreService.getCertificate(config.getCertificateKeyAlias())) {
-            case Optional<X509Certificate> o when o.isPresent() -> createRenewService.renewCertificate();
-            case Optional<X509Certificate> _ -> createRenewService.createCertificate();
-        };
+        if (!admission.tryAcquire()) {
+            LOG.warn("Too many manual certificate orders are waiting, rejecting request");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        CertificateRenewal certificateRenewal;
+        try {
+            certificateRenewal = switch (keyStoreService.getCertificate(config.getCertificateKeyAlias())) {
+                case Optional<X509Certificate> o when o.isPresent() -> createRenewService.renewCertificate();
+                case Optional<X509Certificate> _ -> createRenewService.createCertificate();
+            };
+        } finally {
+            admission.release();
+        }
 
         return switch (certificateRenewal.status()) {
             case ALREADY_VALID, SUCCESS -> ResponseEntity.ok(certificateRenewal);
+            case DEFERRED -> ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                            certificateRenewal.time().atZone(ZoneOffset.UTC)))
+                    .body(certificateRenewal);
             case ERROR -> ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         };
     }
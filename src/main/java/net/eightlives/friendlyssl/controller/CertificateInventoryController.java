@@ -0,0 +1,61 @@
+package net.eightlives.friendlyssl.controller;
+
+import net.eightlives.friendlyssl.model.InventoryEntry;
+import net.eightlives.friendlyssl.model.InventoryPage;
+import net.eightlives.friendlyssl.service.CertificateInventoryService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+
+@ConditionalOnExpression("'${friendly-ssl.endpoints-include}'.contains('certificate')")
+@RestController
+@RequestMapping("/friendly-ssl/certificate/inventory")
+public class CertificateInventoryController {
+
+    static final int MAX_PAGE_SIZE = 500;
+    static final long MAX_DUE_WITHIN_HOURS = 87600;
+
+    private final CertificateInventoryService inventoryService;
+
+    public CertificateInventoryController(CertificateInventoryService inventoryService) {
+        this.inventoryService = inventoryService;
+    }
+
+    /**
+     * List the managed certificates, soonest to expire first.
+     *
+     * @param dueWithinHours if given, only certificates expiring within this many hours are listed, including those
+     *                       already expired, at most 87600 (10 years)
+     * @param page           the number of the page, starting at 0
+     * @param size           the maximum number of certificates on a page, at most 500
+     * @return <p>200 OK with the page of certificates</p>
+     * <p>400 Bad Request if the page, size or due hours are out of range</p>
+     */
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<InventoryPage> list(@RequestParam(name = "dueWithinHours", required = false) Long dueWithinHours,
+                                              @RequestParam(name = "page", defaultValue = "0") int page,
+                                              @RequestParam(name = "size", defaultValue = "50") int size) {
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE
+                || (dueWithinHours != null && (dueWithinHours < 0 || dueWithinHours > MAX_DUE_WITHIN_HOURS))) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return ResponseEntity.ok(inventoryService.page(
+                dueWithinHours == null ? null : Duration.ofHours(dueWithinHours), page, size));
+    }
+
+    /**
+     * Look up the managed certificate of a domain.
+     *
+     * @param domain the domain of the certificate
+     * @return <p>200 OK with the certificate</p>
+     * <p>404 Not Found if no certificate is managed for the domain</p>
+     */
+    @GetMapping(path = "/{domain}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<InventoryEntry> get(@PathVariable("domain") String domain) {
+        return ResponseEntity.of(inventoryService.get(domain));
+    }
+}
@@ -0,0 +1,27 @@
+package net.eightlives.friendlyssl.event;
+
+import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when an order of a certificate finishes, successfully or not.
+ */
+public class CertificateRenewalAttempted extends ApplicationEvent {
+
+    private final String domain;
+    private final CertificateRenewalStatus status;
+
+    public CertificateRenewalAttempted(Object source, String domain, CertificateRenewalStatus status) {
+        super(source);
+        this.domain = domain;
+        this.status = status;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public CertificateRenewalStatus getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,32 @@
+package net.eightlives.friendlyssl.event;
+
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Optional;
+
+/**
+ * Published when a certificate is stored in or removed from the certificate store.
+ */
+public class CertificateStoreChanged extends ApplicationEvent {
+
+    private final String domain;
+    private final StoredCertificate certificate;
+
+    public CertificateStoreChanged(Object source, String domain, StoredCertificate certificate) {
+        super(source);
+        this.domain = domain;
+        this.certificate = certificate;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * @return the entry of the stored certificate, or {@link Optional#empty()} if the certificate was removed
+     */
+    public Optional<StoredCertificate> getCertificate() {
+        return Optional.ofNullable(certificate);
+    }
+}
@@ -0,0 +1,8 @@
+package net.eightlives.friendlyssl.exception;
+
+public class HandshakeSelfTestException extends FriendlySSLException {
+
+    public HandshakeSelfTestException(String message) {
+        super("Handshake self-test failed: " + message);
+    }
+}
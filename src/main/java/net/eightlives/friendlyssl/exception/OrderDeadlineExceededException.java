@@ -0,0 +1,8 @@
+package net.eightlives.friendlyssl.exception;
+
+public class OrderDeadlineExceededException extends FriendlySSLException {
+
+    public OrderDeadlineExceededException(String stage) {
+        super("Order deadline passed before " + stage);
+    }
+}
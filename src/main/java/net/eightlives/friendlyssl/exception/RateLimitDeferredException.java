@@ -0,0 +1,19 @@
+package net.eightlives.friendlyssl.exception;
+
+import net.eightlives.friendlyssl.model.RateLimit;
+
+import java.time.Instant;
+
+public class RateLimitDeferredException extends FriendlySSLException {
+
+    private final Instant retryAfter;
+
+    public RateLimitDeferredException(RateLimit rateLimit, Instant retryAfter) {
+        super("Order deferred until " + retryAfter + " to stay within the " + rateLimit + " rate limit");
+        this.retryAfter = retryAfter;
+    }
+
+    public Instant getRetryAfter() {
+        return retryAfter;
+    }
+}
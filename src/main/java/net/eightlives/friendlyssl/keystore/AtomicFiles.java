@@ -0,0 +1,38 @@
+package net.eightlives.friendlyssl.keystore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+/**
+ * Writes certificate and key files so that a server watching them never reads one partially written.
+ */
+public class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Write the given content to a temporary file next to the given file and then move it over the file. If the file
+     * already exists, its POSIX permissions are kept, so that a private key readable only by its owner stays that way.
+     *
+     * @param file    the file to write
+     * @param content the content to write
+     * @throws IOException if the content cannot be written or moved over the file
+     */
+    public static void write(Path file, byte[] content) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(tempFile, content);
+            PosixFileAttributeView existingAttributes = Files.getFileAttributeView(file, PosixFileAttributeView.class);
+            if (existingAttributes != null && Files.exists(file)) {
+                Files.setPosixFilePermissions(tempFile, existingAttributes.readAttributes().permissions());
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+}
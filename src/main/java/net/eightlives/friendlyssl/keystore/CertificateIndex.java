@@ -0,0 +1,293 @@
+package net.eightlives.friendlyssl.keystore;
+
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only index of the certificate store, recording for each domain the file of its certificate, when the
+ * certificate expires, its fingerprint, issuer and key type. Storing or removing a certificate appends one record, and
+ * the index is read back with a single sequential pass over the memory-mapped file, so the store can be listed at
+ * startup without decoding a keystore per certificate.
+ * <p>
+ * The file starts with a magic number and version, followed by records of the form
+ * <pre>
+ * int    length of the record body
+ * byte   type, 1 to store a certificate or 2 to remove it
+ * short  length of the domain, then the domain in UTF-8
+ * short  length of the file, then the file in UTF-8             (store only)
+ * long   expiry, in seconds since the epoch                      (store only)
+ * byte[] 32 byte fingerprint                                     (store only)
+ * short  length of the issuer, then the issuer in UTF-8         (store only, since version 2)
+ * short  length of the key type, then the key type in UTF-8     (store only, since version 2)
+ * int    CRC32C of the record body
+ * </pre>
+ * A record cut short or corrupted by a crash while appending ends the index; it and anything after it are discarded
+ * when the index is opened. An index of version 1 is rewritten in the current version when opened, with an empty
+ * issuer and key type for every entry, which the certificate store fills in from the keystores.
+ */
+public class CertificateIndex implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CertificateIndex.class);
+
+    private static final int MAGIC = 0x46534349;
+    private static final int VERSION = 2;
+    private static final int FIRST_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final byte STORE = 1;
+    private static final byte REMOVE = 2;
+    private static final int FINGERPRINT_LENGTH = 32;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final FileChannel channel;
+    private final Map<String, StoredCertificate> entries;
+    private int records;
+
+    private CertificateIndex(FileChannel channel, Map<String, StoredCertificate> entries, int records) {
+        this.channel = channel;
+        this.entries = entries;
+        this.records = records;
+    }
+
+    /**
+     * Open the index at the given location, creating it if it does not exist, and read its entries. If more than half
+     * of its records are superseded, it is first rewritten with only the current entries.
+     *
+     * @param file the location of the index
+     * @return the opened index
+     * @throws IOException if the index cannot be read or created, or is not a certificate index
+     */
+    public static CertificateIndex open(Path file) throws IOException {
+        Map<String, StoredCertificate> entries = new TreeMap<>();
+        int records = 0;
+        long validLength = HEADER_LENGTH;
+        int version = VERSION;
+
+        if (Files.exists(file) && Files.size(file) > 0) {
+            try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+                if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+                    throw new IOException(file + " is not a certificate index");
+                }
+                version = buffer.getInt();
+                if (version < FIRST_VERSION || version > VERSION) {
+                    throw new IOException(file + " is a certificate index of unsupported version " + version);
+                }
+                while (readRecord(buffer, entries, version)) {
+                    records++;
+                    validLength = buffer.position();
+                }
+            }
+        }
+
+        if (version < VERSION) {
+            LOG.info("Upgrading certificate index {} from version {} to {}", file, version, VERSION);
+            writeCompacted(file, entries.values());
+            records = entries.size();
+            validLength = Files.size(file);
+        } else if (records > 2 * entries.size()) {
+            writeCompacted(file, entries.values());
+            records = entries.size();
+            validLength = Files.size(file);
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                channel.write(header());
+                channel.force(false);
+                validLength = HEADER_LENGTH;
+            } else if (channel.size() > validLength) {
+                LOG.warn("Discarding {} bytes of incomplete records at the end of certificate index {}",
+                        channel.size() - validLength, file);
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new CertificateIndex(channel, entries, records);
+    }
+
+    /**
+     * Returns the current entries, by domain in alphabetical order.
+     *
+     * @return a copy of the entries read when the index was opened, with those appended since
+     */
+    public synchronized Map<String, StoredCertificate> entries() {
+        return new TreeMap<>(entries);
+    }
+
+    /**
+     * Record that a certificate was stored, replacing any earlier entry for its domain.
+     *
+     * @param entry the entry of the stored certificate
+     * @throws IOException if the record cannot be appended
+     */
+    public synchronized void append(StoredCertificate entry) throws IOException {
+        write(storeRecord(entry));
+        entries.put(entry.domain(), entry);
+    }
+
+    /**
+     * Record that the certificate of the given domain was removed.
+     *
+     * @param domain the domain of the removed certificate
+     * @throws IOException if the record cannot be appended
+     */
+    public synchronized void appendRemoval(String domain) throws IOException {
+        byte[] domainBytes = domain.getBytes(StandardCharsets.UTF_8);
+        write(record(ByteBuffer.allocate(1 + 2 + domainBytes.length)
+                .put(REMOVE)
+                .putShort((short) domainBytes.length).put(domainBytes)));
+        entries.remove(domain);
+    }
+
+    /**
+     * Returns the number of records in the index, including superseded ones.
+     *
+     * @return the record count
+     */
+    public synchronized int records() {
+        return records;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        channel.force(false);
+        records++;
+    }
+
+    private static ByteBuffer storeRecord(StoredCertificate entry) {
+        byte[] domain = entry.domain().getBytes(StandardCharsets.UTF_8);
+        byte[] relativeFile = entry.file().getBytes(StandardCharsets.UTF_8);
+        byte[] issuer = entry.issuer().getBytes(StandardCharsets.UTF_8);
+        byte[] keyType = entry.keyType().getBytes(StandardCharsets.UTF_8);
+        return record(ByteBuffer.allocate(1 + 2 + domain.length + 2 + relativeFile.length + 8 + FINGERPRINT_LENGTH
+                        + 2 + issuer.length + 2 + keyType.length)
+                .put(STORE)
+                .putShort((short) domain.length).put(domain)
+                .putShort((short) relativeFile.length).put(relativeFile)
+                .putLong(entry.notAfter().getEpochSecond())
+                .put(HEX.parseHex(entry.fingerprint()))
+                .putShort((short) issuer.length).put(issuer)
+                .putShort((short) keyType.length).put(keyType));
+    }
+
+    /**
+     * Frame the given record body with its length and checksum.
+     */
+    private static ByteBuffer record(ByteBuffer body) {
+        body.flip();
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        return ByteBuffer.allocate(4 + body.remaining() + 4)
+                .putInt(body.remaining())
+                .put(body)
+                .putInt((int) crc.getValue())
+                .flip();
+    }
+
+    /**
+     * Read the record at the buffer's position into the given entries, as written by the given version of the index.
+     *
+     * @return {@code false} if there is no complete, intact record left, with the buffer's position undefined
+     */
+    private static boolean readRecord(ByteBuffer buffer, Map<String, StoredCertificate> entries, int version) {
+        if (buffer.remaining() < 4) {
+            return false;
+        }
+        int length = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining() - 4) {
+            return false;
+        }
+
+        ByteBuffer body = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != buffer.getInt()) {
+            return false;
+        }
+
+        try {
+            byte type = body.get();
+            String domain = readString(body);
+            switch (type) {
+                case STORE -> {
+                    String relativeFile = readString(body);
+                    Instant notAfter = Instant.ofEpochSecond(body.getLong());
+                    byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+                    body.get(fingerprint);
+                    String issuer = version > FIRST_VERSION ? readString(body) : "";
+                    String keyType = version > FIRST_VERSION ? readString(body) : "";
+                    entries.put(domain, new StoredCertificate(domain, relativeFile, notAfter, HEX.formatHex(fingerprint),
+                            issuer, keyType));
+                }
+                case REMOVE -> entries.remove(domain);
+                default -> {
+                    return false;
+                }
+            }
+        } catch (RuntimeException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[Short.toUnsignedInt(body.getShort())];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer header() {
+        return ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC).putInt(VERSION).flip();
+    }
+
+    /**
+     * Atomically replace the index with one holding a single record per current entry.
+     */
+    private static void writeCompacted(Path file, Collection<StoredCertificate> entries) throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(header());
+            for (StoredCertificate entry : entries) {
+                ByteBuffer record = storeRecord(entry);
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOG.info("Compacted certificate index {} to {} entries", file, entries.size());
+    }
+}
@@ -0,0 +1,106 @@
+package net.eightlives.friendlyssl.keystore;
+
+import net.eightlives.friendlyssl.exception.KeyStoreGeneratorException;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the PEM certificate chain and PKCS8 private key files that hold the certificate, as read by
+ * Spring's PEM SSL bundles and by servers such as nginx and envoy.
+ */
+public class PemCodec {
+
+    private static final String CERTIFICATE_TYPE = "X.509";
+
+    private PemCodec() {
+    }
+
+    /**
+     * Encode a certificate chain as consecutive PEM certificates.
+     *
+     * @param certificates the certificate chain, starting with the certificate of the private key
+     * @return the encoded certificate chain
+     * @throws KeyStoreGeneratorException if an exception occurs while encoding the certificate chain
+     */
+    public static byte[] encodeCertificates(List<X509Certificate> certificates) {
+        StringWriter pem = new StringWriter();
+        try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+            for (X509Certificate certificate : certificates) {
+                writer.writeObject(certificate);
+            }
+        } catch (IOException e) {
+            throw new KeyStoreGeneratorException(e);
+        }
+        return pem.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encode an unencrypted PKCS8 private key in PEM.
+     *
+     * @param privateKey the private key
+     * @return the encoded private key
+     * @throws KeyStoreGeneratorException if an exception occurs while encoding the private key
+     */
+    public static byte[] encodePrivateKey(PrivateKey privateKey) {
+        StringWriter pem = new StringWriter();
+        try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+            writer.writeObject(new JcaPKCS8Generator(privateKey, null).generate());
+        } catch (IOException e) {
+            throw new KeyStoreGeneratorException(e);
+        }
+        return pem.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Decode a PEM certificate chain.
+     *
+     * @param certificates the encoded certificate chain
+     * @return the certificates in the order they were encoded, which is empty if there are none
+     * @throws IOException          if the certificate chain cannot be read
+     * @throws CertificateException if the certificate chain is malformed
+     */
+    public static List<X509Certificate> decodeCertificates(InputStream certificates)
+            throws IOException, CertificateException {
+        List<X509Certificate> chain = new ArrayList<>();
+        CertificateFactory factory = CertificateFactory.getInstance(CERTIFICATE_TYPE);
+        for (var certificate : factory.generateCertificates(certificates)) {
+            chain.add((X509Certificate) certificate);
+        }
+        return chain;
+    }
+
+    /**
+     * Decode an unencrypted PEM private key, either PKCS8 or in the traditional OpenSSL format.
+     *
+     * @param privateKey the encoded private key
+     * @return the private key
+     * @throws IOException if the private key cannot be read, is malformed, or is encrypted
+     */
+    public static PrivateKey decodePrivateKey(Reader privateKey) throws IOException {
+        try (PEMParser parser = new PEMParser(privateKey)) {
+            JcaPEMKeyConverter converter = new JcaPEMKeyConverter();
+            return switch (parser.readObject()) {
+                case null -> throw new IOException("No private key found");
+                case PrivateKeyInfo keyInfo -> converter.getPrivateKey(keyInfo);
+                case PEMKeyPair keyPair -> converter.getPrivateKey(keyPair.getPrivateKeyInfo());
+                default -> throw new IOException("Unsupported private key, it may be encrypted");
+            };
+        }
+    }
+}
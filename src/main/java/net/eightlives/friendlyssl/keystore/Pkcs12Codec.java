@@ -0,0 +1,203 @@
+package net.eightlives.friendlyssl.keystore;
+
+import net.eightlives.friendlyssl.exception.KeyStoreGeneratorException;
+import net.eightlives.friendlyssl.model.Pkcs12Profile;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.DERBMPString;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.EncryptionScheme;
+import org.bouncycastle.asn1.pkcs.KeyDerivationFunc;
+import org.bouncycastle.asn1.pkcs.PBES2Parameters;
+import org.bouncycastle.asn1.pkcs.PBKDF2Params;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.engines.DESedeEngine;
+import org.bouncycastle.crypto.engines.RC2Engine;
+import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator;
+import org.bouncycastle.crypto.io.CipherOutputStream;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.operator.GenericKey;
+import org.bouncycastle.operator.OutputEncryptor;
+import org.bouncycastle.pkcs.*;
+import org.bouncycastle.pkcs.bc.BcPKCS12MacCalculatorBuilder;
+import org.bouncycastle.pkcs.bc.BcPKCS12PBEOutputEncryptorBuilder;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS12SafeBagBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Encodes and decodes the password-less PKCS12 keystores that hold the certificate, protected as described by a
+ * {@link Pkcs12Profile}.
+ */
+public class Pkcs12Codec {
+
+    private static final String KEYSTORE_TYPE = "PKCS12";
+    private static final String ROOT_FRIENDLY_NAME = "root";
+    private static final char[] PASSWORD = new char[0];
+    private static final int SALT_LENGTH = 16;
+    private static final int AES_KEY_LENGTH = 32;
+    private static final int AES_BLOCK_LENGTH = 16;
+    private static final AlgorithmIdentifier HMAC_SHA256 =
+            new AlgorithmIdentifier(PKCSObjectIdentifiers.id_hmacWithSHA256, DERNull.INSTANCE);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Pkcs12Profile profile;
+    private final int iterationCount;
+
+    /**
+     * @param profile        how to protect encoded keystores
+     * @param iterationCount the number of iterations of key derivation for encryption and the integrity check
+     */
+    public Pkcs12Codec(Pkcs12Profile profile, int iterationCount) {
+        this.profile = profile;
+        this.iterationCount = iterationCount;
+    }
+
+    /**
+     * Encode a keystore holding the given private key and certificate chain. The first certificate of the chain and
+     * the private key are named with the given alias, the other certificates are named {@code root}.
+     *
+     * @param certificates the certificate chain, starting with the certificate of the private key
+     * @param privateKey   the private key of the first certificate
+     * @param alias        the name of the private key and its certificate
+     * @param localKeyId   the local key ID that ties the private key to its certificate, or {@code null} for none
+     * @return the encoded keystore
+     * @throws KeyStoreGeneratorException if an exception occurs while encoding the keystore
+     */
+    public byte[] encode(List<X509Certificate> certificates, PrivateKey privateKey, String alias, byte[] localKeyId) {
+        try {
+            PKCS12SafeBag[] certBags = new PKCS12SafeBag[certificates.size()];
+            for (int i = certificates.size() - 1; i >= 0; i--) {
+                PKCS12SafeBagBuilder certBagBuilder = new JcaPKCS12SafeBagBuilder(certificates.get(i));
+                if (i == 0) {
+                    addAttributes(certBagBuilder, alias, localKeyId);
+                } else {
+                    certBagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName, new DERBMPString(ROOT_FRIENDLY_NAME));
+                }
+                certBags[i] = certBagBuilder.build();
+            }
+
+            PKCS12SafeBagBuilder keyBagBuilder = new JcaPKCS12SafeBagBuilder(privateKey, keyEncryptor());
+            addAttributes(keyBagBuilder, alias, localKeyId);
+
+            PKCS12PfxPduBuilder pfxBuilder = new PKCS12PfxPduBuilder();
+            if (profile == Pkcs12Profile.CERTS_IN_CLEAR) {
+                for (PKCS12SafeBag certBag : certBags) {
+                    pfxBuilder.addData(certBag);
+                }
+            } else {
+                pfxBuilder.addEncryptedData(certificateEncryptor(), certBags);
+            }
+            pfxBuilder.addData(keyBagBuilder.build());
+
+            PKCS12PfxPdu pfx = pfxBuilder.build(macCalculatorBuilder(), PASSWORD);
+            return pfx.getEncoded(ASN1Encoding.DL);
+        } catch (PKCSException | IOException e) {
+            throw new KeyStoreGeneratorException(e);
+        }
+    }
+
+    /**
+     * Decode a keystore encoded with any profile.
+     *
+     * @param keystore the encoded keystore
+     * @return the loaded keystore
+     * @throws IOException              if the keystore cannot be read or is malformed
+     * @throws GeneralSecurityException if the keystore cannot be decrypted or fails its integrity check
+     */
+    public static KeyStore decode(InputStream keystore) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(KEYSTORE_TYPE);
+        store.load(keystore, PASSWORD);
+        return store;
+    }
+
+    private static void addAttributes(PKCS12SafeBagBuilder bagBuilder, String alias, byte[] localKeyId) {
+        bagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName, new DERBMPString(alias));
+        if (localKeyId != null) {
+            bagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_localKeyId, new DEROctetString(localKeyId));
+        }
+    }
+
+    private OutputEncryptor keyEncryptor() {
+        if (profile == Pkcs12Profile.LEGACY) {
+            return new BcPKCS12PBEOutputEncryptorBuilder(
+                    PKCSObjectIdentifiers.pbeWithSHAAnd3_KeyTripleDES_CBC,
+                    CBCBlockCipher.newInstance(new DESedeEngine())).setIterationCount(iterationCount)
+                    .build(PASSWORD);
+        }
+        return aesEncryptor();
+    }
+
+    private OutputEncryptor certificateEncryptor() {
+        if (profile == Pkcs12Profile.LEGACY) {
+            return new BcPKCS12PBEOutputEncryptorBuilder(
+                    PKCSObjectIdentifiers.pbeWithSHAAnd40BitRC2_CBC,
+                    CBCBlockCipher.newInstance(new RC2Engine())).setIterationCount(iterationCount)
+                    .build(PASSWORD);
+        }
+        return aesEncryptor();
+    }
+
+    private OutputEncryptor aesEncryptor() {
+        byte[] salt = new byte[SALT_LENGTH];
+        byte[] iv = new byte[AES_BLOCK_LENGTH];
+        RANDOM.nextBytes(salt);
+        RANDOM.nextBytes(iv);
+
+        // The JCE PBKDF2 implementations refuse the empty password, so the key is derived with the lightweight API
+        PKCS5S2ParametersGenerator keyGenerator = new PKCS5S2ParametersGenerator(new SHA256Digest());
+        keyGenerator.init(PBEParametersGenerator.PKCS5PasswordToUTF8Bytes(PASSWORD), salt, iterationCount);
+        KeyParameter key = (KeyParameter) keyGenerator.generateDerivedParameters(AES_KEY_LENGTH * 8);
+
+        AlgorithmIdentifier algorithm = new AlgorithmIdentifier(PKCSObjectIdentifiers.id_PBES2, new PBES2Parameters(
+                new KeyDerivationFunc(PKCSObjectIdentifiers.id_PBKDF2,
+                        new PBKDF2Params(salt, iterationCount, AES_KEY_LENGTH, HMAC_SHA256)),
+                new EncryptionScheme(NISTObjectIdentifiers.id_aes256_CBC, new DEROctetString(iv))));
+
+        return new OutputEncryptor() {
+            @Override
+            public AlgorithmIdentifier getAlgorithmIdentifier() {
+                return algorithm;
+            }
+
+            @Override
+            public OutputStream getOutputStream(OutputStream out) {
+                BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(
+                        CBCBlockCipher.newInstance(AESEngine.newInstance()));
+                cipher.init(true, new ParametersWithIV(key, iv));
+                return new CipherOutputStream(out, cipher);
+            }
+
+            @Override
+            public GenericKey getKey() {
+                return new GenericKey(algorithm, key.getKey());
+            }
+        };
+    }
+
+    private BcPKCS12MacCalculatorBuilder macCalculatorBuilder() {
+        BcPKCS12MacCalculatorBuilder macBuilder = profile == Pkcs12Profile.LEGACY
+                ? new BcPKCS12MacCalculatorBuilder()
+                : new BcPKCS12MacCalculatorBuilder(new SHA256Digest(),
+                new AlgorithmIdentifier(NISTObjectIdentifiers.id_sha256, DERNull.INSTANCE));
+        macBuilder.setIterationCount(iterationCount);
+        return macBuilder;
+    }
+}
@@ -0,0 +1,25 @@
+package net.eightlives.friendlyssl.listener;
+
+import net.eightlives.friendlyssl.event.CertificateRenewalAttempted;
+import net.eightlives.friendlyssl.service.CertificateInventoryService;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * This listener listens for a {@link CertificateRenewalAttempted} event and records the result of the order in the
+ * certificate inventory.
+ */
+@Component
+public class CertificateRenewalAttemptedListener implements ApplicationListener<CertificateRenewalAttempted> {
+
+    private final CertificateInventoryService inventoryService;
+
+    public CertificateRenewalAttemptedListener(CertificateInventoryService inventoryService) {
+        this.inventoryService = inventoryService;
+    }
+
+    @Override
+    public void onApplicationEvent(CertificateRenewalAttempted event) {
+        inventoryService.renewalAttempted(event.getDomain(), event.getStatus());
+    }
+}
@@ -0,0 +1,27 @@
+package net.eightlives.friendlyssl.listener;
+
+import net.eightlives.friendlyssl.event.CertificateStoreChanged;
+import net.eightlives.friendlyssl.service.CertificateInventoryService;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * This listener listens for a {@link CertificateStoreChanged} event and records the stored or removed certificate in
+ * the certificate inventory.
+ */
+@Component
+public class CertificateStoreChangedListener implements ApplicationListener<CertificateStoreChanged> {
+
+    private final CertificateInventoryService inventoryService;
+
+    public CertificateStoreChangedListener(CertificateInventoryService inventoryService) {
+        this.inventoryService = inventoryService;
+    }
+
+    @Override
+    public void onApplicationEvent(CertificateStoreChanged event) {
+        event.getCertificate().ifPresentOrElse(
+                inventoryService::stored,
+                () -> inventoryService.removed(event.getDomain()));
+    }
+}
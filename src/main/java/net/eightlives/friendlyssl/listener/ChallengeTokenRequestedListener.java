@@ -4,6 +4,7 @@ import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.event.ChallengeTokenRequested;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
 import net.eightlives.friendlyssl.exception.UpdateFailedException;
+import net.eightlives.friendlyssl.model.OrderDeadline;
 import net.eightlives.friendlyssl.service.ChallengeTokenStore;
 import net.eightlives.friendlyssl.service.UpdateCheckerService;
 import org.shredzone.acme4j.Authorization;
@@ -14,12 +15,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.*;
 
 /**
- * This listener listens for a {@link ChallengeTokenRequested} event an synchronously checks the challenge token
+ * This listener listens for a {@link ChallengeTokenRequested} event and synchronously checks the challenge token
  * store for the event's token. If the token exists in the store, the future that the token is mapped to in this
  * instance is completed and removed from the map.
  */
@@ -32,7 +32,7 @@ public class ChallengeTokenRequestedListener implements ApplicationListener<Chal
     private final UpdateCheckerService updateCheckerService;
     private final ChallengeTokenStore challengeTokenStore;
 
-    private final Map<String, CompletableFuture<Void>> tokensToListenerFutures = new HashMap<>();
+    private final Map<String, CompletableFuture<Void>> tokensToListenerFutures = new ConcurrentHashMap<>();
 
     public ChallengeTokenRequestedListener(FriendlySSLConfig config,
                                            UpdateCheckerService updateCheckerService,
@@ -44,49 +44,66 @@ public class ChallengeTokenRequestedListener implements ApplicationListener<Chal
 
     @Override
     public void onApplicationEvent(ChallengeTokenRequested event) {
-        synchronized (tokensToListenerFutures) {
-            if (challengeTokenStore.getTokens().containsKey(event.getToken())) {
-                tokensToListenerFutures.remove(event.getToken()).complete(null);
-            }
+        CompletableFuture<Void> listenerFuture = tokensToListenerFutures.remove(event.getToken());
+        if (listenerFuture != null && challengeTokenStore.getTokens().containsKey(event.getToken())) {
+            listenerFuture.complete(null);
         }
     }
 
     /**
-     * Trigger the given challenge and return a {@link CompletableFuture} that completes normally if the ACME challenge
-     * endpoint is accessed within the configured timeout and then the given authorization update completes
-     * successfully within the configured timeout.
+     * Trigger the given challenge and block until the ACME challenge endpoint is accessed within the configured
+     * timeout and then the given authorization update completes successfully within the configured timeout. Both
+     * timeouts are cut short by the given order deadline, and the authorization update is cancelled once it is no
+     * longer awaited. Interrupting the calling thread stops the wait immediately.
      *
      * @param challenge     the ACME challenge to trigger
      * @param authorization the authorization to check for updates (this should contain the challenge)
-     * @return a {@link CompletableFuture} that completes normally if the challenge is verified successfully by the
-     * ACME server, and exceptionally if a timeout or exception occurs during this process
-     * @throws FriendlySSLException if triggering the challenge causes an exception
+     * @param deadline      the deadline of the order the challenge belongs to
+     * @throws FriendlySSLException if triggering the challenge causes an exception, or if a timeout or exception
+     *                              occurs while waiting for the challenge to be verified by the ACME server
+     * @throws InterruptedException if the calling thread is interrupted while waiting
      */
-    public CompletableFuture<Void> getChallengeTokenVerification(Http01Challenge challenge, Authorization authorization) {
+    public void verifyChallenge(Http01Challenge challenge, Authorization authorization, OrderDeadline deadline)
+            throws InterruptedException {
         challengeTokenStore.setToken(challenge.getToken(), challenge.getAuthorization());
 
         CompletableFuture<Void> listenerFuture = new CompletableFuture<>();
         tokensToListenerFutures.put(challenge.getToken(), listenerFuture);
 
         try {
-            challenge.trigger();
-        } catch (AcmeException e) {
-            challengeTokenStore.getTokens().remove(challenge.getToken());
+            try {
+                challenge.trigger();
+            } catch (AcmeException e) {
+                throw new FriendlySSLException(e);
+            }
+
+            try {
+                listenerFuture.get(deadline.stageTimeoutMillis(config.getTokenRequestedTimeoutSeconds()),
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                LOG.error("Timeout while waiting for challenge token to be requested");
+                throw new FriendlySSLException(e);
+            }
+
+            ScheduledFuture<Void> update = updateCheckerService.start(authorization);
+            try {
+                update.get(deadline.stageTimeoutMillis(config.getAuthChallengeTimeoutSeconds()),
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                LOG.error("Timeout while checking for challenge status");
+                throw new FriendlySSLException(e);
+            } finally {
+                update.cancel(true);
+            }
+        } catch (ExecutionException | CancellationException | UpdateFailedException e) {
             throw new FriendlySSLException(e);
+        } finally {
+            release(challenge.getToken());
         }
+    }
 
-        return listenerFuture.orTimeout(config.getTokenRequestedTimeoutSeconds(), TimeUnit.SECONDS)
-                .thenRun(() -> {
-                    try {
-                        updateCheckerService.start(authorization)
-                                .get(config.getAuthChallengeTimeoutSeconds(), TimeUnit.SECONDS);
-                    } catch (TimeoutException e) {
-                        LOG.error("Timeout while checking for challenge status");
-                        throw new FriendlySSLException(e);
-                    } catch (InterruptedException | ExecutionException | CancellationException | UpdateFailedException e) {
-                        throw new FriendlySSLException(e);
-                    }
-                })
-                .whenComplete((_, _) -> challengeTokenStore.getTokens().remove(challenge.getToken()));
+    private void release(String token) {
+        tokensToListenerFutures.remove(token);
+        challengeTokenStore.getTokens().remove(token);
     }
 }
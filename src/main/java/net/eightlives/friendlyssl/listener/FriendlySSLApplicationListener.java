@@ -2,7 +2,12 @@ package net.eightlives.friendlyssl.listener;
 
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.factory.RecursiveTimerTaskFactory;
+import net.eightlives.friendlyssl.model.OrderJournalEntry;
 import net.eightlives.friendlyssl.service.AutoRenewService;
+import net.eightlives.friendlyssl.service.BulkRenewalService;
+import net.eightlives.friendlyssl.service.CertificateCreateRenewService;
+import net.eightlives.friendlyssl.service.OrderJournalService;
+import net.eightlives.friendlyssl.service.PreAuthorizationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -11,11 +16,14 @@ import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
+import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Application startup listener that starts the auto-renew service if it is enabled.
+ * Application startup listener that starts the auto-renew service if it is enabled, along with renewal of the
+ * certificates in the certificate store if on-demand issuance fills it, and pre-authorization if that is enabled too.
+ * A certificate order left unfinished by the last run is resumed, whether auto-renew is enabled or not.
  */
 @Component
 public class FriendlySSLApplicationListener implements ApplicationListener<ApplicationReadyEvent> {
@@ -24,28 +32,61 @@ public class FriendlySSLApplicationListener implements ApplicationListener<Appli
 
     private final FriendlySSLConfig config;
     private final AutoRenewService autoRenewService;
+    private final BulkRenewalService bulkRenewalService;
+    private final PreAuthorizationService preAuthorizationService;
+    private final CertificateCreateRenewService createRenewService;
+    private final OrderJournalService orderJournalService;
     private final RecursiveTimerTaskFactory timerTaskFactory;
     private final ScheduledExecutorService timer;
 
     public FriendlySSLApplicationListener(FriendlySSLConfig config,
                                           AutoRenewService autoRenewService,
+                                          BulkRenewalService bulkRenewalService,
+                                          PreAuthorizationService preAuthorizationService,
+                                          CertificateCreateRenewService createRenewService,
+                                          OrderJournalService orderJournalService,
                                           RecursiveTimerTaskFactory timerTaskFactory,
                                           @Qualifier("ssl-certificate-monitor") ScheduledExecutorService timer) {
         this.config = config;
         this.autoRenewService = autoRenewService;
+        this.bulkRenewalService = bulkRenewalService;
+        this.preAuthorizationService = preAuthorizationService;
+        this.createRenewService = createRenewService;
+        this.orderJournalService = orderJournalService;
         this.timerTaskFactory = timerTaskFactory;
         this.timer = timer;
     }
 
     @Override
     public void onApplicationEvent(ApplicationReadyEvent applicationReadyEvent) {
+        Optional<OrderJournalEntry> inFlightOrder = orderJournalService.getInFlightOrder(config.getDomain());
+        inFlightOrder.ifPresent(order ->
+                LOG.info("Order {} was left {} by the last run and will be resumed", order.orderUrl(), order.state()));
+
         if (config.isAutoRenewEnabled()) {
             LOG.info("Auto-renew SSL enabled, starting timer");
             timer.schedule(timerTaskFactory.create(timer, this::autoRenewTime), 1, TimeUnit.SECONDS);
+            if (config.isOnDemandEnabled()) {
+                LOG.info("On-demand issuance enabled, starting certificate store renewal timer");
+                timer.schedule(timerTaskFactory.create(timer, bulkRenewalService::renewDue), 1, TimeUnit.SECONDS);
+            }
+            if (config.isPreAuthorizationEnabled()) {
+                LOG.info("Pre-authorization enabled, starting timer");
+                timer.schedule(timerTaskFactory.create(timer, preAuthorizationService::preAuthorize), 1, TimeUnit.SECONDS);
+            }
+        } else if (inFlightOrder.isPresent()) {
+            timer.schedule(this::resumeOrder, 1, TimeUnit.SECONDS);
         }
     }
 
     private Instant autoRenewTime() {
+        if (orderJournalService.getInFlightOrder(config.getDomain()).isPresent()) {
+            return createRenewService.renewCertificate().time();
+        }
         return autoRenewService.autoRenew().time();
     }
+
+    private void resumeOrder() {
+        createRenewService.renewCertificate();
+    }
 }
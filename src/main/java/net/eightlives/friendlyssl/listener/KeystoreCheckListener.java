@@ -1,16 +1,17 @@
 package net.eightlives.friendlyssl.listener;
 
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
-import org.bouncycastle.asn1.ASN1Encoding;
-import org.bouncycastle.asn1.DERBMPString;
-import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import net.eightlives.friendlyssl.exception.KeyStoreGeneratorException;
+import net.eightlives.friendlyssl.keystore.AtomicFiles;
+import net.eightlives.friendlyssl.keystore.PemCodec;
+import net.eightlives.friendlyssl.keystore.Pkcs12Codec;
+import net.eightlives.friendlyssl.model.KeystoreFormat;
+import net.eightlives.friendlyssl.model.Pkcs12Profile;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
-import org.bouncycastle.crypto.engines.DESedeEngine;
-import org.bouncycastle.crypto.engines.RC2Engine;
-import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.crypto.util.PrivateKeyFactory;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.ContentSigner;
@@ -18,10 +19,6 @@ import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.bc.BcRSAContentSignerBuilder;
-import org.bouncycastle.pkcs.*;
-import org.bouncycastle.pkcs.bc.BcPKCS12MacCalculatorBuilder;
-import org.bouncycastle.pkcs.bc.BcPKCS12PBEOutputEncryptorBuilder;
-import org.bouncycastle.pkcs.jcajce.JcaPKCS12SafeBagBuilder;
 import org.shredzone.acme4j.util.KeyPairUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,26 +28,34 @@ import org.springframework.boot.SpringApplicationRunListener;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.core.env.ConfigurableEnvironment;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
 import java.math.BigInteger;
-import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.security.cert.CertificateExpiredException;
+import java.security.cert.CertificateNotYetValidException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
 import java.sql.Date;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Application listener that adds security provider(s) and checks for an existing keystore. Because Spring will not
  * start if it has SSL enabled and there is no keystore or a keystore without the given key alias, in these cases
- * a self-signed certificate is generated and will overwrite any existing keystore with the configured name.
+ * a self-signed certificate is generated and will overwrite any existing keystore with the configured name. With the
+ * {@code pem} or {@code both} keystore formats, the PEM certificate chain and private key files are checked and
+ * replaced the same way. If the keystore has no certificate with the given key alias but holds a currently valid
+ * certificate for the domain under another name, that certificate is kept and renamed instead.
  * A keystore with a password or a corrupted/inaccessible will be logged and ignored, likely causing Spring to not start.
  * If the configured keystore and key alias are found, no action is performed and Spring should start.
  */
@@ -58,7 +63,12 @@ public class KeystoreCheckListener implements SpringApplicationRunListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(KeystoreCheckListener.class);
 
-    private static final String KEYSTORE_TYPE = "PKCS12";
+    private static final Pkcs12Profile DEFAULT_KEYSTORE_PROFILE = Pkcs12Profile.AES_256;
+    private static final int DEFAULT_KEYSTORE_ITERATIONS = 10000;
+    private static final KeystoreFormat DEFAULT_KEYSTORE_FORMAT = KeystoreFormat.PKCS12;
+    private static final String DEFAULT_PEM_CERTIFICATE_FILE = "fullchain.pem";
+    private static final String DEFAULT_PEM_PRIVATE_KEY_FILE = "privkey.pem";
+    private static final Integer DNS_NAME = 2;
 
     public KeystoreCheckListener(SpringApplication application, String[] args) {
     }
@@ -77,39 +87,69 @@ public class KeystoreCheckListener implements SpringApplicationRunListener {
         String domain = environment.getProperty("friendly-ssl.domain");
 
         if (keystoreLocation != null && certificateFriendlyName != null && domain != null) {
-            createSelfSignedIfKeystoreInvalid(keystoreLocation, certificateFriendlyName, domain);
+            KeystoreFormat format = environment.getProperty(
+                    "friendly-ssl.keystore-format", KeystoreFormat.class, DEFAULT_KEYSTORE_FORMAT);
+            if (format == null) {
+                format = DEFAULT_KEYSTORE_FORMAT;
+            }
+
+            if (format.includesPkcs12()) {
+                Pkcs12Profile profile = environment.getProperty(
+                        "friendly-ssl.keystore-profile", Pkcs12Profile.class, DEFAULT_KEYSTORE_PROFILE);
+                Integer iterations = environment.getProperty(
+                        "friendly-ssl.keystore-iterations", Integer.class, DEFAULT_KEYSTORE_ITERATIONS);
+                Pkcs12Codec codec = new Pkcs12Codec(
+                        profile == null ? DEFAULT_KEYSTORE_PROFILE : profile,
+                        iterations == null ? DEFAULT_KEYSTORE_ITERATIONS : iterations);
+                createSelfSignedIfKeystoreInvalid(keystoreLocation, certificateFriendlyName, domain, codec);
+            }
+            if (format.includesPem()) {
+                String certificateLocation = environment.getProperty(
+                        "friendly-ssl.pem-certificate-file", DEFAULT_PEM_CERTIFICATE_FILE);
+                String privateKeyLocation = environment.getProperty(
+                        "friendly-ssl.pem-private-key-file", DEFAULT_PEM_PRIVATE_KEY_FILE);
+                createSelfSignedIfPemInvalid(
+                        certificateLocation == null ? DEFAULT_PEM_CERTIFICATE_FILE : certificateLocation,
+                        privateKeyLocation == null ? DEFAULT_PEM_PRIVATE_KEY_FILE : privateKeyLocation,
+                        domain);
+            }
         }
 
         SpringApplicationRunListener.super.environmentPrepared(bootstrapContext, environment);
     }
 
     private void createSelfSignedIfKeystoreInvalid(String keystoreLocation, String certificateFriendlyName,
-                                                   String domain) {
+                                                   String domain, Pkcs12Codec codec) {
         try {
-            KeyStore store = KeyStore.getInstance(KEYSTORE_TYPE);
             Path keystorePath = Path.of(keystoreLocation);
+            KeyStore store = null;
             Certificate certificate = null;
 
-            try {
-                if (keystorePath.getParent() != null) {
-                    Files.createDirectories(keystorePath.getParent());
+            if (Files.exists(keystorePath)) {
+                try (InputStream keystore = Files.newInputStream(keystorePath)) {
+                    store = Pkcs12Codec.decode(keystore);
                 }
-                Files.createFile(keystorePath);
-                LOG.info("Keystore file {} created.", keystoreLocation);
-            } catch (FileAlreadyExistsException e) {
-                store.load(new FileInputStream(keystorePath.toFile()), "".toCharArray());
                 LOG.info("Existing keystore file {} loaded.", keystoreLocation);
                 certificate = store.getCertificate(certificateFriendlyName);
                 LOG.info("Existing keystore file {} contains certificate named {}: {}", keystoreLocation, certificateFriendlyName, certificate != null);
+            } else if (keystorePath.getParent() != null) {
+                Files.createDirectories(keystorePath.getParent());
             }
 
             if (certificate == null) {
-                try (OutputStream file = new FileOutputStream(keystorePath.toFile())) {
-                    file.write(generateSelfSignedCertificateKeystore(certificateFriendlyName, domain));
+                byte[] keystore = store == null
+                        ? null
+                        : renameExistingCertificate(store, certificateFriendlyName, domain, codec);
+                if (keystore == null) {
+                    keystore = generateSelfSignedCertificateKeystore(certificateFriendlyName, domain, codec);
                     LOG.info("Self-signed certificate named {}", certificateFriendlyName);
                 }
+                AtomicFiles.write(keystorePath, keystore);
+                if (store == null) {
+                    LOG.info("Keystore file {} created.", keystoreLocation);
+                }
             }
-        } catch (KeyStoreException | CertificateException | NoSuchAlgorithmException | IOException e) {
+        } catch (GeneralSecurityException | IOException e) {
             if (e.getCause() instanceof UnrecoverableKeyException) {
                 LOG.error("Cannot load keystore file {} - likely due to keystore having a password, which is unsupported.", keystoreLocation);
             } else {
@@ -118,7 +158,100 @@ public class KeystoreCheckListener implements SpringApplicationRunListener {
         }
     }
 
-    private byte[] generateSelfSignedCertificateKeystore(String certificateFriendlyName, String domain) {
+    /**
+     * Returns the keystore re-encoded with the first currently valid certificate for the domain named with the given
+     * name, so that a certificate stored under another name is kept rather than replaced with a self-signed one.
+     *
+     * @return the re-encoded keystore, or {@code null} if the keystore has no such certificate
+     */
+    private byte[] renameExistingCertificate(KeyStore store, String certificateFriendlyName, String domain,
+                                             Pkcs12Codec codec) throws GeneralSecurityException {
+        for (String alias : Collections.list(store.aliases())) {
+            if (store.isKeyEntry(alias) && store.getCertificate(alias) instanceof X509Certificate certificate
+                    && isValid(certificate) && coversDomain(certificate, domain)) {
+                List<X509Certificate> chain = Stream.of(store.getCertificateChain(alias))
+                        .map(X509Certificate.class::cast)
+                        .toList();
+                try {
+                    byte[] keystore = codec.encode(chain, (PrivateKey) store.getKey(alias, new char[0]),
+                            certificateFriendlyName, null);
+                    LOG.info("Existing certificate for {} named {} kept and named {}", domain, alias, certificateFriendlyName);
+                    return keystore;
+                } catch (KeyStoreGeneratorException e) {
+                    LOG.warn("Could not rename existing certificate named {}", alias, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isValid(X509Certificate certificate) {
+        try {
+            certificate.checkValidity();
+            return true;
+        } catch (CertificateExpiredException | CertificateNotYetValidException e) {
+            return false;
+        }
+    }
+
+    private static boolean coversDomain(X509Certificate certificate, String domain) throws CertificateParsingException {
+        Collection<List<?>> subjectAlternativeNames = certificate.getSubjectAlternativeNames();
+        if (subjectAlternativeNames != null) {
+            for (List<?> name : subjectAlternativeNames) {
+                if (DNS_NAME.equals(name.get(0)) && domain.equalsIgnoreCase(String.valueOf(name.get(1)))) {
+                    return true;
+                }
+            }
+        }
+        return Stream.of(certificate.getSubjectX500Principal().getName().split(","))
+                .anyMatch(rdn -> rdn.equalsIgnoreCase("CN=" + domain));
+    }
+
+    private void createSelfSignedIfPemInvalid(String certificateLocation, String privateKeyLocation, String domain) {
+        try {
+            Path certificatePath = Path.of(certificateLocation);
+            Path privateKeyPath = Path.of(privateKeyLocation);
+
+            if (Files.exists(certificatePath) && Files.exists(privateKeyPath)) {
+                try (InputStream certificates = Files.newInputStream(certificatePath)) {
+                    boolean certificateExists = !PemCodec.decodeCertificates(certificates).isEmpty();
+                    LOG.info("Existing PEM certificate file {} contains a certificate: {}", certificateLocation, certificateExists);
+                    if (certificateExists) {
+                        return;
+                    }
+                }
+            }
+
+            for (Path path : List.of(certificatePath, privateKeyPath)) {
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+            }
+            SelfSignedCertificate selfSigned = generateSelfSignedCertificate(domain);
+            AtomicFiles.write(privateKeyPath, PemCodec.encodePrivateKey(selfSigned.keyPair().getPrivate()));
+            AtomicFiles.write(certificatePath, PemCodec.encodeCertificates(List.of(selfSigned.certificate())));
+            LOG.info("Self-signed certificate written to {}", certificateLocation);
+        } catch (KeyStoreGeneratorException e) {
+            LOG.error("Error while generating self-signed certificate", e);
+            throw new FriendlySSLException(e);
+        } catch (CertificateException | IOException e) {
+            LOG.error("Error while validating PEM certificate on startup", e);
+        }
+    }
+
+    private byte[] generateSelfSignedCertificateKeystore(String certificateFriendlyName, String domain,
+                                                         Pkcs12Codec codec) {
+        SelfSignedCertificate selfSigned = generateSelfSignedCertificate(domain);
+        try {
+            return codec.encode(List.of(selfSigned.certificate()), selfSigned.keyPair().getPrivate(),
+                    certificateFriendlyName, null);
+        } catch (KeyStoreGeneratorException e) {
+            LOG.error("Error while generating self-signed certificate", e);
+            throw new FriendlySSLException(e);
+        }
+    }
+
+    private SelfSignedCertificate generateSelfSignedCertificate(String domain) {
         try {
             KeyPair keyPair = KeyPairUtils.createKeyPair(2048);
             X500Name name = new X500Name("CN=" + domain + ",DC=FRIENDLYSSL,DC=EIGHTLIVES,DC=NET");
@@ -127,41 +260,22 @@ public class KeystoreCheckListener implements SpringApplicationRunListener {
             ContentSigner signer = new BcRSAContentSignerBuilder(signatureAlgorithmId, digestAlgorithmId).build(
                     PrivateKeyFactory.createKey(keyPair.getPrivate().getEncoded()));
 
-            org.bouncycastle.asn1.x509.Certificate certificate = new X509v3CertificateBuilder(
+            X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(new X509v3CertificateBuilder(
                     name, new BigInteger(64, new SecureRandom()),
                     Date.from(Instant.now()), Date.from(Instant.now().plus(1, ChronoUnit.DAYS)),
                     name, SubjectPublicKeyInfo.getInstance(keyPair.getPublic().getEncoded())
-            ).build(signer).toASN1Structure();
-            PKCS12SafeBagBuilder certBagBuilder = new PKCS12SafeBagBuilder(certificate);
-            certBagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName, new DERBMPString(certificateFriendlyName));
-            PKCS12SafeBag[] certBags = new PKCS12SafeBag[]{certBagBuilder.build()};
-
-            PKCS12SafeBagBuilder keyBagBuilder = new JcaPKCS12SafeBagBuilder(keyPair.getPrivate(),
-                    new BcPKCS12PBEOutputEncryptorBuilder(
-                            PKCSObjectIdentifiers.pbeWithSHAAnd3_KeyTripleDES_CBC,
-                            CBCBlockCipher.newInstance(new DESedeEngine())).setIterationCount(2048)
-                            .build("".toCharArray()));
-            keyBagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName, new DERBMPString(certificateFriendlyName));
-
-            PKCS12PfxPduBuilder pfxBuilder = new PKCS12PfxPduBuilder();
-            pfxBuilder.addEncryptedData(
-                    new BcPKCS12PBEOutputEncryptorBuilder(
-                            PKCSObjectIdentifiers.pbeWithSHAAnd40BitRC2_CBC,
-                            CBCBlockCipher.newInstance(new RC2Engine())).setIterationCount(2048)
-                            .build("".toCharArray()), certBags);
-            pfxBuilder.addData(keyBagBuilder.build());
-
-            BcPKCS12MacCalculatorBuilder macBuilder = new BcPKCS12MacCalculatorBuilder();
-            macBuilder.setIterationCount(2048);
-
-            PKCS12PfxPdu pfx = pfxBuilder.build(macBuilder, "".toCharArray());
-            return pfx.getEncoded(ASN1Encoding.DL);
-        } catch (IOException | PKCSException | OperatorCreationException e) {
+            ).build(signer));
+
+            return new SelfSignedCertificate(keyPair, certificate);
+        } catch (IOException | CertificateException | OperatorCreationException e) {
             LOG.error("Error while generating self-signed certificate", e);
             throw new FriendlySSLException(e);
         }
     }
 
+    private record SelfSignedCertificate(KeyPair keyPair, X509Certificate certificate) {
+    }
+
     @Override
     public void contextPrepared(ConfigurableApplicationContext context) {
     }
@@ -0,0 +1,10 @@
+package net.eightlives.friendlyssl.model;
+
+/**
+ * An ACME CA that certificates may be ordered from.
+ *
+ * @param sessionUrl            ACME URL of the CA
+ * @param accountPrivateKeyFile the location of the key pair of the account with the CA
+ */
+public record AcmeCa(String sessionUrl, String accountPrivateKeyFile) {
+}
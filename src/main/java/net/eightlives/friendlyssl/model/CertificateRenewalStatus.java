@@ -3,5 +3,6 @@ package net.eightlives.friendlyssl.model;
 public enum CertificateRenewalStatus {
     ALREADY_VALID,
     SUCCESS,
+    DEFERRED,
     ERROR;
 }
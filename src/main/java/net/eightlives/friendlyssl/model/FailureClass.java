@@ -0,0 +1,55 @@
+package net.eightlives.friendlyssl.model;
+
+import java.time.Duration;
+
+/**
+ * The kinds of certificate order failure, each retried on its own schedule.
+ */
+public enum FailureClass {
+    /**
+     * The CA could not be reached, or did not answer in time.
+     */
+    TRANSIENT_NETWORK(Duration.ofMinutes(5), true),
+    /**
+     * The CA answered with a server error.
+     */
+    SERVER_ERROR(Duration.ofMinutes(15), true),
+    /**
+     * The CA rejected the request as rate limited without saying when to retry.
+     */
+    RATE_LIMITED(Duration.ofHours(1), false),
+    /**
+     * The CA could not validate control of the domain.
+     */
+    VALIDATION_FAILED(Duration.ofHours(1), false),
+    /**
+     * The account does not exist, is not authorized, or requires action such as agreeing to new terms of service.
+     */
+    ACCOUNT(Duration.ofHours(24), false),
+    /**
+     * Any other failure, retried after {@code friendly-ssl.error-retry-wait-hours}.
+     */
+    UNKNOWN(null, false);
+
+    private final Duration baseDelay;
+    private final boolean caUnavailable;
+
+    FailureClass(Duration baseDelay, boolean caUnavailable) {
+        this.baseDelay = baseDelay;
+        this.caUnavailable = caUnavailable;
+    }
+
+    /**
+     * @return the delay before the first retry, or {@code null} if it is configured
+     */
+    public Duration getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * @return whether this kind of failure means the CA is unavailable, and counts towards opening the circuit breaker
+     */
+    public boolean isCaUnavailable() {
+        return caUnavailable;
+    }
+}
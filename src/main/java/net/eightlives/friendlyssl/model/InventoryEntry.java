@@ -0,0 +1,18 @@
+package net.eightlives.friendlyssl.model;
+
+import java.time.Instant;
+
+/**
+ * A managed certificate in the certificate inventory.
+ *
+ * @param domain            the domain the certificate is for
+ * @param notAfter          the time at which the certificate expires
+ * @param issuer            the distinguished name of the certificate's issuer
+ * @param keyType           the algorithm of the certificate's key, such as {@code RSA} or {@code EC}
+ * @param lastRenewalStatus the status of the last order for the domain, or {@code null} if there was none since startup
+ * @param lastRenewalTime   the time at which the last order for the domain finished, or {@code null} if there was none
+ *                          since startup
+ */
+public record InventoryEntry(String domain, Instant notAfter, String issuer, String keyType,
+                             CertificateRenewalStatus lastRenewalStatus, Instant lastRenewalTime) {
+}
@@ -0,0 +1,14 @@
+package net.eightlives.friendlyssl.model;
+
+import java.util.List;
+
+/**
+ * A page of the certificate inventory, ordered by expiry.
+ *
+ * @param entries the certificates on this page
+ * @param page    the number of this page, starting at 0
+ * @param size    the maximum number of certificates on a page
+ * @param total   the number of certificates on all pages
+ */
+public record InventoryPage(List<InventoryEntry> entries, int page, int size, int total) {
+}
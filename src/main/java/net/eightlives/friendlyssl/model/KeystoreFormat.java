@@ -0,0 +1,28 @@
+package net.eightlives.friendlyssl.model;
+
+/**
+ * The files the certificate and its private key are written to.
+ */
+public enum KeystoreFormat {
+    /**
+     * A PKCS12 keystore at {@code friendly-ssl.keystore-file}.
+     */
+    PKCS12,
+    /**
+     * A PEM certificate chain at {@code friendly-ssl.pem-certificate-file} and a PEM PKCS8 private key at
+     * {@code friendly-ssl.pem-private-key-file}.
+     */
+    PEM,
+    /**
+     * Both the PKCS12 keystore and the PEM files. The certificate is read from the PKCS12 keystore.
+     */
+    BOTH;
+
+    public boolean includesPkcs12() {
+        return this != PEM;
+    }
+
+    public boolean includesPem() {
+        return this != PKCS12;
+    }
+}
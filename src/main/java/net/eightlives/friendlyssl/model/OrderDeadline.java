@@ -0,0 +1,63 @@
+package net.eightlives.friendlyssl.model;
+
+import net.eightlives.friendlyssl.exception.OrderDeadlineExceededException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which an entire certificate order must be finished. Every stage of the order bounds its own wait by
+ * the time remaining until the deadline, so the total time spent on an order cannot exceed the deadline no matter
+ * how many stages it passes through.
+ *
+ * @param expiration the time at which the order is abandoned
+ * @param clock      the {@link Clock} from which to derive time
+ */
+public record OrderDeadline(Instant expiration, Clock clock) {
+
+    /**
+     * Create a deadline that expires after the given budget has elapsed.
+     *
+     * @param budget the time the order may take
+     * @param clock  the {@link Clock} from which to derive time
+     * @return the new deadline
+     */
+    public static OrderDeadline after(Duration budget, Clock clock) {
+        return new OrderDeadline(clock.instant().plus(budget), clock);
+    }
+
+    /**
+     * Return the time remaining until the deadline.
+     *
+     * @return the time remaining, or {@link Duration#ZERO} if the deadline has passed
+     */
+    public Duration remaining() {
+        Duration remaining = Duration.between(clock.instant(), expiration);
+        return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+
+    /**
+     * Return the number of milliseconds a stage may wait, which is the lesser of the stage's own timeout and the time
+     * remaining until the deadline.
+     *
+     * @param stageTimeoutSeconds the timeout configured for the stage
+     * @return milliseconds the stage may wait
+     */
+    public long stageTimeoutMillis(int stageTimeoutSeconds) {
+        return Math.min(TimeUnit.SECONDS.toMillis(stageTimeoutSeconds), remaining().toMillis());
+    }
+
+    /**
+     * Fail if the deadline has passed.
+     *
+     * @param stage the stage about to start, used in the exception message
+     * @throws OrderDeadlineExceededException if the deadline has passed
+     */
+    public void check(String stage) {
+        if (!clock.instant().isBefore(expiration)) {
+            throw new OrderDeadlineExceededException(stage);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.eightlives.friendlyssl.model;
+
+import java.time.Instant;
+
+/**
+ * The journaled state of the latest certificate order for a domain.
+ *
+ * @param domain        the domain the order is for
+ * @param orderUrl      the location of the order at the ACME server
+ * @param state         the last state the order reached
+ * @param domainKeyPair the PEM encoded key pair the certificate is requested for, or {@code null} once the certificate
+ *                      is installed
+ * @param updated       the time at which the order reached {@code state}
+ */
+public record OrderJournalEntry(String domain, String orderUrl, OrderState state, String domainKeyPair,
+                                Instant updated) {
+
+    /**
+     * Return whether the order was left unfinished.
+     *
+     * @return {@code true} if the order's certificate was not installed, {@code false} otherwise
+     */
+    public boolean inFlight() {
+        return state != OrderState.INSTALLED;
+    }
+}
@@ -0,0 +1,38 @@
+package net.eightlives.friendlyssl.model;
+
+/**
+ * The stages a certificate order passes through, in order. An order only ever moves forward, but may skip stages,
+ * e.g. from {@link #CREATED} straight to {@link #FINALIZING} when all of its authorizations are already valid.
+ */
+public enum OrderState {
+    /**
+     * The order was created with the ACME server.
+     */
+    CREATED,
+    /**
+     * The order's challenges are being answered.
+     */
+    AUTHORIZING,
+    /**
+     * The certificate signing request was sent, and the ACME server is issuing the certificate.
+     */
+    FINALIZING,
+    /**
+     * The ACME server issued the certificate.
+     */
+    VALID,
+    /**
+     * The certificate was written to the key store.
+     */
+    INSTALLED;
+
+    /**
+     * Return whether an order in this state may move to the given state.
+     *
+     * @param next the state to move to
+     * @return {@code true} if {@code next} comes after this state, {@code false} otherwise
+     */
+    public boolean canAdvanceTo(OrderState next) {
+        return next.ordinal() > ordinal();
+    }
+}
@@ -0,0 +1,24 @@
+package net.eightlives.friendlyssl.model;
+
+/**
+ * The ways a PKCS12 keystore can be protected. The keystore password is always empty, so the protection only keeps
+ * the keystore readable by tools that expect a particular format; what differs is the cost of writing and loading it.
+ */
+public enum Pkcs12Profile {
+    /**
+     * The private key is encrypted with PBKDF2-HMAC-SHA256 and AES-256-CBC, the certificates likewise, and the
+     * keystore has an HMAC-SHA256 integrity check.
+     */
+    AES_256,
+    /**
+     * The certificates are stored in the clear, while the private key is encrypted and the integrity check computed
+     * as for {@link #AES_256}. This saves a decryption on every load.
+     */
+    CERTS_IN_CLEAR,
+    /**
+     * The private key is encrypted with 3DES and the certificates with 40-bit RC2, both with SHA-1 PKCS12 key
+     * derivation, and the integrity check is HMAC-SHA1. This is the format of earlier versions, for tools that cannot
+     * read anything newer.
+     */
+    LEGACY
+}
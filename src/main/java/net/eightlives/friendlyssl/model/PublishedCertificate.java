@@ -0,0 +1,13 @@
+package net.eightlives.friendlyssl.model;
+
+import org.shredzone.acme4j.Certificate;
+
+/**
+ * An ordered certificate and whether installing it changed the keystore.
+ *
+ * @param certificate the ordered certificate
+ * @param changed     {@code true} if the keystore was written, {@code false} if it already held the same certificate
+ *                    chain and private key, in which case the SSL context is not reloaded
+ */
+public record PublishedCertificate(Certificate certificate, boolean changed) {
+}
@@ -0,0 +1,48 @@
+package net.eightlives.friendlyssl.model;
+
+import java.time.Duration;
+
+/**
+ * The CA rate limits that are budgeted locally. Limits and windows are those of Let's Encrypt, which are among the
+ * strictest of the public ACME CAs.
+ */
+public enum RateLimit {
+    /**
+     * New orders per account.
+     */
+    NEW_ORDERS(300, Duration.ofHours(3)),
+    /**
+     * Certificates issued per registered domain.
+     */
+    CERTIFICATES_PER_DOMAIN(50, Duration.ofDays(7)),
+    /**
+     * Certificates issued for exactly the same set of identifiers.
+     */
+    DUPLICATE_CERTIFICATES(5, Duration.ofDays(7)),
+    /**
+     * Failed authorizations per account and identifier.
+     */
+    FAILED_VALIDATIONS(5, Duration.ofHours(1));
+
+    private final int limit;
+    private final Duration window;
+
+    RateLimit(int limit, Duration window) {
+        this.limit = limit;
+        this.window = window;
+    }
+
+    /**
+     * @return the number of uses allowed within {@link #getWindow()}
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the sliding window within which at most {@link #getLimit()} uses are allowed
+     */
+    public Duration getWindow() {
+        return window;
+    }
+}
@@ -0,0 +1,15 @@
+package net.eightlives.friendlyssl.model;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The recorded uses of a rate limit of one CA for one key, such as an account or a domain.
+ *
+ * @param rateLimit the rate limit that was used
+ * @param ca        the ACME session URL of the CA whose rate limit was used
+ * @param key       what the rate limit was used for
+ * @param uses      the times at which the rate limit was used, oldest first
+ */
+public record RateLimitUsage(RateLimit rateLimit, String ca, String key, List<Instant> uses) {
+}
@@ -0,0 +1,35 @@
+package net.eightlives.friendlyssl.model;
+
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The index entry of a certificate in the certificate store.
+ *
+ * @param domain      the domain the certificate is for
+ * @param file        the location of the certificate's keystore, relative to the certificate store directory
+ * @param notAfter    the time at which the certificate expires
+ * @param fingerprint the SHA-256 fingerprint of the certificate chain and private key, in hex
+ * @param issuer      the distinguished name of the certificate's issuer
+ * @param keyType     the algorithm of the certificate's key, such as {@code RSA} or {@code EC}
+ */
+public record StoredCertificate(String domain, String file, Instant notAfter, String fingerprint, String issuer,
+                                String keyType) {
+
+    /**
+     * Create the index entry of the given certificate chain.
+     *
+     * @param domain       the domain the certificate is for
+     * @param file         the location of the certificate's keystore
+     * @param certificates the certificate chain, starting with the certificate of the private key
+     * @param fingerprint  the SHA-256 fingerprint of the certificate chain and private key, in hex
+     * @return the index entry
+     */
+    public static StoredCertificate of(String domain, String file, List<X509Certificate> certificates,
+                                       String fingerprint) {
+        X509Certificate certificate = certificates.getFirst();
+        return new StoredCertificate(domain, file, certificate.getNotAfter().toInstant(), fingerprint,
+                certificate.getIssuerX500Principal().getName(), certificate.getPublicKey().getAlgorithm());
+    }
+}
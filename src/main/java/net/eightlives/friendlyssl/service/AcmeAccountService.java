@@ -3,6 +3,7 @@ package net.eightlives.friendlyssl.service;
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
 import net.eightlives.friendlyssl.factory.AccountBuilderFactory;
+import net.eightlives.friendlyssl.model.AcmeCa;
 import org.shredzone.acme4j.Login;
 import org.shredzone.acme4j.Session;
 import org.shredzone.acme4j.exception.AcmeException;
@@ -15,10 +16,14 @@ import org.springframework.stereotype.Component;
 
 import java.io.*;
 import java.net.URI;
+import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.security.KeyPair;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class AcmeAccountService {
@@ -26,25 +31,32 @@ public class AcmeAccountService {
     private static final Logger LOG = LoggerFactory.getLogger(AcmeAccountService.class);
 
     private static final URI ACCOUNT_NOT_EXISTS = URI.create("urn:ietf:params:acme:error:accountDoesNotExist");
+    private static final String ACCOUNT_URL_FILE_SUFFIX = ".url";
 
     private final FriendlySSLConfig config;
     private final TermsOfServiceService termsOfServiceService;
     private final AccountBuilderFactory accountBuilderFactory;
+    private final AcmeCaService caService;
+
+    private final Map<Session, Login> logins = new ConcurrentHashMap<>();
+    private final Map<String, KeyPair> accountKeyPairs = new ConcurrentHashMap<>();
 
     public AcmeAccountService(FriendlySSLConfig config,
                               TermsOfServiceService termsOfServiceService,
-                              AccountBuilderFactory accountBuilderFactory) {
+                              AccountBuilderFactory accountBuilderFactory,
+                              AcmeCaService caService) {
         this.config = config;
         this.termsOfServiceService = termsOfServiceService;
         this.accountBuilderFactory = accountBuilderFactory;
+        this.caService = caService;
     }
 
     /**
-     * Creates and returns an {{@link Login account login} for the given session. The configured account private key pair
-     * will be used to first try to create a login for an existing account. If that fails, a new account will be created
-     * using the configured email address. The session's terms of service must be accepted to create a new account. If
-     * terms of service have not been accepted, either due to have never been accepted or having changed, the terms
-     * of service will be stored as unaccepted so that they may be manually accepted.
+     * Returns an {@link Login account login} for the given session. Each CA has its own account, with the key pair in
+     * the account private key file configured for the CA. The login is cached in memory for the session. The first
+     * time, if the account URL has been persisted next to the account private key file, the login is made from that
+     * URL and the account key pair without contacting the ACME server. Otherwise, the account is
+     * looked up or created as described in {@link #refreshAccountLogin(Session)}.
      *
      * @param session the session for which to create the account login
      * @return an existing account's login if it exists, otherwise a new account login
@@ -52,47 +64,156 @@ public class AcmeAccountService {
      *                              while creating the account login
      */
     public Login getOrCreateAccountLogin(Session session) {
+        Login login = logins.get(session);
+        if (login != null) {
+            return login;
+        }
+
+        synchronized (logins) {
+            login = logins.get(session);
+            if (login == null) {
+                AcmeCa ca = caService.getCa(session.getServerUri().toString());
+                KeyPair accountKeyPair = getAccountKeyPair(ca);
+                Optional<URL> accountUrl = readAccountUrl(ca);
+                if (accountUrl.isPresent()) {
+                    LOG.info("Using persisted account URL {}", accountUrl.get());
+                    login = session.login(accountUrl.get(), accountKeyPair);
+                } else {
+                    login = lookUpOrCreateLogin(session, ca, accountKeyPair);
+                }
+                logins.put(session, login);
+            }
+            return login;
+        }
+    }
+
+    /**
+     * Discards any cached login and persisted account URL, then looks up the account again. The configured account
+     * private key pair will be used to first try to create a login for an existing account. If that fails, a new
+     * account will be created using the configured email address. The session's terms of service must be accepted to
+     * create a new account. If terms of service have not been accepted, either due to have never been accepted or
+     * having changed, the terms of service will be stored as unaccepted so that they may be manually accepted. The
+     * account URL of the resulting login is persisted for later use.
+     *
+     * @param session the session for which to create the account login
+     * @return an existing account's login if it exists, otherwise a new account login
+     * @throws FriendlySSLException if the session's terms of service have not been accepted or an exception occurs
+     *                              while creating the account login
+     */
+    public Login refreshAccountLogin(Session session) {
+        synchronized (logins) {
+            logins.remove(session);
+            AcmeCa ca = caService.getCa(session.getServerUri().toString());
+            deleteAccountUrl(ca);
+            Login login = lookUpOrCreateLogin(session, ca, getAccountKeyPair(ca));
+            logins.put(session, login);
+            return login;
+        }
+    }
+
+    private Login lookUpOrCreateLogin(Session session, AcmeCa ca, KeyPair accountKeyPair) {
         URI termsOfServiceLink = termsOfServiceService.getTermsOfServiceLink(session);
 
-        try (Reader keyReader = getKeyReader(config.getAccountPrivateKeyFile())) {
-            KeyPair accountKeyPair = KeyPairUtils.readKeyPair(keyReader);
+        try {
+            Login login;
             try {
-                Login login = accountBuilderFactory.accountBuilder()
+                login = accountBuilderFactory.accountBuilder()
                         .useKeyPair(accountKeyPair)
                         .onlyExisting()
                         .createLogin(session);
                 LOG.info("Using existing account login");
-                return login;
             } catch (AcmeServerException e) {
                 URI exceptionType = e.getProblem().getType();
-                if (exceptionType.equals(ACCOUNT_NOT_EXISTS)) {
-                    if (!termsOfServiceService.termsAccepted(termsOfServiceLink)) {
-                        termsOfServiceService.writeTermsLink(termsOfServiceLink, false);
-                        throw new FriendlySSLException(
-                                "Account does not exist. Terms of service must be accepted in file " + config.getTermsOfServiceFile() + " before account can be created");
-                    }
-
-                    LOG.info("Account does not exist. Creating account.");
-                    return accountBuilderFactory.accountBuilder()
-                            .useKeyPair(accountKeyPair)
-                            .addEmail(config.getAccountEmail())
-                            .agreeToTermsOfService()
-                            .createLogin(session);
+                if (!exceptionType.equals(ACCOUNT_NOT_EXISTS)) {
+                    throw e;
+                }
+                if (!termsOfServiceService.termsAccepted(termsOfServiceLink)) {
+                    termsOfServiceService.writeTermsLink(termsOfServiceLink, false);
+                    throw new FriendlySSLException(
+                            "Account does not exist. Terms of service must be accepted in file " + config.getTermsOfServiceFile() + " before account can be created");
                 }
 
-                throw e;
+                LOG.info("Account does not exist. Creating account.");
+                login = accountBuilderFactory.accountBuilder()
+                        .useKeyPair(accountKeyPair)
+                        .addEmail(config.getAccountEmail())
+                        .agreeToTermsOfService()
+                        .createLogin(session);
             }
+            writeAccountUrl(ca, login.getAccountLocation());
+            return login;
         } catch (AcmeUserActionRequiredException e) {
             LOG.error("Account retrieval failed due to user action required (terms of service probably changed). See " + e.getInstance() +
                     " and if the terms of service did change, accept the terms in file " + config.getTermsOfServiceFile(), e);
             termsOfServiceService.writeTermsLink(termsOfServiceLink, false);
             throw new FriendlySSLException(e);
-        } catch (IOException | AcmeException e) {
+        } catch (AcmeException e) {
             LOG.error("Error while retrieving or creating ACME Login");
             throw new FriendlySSLException(e);
         }
     }
 
+    /**
+     * Returns the account key pair of the given CA, reading it, or creating it if its file does not exist, the first
+     * time. Like the login cache, the cache is filled under a lock, so the file is never read and written at once and
+     * the key pair is never created twice.
+     */
+    private KeyPair getAccountKeyPair(AcmeCa ca) {
+        String accountPrivateKeyFile = ca.accountPrivateKeyFile();
+        KeyPair accountKeyPair = accountKeyPairs.get(accountPrivateKeyFile);
+        if (accountKeyPair != null) {
+            return accountKeyPair;
+        }
+
+        synchronized (accountKeyPairs) {
+            accountKeyPair = accountKeyPairs.get(accountPrivateKeyFile);
+            if (accountKeyPair == null) {
+                try (Reader keyReader = getKeyReader(accountPrivateKeyFile)) {
+                    accountKeyPair = KeyPairUtils.readKeyPair(keyReader);
+                } catch (IOException e) {
+                    LOG.error("Error while reading or creating account key pair");
+                    throw new FriendlySSLException(e);
+                }
+                accountKeyPairs.put(accountPrivateKeyFile, accountKeyPair);
+            }
+            return accountKeyPair;
+        }
+    }
+
+    private Path accountUrlFile(AcmeCa ca) {
+        return Path.of(ca.accountPrivateKeyFile() + ACCOUNT_URL_FILE_SUFFIX);
+    }
+
+    private Optional<URL> readAccountUrl(AcmeCa ca) {
+        try {
+            return Optional.of(URI.create(Files.readString(accountUrlFile(ca)).strip()).toURL());
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.warn("Ignoring unreadable account URL file {}", accountUrlFile(ca), e);
+            return Optional.empty();
+        }
+    }
+
+    private void writeAccountUrl(AcmeCa ca, URL accountUrl) {
+        if (accountUrl == null) {
+            return;
+        }
+        try {
+            Files.writeString(accountUrlFile(ca), accountUrl.toString());
+        } catch (IOException e) {
+            LOG.warn("Could not persist account URL to {}, the account will be looked up again next time", accountUrlFile(ca), e);
+        }
+    }
+
+    private void deleteAccountUrl(AcmeCa ca) {
+        try {
+            Files.deleteIfExists(accountUrlFile(ca));
+        } catch (IOException e) {
+            LOG.warn("Could not delete account URL file {}", accountUrlFile(ca), e);
+        }
+    }
+
     private Reader getKeyReader(String filename) throws IOException {
         try {
             return Files.newBufferedReader(Path.of(filename));
@@ -0,0 +1,228 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.acme.AcmeCaHealthMXBean;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.AcmeCa;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Component
+public final class AcmeCaService implements AcmeCaHealthMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AcmeCaService.class);
+
+    static final int HEALTH_WINDOW = 20;
+    static final double HEALTHY_SCORE = 0.5;
+
+    private final FriendlySSLConfig config;
+    private final PKCS12KeyStoreService keyStoreService;
+    private final Clock clock;
+
+    private final Map<String, Deque<Outcome>> outcomes = new ConcurrentHashMap<>();
+
+    public AcmeCaService(FriendlySSLConfig config,
+                         PKCS12KeyStoreService keyStoreService,
+                         MBeanRegistrationService mBeanRegistrationService,
+                         Clock clock) {
+        this.config = config;
+        this.keyStoreService = keyStoreService;
+        this.clock = clock;
+        mBeanRegistrationService.register("AcmeCa", "health", this, AcmeCaHealthMXBean.class);
+    }
+
+    /**
+     * Returns the configured CAs in order of preference: the CA of {@code friendly-ssl.acme-session-url} first,
+     * followed by those of {@code friendly-ssl.fallback-cas}.
+     *
+     * @return the configured CAs
+     */
+    public List<AcmeCa> getCas() {
+        return Stream.concat(
+                Stream.of(new AcmeCa(config.getAcmeSessionUrl(), config.getAccountPrivateKeyFile())),
+                config.getFallbackCas().stream()
+        ).toList();
+    }
+
+    /**
+     * Returns the configured CA with the given ACME session URL.
+     *
+     * @param sessionUrl the ACME session URL of the CA
+     * @return the CA with {@code sessionUrl}, or the preferred CA if none of them has it
+     */
+    public AcmeCa getCa(String sessionUrl) {
+        List<AcmeCa> cas = getCas();
+        return cas.stream()
+                .filter(ca -> sessionUrl.equals(ca.sessionUrl()))
+                .findFirst()
+                .orElse(cas.getFirst());
+    }
+
+    /**
+     * Select the CA to send the next order to. While the current certificate is further than
+     * {@code friendly-ssl.failover-hours-before} hours from expiring, this is the first healthy CA in order of
+     * preference, and the preferred CA if none is healthy, so the issuer only changes when a CA is failing. Once the
+     * certificate is that close to expiring, or if there is no certificate, this is the healthiest CA so that a
+     * failing CA is abandoned for any that is doing better. A CA is healthy if its {@link #getHealthScore(AcmeCa)
+     * health score} is at least {@value #HEALTHY_SCORE}.
+     *
+     * @return the CA to order from
+     */
+    public AcmeCa selectCa() {
+        List<AcmeCa> cas = getCas();
+        if (cas.size() == 1) {
+            return cas.getFirst();
+        }
+
+        Instant failoverTime = clock.instant().plus(Duration.ofHours(config.getFailoverHoursBefore()));
+        boolean expiryClose = keyStoreService.getCertificate(config.getCertificateKeyAlias())
+                .map(X509Certificate::getNotAfter)
+                .map(notAfter -> !notAfter.toInstant().isAfter(failoverTime))
+                .orElse(true);
+
+        AcmeCa selected;
+        if (expiryClose) {
+            selected = cas.stream()
+                    .max(Comparator.comparingDouble(this::getHealthScore)
+                            .thenComparing(ca -> -cas.indexOf(ca)))
+                    .orElseThrow();
+        } else {
+            selected = cas.stream()
+                    .filter(ca -> getHealthScore(ca) >= HEALTHY_SCORE)
+                    .findFirst()
+                    .orElse(cas.getFirst());
+        }
+        if (!selected.equals(cas.getFirst())) {
+            LOG.warn("Failing over to CA {} with health score {}", selected.sessionUrl(), getHealthScore(selected));
+        }
+        return selected;
+    }
+
+    /**
+     * Record a successful order with the given CA.
+     *
+     * @param ca       the CA the order was sent to
+     * @param duration how long the order took
+     */
+    public void recordSuccess(AcmeCa ca, Duration duration) {
+        record(ca, new Outcome(true, duration, clock.instant()));
+    }
+
+    /**
+     * Record an order with the given CA that failed because of the CA.
+     *
+     * @param ca the CA the order was sent to
+     */
+    public void recordFailure(AcmeCa ca) {
+        record(ca, new Outcome(false, Duration.ZERO, clock.instant()));
+    }
+
+    private void record(AcmeCa ca, Outcome outcome) {
+        Deque<Outcome> caOutcomes = outcomes.computeIfAbsent(ca.sessionUrl(), _ -> new ArrayDeque<>());
+        synchronized (caOutcomes) {
+            caOutcomes.addLast(outcome);
+            if (caOutcomes.size() > HEALTH_WINDOW) {
+                caOutcomes.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Returns the health score of the given CA from its last {@value #HEALTH_WINDOW} orders within the last
+     * {@code friendly-ssl.ca-health-window-hours} hours, so that a CA that was failed over from is tried again once
+     * its failures have aged out. The score is the share of those orders that succeeded, reduced by up to half as the 95th percentile duration of the successful orders
+     * approaches {@code friendly-ssl.order-deadline-seconds}, and halved for every order that failed since the last
+     * success. A CA without recent orders scores 1.
+     *
+     * @param ca the CA to score
+     * @return the health score, from 0 to 1
+     */
+    public double getHealthScore(AcmeCa ca) {
+        List<Outcome> caOutcomes = outcomes(ca.sessionUrl());
+        if (caOutcomes.isEmpty()) {
+            return 1;
+        }
+
+        double deadlineMillis = Duration.ofSeconds(config.getOrderDeadlineSeconds()).toMillis();
+        double latencyFactor = 1 - 0.5 * Math.min(1, p95LatencyMillis(caOutcomes) / deadlineMillis);
+        return successRate(caOutcomes) * latencyFactor * Math.pow(0.5, recentErrors(caOutcomes));
+    }
+
+    @Override
+    public Map<String, Double> getHealthScores() {
+        return perCa(this::getHealthScore);
+    }
+
+    @Override
+    public Map<String, Double> getSuccessRates() {
+        return perCa(ca -> successRate(outcomes(ca.sessionUrl())));
+    }
+
+    @Override
+    public Map<String, Long> getP95LatencyMillis() {
+        return perCa(ca -> p95LatencyMillis(outcomes(ca.sessionUrl())));
+    }
+
+    @Override
+    public Map<String, Integer> getRecentErrors() {
+        return perCa(ca -> recentErrors(outcomes(ca.sessionUrl())));
+    }
+
+    private <T> Map<String, T> perCa(Function<AcmeCa, T> value) {
+        return getCas().stream()
+                .collect(Collectors.toMap(AcmeCa::sessionUrl, value, (first, _) -> first, TreeMap::new));
+    }
+
+    private List<Outcome> outcomes(String sessionUrl) {
+        Deque<Outcome> caOutcomes = outcomes.get(sessionUrl);
+        if (caOutcomes == null) {
+            return List.of();
+        }
+        Instant windowStart = clock.instant().minus(Duration.ofHours(config.getCaHealthWindowHours()));
+        synchronized (caOutcomes) {
+            return caOutcomes.stream()
+                    .filter(outcome -> outcome.at().isAfter(windowStart))
+                    .toList();
+        }
+    }
+
+    private static double successRate(List<Outcome> outcomes) {
+        if (outcomes.isEmpty()) {
+            return 1;
+        }
+        return (double) outcomes.stream().filter(Outcome::success).count() / outcomes.size();
+    }
+
+    private static long p95LatencyMillis(List<Outcome> outcomes) {
+        List<Long> latencies = outcomes.stream()
+                .filter(Outcome::success)
+                .map(outcome -> outcome.duration().toMillis())
+                .sorted()
+                .toList();
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        return latencies.get((int) Math.ceil(0.95 * latencies.size()) - 1);
+    }
+
+    private static int recentErrors(List<Outcome> outcomes) {
+        int errors = 0;
+        for (int i = outcomes.size() - 1; i >= 0 && !outcomes.get(i).success(); i--) {
+            errors++;
+        }
+        return errors;
+    }
+
+    private record Outcome(boolean success, Duration duration, Instant at) {
+    }
+}
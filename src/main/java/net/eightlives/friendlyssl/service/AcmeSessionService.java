@@ -0,0 +1,100 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.acme.NoncePoolMXBean;
+import net.eightlives.friendlyssl.acme.NoncePoolingSession;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.AcmeCa;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeRateLimitedException;
+import org.shredzone.acme4j.exception.AcmeServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class AcmeSessionService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AcmeSessionService.class);
+
+    private static final URI BAD_NONCE = URI.create("urn:ietf:params:acme:error:badNonce");
+
+    private final FriendlySSLConfig config;
+    private final Clock clock;
+    private final MBeanRegistrationService mBeanRegistrationService;
+    private final AcmeTransportService transportService;
+    private final AcmeCaService caService;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public AcmeSessionService(FriendlySSLConfig config,
+                              Clock clock,
+                              MBeanRegistrationService mBeanRegistrationService,
+                              AcmeTransportService transportService,
+                              AcmeCaService caService) {
+        this.config = config;
+        this.clock = clock;
+        this.mBeanRegistrationService = mBeanRegistrationService;
+        this.transportService = transportService;
+        this.caService = caService;
+    }
+
+    /**
+     * Returns the session for the CA selected by {@link AcmeCaService#selectCa()}.
+     *
+     * @return the session for the selected CA
+     * @throws IllegalArgumentException if the ACME session URL of the CA is invalid
+     * @see #getSession(AcmeCa)
+     */
+    public Session getSession() {
+        return getSession(caService.selectCa());
+    }
+
+    /**
+     * Returns the session for the given CA. The session is created on first use and then shared, so its directory
+     * and metadata are only fetched again once they expire, and its pool of nonces is shared by every request made
+     * with it. Its connections go through the transport of {@link AcmeTransportService}.
+     *
+     * @param ca the CA for which to return the session
+     * @return the session for the CA
+     * @throws IllegalArgumentException if the ACME session URL of the CA is invalid
+     */
+    public Session getSession(AcmeCa ca) {
+        return sessions.computeIfAbsent(ca.sessionUrl(), url -> {
+            URI serverUri = URI.create(url);
+            NoncePoolingSession session = new NoncePoolingSession(serverUri, transportService.getProvider(serverUri),
+                    Duration.ofMinutes(config.getDirectoryTtlMinutes()), config.getNoncePoolSize(), clock);
+            mBeanRegistrationService.register("NoncePool", url, session, NoncePoolMXBean.class);
+            return session;
+        });
+    }
+
+    /**
+     * Purges the cached directories of the sessions if the given failure was caused by an ACME server asking to retry
+     * later or rejecting a nonce, since either can mean the directory is out of date.
+     *
+     * @param failure the failure that occurred while using the session
+     */
+    public void refreshAfter(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (invalidatesDirectory(cause)) {
+                LOG.info("Purging cached ACME directories after {}", cause.getClass().getSimpleName());
+                sessions.values().forEach(Session::purgeDirectoryCache);
+                return;
+            }
+        }
+    }
+
+    private static boolean invalidatesDirectory(Throwable cause) {
+        return switch (cause) {
+            case AcmeRateLimitedException rateLimited -> rateLimited.getRetryAfter().isPresent();
+            case AcmeServerException serverException -> BAD_NONCE.equals(serverException.getType());
+            default -> false;
+        };
+    }
+}
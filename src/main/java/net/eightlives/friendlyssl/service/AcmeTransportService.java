@@ -0,0 +1,111 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.acme.AcmeRequestThrottle;
+import net.eightlives.friendlyssl.acme.EndpointLatencyMXBean;
+import net.eightlives.friendlyssl.acme.EndpointLatencyRecorder;
+import net.eightlives.friendlyssl.acme.LatencyRecordingHttpClient;
+import net.eightlives.friendlyssl.acme.SharedClientAcmeProvider;
+import net.eightlives.friendlyssl.acme.ThrottlingHttpClient;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import org.shredzone.acme4j.connector.HttpConnector;
+import org.shredzone.acme4j.connector.NetworkSettings;
+import org.shredzone.acme4j.provider.AcmeProvider;
+import org.shredzone.acme4j.provider.GenericAcmeProvider;
+import org.shredzone.acme4j.provider.pebble.PebbleAcmeProvider;
+import org.shredzone.acme4j.provider.pebble.PebbleHttpConnector;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class AcmeTransportService implements DisposableBean {
+
+    private final FriendlySSLConfig config;
+    private final EndpointLatencyRecorder latencyRecorder = new EndpointLatencyRecorder();
+    private final Map<Class<? extends HttpConnector>, HttpClient> clients = new ConcurrentHashMap<>();
+    private final AcmeRequestThrottle throttle;
+
+    public AcmeTransportService(FriendlySSLConfig config, MBeanRegistrationService mBeanRegistrationService) {
+        this.config = config;
+        this.throttle = config.getAcmeRequestsPerSecond() > 0
+                ? new AcmeRequestThrottle(config.getAcmeRequestsPerSecond())
+                : null;
+        mBeanRegistrationService.register("AcmeTransport", "endpoints", latencyRecorder, EndpointLatencyMXBean.class);
+    }
+
+    /**
+     * Returns the {@link AcmeProvider} to connect to the given ACME server with. This is the provider acme4j would
+     * choose for the server, wrapped so that all its connections share one {@link HttpClient} when shared connections
+     * are enabled. Requests are throttled to {@code friendly-ssl.acme-requests-per-second} per CA, however many orders
+     * are running, whether connections are shared or each has a client of its own.
+     *
+     * @param serverUri the ACME server URI
+     * @return the {@link AcmeProvider} to connect to {@code serverUri} with
+     * @throws IllegalArgumentException if no ACME provider accepts {@code serverUri}, or more than one does
+     */
+    public AcmeProvider getProvider(URI serverUri) {
+        AcmeProvider provider = findProvider(serverUri);
+        if (!config.isAcmeSharedConnections()) {
+            return throttle == null
+                    ? provider
+                    : new SharedClientAcmeProvider(provider, networkSettings -> new ThrottlingHttpClient(
+                            connector(provider, networkSettings).createClientBuilder().build(), throttle));
+        }
+
+        HttpConnector connector = connector(provider, new NetworkSettings());
+        HttpClient httpClient = clients.computeIfAbsent(connector.getClass(), _ -> {
+            HttpClient recordingClient = new LatencyRecordingHttpClient(
+                    connector.createClientBuilder()
+                            .version(config.isAcmeHttp2Enabled() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                            .build(),
+                    latencyRecorder);
+            // Throttled outside of latency recording, so time spent waiting for a turn is not counted as latency
+            return throttle == null ? recordingClient : new ThrottlingHttpClient(recordingClient, throttle);
+        });
+        return new SharedClientAcmeProvider(provider, httpClient);
+    }
+
+    @Override
+    public void destroy() {
+        clients.values().forEach(HttpClient::close);
+        clients.clear();
+    }
+
+    /**
+     * Returns the {@link HttpConnector} acme4j would use to connect with the given provider.
+     */
+    private static HttpConnector connector(AcmeProvider provider, NetworkSettings networkSettings) {
+        return provider instanceof PebbleAcmeProvider
+                ? new PebbleHttpConnector(networkSettings)
+                : new HttpConnector(networkSettings);
+    }
+
+    /**
+     * Finds the {@link AcmeProvider} for the given ACME server the same way acme4j does when a session is created
+     * without one.
+     */
+    private static AcmeProvider findProvider(URI serverUri) {
+        List<AcmeProvider> providers = ServiceLoader.load(AcmeProvider.class).stream()
+                .map(ServiceLoader.Provider::get)
+                .filter(provider -> provider.accepts(serverUri))
+                .toList();
+
+        if (providers.size() > 1) {
+            throw new IllegalArgumentException("More than one ACME provider accepts " + serverUri);
+        }
+        if (providers.isEmpty()) {
+            GenericAcmeProvider generic = new GenericAcmeProvider();
+            if (!generic.accepts(serverUri)) {
+                throw new IllegalArgumentException("No ACME provider found for " + serverUri);
+            }
+            return generic;
+        }
+        return providers.getFirst();
+    }
+}
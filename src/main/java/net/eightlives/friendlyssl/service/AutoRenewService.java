@@ -7,11 +7,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.security.cert.X509Certificate;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 
 @Component
 public class AutoRenewService {
@@ -42,16 +43,35 @@ public class AutoRenewService {
     public CertificateRenewal autoRenew() {
         LOG.info("Auto-renew starting...");
         return keyStoreService.getCertificate(config.getCertificateKeyAlias()).map(certificate -> {
-            Instant renewTime = Instant.ofEpochMilli(certificate.getNotAfter().getTime());
+            Instant expirationTime = Instant.ofEpochMilli(certificate.getNotAfter().getTime());
             LOG.info("Existing certificate expiration time is {}",
-                    DateTimeFormatter.RFC_1123_DATE_TIME.format(renewTime.atZone(ZoneOffset.UTC)));
-            if (clock.instant().plus(config.getAutoRenewalHoursBefore(), ChronoUnit.HOURS).isBefore(renewTime)) {
-                return new CertificateRenewal(
-                        CertificateRenewalStatus.ALREADY_VALID,
-                        renewTime.minus(config.getAutoRenewalHoursBefore(), ChronoUnit.HOURS));
+                    DateTimeFormatter.RFC_1123_DATE_TIME.format(expirationTime.atZone(ZoneOffset.UTC)));
+            Instant renewTime = renewalTime(certificate, config);
+            if (clock.instant().isBefore(renewTime)) {
+                return new CertificateRenewal(CertificateRenewalStatus.ALREADY_VALID, renewTime);
             } else {
                 return createRenewService.renewCertificate();
             }
         }).orElseGet(createRenewService::createCertificate);
     }
+
+    /**
+     * Returns the time at which the given certificate should be renewed. This is {@code
+     * friendly-ssl.auto-renewal-hours-before} hours before it expires, unless that is more than {@code
+     * friendly-ssl.auto-renewal-lifetime-fraction} of the certificate's lifetime, in which case it is when only that
+     * fraction of its lifetime is left. This keeps short-lived certificates, which may be valid for only a few days,
+     * from being renewed as soon as they are issued.
+     *
+     * @param certificate the certificate to renew
+     * @param config      the configuration with the renewal thresholds
+     * @return the time at which {@code certificate} should be renewed
+     */
+    static Instant renewalTime(X509Certificate certificate, FriendlySSLConfig config) {
+        Instant notAfter = certificate.getNotAfter().toInstant();
+        Duration lifetime = Duration.between(certificate.getNotBefore().toInstant(), notAfter);
+        Duration before = Duration.ofHours(config.getAutoRenewalHoursBefore());
+        Duration lifetimeFraction = Duration.ofMillis(
+                (long) (lifetime.toMillis() * config.getAutoRenewalLifetimeFraction()));
+        return notAfter.minus(before.compareTo(lifetimeFraction) < 0 ? before : lifetimeFraction);
+    }
 }
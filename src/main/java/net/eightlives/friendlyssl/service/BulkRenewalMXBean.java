@@ -0,0 +1,37 @@
+package net.eightlives.friendlyssl.service;
+
+/**
+ * JMX view of the progress of the current bulk renewal, or of the last one if none is running.
+ */
+public interface BulkRenewalMXBean {
+
+    /**
+     * @return the number of certificates in the batch
+     */
+    int getBatchSize();
+
+    /**
+     * @return the number of certificates waiting for their order to start
+     */
+    int getQueued();
+
+    /**
+     * @return the number of certificates being ordered
+     */
+    int getRunning();
+
+    /**
+     * @return the number of certificates renewed
+     */
+    int getSucceeded();
+
+    /**
+     * @return the number of certificates whose order failed
+     */
+    int getFailed();
+
+    /**
+     * @return the number of finished orders per minute since the batch started, until it finished
+     */
+    double getCertificatesPerMinute();
+}
@@ -0,0 +1,265 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.InventoryEntry;
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import net.eightlives.friendlyssl.tls.SniKeyManager;
+import org.shredzone.acme4j.util.KeyPairUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Renews the certificates in the {@link CertificateStoreService} as they come due, {@code
+ * friendly-ssl.auto-renewal-hours-before} hours before they expire. All certificates due at the same time are renewed
+ * as one batch, soonest to expire first, by {@code friendly-ssl.bulk-renewal-concurrency} orders running at once.
+ * <p>
+ * Every order of a batch goes to the same CA through the same ACME session and account login, which are set up once
+ * before the batch starts. With {@code friendly-ssl.acme-requests-per-second}, requests to the CA are throttled across
+ * all running orders, so a large batch is held back by the CA's limits rather than by ordering one certificate at a
+ * time. A certificate whose order failed is left until {@code friendly-ssl.error-retry-wait-hours} later.
+ * <p>
+ * The {@link SanCoalescingPlanner} may coalesce due certificates into one order. The certificate it returns, and the
+ * key pair of the first domain of the order, are then stored and served for every domain of the order.
+ */
+@Component
+public final class BulkRenewalService implements BulkRenewalMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkRenewalService.class);
+
+    /**
+     * The longest time between checks for due certificates, so certificates stored since the last check are renewed
+     * in time even if they are short-lived.
+     */
+    private static final Duration MAX_CHECK_INTERVAL = Duration.ofHours(1);
+
+    private final FriendlySSLConfig config;
+    private final CertificateInventoryService inventoryService;
+    private final CertificateStoreService certificateStore;
+    private final CertificateCreateRenewService certificateCreateRenewService;
+    private final AcmeSessionService sessionService;
+    private final AcmeCaService caService;
+    private final AcmeAccountService accountService;
+    private final SniKeyManager keyManager;
+    private final SanCoalescingPlanner planner;
+    private final Clock clock;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile int batchSize;
+    private volatile long batchStartNanos;
+    private volatile long batchEndNanos;
+
+    public BulkRenewalService(FriendlySSLConfig config,
+                              CertificateInventoryService inventoryService,
+                              CertificateStoreService certificateStore,
+                              CertificateCreateRenewService certificateCreateRenewService,
+                              AcmeSessionService sessionService,
+                              AcmeCaService caService,
+                              AcmeAccountService accountService,
+                              SniKeyManager keyManager,
+                              SanCoalescingPlanner planner,
+                              MBeanRegistrationService mBeanRegistrationService,
+                              Clock clock) {
+        this.config = config;
+        this.inventoryService = inventoryService;
+        this.certificateStore = certificateStore;
+        this.certificateCreateRenewService = certificateCreateRenewService;
+        this.sessionService = sessionService;
+        this.caService = caService;
+        this.accountService = accountService;
+        this.keyManager = keyManager;
+        this.planner = planner;
+        this.clock = clock;
+        mBeanRegistrationService.register("Renewal", "bulk", this, BulkRenewalMXBean.class);
+    }
+
+    /**
+     * Renew every stored certificate that is due, and wait for the batch to finish.
+     *
+     * @return the time at which to check for due certificates again
+     */
+    public Instant renewDue() {
+        Instant now = clock.instant();
+        Duration before = Duration.ofHours(config.getAutoRenewalHoursBefore());
+        List<InventoryEntry> due = inventoryService.page(before, 0, Integer.MAX_VALUE).entries().stream()
+                .filter(entry -> !isWaitingForRetry(entry, now))
+                .filter(entry -> certificateStore.get(entry.domain()).isPresent())
+                .toList();
+        renew(due);
+        return nextCheck(clock.instant(), before);
+    }
+
+    /**
+     * Renew the given stored certificates, in the given order.
+     *
+     * @param due the certificates to renew, in order of priority
+     */
+    void renew(List<InventoryEntry> due) {
+        if (due.isEmpty()) {
+            return;
+        }
+
+        try {
+            accountService.getOrCreateAccountLogin(sessionService.getSession(caService.selectCa()));
+        } catch (RuntimeException e) {
+            LOG.error("Could not log in to the CA, renewal of {} certificates is postponed", due.size(), e);
+            return;
+        }
+
+        List<List<String>> orders = planner.plan(due);
+        int workers = Math.min(Math.max(1, config.getBulkRenewalConcurrency()), orders.size());
+        LOG.info("Renewing {} certificates in {} orders, {} at a time", due.size(), orders.size(), workers);
+        startBatch(due.size());
+
+        Queue<List<String>> queue = new ConcurrentLinkedQueue<>(orders);
+        try (ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("friendly-ssl-bulk-renewal-", 0).factory())) {
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> {
+                    for (List<String> domains = queue.poll(); domains != null; domains = queue.poll()) {
+                        renewOrder(domains);
+                    }
+                });
+            }
+        }
+
+        batchEndNanos = System.nanoTime();
+        LOG.info("Renewed {} of {} certificates in {} seconds ({} per minute), {} failed", succeeded.get(),
+                due.size(), TimeUnit.NANOSECONDS.toSeconds(batchEndNanos - batchStartNanos),
+                String.format("%.1f", getCertificatesPerMinute()), failed.get());
+    }
+
+    /**
+     * Order one certificate for the given domains, and store and serve it for each of them.
+     */
+    private void renewOrder(List<String> domains) {
+        queued.addAndGet(-domains.size());
+        running.addAndGet(domains.size());
+        try {
+            String first = domains.getFirst();
+            KeyPair keyPair = certificateStore.load(first)
+                    .map(entry -> new KeyPair(entry.getCertificate().getPublicKey(), entry.getPrivateKey()))
+                    .orElseGet(() -> KeyPairUtils.createKeyPair(2048));
+            BiConsumer<List<X509Certificate>, PrivateKey> installer =
+                    (chain, privateKey) -> install(domains, chain, privateKey);
+            if (domains.size() == 1) {
+                certificateCreateRenewService.orderHostCertificate(first, keyPair, installer);
+            } else {
+                certificateCreateRenewService.orderSanCertificate(domains, keyPair, installer);
+            }
+            succeeded.addAndGet(domains.size());
+            LOG.info("Certificate for {} renewed", String.join(", ", domains));
+        } catch (FriendlySSLException e) {
+            failed.addAndGet(domains.size());
+            LOG.error("Exception while renewing certificate for {}", String.join(", ", domains), e);
+        } finally {
+            running.addAndGet(-domains.size());
+        }
+    }
+
+    /**
+     * Store the certificate for each of the given domains, and serve it for all of them with one change to the key
+     * manager. The names of the certificate are read once and shared by the entries of every domain.
+     */
+    private void install(List<String> domains, List<X509Certificate> chain, PrivateKey privateKey) {
+        SniKeyManager.Entry first = SniKeyManager.Entry.of(domains.getFirst(),
+                chain.toArray(X509Certificate[]::new), privateKey);
+        List<SniKeyManager.Entry> entries = new ArrayList<>(domains.size());
+        for (String domain : domains) {
+            certificateStore.put(domain, chain, privateKey);
+            entries.add(new SniKeyManager.Entry(domain, first.chain(), privateKey, first.names()));
+        }
+        keyManager.putAll(entries);
+    }
+
+    /**
+     * Returns the time at which the next stored certificate comes due or a failed order may be retried, but no later
+     * than {@link #MAX_CHECK_INTERVAL} from now.
+     */
+    private Instant nextCheck(Instant now, Duration before) {
+        Instant next = now.plus(MAX_CHECK_INTERVAL);
+        for (StoredCertificate certificate : certificateStore.list()) {
+            Instant renewalTime = inventoryService.get(certificate.domain())
+                    .filter(entry -> isWaitingForRetry(entry, now))
+                    .map(this::retryTime)
+                    .orElse(certificate.notAfter().minus(before));
+            if (renewalTime.isAfter(now) && renewalTime.isBefore(next)) {
+                next = renewalTime;
+            }
+        }
+        return next;
+    }
+
+    private boolean isWaitingForRetry(InventoryEntry entry, Instant now) {
+        return entry.lastRenewalStatus() == CertificateRenewalStatus.ERROR && retryTime(entry).isAfter(now);
+    }
+
+    private Instant retryTime(InventoryEntry entry) {
+        return entry.lastRenewalTime().plus(Duration.ofHours(config.getErrorRetryWaitHours()));
+    }
+
+    private void startBatch(int size) {
+        batchSize = size;
+        queued.set(size);
+        succeeded.set(0);
+        failed.set(0);
+        batchStartNanos = System.nanoTime();
+        batchEndNanos = 0;
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public int getQueued() {
+        return queued.get();
+    }
+
+    @Override
+    public int getRunning() {
+        return running.get();
+    }
+
+    @Override
+    public int getSucceeded() {
+        return succeeded.get();
+    }
+
+    @Override
+    public int getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public double getCertificatesPerMinute() {
+        if (batchSize == 0) {
+            return 0;
+        }
+        long end = batchEndNanos == 0 ? System.nanoTime() : batchEndNanos;
+        double minutes = (end - batchStartNanos) / (double) TimeUnit.MINUTES.toNanos(1);
+        return minutes <= 0 ? 0 : (succeeded.get() + failed.get()) / minutes;
+    }
+}
@@ -5,12 +5,17 @@ import org.shredzone.acme4j.util.CSRBuilder;
 import org.springframework.stereotype.Component;
 
 import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.List;
 
 @Component
 public class CSRService {
 
+    private volatile SignedRequest lastRequest;
+
     /**
-     * Generate a certificate signing request (CSR).
+     * Generate a certificate signing request (CSR). Renewals reuse the domain key pair, so the last CSR is kept and
+     * returned again for the same domain and key pair instead of being signed anew.
      *
      * @param domain        the domain being certified
      * @param domainKeyPair the key pair with which to sign the CSR
@@ -18,14 +23,37 @@ public class CSRService {
      * @throws FriendlySSLException if an exception occurs while signing the CSR
      */
     public byte[] generateCSR(String domain, KeyPair domainKeyPair) {
+        return generateCSR(List.of(domain), domainKeyPair);
+    }
+
+    /**
+     * Generate a certificate signing request (CSR) for one certificate naming all the given domains, the first being
+     * its subject. The last CSR is returned again for the same domains and key pair.
+     *
+     * @param domains       the domains being certified
+     * @param domainKeyPair the key pair with which to sign the CSR
+     * @return the encoded certification request
+     * @throws FriendlySSLException if an exception occurs while signing the CSR
+     */
+    public byte[] generateCSR(List<String> domains, KeyPair domainKeyPair) {
+        SignedRequest last = lastRequest;
+        if (last != null && last.domains().equals(domains) && last.publicKey().equals(domainKeyPair.getPublic())) {
+            return last.encoded().clone();
+        }
+
         CSRBuilder csrBuilder = new CSRBuilder();
-        csrBuilder.addDomain(domain);
+        csrBuilder.addDomains(domains);
 
         try {
             csrBuilder.sign(domainKeyPair);
-            return csrBuilder.getEncoded();
+            byte[] encoded = csrBuilder.getEncoded();
+            lastRequest = new SignedRequest(List.copyOf(domains), domainKeyPair.getPublic(), encoded.clone());
+            return encoded;
         } catch (Exception e) {
             throw new FriendlySSLException(e);
         }
     }
+
+    private record SignedRequest(List<String> domains, PublicKey publicKey, byte[] encoded) {
+    }
 }
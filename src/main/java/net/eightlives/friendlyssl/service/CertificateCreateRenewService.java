@@ -1,12 +1,22 @@
 package net.eightlives.friendlyssl.service;
 
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.event.CertificateRenewalAttempted;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.exception.HandshakeSelfTestException;
+import net.eightlives.friendlyssl.exception.OrderDeadlineExceededException;
+import net.eightlives.friendlyssl.exception.RateLimitDeferredException;
+import net.eightlives.friendlyssl.model.AcmeCa;
 import net.eightlives.friendlyssl.model.CertificateRenewal;
 import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.FailureClass;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import net.eightlives.friendlyssl.model.OrderState;
+import net.eightlives.friendlyssl.model.PublishedCertificate;
 import org.shredzone.acme4j.Certificate;
 import org.shredzone.acme4j.Login;
 import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeRateLimitedException;
 import org.shredzone.acme4j.util.KeyPairUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,17 +24,28 @@ import org.springframework.boot.autoconfigure.ssl.SslProperties;
 import org.springframework.boot.autoconfigure.web.ServerProperties;
 import org.springframework.boot.ssl.SslBundles;
 import org.springframework.boot.web.server.Ssl;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 
 import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 @Component
 public class CertificateCreateRenewService {
@@ -34,63 +55,240 @@ public class CertificateCreateRenewService {
     private final FriendlySSLConfig config;
     private final ServerProperties serverConfig;
     private final SslProperties sslConfig;
+    private final AcmeSessionService sessionService;
+    private final AcmeCaService caService;
     private final AcmeAccountService accountService;
     private final PKCS12KeyStoreService keyStoreService;
+    private final CertificateOrderService certificateOrderService;
     private final CertificateOrderHandlerService certificateOrderHandlerService;
+    private final OrderJournalService orderJournalService;
+    private final HandshakeSelfTestService handshakeSelfTestService;
+    private final RenewalBackoffService backoffService;
+    private final RenewalMetricsService renewalMetrics;
+    private final ApplicationEventPublisher applicationEventPublisher;
     private final Clock clock;
     private final SslBundles sslBundles;
 
+    private final Set<String> watchedBundles = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<CompletableFuture<CertificateRenewal>> inFlight = new AtomicReference<>();
+    private volatile CountDownLatch nextReload = new CountDownLatch(1);
+
     public CertificateCreateRenewService(FriendlySSLConfig config,
                                          ServerProperties serverConfig,
                                          SslProperties sslConfig,
+                                         AcmeSessionService sessionService,
+                                         AcmeCaService caService,
                                          AcmeAccountService accountService,
                                          PKCS12KeyStoreService keyStoreService,
+                                         CertificateOrderService certificateOrderService,
                                          CertificateOrderHandlerService certificateOrderHandlerService,
+                                         OrderJournalService orderJournalService,
+                                         HandshakeSelfTestService handshakeSelfTestService,
+                                         RenewalBackoffService backoffService,
+                                         RenewalMetricsService renewalMetrics,
+                                         ApplicationEventPublisher applicationEventPublisher,
                                          Clock clock,
                                          SslBundles sslBundles) {
         this.config = config;
         this.serverConfig = serverConfig;
         this.sslConfig = sslConfig;
+        this.sessionService = sessionService;
+        this.caService = caService;
         this.accountService = accountService;
         this.keyStoreService = keyStoreService;
+        this.certificateOrderService = certificateOrderService;
         this.certificateOrderHandlerService = certificateOrderHandlerService;
+        this.orderJournalService = orderJournalService;
+        this.handshakeSelfTestService = handshakeSelfTestService;
+        this.backoffService = backoffService;
+        this.renewalMetrics = renewalMetrics;
+        this.applicationEventPublisher = applicationEventPublisher;
         this.clock = clock;
         this.sslBundles = sslBundles;
     }
 
     /**
-     * Create and order a new certificate in the configured key store with the configured key alias.
+     * Create and order a new certificate in the configured key store with the configured key alias. If the certificate
+     * is already being created or renewed, no other order is made: the caller waits for that one and gets its result.
      *
      * @return {@link CertificateRenewal} describing the result of the renewal and time at which the next renewal should
-     * occur
+     * occur, which is the time the rate limit allows it again if the renewal was deferred by a rate limit
      * @throws IllegalArgumentException if ACME session URL is invalid
      */
     public CertificateRenewal createCertificate() {
-        LOG.info("Starting certificate create");
-
-        return orderCertificate(KeyPairUtils.createKeyPair(2048));
+        return singleFlight(this::create);
     }
 
     /**
-     * Renew the existing certificate in the configured key store with the configured key alias.
+     * Renew the existing certificate in the configured key store with the configured key alias. If the certificate is
+     * already being created or renewed, no other order is made: the caller waits for that one and gets its result.
      *
      * @return {@link CertificateRenewal} describing the result of the renewal and time at which the next renewal should
-     * occur
+     * occur, which is the time the rate limit allows it again if the renewal was deferred by a rate limit
      * @throws IllegalArgumentException if ACME session URL is invalid
      */
     public CertificateRenewal renewCertificate() {
+        return singleFlight(this::renew);
+    }
+
+    /**
+     * Order a certificate for the given hostname and install it with the given installer, leaving the configured
+     * keystore and SSL context as they are. The order is subject to the same CA selection, circuit breaker and deadline
+     * as renewals of the configured domain, and counts towards the health of the CA. It does not count towards the
+     * retry delay of the configured domain, since it fails for reasons of its own, such as the hostname not pointing at
+     * this server. A {@link CertificateRenewalAttempted} event is published for the hostname when the order finishes.
+     * <p>
+     * If an unfinished order for the hostname is resumed, the key pair journaled with that order is used instead of the
+     * given one, since its certificate signing request may already have been sent. The order is journaled as
+     * {@link OrderState#INSTALLED} once the installer returns, so it is not resumed again.
+     *
+     * @param hostname  the hostname for which to order the certificate
+     * @param keyPair   the key pair with which to sign the certificate signing request (CSR), unless an order is
+     *                  resumed
+     * @param installer stores or serves the certificate chain with the private key of the key pair it was ordered for
+     * @return the ordered certificate
+     * @throws FriendlySSLException if the circuit breaker of the selected CA is open or the order fails
+     */
+    public Certificate orderHostCertificate(String hostname, KeyPair keyPair,
+                                            BiConsumer<List<X509Certificate>, PrivateKey> installer) {
+        return orderWithSelectedCa(List.of(hostname), keyPair, installer);
+    }
+
+    /**
+     * Order one certificate naming all the given domains, leaving the configured keystore and SSL context as they are.
+     * The order is made and journaled under all its domains as described for
+     * {@link #orderHostCertificate(String, KeyPair, BiConsumer)}, and a {@link CertificateRenewalAttempted} event is
+     * published for every domain when it finishes.
+     *
+     * @param domains   the domains for which to order the certificate, the first being its subject
+     * @param keyPair   the key pair with which to sign the certificate signing request (CSR), unless an order is
+     *                  resumed
+     * @param installer stores or serves the certificate chain for every domain with the private key of the key pair it
+     *                  was ordered for
+     * @return the ordered certificate
+     * @throws FriendlySSLException if the circuit breaker of the selected CA is open or the order fails
+     */
+    public Certificate orderSanCertificate(List<String> domains, KeyPair keyPair,
+                                           BiConsumer<List<X509Certificate>, PrivateKey> installer) {
+        return orderWithSelectedCa(domains, keyPair, installer);
+    }
+
+    private Certificate orderWithSelectedCa(List<String> domains, KeyPair keyPair,
+                                            BiConsumer<List<X509Certificate>, PrivateKey> installer) {
+        OrderDeadline deadline = OrderDeadline.after(Duration.ofSeconds(config.getOrderDeadlineSeconds()), clock);
+        AcmeCa ca = caService.selectCa();
+        Optional<Instant> openUntil = backoffService.getOpenUntil(ca.sessionUrl());
+        if (openUntil.isPresent()) {
+            publishAttempt(domains, CertificateRenewalStatus.ERROR);
+            throw new FriendlySSLException("Circuit breaker is open because CA " + ca.sessionUrl() + " is unavailable");
+        }
+
+        Instant orderStart = clock.instant();
+        try {
+            Session session = sessionService.getSession(ca);
+            deadline.check("account login");
+            Login login = accountService.getOrCreateAccountLogin(session);
+            String journalKey = OrderJournalService.journalKey(domains);
+            KeyPair orderKeyPair = orderJournalService.getDomainKeyPair(journalKey).orElse(keyPair);
+            Certificate certificate = certificateOrderService.orderCertificate(domains, login, orderKeyPair, deadline)
+                    .orElseThrow(() -> new FriendlySSLException("Certificate was not returned"));
+            installer.accept(certificate.getCertificateChain(), orderKeyPair.getPrivate());
+            orderJournalService.advance(journalKey, OrderState.INSTALLED);
+
+            Duration orderDuration = Duration.between(orderStart, clock.instant());
+            caService.recordSuccess(ca, orderDuration);
+            renewalMetrics.recordRenewal(true, orderDuration);
+            publishAttempt(domains, CertificateRenewalStatus.SUCCESS);
+            return certificate;
+        } catch (RuntimeException e) {
+            renewalMetrics.recordRenewal(false, Duration.between(orderStart, clock.instant()));
+            publishAttempt(domains, CertificateRenewalStatus.ERROR);
+            sessionService.refreshAfter(e);
+            FailureClass failureClass = RenewalBackoffService.classify(e);
+            if (failureClass.isCaUnavailable() || failureClass == FailureClass.RATE_LIMITED) {
+                caService.recordFailure(ca);
+            }
+            throw e instanceof FriendlySSLException friendlySSLException
+                    ? friendlySSLException
+                    : new FriendlySSLException(e);
+        }
+    }
+
+    private CertificateRenewal create() {
+        LOG.info("Starting certificate create");
+
+        return orderCertificate(KeyPairUtils.createKeyPair(2048));
+    }
+
+    private CertificateRenewal renew() {
         LOG.info("Starting certificate renew");
 
         KeyPair domainKeyPair = keyStoreService.getKeyPair(config.getCertificateKeyAlias());
 
-        return domainKeyPair == null ? createCertificate() : orderCertificate(domainKeyPair);
+        return domainKeyPair == null ? create() : orderCertificate(domainKeyPair);
+    }
+
+    /**
+     * Run the given renewal of the configured certificate, unless a renewal of it is already running, in which case
+     * wait for that renewal and return its result instead. Renewals of the certificate therefore never overlap, whether
+     * they are started by the timer, at startup or manually, so the keystore is written and the SSL context reloaded
+     * by one order at a time.
+     */
+    private CertificateRenewal singleFlight(Supplier<CertificateRenewal> renewal) {
+        CompletableFuture<CertificateRenewal> own = new CompletableFuture<>();
+        CompletableFuture<CertificateRenewal> running = inFlight.compareAndExchange(null, own);
+        if (running != null) {
+            LOG.info("Certificate is already being renewed, waiting for that renewal");
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            CertificateRenewal result = renewal.get();
+            own.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.set(null);
+        }
     }
 
+    /**
+     * Order the certificate of the configured domain, and publish a {@link CertificateRenewalAttempted} event with the
+     * result.
+     */
     private CertificateRenewal orderCertificate(KeyPair domainKeyPair) {
+        CertificateRenewal renewal = order(domainKeyPair);
+        publishAttempt(config.getDomain(), renewal.status());
+        return renewal;
+    }
+
+    private CertificateRenewal order(KeyPair domainKeyPair) {
+        OrderDeadline deadline = OrderDeadline.after(Duration.ofSeconds(config.getOrderDeadlineSeconds()), clock);
+        AcmeCa ca = caService.selectCa();
+        Optional<Instant> openUntil = backoffService.getOpenUntil(ca.sessionUrl());
+        if (openUntil.isPresent()) {
+            LOG.warn("Circuit breaker is open because CA {} is unavailable, retry at {}", ca.sessionUrl(),
+                    DateTimeFormatter.RFC_1123_DATE_TIME.format(openUntil.get().atZone(ZoneOffset.UTC)));
+            return new CertificateRenewal(CertificateRenewalStatus.ERROR, openUntil.get());
+        }
+
+        Instant orderStart = clock.instant();
         try {
-            Session session = new Session(config.getAcmeSessionUrl());
+            Session session = sessionService.getSession(ca);
+            Instant phaseStart = recordPhase(RenewalMetricsService.Phase.SESSION, orderStart);
+            deadline.check("account login");
             Login login = accountService.getOrCreateAccountLogin(session);
             LOG.info("Certificate account login accessed");
+            phaseStart = recordPhase(RenewalMetricsService.Phase.LOGIN, phaseStart);
 
             Ssl ssl = serverConfig.getSsl();
             if (ssl == null) {
@@ -100,38 +298,137 @@ public class CertificateCreateRenewService {
             if (bundle == null) {
                 throw new FriendlySSLException("SSL bundle name is not configured by server.ssl.bundle");
             }
-            CountDownLatch reloadLatch = new CountDownLatch(1);
-            sslBundles.addBundleUpdateHandler(bundle, _ -> {
-                LOG.info("Finished reloading SSL context");
-                reloadLatch.countDown();
-            });
+            CountDownLatch reloadLatch = watchReload(bundle);
 
             LOG.info("Beginning certificate order.");
-            Certificate certificate = certificateOrderHandlerService.handleCertificateOrder(login, domainKeyPair);
+            PublishedCertificate published = certificateOrderHandlerService.handleCertificateOrder(login, domainKeyPair, deadline);
+            Certificate certificate = published.certificate();
+            phaseStart = recordPhase(RenewalMetricsService.Phase.ORDER, phaseStart);
             Instant certificateExpiration = Instant.ofEpochMilli(certificate.getCertificate().getNotAfter().getTime());
             LOG.info("Certificate renewal successful. New certificate expiration time is {}",
                     DateTimeFormatter.RFC_1123_DATE_TIME.format(certificateExpiration.atZone(ZoneOffset.UTC)));
 
-            LOG.info("Reloading SSL context...");
-            SslProperties.Bundles sslBundle = sslConfig.getBundle();
-            if (sslBundle == null) {
-                throw new FriendlySSLException("Spring SSL Bundle is not configured by spring.ssl.bundle");
-            }
-            Duration quietPeriod = sslBundle.getWatch().getFile().getQuietPeriod();
-            if (!reloadLatch.await(quietPeriod.toSeconds() + 1, TimeUnit.SECONDS)) {
-                throw new FriendlySSLException("SSL certificate was not reloaded within the time set by spring.ssl.bundle.watch.file.quiet-period (" + quietPeriod.toSeconds() + " seconds)");
+            if (published.changed()) {
+                LOG.info("Reloading SSL context...");
+                SslProperties.Bundles sslBundle = sslConfig.getBundle();
+                if (sslBundle == null) {
+                    throw new FriendlySSLException("Spring SSL Bundle is not configured by spring.ssl.bundle");
+                }
+                Duration quietPeriod = sslBundle.getWatch().getFile().getQuietPeriod();
+                long reloadTimeoutMillis = Math.min(
+                        TimeUnit.SECONDS.toMillis(quietPeriod.toSeconds() + 1), deadline.remaining().toMillis());
+                if (!reloadLatch.await(reloadTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new FriendlySSLException("SSL certificate was not reloaded within the time set by spring.ssl.bundle.watch.file.quiet-period (" + quietPeriod.toSeconds() + " seconds) or the order deadline");
+                }
+                recordPhase(RenewalMetricsService.Phase.RELOAD, phaseStart);
+
+                if (config.isHandshakeSelfTestEnabled()) {
+                    selfTest(certificate, deadline);
+                }
+            } else {
+                LOG.info("Keystore is unchanged, SSL context is not reloaded");
+                recordPhase(RenewalMetricsService.Phase.RELOAD, phaseStart);
             }
 
+            Duration orderDuration = Duration.between(orderStart, clock.instant());
+            backoffService.recordSuccess(ca.sessionUrl());
+            caService.recordSuccess(ca, orderDuration);
+            renewalMetrics.recordRenewal(true, orderDuration);
             return new CertificateRenewal(CertificateRenewalStatus.SUCCESS,
-                    certificateExpiration.minus(config.getAutoRenewalHoursBefore(), ChronoUnit.HOURS));
+                    AutoRenewService.renewalTime(certificate.getCertificate(), config));
         } catch (IllegalArgumentException e) {
-            LOG.error("acmeSessionUrl {} is invalid", config.getAcmeSessionUrl(), e);
+            LOG.error("acmeSessionUrl {} is invalid", ca.sessionUrl(), e);
             throw e;
         } catch (Exception e) {
-            LOG.error("Exception while ordering certificate, retry in {} hours", config.getErrorRetryWaitHours(), e);
-            return new CertificateRenewal(
-                    CertificateRenewalStatus.ERROR,
-                    clock.instant().plus(config.getErrorRetryWaitHours(), ChronoUnit.HOURS));
+            renewalMetrics.recordRenewal(false, Duration.between(orderStart, clock.instant()));
+            sessionService.refreshAfter(e);
+            FailureClass failureClass = RenewalBackoffService.classify(e);
+            if (failureClass.isCaUnavailable() || failureClass == FailureClass.RATE_LIMITED) {
+                caService.recordFailure(ca);
+            }
+            Optional<Instant> deferredUntil = deferredUntil(e);
+            if (deferredUntil.isPresent()) {
+                LOG.warn("Certificate order was deferred by a rate limit, retry at {}",
+                        DateTimeFormatter.RFC_1123_DATE_TIME.format(deferredUntil.get().atZone(ZoneOffset.UTC)), e);
+                return new CertificateRenewal(CertificateRenewalStatus.DEFERRED, deferredUntil.get());
+            }
+            Instant retryAt = backoffService.recordFailure(ca.sessionUrl(), failureClass);
+            LOG.error("Exception while ordering certificate ({}), retry at {}", failureClass,
+                    DateTimeFormatter.RFC_1123_DATE_TIME.format(retryAt.atZone(ZoneOffset.UTC)), e);
+            return new CertificateRenewal(CertificateRenewalStatus.ERROR, retryAt);
+        }
+    }
+
+    private void publishAttempt(String domain, CertificateRenewalStatus status) {
+        applicationEventPublisher.publishEvent(new CertificateRenewalAttempted(this, domain, status));
+    }
+
+    private void publishAttempt(List<String> domains, CertificateRenewalStatus status) {
+        for (String domain : domains) {
+            publishAttempt(domain, status);
+        }
+    }
+
+    /**
+     * Check that the server serves the new certificate, and roll back to the previous one if it does not. The rollback
+     * is picked up by the next reload like any other keystore change.
+     *
+     * @throws HandshakeSelfTestException if the self-test fails
+     */
+    private void selfTest(Certificate certificate, OrderDeadline deadline) {
+        try {
+            handshakeSelfTestService.verify(certificate.getCertificateChain(), deadline);
+            LOG.info("Handshake self-test passed");
+        } catch (HandshakeSelfTestException | OrderDeadlineExceededException e) {
+            LOG.error("Handshake self-test failed, rolling back to the previous certificate");
+            certificateOrderHandlerService.rollBack();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a latch released by the next reload of the given SSL bundle. A single update handler is added per bundle,
+     * so each reload is handled once however many renewals have run, and renewals waiting at the same time are all
+     * released by the same reload.
+     */
+    private CountDownLatch watchReload(String bundle) {
+        if (watchedBundles.add(bundle)) {
+            sslBundles.addBundleUpdateHandler(bundle, _ -> bundleReloaded());
+        }
+        return nextReload;
+    }
+
+    private synchronized void bundleReloaded() {
+        LOG.info("Finished reloading SSL context");
+        CountDownLatch reloaded = nextReload;
+        nextReload = new CountDownLatch(1);
+        reloaded.countDown();
+    }
+
+    /**
+     * Record the time spent in the given phase, from the given start until now.
+     *
+     * @return now, which is the start of the next phase
+     */
+    private Instant recordPhase(RenewalMetricsService.Phase phase, Instant phaseStart) {
+        Instant now = clock.instant();
+        renewalMetrics.recordPhase(phase, Duration.between(phaseStart, now));
+        return now;
+    }
+
+    /**
+     * Returns the time until which ordering was deferred, either by the local rate limit budget or by the ACME server
+     * rejecting the order as rate limited.
+     */
+    private static Optional<Instant> deferredUntil(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RateLimitDeferredException deferred) {
+                return Optional.of(deferred.getRetryAfter());
+            }
+            if (cause instanceof AcmeRateLimitedException rateLimited) {
+                return rateLimited.getRetryAfter();
+            }
         }
+        return Optional.empty();
     }
 }
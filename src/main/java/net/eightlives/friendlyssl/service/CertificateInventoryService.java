@@ -0,0 +1,173 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.InventoryEntry;
+import net.eightlives.friendlyssl.model.InventoryPage;
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import org.springframework.stereotype.Component;
+
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * An in-memory inventory of every managed certificate: the certificate of the configured domain and those in the
+ * {@link CertificateStoreService}. It is read from the keystore and the store index the first time it is used, and
+ * kept current from then on by the events published when a certificate is stored, removed or ordered, so neither is
+ * read again to answer a query.
+ * <p>
+ * Certificates are indexed by domain for lookups and by expiry for listing those due within a given time, which only
+ * walks the certificates that are due.
+ */
+@Component
+public class CertificateInventoryService {
+
+    private static final Comparator<InventoryEntry> EXPIRY_ORDER =
+            Comparator.comparing(InventoryEntry::notAfter).thenComparing(InventoryEntry::domain);
+
+    private final FriendlySSLConfig config;
+    private final PKCS12KeyStoreService keyStoreService;
+    private final CertificateStoreService certificateStore;
+    private final Clock clock;
+
+    private final Map<String, InventoryEntry> byDomain = new ConcurrentHashMap<>();
+    private final NavigableSet<InventoryEntry> byExpiry = new ConcurrentSkipListSet<>(EXPIRY_ORDER);
+    private final Map<String, Renewal> lastRenewals = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+
+    private record Renewal(CertificateRenewalStatus status, Instant time) {
+    }
+
+    public CertificateInventoryService(FriendlySSLConfig config,
+                                       PKCS12KeyStoreService keyStoreService,
+                                       CertificateStoreService certificateStore,
+                                       Clock clock) {
+        this.config = config;
+        this.keyStoreService = keyStoreService;
+        this.certificateStore = certificateStore;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the managed certificate of the given domain.
+     *
+     * @param domain the domain of the certificate
+     * @return the certificate, or {@link Optional#empty()} if no certificate is managed for the domain
+     */
+    public Optional<InventoryEntry> get(String domain) {
+        ensureLoaded();
+        return Optional.ofNullable(byDomain.get(domain));
+    }
+
+    /**
+     * Returns a page of the managed certificates, soonest to expire first.
+     *
+     * @param dueWithin if not {@code null}, only certificates expiring within this time from now are listed, including
+     *                  those already expired
+     * @param page      the number of the page, starting at 0
+     * @param size      the maximum number of certificates on a page
+     * @return the page of certificates
+     */
+    public InventoryPage page(Duration dueWithin, int page, int size) {
+        ensureLoaded();
+        NavigableSet<InventoryEntry> due = dueWithin == null
+                ? byExpiry
+                : byExpiry.headSet(new InventoryEntry("", clock.instant().plus(dueWithin), null, null, null, null),
+                false);
+        List<InventoryEntry> entries = due.stream()
+                .skip((long) page * size)
+                .limit(size)
+                .toList();
+        return new InventoryPage(entries, page, size, due.size());
+    }
+
+    /**
+     * Record that a certificate was put in the certificate store.
+     *
+     * @param certificate the index entry of the stored certificate
+     */
+    public synchronized void stored(StoredCertificate certificate) {
+        if (loaded) {
+            put(certificate.domain(), certificate.notAfter(), certificate.issuer(), certificate.keyType());
+        }
+    }
+
+    /**
+     * Record that the certificate of the given domain was removed from the certificate store.
+     *
+     * @param domain the domain of the certificate
+     */
+    public synchronized void removed(String domain) {
+        lastRenewals.remove(domain);
+        if (loaded) {
+            InventoryEntry removed = byDomain.remove(domain);
+            if (removed != null) {
+                byExpiry.remove(removed);
+            }
+        }
+    }
+
+    /**
+     * Record the result of an order for the given domain. For the configured domain, its certificate is read from the
+     * keystore again, since the order may have replaced it or rolled it back.
+     *
+     * @param domain the domain the certificate was ordered for
+     * @param status the result of the order
+     */
+    public synchronized void renewalAttempted(String domain, CertificateRenewalStatus status) {
+        lastRenewals.put(domain, new Renewal(status, clock.instant()));
+        if (!loaded) {
+            return;
+        }
+        if (domain.equals(config.getDomain())) {
+            loadConfiguredCertificate();
+        } else {
+            InventoryEntry entry = byDomain.get(domain);
+            if (entry != null) {
+                put(domain, entry.notAfter(), entry.issuer(), entry.keyType());
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    for (StoredCertificate certificate : certificateStore.list()) {
+                        put(certificate.domain(), certificate.notAfter(), certificate.issuer(), certificate.keyType());
+                    }
+                    loadConfiguredCertificate();
+                    loaded = true;
+                }
+            }
+        }
+    }
+
+    private void loadConfiguredCertificate() {
+        String domain = config.getDomain();
+        List<X509Certificate> chain = keyStoreService.getCertificateChain(config.getCertificateKeyAlias());
+        if (domain == null || chain.isEmpty()) {
+            return;
+        }
+        X509Certificate certificate = chain.getFirst();
+        put(domain, certificate.getNotAfter().toInstant(), certificate.getIssuerX500Principal().getName(),
+                certificate.getPublicKey().getAlgorithm());
+    }
+
+    private void put(String domain, Instant notAfter, String issuer, String keyType) {
+        Renewal renewal = lastRenewals.get(domain);
+        InventoryEntry entry = new InventoryEntry(domain, notAfter, issuer, keyType,
+                renewal == null ? null : renewal.status(), renewal == null ? null : renewal.time());
+        InventoryEntry previous = byDomain.put(domain, entry);
+        if (previous != null) {
+            byExpiry.remove(previous);
+        }
+        byExpiry.add(entry);
+    }
+}
@@ -3,53 +3,207 @@ package net.eightlives.friendlyssl.service;
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
 import net.eightlives.friendlyssl.exception.KeyStoreGeneratorException;
+import net.eightlives.friendlyssl.keystore.AtomicFiles;
+import net.eightlives.friendlyssl.keystore.PemCodec;
+import net.eightlives.friendlyssl.model.KeystoreFormat;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import net.eightlives.friendlyssl.model.OrderState;
+import net.eightlives.friendlyssl.model.PublishedCertificate;
 import org.shredzone.acme4j.Certificate;
 import org.shredzone.acme4j.Login;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 @Component
 public class CertificateOrderHandlerService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CertificateOrderHandlerService.class);
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
     private final FriendlySSLConfig config;
     private final CertificateOrderService certificateOrderService;
     private final PKCS12KeyStoreService keyStoreService;
+    private final OrderJournalService orderJournalService;
+
+    private volatile String publishedFingerprint;
+    private volatile Map<Path, byte[]> previousFiles = Map.of();
+    private volatile String previousFingerprint;
 
     public CertificateOrderHandlerService(FriendlySSLConfig config,
                                           CertificateOrderService certificateOrderService,
-                                          PKCS12KeyStoreService keyStoreService) {
+                                          PKCS12KeyStoreService keyStoreService,
+                                          OrderJournalService orderJournalService) {
         this.config = config;
         this.certificateOrderService = certificateOrderService;
         this.keyStoreService = keyStoreService;
+        this.orderJournalService = orderJournalService;
     }
 
     /**
-     * Order a certificate and write the resulting certificate chain to the configured keystore.
+     * Order a certificate and write the resulting certificate chain to the configured keystore, as a PKCS12 keystore,
+     * PEM files or both depending on {@code friendly-ssl.keystore-format}. If an unfinished order for the domain is
+     * resumed, the key pair journaled with that order is used instead of the given one, since its certificate signing
+     * request may already have been sent. If the keystore already holds the same certificate chain and private key,
+     * for example because a resumed order downloaded the certificate that was installed before a restart, nothing is
+     * written.
      *
      * @param login         the login with which to order the certificate
-     * @param domainKeyPair the domain key pair with which to order the certificate
-     * @return successfully ordered {@link Certificate}
-     * @throws FriendlySSLException if an exception occurs while generating or writing the key store or
-     *                              nothing is returned from the certificate order, indicating a failure
+     * @param domainKeyPair the domain key pair with which to order the certificate, unless an order is resumed
+     * @param deadline      the deadline by which the certificate must be downloaded
+     * @return successfully ordered {@link Certificate} and whether it changed the keystore
+     * @throws FriendlySSLException if an exception occurs while generating or writing the key store,
+     *                              nothing is returned from the certificate order, indicating a failure, or the
+     *                              deadline passes before the certificate is downloaded
      */
-    public Certificate handleCertificateOrder(Login login, KeyPair domainKeyPair) {
-        return certificateOrderService.orderCertificate(config.getDomain(), login, domainKeyPair)
+    public PublishedCertificate handleCertificateOrder(Login login, KeyPair domainKeyPair, OrderDeadline deadline) {
+        String domain = config.getDomain();
+        KeyPair orderKeyPair = orderJournalService.getDomainKeyPair(domain).orElse(domainKeyPair);
+        return certificateOrderService.orderCertificate(domain, login, orderKeyPair, deadline)
                 .map(certificate -> {
-                    try (OutputStream file = Files.newOutputStream(Path.of(config.getKeystoreFile()))) {
-                        byte[] keyStore = keyStoreService.generateKeyStore(
-                                certificate.getCertificateChain(),
-                                domainKeyPair.getPrivate());
-                        file.write(keyStore);
-                    } catch (IOException | KeyStoreGeneratorException e) {
+                    deadline.check("certificate download");
+                    boolean changed;
+                    try {
+                        changed = publish(certificate.getCertificateChain(), orderKeyPair.getPrivate());
+                    } catch (IOException | GeneralSecurityException | KeyStoreGeneratorException e) {
                         throw new FriendlySSLException(e);
                     }
+                    orderJournalService.advance(domain, OrderState.INSTALLED);
 
-                    return certificate;
+                    return new PublishedCertificate(certificate, changed);
                 }).orElseThrow(() -> new FriendlySSLException("Certificate was not returned"));
     }
+
+    /**
+     * Writes the certificate chain and private key unless their fingerprint matches the one last written, and every
+     * file of the configured keystore format exists.
+     *
+     * @return {@code true} if the files were written
+     */
+    private boolean publish(List<X509Certificate> certificates, PrivateKey privateKey)
+            throws IOException, GeneralSecurityException {
+        String fingerprint = fingerprint(certificates, privateKey);
+        String installedFingerprint = installedFingerprint();
+        List<Path> files = keystoreFiles();
+        if (fingerprint.equals(installedFingerprint) && files.stream().allMatch(Files::exists)) {
+            LOG.info("Ordered certificate is already installed, keystore is left unchanged");
+            return false;
+        }
+
+        Map<Path, byte[]> existingFiles = new LinkedHashMap<>();
+        for (Path file : files) {
+            if (Files.exists(file)) {
+                existingFiles.put(file, Files.readAllBytes(file));
+            }
+        }
+        writeCertificate(certificates, privateKey);
+        previousFiles = existingFiles;
+        previousFingerprint = installedFingerprint;
+        publishedFingerprint = fingerprint;
+        return true;
+    }
+
+    /**
+     * Restore the keystore files as they were before the certificate was last written, for when the server fails to
+     * serve the new certificate. Files that did not exist before are left as they are.
+     *
+     * @return {@code true} if the previous files were restored, {@code false} if there is nothing to restore
+     * @throws FriendlySSLException if an exception occurs while writing the previous files
+     */
+    public boolean rollBack() {
+        Map<Path, byte[]> files = previousFiles;
+        if (files.isEmpty()) {
+            LOG.warn("There is no previous certificate to roll back to");
+            return false;
+        }
+
+        try {
+            for (Map.Entry<Path, byte[]> file : files.entrySet()) {
+                AtomicFiles.write(file.getKey(), file.getValue());
+            }
+        } catch (IOException e) {
+            throw new FriendlySSLException(e);
+        }
+        publishedFingerprint = previousFingerprint;
+        previousFiles = Map.of();
+        LOG.info("Rolled back to the previous certificate");
+        return true;
+    }
+
+    /**
+     * Returns the fingerprint of the certificate chain and private key last written, or of those found in the keystore
+     * if nothing has been written since startup.
+     */
+    private String installedFingerprint() throws GeneralSecurityException {
+        if (publishedFingerprint == null) {
+            String alias = config.getCertificateKeyAlias();
+            List<X509Certificate> certificates = keyStoreService.getCertificateChain(alias);
+            if (!certificates.isEmpty()) {
+                KeyPair keyPair = keyStoreService.getKeyPair(alias);
+                if (keyPair != null) {
+                    publishedFingerprint = fingerprint(certificates, keyPair.getPrivate());
+                }
+            }
+        }
+        return publishedFingerprint;
+    }
+
+    /**
+     * Returns the files of the configured keystore format, in the order they are written.
+     */
+    private List<Path> keystoreFiles() {
+        KeystoreFormat format = config.getKeystoreFormat();
+        List<Path> files = new ArrayList<>();
+        if (format.includesPkcs12()) {
+            files.add(Path.of(config.getKeystoreFile()));
+        }
+        if (format.includesPem()) {
+            files.add(Path.of(config.getPemPrivateKeyFile()));
+            files.add(Path.of(config.getPemCertificateFile()));
+        }
+        return files;
+    }
+
+    /**
+     * Returns a SHA-256 digest of the encoded certificates, in order, and private key.
+     */
+    static String fingerprint(List<X509Certificate> certificates, PrivateKey privateKey)
+            throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        for (X509Certificate certificate : certificates) {
+            digest.update(certificate.getEncoded());
+        }
+        digest.update(privateKey.getEncoded());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Writes each file of the configured keystore format atomically. The PEM private key is written before its
+     * certificate chain, so a server that reloads when the chain changes finds the matching key.
+     */
+    private void writeCertificate(List<X509Certificate> certificates, PrivateKey privateKey) throws IOException {
+        KeystoreFormat format = config.getKeystoreFormat();
+        if (format.includesPkcs12()) {
+            AtomicFiles.write(Path.of(config.getKeystoreFile()),
+                    keyStoreService.generateKeyStore(certificates, privateKey));
+        }
+        if (format.includesPem()) {
+            AtomicFiles.write(Path.of(config.getPemPrivateKeyFile()), PemCodec.encodePrivateKey(privateKey));
+            AtomicFiles.write(Path.of(config.getPemCertificateFile()), PemCodec.encodeCertificates(certificates));
+        }
+    }
 }
@@ -2,65 +2,243 @@ package net.eightlives.friendlyssl.service;
 
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.exception.OrderDeadlineExceededException;
+import net.eightlives.friendlyssl.exception.RateLimitDeferredException;
 import net.eightlives.friendlyssl.exception.UpdateFailedException;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import net.eightlives.friendlyssl.model.OrderJournalEntry;
+import net.eightlives.friendlyssl.model.OrderState;
+import net.eightlives.friendlyssl.model.RateLimit;
 import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.Identifier;
 import org.shredzone.acme4j.Login;
 import org.shredzone.acme4j.Order;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.Status;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeServerException;
+import org.shredzone.acme4j.exception.AcmeUnauthorizedException;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.net.URI;
 import java.security.KeyPair;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 @Component
 public class CertificateOrderService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CertificateOrderService.class);
+
+    private static final URI ACCOUNT_NOT_EXISTS = URI.create("urn:ietf:params:acme:error:accountDoesNotExist");
+    private static final String PROFILES = "profiles";
+
     private final FriendlySSLConfig config;
+    private final AcmeAccountService accountService;
     private final ChallengeProcessorService challengeProcessorService;
     private final CSRService csrService;
     private final UpdateCheckerService updateCheckerService;
+    private final OrderJournalService orderJournalService;
+    private final RateLimitService rateLimitService;
 
     public CertificateOrderService(FriendlySSLConfig config,
+                                   AcmeAccountService accountService,
                                    ChallengeProcessorService challengeProcessorService,
                                    CSRService csrService,
-                                   UpdateCheckerService updateCheckerService) {
+                                   UpdateCheckerService updateCheckerService,
+                                   OrderJournalService orderJournalService,
+                                   RateLimitService rateLimitService) {
         this.config = config;
+        this.accountService = accountService;
         this.challengeProcessorService = challengeProcessorService;
         this.csrService = csrService;
         this.updateCheckerService = updateCheckerService;
+        this.orderJournalService = orderJournalService;
+        this.rateLimitService = rateLimitService;
     }
 
     /**
-     * Order a certificate.
+     * Order a certificate. If an earlier order for the domain was left unfinished, that order is resumed from the
+     * state the ACME server reports for it instead of creating a new one. If the ACME server rejects the account login
+     * when creating the order, the account is looked up again and the order creation is retried once. If every
+     * authorization of the order is already valid, for example because the domain was pre-authorized, the order is
+     * finalized right away. Every stage the order reaches is journaled with {@link OrderJournalService}. New orders,
+     * failed validations and issued certificates are recorded with {@link RateLimitService}, and a new order is only
+     * created if it is within the local rate limit budgets. A new order is created with {@code
+     * friendly-ssl.acme-profile} if it is set and the CA offers that profile.
      *
      * @param domain        the domain for which to order the certificate
      * @param login         the account login with which to order the certificate
      * @param domainKeyPair the key pair with which to sign the certificate signing request (CSR)
+     * @param deadline      the deadline by which the order must be valid
      * @return the successfully ordered certificate, or {@link Optional#empty()} if the order was unsuccessful
-     * @throws FriendlySSLException if an exception occurs while ordering the certificate or if the order is not
-     *                              reported as valid within the configured order timeout
+     * @throws FriendlySSLException       if an exception occurs while ordering the certificate or if the order is
+     *                                    not reported as valid within the configured order timeout or the deadline
+     * @throws RateLimitDeferredException if a new order would exceed a local rate limit budget
      */
-    public Optional<Certificate> orderCertificate(String domain, Login login, KeyPair domainKeyPair) {
+    public Optional<Certificate> orderCertificate(String domain, Login login, KeyPair domainKeyPair,
+                                                  OrderDeadline deadline) {
+        return orderCertificate(List.of(domain), login, domainKeyPair, deadline);
+    }
+
+    /**
+     * Order one certificate naming all the given domains, as described for a single domain. The order is journaled
+     * under the domains joined by commas, so only an unfinished order for exactly the same domains is resumed, and
+     * rate limits are checked and recorded for every domain.
+     *
+     * @param domains       the domains for which to order the certificate, the first being its subject
+     * @param login         the account login with which to order the certificate
+     * @param domainKeyPair the key pair with which to sign the certificate signing request (CSR)
+     * @param deadline      the deadline by which the order must be valid
+     * @return the successfully ordered certificate, or {@link Optional#empty()} if the order was unsuccessful
+     * @throws FriendlySSLException       if an exception occurs while ordering the certificate or if the order is
+     *                                    not reported as valid within the configured order timeout or the deadline
+     * @throws RateLimitDeferredException if a new order would exceed a local rate limit budget
+     */
+    public Optional<Certificate> orderCertificate(List<String> domains, Login login, KeyPair domainKeyPair,
+                                                  OrderDeadline deadline) {
+        String journalKey = OrderJournalService.journalKey(domains);
         try {
-            Order order = login.getAccount()
-                    .newOrder()
-                    .domain(domain)
-                    .create();
+            deadline.check("order creation");
+            String ca = login.getSession().getServerUri().toString();
+            Optional<Order> resumed = resumeOrder(journalKey, login);
+            Order order;
+            if (resumed.isPresent()) {
+                order = resumed.get();
+            } else {
+                rateLimitService.checkNewOrder(ca, domains);
+                try {
+                    order = createOrder(domains, login);
+                } catch (AcmeServerException e) {
+                    if (!(e instanceof AcmeUnauthorizedException) && !ACCOUNT_NOT_EXISTS.equals(e.getType())) {
+                        throw e;
+                    }
+                    LOG.info("Account login was rejected, looking up account again");
+                    deadline.check("account login");
+                    order = createOrder(domains, accountService.refreshAccountLogin(login.getSession()));
+                }
+                rateLimitService.record(RateLimit.NEW_ORDERS, ca, domains);
+                orderJournalService.start(journalKey, order.getLocation(), domainKeyPair);
+            }
 
-            challengeProcessorService.process(order.getAuthorizations()).get();
-            byte[] csr = csrService.generateCSR(domain, domainKeyPair);
-            order.execute(csr);
+            Status status = order.getStatus();
+            if (status == Status.READY) {
+                LOG.info("Order is ready, all authorizations are already valid");
+            } else if (status != Status.PROCESSING && status != Status.VALID) {
+                orderJournalService.advance(journalKey, OrderState.AUTHORIZING);
+                try {
+                    challengeProcessorService.process(order.getAuthorizations(), deadline);
+                } catch (ExecutionException e) {
+                    rateLimitService.record(RateLimit.FAILED_VALIDATIONS, ca, domains);
+                    throw e;
+                } catch (TimeoutException e) {
+                    throw new OrderDeadlineExceededException("challenge processing finished");
+                }
+            }
 
-            updateCheckerService.start(order).get(config.getOrderTimeoutSeconds(), TimeUnit.SECONDS);
+            if (status != Status.PROCESSING && status != Status.VALID) {
+                deadline.check("order finalization");
+                byte[] csr = csrService.generateCSR(domains, domainKeyPair);
+                order.execute(csr);
+            }
+            orderJournalService.advance(journalKey, OrderState.FINALIZING);
 
-            return Optional.ofNullable(order.getCertificate());
+            ScheduledFuture<Void> orderUpdate = updateCheckerService.start(order);
+            try {
+                orderUpdate.get(deadline.stageTimeoutMillis(config.getOrderTimeoutSeconds()), TimeUnit.MILLISECONDS);
+            } finally {
+                orderUpdate.cancel(true);
+            }
+
+            Certificate certificate = order.getCertificate();
+            if (certificate != null) {
+                orderJournalService.advance(journalKey, OrderState.VALID);
+                rateLimitService.record(RateLimit.CERTIFICATES_PER_DOMAIN, ca, domains);
+                rateLimitService.record(RateLimit.DUPLICATE_CERTIFICATES, ca, domains);
+            }
+            return Optional.ofNullable(certificate);
         } catch (AcmeException | InterruptedException | ExecutionException | TimeoutException
                 | CancellationException | UpdateFailedException e) {
             throw new FriendlySSLException(e);
         }
     }
+
+    /**
+     * Bind the unfinished order for the given domain, if there is one the ACME server can still complete. An order
+     * that is invalid, or cannot be fetched, is discarded from the journal.
+     */
+    private Optional<Order> resumeOrder(String domain, Login login) {
+        Optional<OrderJournalEntry> entry = orderJournalService.getInFlightOrder(domain);
+        if (entry.isEmpty()) {
+            return Optional.empty();
+        }
+
+        String orderUrl = entry.get().orderUrl();
+        try {
+            Order order = login.bindOrder(URI.create(orderUrl).toURL());
+            order.fetch();
+            if (order.getStatus() == Status.INVALID) {
+                LOG.info("Unfinished order {} is no longer valid, creating a new order", orderUrl);
+                orderJournalService.discard(domain);
+                return Optional.empty();
+            }
+            LOG.info("Resuming order {}, last journaled as {}", orderUrl, entry.get().state());
+            return Optional.of(order);
+        } catch (AcmeException | IOException | IllegalArgumentException e) {
+            LOG.warn("Could not resume order {}, creating a new order", orderUrl, e);
+            orderJournalService.discard(domain);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Create a new order for the given domains. If {@code friendly-ssl.acme-profile} is set and the CA offers that
+     * profile, the order is created with it. acme4j cannot set an order's profile, so such an order is posted to the
+     * CA's newOrder resource directly and bound by its location.
+     */
+    private Order createOrder(List<String> domains, Login login) throws AcmeException {
+        String profile = config.getAcmeProfile();
+        if (profile != null && !profile.isBlank()) {
+            Session session = login.getSession();
+            if (offersProfile(session, profile)) {
+                return createProfileOrder(domains, login, profile);
+            }
+            LOG.warn("CA {} does not offer profile {}, ordering its default certificate",
+                    session.getServerUri(), profile);
+        }
+
+        return login.getAccount()
+                .newOrder()
+                .domains(domains)
+                .create();
+    }
+
+    private Order createProfileOrder(List<String> domains, Login login, String profile) throws AcmeException {
+        Session session = login.getSession();
+        try (Connection connection = session.connect()) {
+            JSONBuilder claims = new JSONBuilder();
+            claims.array("identifiers", domains.stream().map(domain -> Identifier.dns(domain).toMap()).toList());
+            claims.put("profile", profile);
+            connection.sendSignedRequest(session.resourceUrl(Resource.NEW_ORDER), claims, login);
+            LOG.info("Created order with profile {}", profile);
+            return login.bindOrder(connection.getLocation());
+        }
+    }
+
+    private static boolean offersProfile(Session session, String profile) throws AcmeException {
+        return session.getMetadata().getJSON().get(PROFILES).optional()
+                .map(profiles -> profiles.asObject().contains(profile))
+                .orElse(false);
+    }
 }
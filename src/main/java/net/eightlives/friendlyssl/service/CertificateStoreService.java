@@ -0,0 +1,235 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.event.CertificateStoreChanged;
+import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.exception.KeyStoreGeneratorException;
+import net.eightlives.friendlyssl.keystore.AtomicFiles;
+import net.eightlives.friendlyssl.keystore.CertificateIndex;
+import net.eightlives.friendlyssl.keystore.Pkcs12Codec;
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Stores certificates for many domains, each in its own PKCS12 keystore so that storing one certificate never rewrites
+ * the others. Keystores are spread over 256 shard directories of {@code friendly-ssl.certificate-store-directory} by
+ * the hash of their domain, keeping each directory small. A {@link CertificateIndex} in the same directory records the
+ * file, expiry and fingerprint of every certificate, so the store is listed at startup from the index alone, and a
+ * keystore is only decoded when its certificate is loaded.
+ * <p>
+ * A {@link CertificateStoreChanged} event is published after each certificate is stored or removed.
+ */
+@Component
+public class CertificateStoreService implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CertificateStoreService.class);
+
+    private static final String INDEX_FILE = "index.dat";
+    private static final String KEYSTORE_EXTENSION = ".p12";
+    private static final String SHARD_ALGORITHM = "SHA-256";
+
+    private final Path directory;
+    private final PKCS12KeyStoreService keyStoreService;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final Map<String, StoredCertificate> entries = new ConcurrentSkipListMap<>();
+
+    private volatile CertificateIndex index;
+
+    public CertificateStoreService(FriendlySSLConfig config,
+                                   PKCS12KeyStoreService keyStoreService,
+                                   ApplicationEventPublisher applicationEventPublisher) {
+        this.directory = Path.of(config.getCertificateStoreDirectory());
+        this.keyStoreService = keyStoreService;
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
+    /**
+     * Store the certificate of the given domain, replacing any stored earlier.
+     *
+     * @param domain       the domain the certificate is for
+     * @param certificates the certificate chain, starting with the certificate of the private key
+     * @param privateKey   the private key of the certificate
+     * @return the index entry of the stored certificate
+     * @throws FriendlySSLException if the keystore or index cannot be written
+     */
+    public synchronized StoredCertificate put(String domain, List<X509Certificate> certificates, PrivateKey privateKey) {
+        try {
+            String relativeFile = shard(domain) + "/" + domain + KEYSTORE_EXTENSION;
+            Path file = directory.resolve(relativeFile);
+            Files.createDirectories(file.getParent());
+            AtomicFiles.write(file, keyStoreService.generateKeyStore(certificates, privateKey, domain));
+
+            StoredCertificate entry = StoredCertificate.of(domain, relativeFile, certificates,
+                    CertificateOrderHandlerService.fingerprint(certificates, privateKey));
+            index().append(entry);
+            entries.put(domain, entry);
+            applicationEventPublisher.publishEvent(new CertificateStoreChanged(this, domain, entry));
+            return entry;
+        } catch (IOException | GeneralSecurityException | KeyStoreGeneratorException e) {
+            throw new FriendlySSLException(e);
+        }
+    }
+
+    /**
+     * Returns the index entry of the certificate stored for the given domain, without reading its keystore.
+     *
+     * @param domain the domain of the certificate
+     * @return the index entry, or {@link Optional#empty()} if no certificate is stored for the domain
+     */
+    public Optional<StoredCertificate> get(String domain) {
+        ensureOpen();
+        return Optional.ofNullable(entries.get(domain));
+    }
+
+    /**
+     * Returns the index entries of every stored certificate, without reading their keystores.
+     *
+     * @return the index entries, by domain in alphabetical order
+     */
+    public List<StoredCertificate> list() {
+        ensureOpen();
+        return List.copyOf(entries.values());
+    }
+
+    /**
+     * Read the certificate stored for the given domain from its keystore.
+     *
+     * @param domain the domain of the certificate
+     * @return the private key and certificate chain, or {@link Optional#empty()} if no certificate is stored for the
+     * domain or its keystore cannot be read
+     */
+    public Optional<KeyStore.PrivateKeyEntry> load(String domain) {
+        Optional<StoredCertificate> entry = get(domain);
+        if (entry.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Path file = directory.resolve(entry.get().file());
+        try (InputStream keystore = Files.newInputStream(file)) {
+            KeyStore store = Pkcs12Codec.decode(keystore);
+            Certificate[] chain = store.getCertificateChain(domain);
+            if (!(store.getKey(domain, new char[0]) instanceof PrivateKey privateKey) || chain == null) {
+                LOG.warn("Keystore {} has no certificate named {}", file, domain);
+                return Optional.empty();
+            }
+            return Optional.of(new KeyStore.PrivateKeyEntry(privateKey, chain));
+        } catch (NoSuchFileException e) {
+            LOG.warn("Keystore {} of the certificate for {} is missing", file, domain);
+            return Optional.empty();
+        } catch (IOException | GeneralSecurityException e) {
+            LOG.error("Exception while reading keystore {}", file, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Remove the certificate stored for the given domain.
+     *
+     * @param domain the domain of the certificate
+     * @return {@code true} if a certificate was stored for the domain
+     * @throws FriendlySSLException if the keystore cannot be deleted or the index cannot be written
+     */
+    public synchronized boolean remove(String domain) {
+        StoredCertificate entry = get(domain).orElse(null);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            index().appendRemoval(domain);
+            entries.remove(domain);
+            Files.deleteIfExists(directory.resolve(entry.file()));
+            applicationEventPublisher.publishEvent(new CertificateStoreChanged(this, domain, null));
+            return true;
+        } catch (IOException e) {
+            throw new FriendlySSLException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+    }
+
+    private void ensureOpen() {
+        if (index == null) {
+            index();
+        }
+    }
+
+    /**
+     * Returns the index, opening it and reading its entries the first time the store is used.
+     */
+    private synchronized CertificateIndex index() {
+        if (index == null) {
+            try {
+                Files.createDirectories(directory);
+                index = CertificateIndex.open(directory.resolve(INDEX_FILE));
+            } catch (IOException e) {
+                throw new FriendlySSLException(e);
+            }
+            entries.putAll(index.entries());
+            LOG.info("Certificate store {} holds {} certificates", directory, entries.size());
+            entries.values().stream()
+                    .filter(entry -> entry.issuer().isEmpty())
+                    .toList()
+                    .forEach(this::reindex);
+        }
+        return index;
+    }
+
+    /**
+     * Fill in the issuer and key type of an entry read from an index written before they were recorded, from the
+     * certificate in its keystore.
+     */
+    private void reindex(StoredCertificate entry) {
+        load(entry.domain()).ifPresent(keyStoreEntry -> {
+            StoredCertificate reindexed = StoredCertificate.of(entry.domain(), entry.file(),
+                    Arrays.stream(keyStoreEntry.getCertificateChain()).map(X509Certificate.class::cast).toList(),
+                    entry.fingerprint());
+            try {
+                index.append(reindexed);
+                entries.put(entry.domain(), reindexed);
+            } catch (IOException e) {
+                LOG.warn("Could not record the issuer and key type of the certificate for {}", entry.domain(), e);
+            }
+        });
+    }
+
+    /**
+     * Returns the shard directory of the given domain, the first byte of the hash of the domain in hex.
+     */
+    static String shard(String domain) {
+        try {
+            byte[] hash = MessageDigest.getInstance(SHARD_ALGORITHM).digest(domain.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().toHexDigits(hash[0]);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,13 +2,16 @@ package net.eightlives.friendlyssl.service;
 
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
 import net.eightlives.friendlyssl.listener.ChallengeTokenRequestedListener;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import net.eightlives.friendlyssl.task.FailFastTaskScope;
 import org.shredzone.acme4j.Authorization;
 import org.shredzone.acme4j.Status;
 import org.shredzone.acme4j.challenge.Http01Challenge;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
 @Component
 public class ChallengeProcessorService {
@@ -20,32 +23,41 @@ public class ChallengeProcessorService {
     }
 
     /**
-     * Process challenges for the given list of authorizations. Currently only supports HTTP challenges.
+     * Process challenges for the given list of authorizations. Currently only supports HTTP challenges. Each
+     * authorization is processed in its own virtual thread. As soon as any authorization fails or the deadline
+     * passes, processing of every other authorization is cancelled.
      *
      * @param authorizations authorizations that contain challenges to trigger
-     * @return {@link CompletableFuture} that will complete once each authorization's challenge being processed.
-     * It will complete exceptionally if any of the challenges failed.
+     * @param deadline       the deadline of the order the authorizations belong to
      * @throws FriendlySSLException if any of the authorizations does not contain an HTTP challenge
+     * @throws ExecutionException   if processing any of the authorizations failed, with the first failure as its cause
+     * @throws TimeoutException     if the deadline passed before every authorization was processed
+     * @throws InterruptedException if the calling thread is interrupted while waiting
      */
-    public CompletableFuture<Void> process(List<Authorization> authorizations) {
-        CompletableFuture<?>[] challenges = authorizations.stream()
+    public void process(List<Authorization> authorizations, OrderDeadline deadline)
+            throws ExecutionException, TimeoutException, InterruptedException {
+        List<AuthorizationAndChallenge> challenges = authorizations.stream()
                 .filter(auth -> auth.getStatus() != Status.VALID)
                 .map(auth -> {
                     Http01Challenge challenge = auth.findChallenge(Http01Challenge.class)
                             .orElseThrow(() -> new FriendlySSLException("HTTP Challenge does not exist"));
                     return new AuthorizationAndChallenge(auth, challenge);
                 })
-                .map(this::processAuth)
-                .toArray(CompletableFuture[]::new);
+                .toList();
 
-        return CompletableFuture.allOf(challenges);
+        try (FailFastTaskScope scope = new FailFastTaskScope("friendly-ssl-authorization")) {
+            challenges.forEach(authAndChallenge -> scope.fork(() -> processAuth(authAndChallenge, deadline)));
+            scope.join(deadline.remaining());
+        }
     }
 
     private record AuthorizationAndChallenge(Authorization authorization, Http01Challenge challenge) {
     }
 
-    private CompletableFuture<Void> processAuth(AuthorizationAndChallenge authAndChallenge) {
-        return challengeTokenRequestedListener.getChallengeTokenVerification(
-                authAndChallenge.challenge, authAndChallenge.authorization);
+    private Void processAuth(AuthorizationAndChallenge authAndChallenge, OrderDeadline deadline)
+            throws InterruptedException {
+        challengeTokenRequestedListener.verifyChallenge(
+                authAndChallenge.challenge, authAndChallenge.authorization, deadline);
+        return null;
     }
 }
@@ -4,15 +4,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class ChallengeTokenStore {
 
     private static final Logger LOG = LoggerFactory.getLogger(ChallengeTokenStore.class);
 
-    private final Map<String, String> tokensToContent = new HashMap<>();
+    private final Map<String, String> tokensToContent = new ConcurrentHashMap<>();
 
     /**
      * Return map of tokens mapped to their associated content.
@@ -0,0 +1,143 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.HandshakeSelfTestException;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.*;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+@Component
+public class HandshakeSelfTestService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HandshakeSelfTestService.class);
+    private static final String LOCAL_SERVER_PORT_PROPERTY = "local.server.port";
+    private static final int DEFAULT_SERVER_PORT = 8080;
+    private static final X509TrustManager ACCEPT_ANY_CHAIN = new X509TrustManager() {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    };
+
+    private final FriendlySSLConfig config;
+    private final ServerProperties serverConfig;
+    private final Environment environment;
+    private final RenewalMetricsService renewalMetrics;
+    private final Clock clock;
+
+    public HandshakeSelfTestService(FriendlySSLConfig config,
+                                    ServerProperties serverConfig,
+                                    Environment environment,
+                                    RenewalMetricsService renewalMetrics,
+                                    Clock clock) {
+        this.config = config;
+        this.serverConfig = serverConfig;
+        this.environment = environment;
+        this.renewalMetrics = renewalMetrics;
+        this.clock = clock;
+    }
+
+    /**
+     * Handshake with this application's own server over loopback {@code friendly-ssl.handshake-self-test-count} times
+     * and check that it serves the given certificate chain. The first handshake also warms up the reloaded SSL context,
+     * so that clients do not pay for it. Each handshake uses a new client context, so no session is resumed, and its
+     * time is recorded as the {@code handshake} renewal phase.
+     * <p>
+     * The served chain is not checked against a trust store, as the CA may not be trusted by this JVM, but it must be
+     * exactly the given chain, with every certificate signed by the next.
+     *
+     * @param certificateChain the certificate chain the server should serve, starting with the leaf certificate
+     * @param deadline         the deadline by which the self-test must be finished
+     * @throws HandshakeSelfTestException if a handshake fails or the server serves another certificate chain
+     */
+    public void verify(List<X509Certificate> certificateChain, OrderDeadline deadline) {
+        InetSocketAddress address = serverAddress();
+        for (int i = 1; i <= config.getHandshakeSelfTestCount(); i++) {
+            deadline.check("handshake self-test");
+            Instant start = clock.instant();
+            List<X509Certificate> servedChain = handshake(address, (int) deadline.remaining().toMillis());
+            Duration latency = Duration.between(start, clock.instant());
+            renewalMetrics.recordPhase(RenewalMetricsService.Phase.HANDSHAKE, latency);
+            LOG.info("Self-test handshake {} with {} took {} ms", i, address, latency.toMillis());
+
+            checkChain(certificateChain, servedChain);
+        }
+    }
+
+    /**
+     * Returns the address the server listens on, or the loopback address if it listens on every address.
+     */
+    InetSocketAddress serverAddress() {
+        InetAddress serverAddress = serverConfig.getAddress();
+        InetAddress host = serverAddress == null || serverAddress.isAnyLocalAddress()
+                ? InetAddress.getLoopbackAddress()
+                : serverAddress;
+
+        Integer port = environment.getProperty(LOCAL_SERVER_PORT_PROPERTY, Integer.class);
+        if (port == null) {
+            port = serverConfig.getPort() == null ? DEFAULT_SERVER_PORT : serverConfig.getPort();
+        }
+        return new InetSocketAddress(host, port);
+    }
+
+    private List<X509Certificate> handshake(InetSocketAddress address, int timeoutMillis) {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[]{ACCEPT_ANY_CHAIN}, null);
+            try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket()) {
+                SSLParameters parameters = socket.getSSLParameters();
+                parameters.setServerNames(List.of(new SNIHostName(config.getDomain())));
+                socket.setSSLParameters(parameters);
+                socket.connect(address, timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.startHandshake();
+
+                return Stream.of(socket.getSession().getPeerCertificates())
+                        .map(X509Certificate.class::cast)
+                        .toList();
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            throw new HandshakeSelfTestException("handshake with " + address + " failed: " + e.getMessage());
+        }
+    }
+
+    static void checkChain(List<X509Certificate> expectedChain, List<X509Certificate> servedChain) {
+        if (servedChain.isEmpty() || !servedChain.getFirst().equals(expectedChain.getFirst())) {
+            throw new HandshakeSelfTestException("server did not serve the new certificate");
+        }
+        if (!servedChain.equals(expectedChain)) {
+            throw new HandshakeSelfTestException("server served the new certificate with another chain ("
+                    + servedChain.size() + " certificates instead of " + expectedChain.size() + ")");
+        }
+        for (int i = 0; i < servedChain.size() - 1; i++) {
+            try {
+                servedChain.get(i).verify(servedChain.get(i + 1).getPublicKey());
+            } catch (GeneralSecurityException e) {
+                throw new HandshakeSelfTestException("certificate " + i + " of the served chain is not signed by the next");
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package net.eightlives.friendlyssl.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class MBeanRegistrationService implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MBeanRegistrationService.class);
+    private static final String DOMAIN = "net.eightlives.friendlyssl";
+
+    private final MBeanServer mBeanServer;
+    private final Set<ObjectName> registered = ConcurrentHashMap.newKeySet();
+
+    public MBeanRegistrationService(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    /**
+     * Register the given implementation as an MXBean named {@code net.eightlives.friendlyssl:type=<type>,name=<name>},
+     * where {@code name} is quoted if it contains characters that are not allowed in an unquoted value.
+     * An MBean already registered under that name, such as one left behind by an earlier application context in the
+     * same JVM, is replaced. Registration failures are logged and otherwise ignored, since metrics are never worth
+     * failing for.
+     *
+     * @param type            the type key of the MBean name
+     * @param name            the name key of the MBean name
+     * @param implementation  the object to expose
+     * @param mxBeanInterface the MXBean interface that defines which attributes of {@code implementation} to expose
+     * @param <T>             the MXBean interface type
+     */
+    public <T> void register(String type, String name, T implementation, Class<T> mxBeanInterface) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + quoteIfNeeded(name));
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(new StandardMBean(implementation, mxBeanInterface, true), objectName);
+            registered.add(objectName);
+        } catch (JMException e) {
+            LOG.warn("Could not register MBean {} {}", type, name, e);
+        }
+    }
+
+    /**
+     * Unregister every MBean registered by this service.
+     */
+    @Override
+    public void destroy() {
+        registered.forEach(objectName -> {
+            try {
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                LOG.warn("Could not unregister MBean {}", objectName, e);
+            }
+        });
+        registered.clear();
+    }
+
+    private static String quoteIfNeeded(String value) {
+        return value.chars().anyMatch(c -> ",=:\"*?\n".indexOf(c) >= 0) ? ObjectName.quote(value) : value;
+    }
+}
@@ -0,0 +1,17 @@
+package net.eightlives.friendlyssl.service;
+
+/**
+ * Decides whether a certificate may be ordered on demand for a hostname that matches
+ * {@code friendly-ssl.on-demand-allowed-domains}, for example by looking the hostname up in a list of customer domains.
+ * Every bean of this type must allow the hostname for a certificate to be ordered. Decisions are made off the
+ * handshake thread, but before each on-demand order, so they should still be quick.
+ */
+@FunctionalInterface
+public interface OnDemandDecision {
+
+    /**
+     * @param hostname the lower case hostname a client asked for by SNI
+     * @return {@code true} if a certificate may be ordered for the hostname
+     */
+    boolean allow(String hostname);
+}
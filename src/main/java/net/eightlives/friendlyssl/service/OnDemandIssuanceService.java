@@ -0,0 +1,213 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.tls.SniKeyManager;
+import org.shredzone.acme4j.util.KeyPairUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Orders certificates on demand, the first time a client asks for a hostname by SNI that no certificate names. The
+ * handshake is served the default certificate right away, while the certificate is ordered in the background and
+ * served from then on. Only one order runs per hostname at a time, however many handshakes ask for it.
+ * <p>
+ * The check made during the handshake is kept cheap: the hostname must match {@code
+ * friendly-ssl.on-demand-allowed-domains} and must not have been refused or failed within {@code
+ * friendly-ssl.error-retry-wait-hours}. Every {@link OnDemandDecision} bean must then allow it, and at most {@code
+ * friendly-ssl.on-demand-issuances-per-hour} certificates are ordered per hour across all hostnames.
+ * <p>
+ * Each certificate is kept in the {@link CertificateStoreService}. After a restart, a stored certificate is read from
+ * its keystore by the first handshake that asks for its hostname, and served to that handshake.
+ */
+@Component
+public final class OnDemandIssuanceService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OnDemandIssuanceService.class);
+
+    private static final Duration RATE_WINDOW = Duration.ofHours(1);
+    private static final String ANY_DOMAIN = "*";
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private final FriendlySSLConfig config;
+    private final SniKeyManager keyManager;
+    private final CertificateCreateRenewService certificateCreateRenewService;
+    private final CertificateStoreService certificateStore;
+    private final ObjectProvider<OnDemandDecision> decisions;
+    private final ScheduledExecutorService timer;
+    private final Clock clock;
+
+    private final boolean anyDomainAllowed;
+    private final Set<String> allowedDomains = new HashSet<>();
+    private final Set<String> allowedParentDomains = new HashSet<>();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Map<String, Instant> refusedUntil = new ConcurrentHashMap<>();
+    private final Deque<Instant> issuances = new ArrayDeque<>();
+
+    public OnDemandIssuanceService(FriendlySSLConfig config,
+                                   SniKeyManager keyManager,
+                                   CertificateCreateRenewService certificateCreateRenewService,
+                                   CertificateStoreService certificateStore,
+                                   ObjectProvider<OnDemandDecision> decisions,
+                                   @Qualifier("ssl-certificate-monitor") ScheduledExecutorService timer,
+                                   Clock clock) {
+        this.config = config;
+        this.keyManager = keyManager;
+        this.certificateCreateRenewService = certificateCreateRenewService;
+        this.certificateStore = certificateStore;
+        this.decisions = decisions;
+        this.timer = timer;
+        this.clock = clock;
+
+        boolean anyDomain = false;
+        for (String domain : config.getOnDemandAllowedDomains()) {
+            String name = domain.trim().toLowerCase(Locale.ROOT);
+            if (name.equals(ANY_DOMAIN)) {
+                anyDomain = true;
+            } else if (name.startsWith(WILDCARD_PREFIX)) {
+                allowedParentDomains.add(name.substring(WILDCARD_PREFIX.length()));
+            } else {
+                allowedDomains.add(name);
+            }
+        }
+        anyDomainAllowed = anyDomain;
+
+        if (config.isOnDemandEnabled()) {
+            keyManager.onUnknownHostname(this::request);
+        }
+    }
+
+    /**
+     * Serve the stored certificate of the given hostname if it has one that has not expired. Otherwise, start ordering
+     * a certificate for it in the background, unless one is already being ordered or the hostname is not allowed.
+     * Called during the handshake, so nothing slower than reading one keystore is done before the order is handed
+     * off.
+     *
+     * @param hostname the lower case hostname a client asked for by SNI
+     * @return {@code true} if an order was started
+     */
+    public boolean request(String hostname) {
+        if (serveStored(hostname) || !isAllowed(hostname) || !inFlight.add(hostname)) {
+            return false;
+        }
+
+        try {
+            timer.execute(() -> {
+                try {
+                    issue(hostname);
+                } finally {
+                    inFlight.remove(hostname);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(hostname);
+            LOG.error("Could not start on-demand certificate order for {}", hostname, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Serve the stored certificate of the given hostname, if it has one that has not expired.
+     *
+     * @return {@code true} if the certificate is now served
+     */
+    private boolean serveStored(String hostname) {
+        boolean stored = certificateStore.get(hostname)
+                .filter(entry -> entry.notAfter().isAfter(clock.instant()))
+                .isPresent();
+        if (!stored) {
+            return false;
+        }
+
+        return certificateStore.load(hostname)
+                .map(entry -> {
+                    java.security.cert.Certificate[] chain = entry.getCertificateChain();
+                    keyManager.put(SniKeyManager.Entry.of(hostname,
+                            Arrays.copyOf(chain, chain.length, X509Certificate[].class), entry.getPrivateKey()));
+                    return true;
+                })
+                .orElse(false);
+    }
+
+    /**
+     * Returns whether the hostname matches the allowed domains and was not refused recently.
+     */
+    private boolean isAllowed(String hostname) {
+        Instant refused = refusedUntil.get(hostname);
+        if (refused != null) {
+            if (clock.instant().isBefore(refused)) {
+                return false;
+            }
+            refusedUntil.remove(hostname, refused);
+        }
+
+        if (anyDomainAllowed || allowedDomains.contains(hostname)) {
+            return true;
+        }
+        for (int dot = hostname.indexOf('.'); dot >= 0; dot = hostname.indexOf('.', dot + 1)) {
+            if (allowedParentDomains.contains(hostname.substring(dot + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Order a certificate for the hostname if every decision hook allows it and the hourly budget is not spent, then
+     * store and serve it.
+     */
+    void issue(String hostname) {
+        if (!decisions.orderedStream().allMatch(decision -> decision.allow(hostname))) {
+            LOG.info("On-demand certificate for {} was refused", hostname);
+            refuse(hostname);
+            return;
+        }
+        if (!tryAcquireIssuance()) {
+            LOG.warn("On-demand certificate for {} was not ordered, {} certificates were already ordered in the last hour",
+                    hostname, config.getOnDemandIssuancesPerHour());
+            return;
+        }
+
+        LOG.info("Ordering on-demand certificate for {}", hostname);
+        try {
+            certificateCreateRenewService.orderHostCertificate(hostname, KeyPairUtils.createKeyPair(2048),
+                    (chain, privateKey) -> {
+                        certificateStore.put(hostname, chain, privateKey);
+                        keyManager.put(SniKeyManager.Entry.of(hostname, chain.toArray(X509Certificate[]::new), privateKey));
+                    });
+            LOG.info("On-demand certificate for {} is now served", hostname);
+        } catch (FriendlySSLException e) {
+            LOG.error("Exception while ordering on-demand certificate for {}", hostname, e);
+            refuse(hostname);
+        }
+    }
+
+    private void refuse(String hostname) {
+        refusedUntil.put(hostname, clock.instant().plus(Duration.ofHours(config.getErrorRetryWaitHours())));
+    }
+
+    private synchronized boolean tryAcquireIssuance() {
+        Instant now = clock.instant();
+        Instant windowStart = now.minus(RATE_WINDOW);
+        while (!issuances.isEmpty() && !issuances.peekFirst().isAfter(windowStart)) {
+            issuances.removeFirst();
+        }
+        if (issuances.size() >= config.getOnDemandIssuancesPerHour()) {
+            return false;
+        }
+        issuances.addLast(now);
+        return true;
+    }
+}
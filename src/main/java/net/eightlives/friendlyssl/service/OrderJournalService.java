@@ -0,0 +1,193 @@
+package net.eightlives.friendlyssl.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.OrderJournalEntry;
+import net.eightlives.friendlyssl.model.OrderState;
+import org.shredzone.acme4j.util.KeyPairUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyPair;
+import java.time.Clock;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+@Component
+public class OrderJournalService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrderJournalService.class);
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private final FriendlySSLConfig config;
+    private final ObjectMapper objectMapper;
+    private final Clock clock;
+
+    public OrderJournalService(FriendlySSLConfig config, ObjectMapper objectMapper, Clock clock) {
+        this.config = config;
+        this.objectMapper = objectMapper;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the key an order of one certificate for all the given domains is journaled under: the domains joined by
+     * commas, which is the domain itself for a single domain.
+     *
+     * @param domains the domains of the order
+     * @return the journal key of the order
+     */
+    public static String journalKey(List<String> domains) {
+        return String.join(",", domains);
+    }
+
+    /**
+     * Returns the order for the given domain that was left unfinished, if any.
+     *
+     * @param domain the domain to look up
+     * @return the journal entry of the unfinished order, or {@link Optional#empty()} if the latest order for
+     * {@code domain} was installed or there is none
+     */
+    public synchronized Optional<OrderJournalEntry> getInFlightOrder(String domain) {
+        return Optional.ofNullable(read().get(domain)).filter(OrderJournalEntry::inFlight);
+    }
+
+    /**
+     * Returns the key pair the unfinished order for the given domain requests its certificate for, if any.
+     *
+     * @param domain the domain to look up
+     * @return the key pair of the unfinished order, or {@link Optional#empty()} if there is no unfinished order for
+     * {@code domain}
+     */
+    public Optional<KeyPair> getDomainKeyPair(String domain) {
+        return getInFlightOrder(domain)
+                .map(OrderJournalEntry::domainKeyPair)
+                .map(pem -> {
+                    try {
+                        return KeyPairUtils.readKeyPair(new StringReader(pem));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * Journal a newly created order in state {@link OrderState#CREATED}, replacing any earlier order for its domain.
+     *
+     * @param domain        the domain the order is for
+     * @param orderUrl      the location of the order
+     * @param domainKeyPair the key pair the certificate is requested for
+     */
+    public synchronized void start(String domain, URL orderUrl, KeyPair domainKeyPair) {
+        StringWriter pem = new StringWriter();
+        try {
+            KeyPairUtils.writeKeyPair(domainKeyPair, pem);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Map<String, OrderJournalEntry> journal = read();
+        journal.put(domain, new OrderJournalEntry(domain, String.valueOf(orderUrl), OrderState.CREATED,
+                pem.toString(), clock.instant()));
+        write(journal);
+    }
+
+    /**
+     * Journal that the order for the given domain reached the given state. States the order has already passed are
+     * ignored. Once the order is {@link OrderState#INSTALLED}, its key pair is no longer kept.
+     *
+     * @param domain the domain the order is for
+     * @param state  the state the order reached
+     */
+    public synchronized void advance(String domain, OrderState state) {
+        Map<String, OrderJournalEntry> journal = read();
+        OrderJournalEntry entry = journal.get(domain);
+        if (entry == null || !entry.state().canAdvanceTo(state)) {
+            return;
+        }
+
+        journal.put(domain, new OrderJournalEntry(domain, entry.orderUrl(), state,
+                state == OrderState.INSTALLED ? null : entry.domainKeyPair(), clock.instant()));
+        write(journal);
+        LOG.info("Order {} is {}", entry.orderUrl(), state);
+    }
+
+    /**
+     * Remove the order for the given domain from the journal, so that it is not resumed.
+     *
+     * @param domain the domain the order is for
+     */
+    public synchronized void discard(String domain) {
+        Map<String, OrderJournalEntry> journal = read();
+        if (journal.remove(domain) != null) {
+            write(journal);
+        }
+    }
+
+    private Map<String, OrderJournalEntry> read() {
+        Map<String, OrderJournalEntry> journal = new LinkedHashMap<>();
+        try {
+            OrderJournalEntry[] entries = objectMapper.readValue(
+                    Files.newInputStream(journalFile()), OrderJournalEntry[].class);
+            Stream.of(entries).forEach(entry -> journal.put(entry.domain(), entry));
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            LOG.warn("Could not read order journal {}, unfinished orders will not be resumed", journalFile(), e);
+        }
+        return journal;
+    }
+
+    /**
+     * Writes the journal to a temporary file first and then moves it over the journal, so the journal is never left
+     * partially written. Since the journal holds the private keys of unfinished orders, the temporary file is created
+     * readable and writable only by its owner where the file system supports POSIX permissions.
+     */
+    private void write(Map<String, OrderJournalEntry> journal) {
+        Path journalFile = journalFile();
+        Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        try {
+            Files.deleteIfExists(tempFile);
+            createOwnerOnly(tempFile);
+            objectMapper.writerWithDefaultPrettyPrinter()
+                    .writeValue(Files.newBufferedWriter(tempFile), journal.values());
+            Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Could not write order journal {}, the order cannot be resumed after a restart", journalFile, e);
+        } finally {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                LOG.warn("Could not delete temporary order journal {}", tempFile, e);
+            }
+        }
+    }
+
+    private static void createOwnerOnly(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (Files.getFileStore(directory).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } else {
+            Files.createFile(file);
+        }
+    }
+
+    private Path journalFile() {
+        return Path.of(config.getOrderJournalFile());
+    }
+}
@@ -2,22 +2,16 @@ package net.eightlives.friendlyssl.service;
 
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.exception.KeyStoreGeneratorException;
-import org.bouncycastle.asn1.ASN1Encoding;
-import org.bouncycastle.asn1.DERBMPString;
-import org.bouncycastle.asn1.DEROctetString;
-import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
-import org.bouncycastle.crypto.engines.DESedeEngine;
-import org.bouncycastle.crypto.engines.RC2Engine;
-import org.bouncycastle.crypto.modes.CBCBlockCipher;
-import org.bouncycastle.pkcs.*;
-import org.bouncycastle.pkcs.bc.BcPKCS12MacCalculatorBuilder;
-import org.bouncycastle.pkcs.bc.BcPKCS12PBEOutputEncryptorBuilder;
-import org.bouncycastle.pkcs.jcajce.JcaPKCS12SafeBagBuilder;
+import net.eightlives.friendlyssl.keystore.PemCodec;
+import net.eightlives.friendlyssl.keystore.Pkcs12Codec;
+import net.eightlives.friendlyssl.model.KeystoreFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -25,18 +19,16 @@ import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Component
 public class PKCS12KeyStoreService {
 
     private static final Logger LOG = LoggerFactory.getLogger(PKCS12KeyStoreService.class);
 
-    private static final String ROOT_FRIENDLY_NAME = "root";
-    private static final String KEYSTORE_TYPE = "PKCS12";
     private static final String KEYFACTORY_TYPE = "RSA";
 
     private final FriendlySSLConfig config;
@@ -49,7 +41,8 @@ public class PKCS12KeyStoreService {
     }
 
     /**
-     * Generate a PKCS12 keystore for the given certificate chain.
+     * Generate a PKCS12 keystore for the given certificate chain, protected as configured by {@code
+     * friendly-ssl.keystore-profile} and {@code friendly-ssl.keystore-iterations}.
      *
      * @param certificates the certificate chain to put in the keystore
      * @param privateKey   the private key used to sign the local certificate. This is the same key that was used for the
@@ -58,50 +51,28 @@ public class PKCS12KeyStoreService {
      * @throws KeyStoreGeneratorException if an exception occurs while generating the keystore
      */
     public byte[] generateKeyStore(List<X509Certificate> certificates, PrivateKey privateKey) {
-        try {
-            byte[] localKeyBytes = localIdGeneratorService.generate();
-
-            PKCS12SafeBag[] certBags = new PKCS12SafeBag[certificates.size()];
-            for (int i = certificates.size() - 1; i >= 0; i--) {
-                var certBagBuilder = new JcaPKCS12SafeBagBuilder(certificates.get(i));
-                if (i == 0) {
-                    certBagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName, new DERBMPString(config.getCertificateKeyAlias()));
-                    certBagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_localKeyId, new DEROctetString(localKeyBytes));
-                } else {
-                    certBagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName, new DERBMPString(ROOT_FRIENDLY_NAME));
-                }
-                certBags[i] = certBagBuilder.build();
-            }
+        return generateKeyStore(certificates, privateKey, config.getCertificateKeyAlias());
+    }
 
-            PKCS12SafeBagBuilder keyBagBuilder = new JcaPKCS12SafeBagBuilder(privateKey,
-                    new BcPKCS12PBEOutputEncryptorBuilder(
-                            PKCSObjectIdentifiers.pbeWithSHAAnd3_KeyTripleDES_CBC,
-                            CBCBlockCipher.newInstance(new DESedeEngine())).setIterationCount(2048)
-                            .build("".toCharArray()));
-            keyBagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_friendlyName, new DERBMPString(config.getCertificateKeyAlias()));
-            keyBagBuilder.addBagAttribute(PKCSObjectIdentifiers.pkcs_9_at_localKeyId, new DEROctetString(localKeyBytes));
-
-            PKCS12PfxPduBuilder pfxBuilder = new PKCS12PfxPduBuilder();
-            pfxBuilder.addEncryptedData(
-                    new BcPKCS12PBEOutputEncryptorBuilder(
-                            PKCSObjectIdentifiers.pbeWithSHAAnd40BitRC2_CBC,
-                            CBCBlockCipher.newInstance(new RC2Engine())).setIterationCount(2048)
-                            .build("".toCharArray()), certBags);
-            pfxBuilder.addData(keyBagBuilder.build());
-
-            BcPKCS12MacCalculatorBuilder macBuilder = new BcPKCS12MacCalculatorBuilder();
-            macBuilder.setIterationCount(2048);
-
-            PKCS12PfxPdu pfx = pfxBuilder.build(macBuilder, "".toCharArray());
-            return pfx.getEncoded(ASN1Encoding.DL);
-        } catch (PKCSException | IOException e) {
-            throw new KeyStoreGeneratorException(e);
-        }
+    /**
+     * Generate a PKCS12 keystore for the given certificate chain, as {@link #generateKeyStore(List, PrivateKey)} does,
+     * naming the certificate with the given alias instead of the configured one.
+     *
+     * @param certificates the certificate chain to put in the keystore
+     * @param privateKey   the private key of the first certificate
+     * @param alias        the name of the certificate in the keystore
+     * @return the byte representation of the generated PKCS12 keystore
+     * @throws KeyStoreGeneratorException if an exception occurs while generating the keystore
+     */
+    public byte[] generateKeyStore(List<X509Certificate> certificates, PrivateKey privateKey, String alias) {
+        return new Pkcs12Codec(config.getKeystoreProfile(), config.getKeystoreIterations())
+                .encode(certificates, privateKey, alias, localIdGeneratorService.generate());
     }
 
     /**
      * Return a key pair comprised of a private key from the configured keystore with the given alias and a public
-     * key from the given certificate.
+     * key from the given certificate. With the {@code pem} keystore format, the PEM private key and the first certificate
+     * of the PEM chain are returned regardless of alias.
      *
      * @param keyAlias the alias with which to retrieve the key pair from the configured key store
      * @return a key pair comprised of a private key from the configured keystore with the given alias and a public
@@ -109,9 +80,12 @@ public class PKCS12KeyStoreService {
      * while accessing the keystore
      */
     public KeyPair getKeyPair(String keyAlias) {
-        try {
-            KeyStore store = KeyStore.getInstance(KEYSTORE_TYPE);
-            store.load(Files.newInputStream(Path.of(config.getKeystoreFile())), "".toCharArray());
+        if (config.getKeystoreFormat() == KeystoreFormat.PEM) {
+            return getPemKeyPair();
+        }
+
+        try (InputStream keystore = Files.newInputStream(Path.of(config.getKeystoreFile()))) {
+            KeyStore store = Pkcs12Codec.decode(keystore);
 
             KeyFactory keyFactory = KeyFactory.getInstance(KEYFACTORY_TYPE);
             Key key = store.getKey(keyAlias, "".toCharArray());
@@ -129,37 +103,100 @@ public class PKCS12KeyStoreService {
             }
 
             return new KeyPair(certificate.getPublicKey(), privateKey);
-        } catch (InvalidKeySpecException | NoSuchAlgorithmException | CertificateException | KeyStoreException
-                | UnrecoverableKeyException | IOException e) {
+        } catch (GeneralSecurityException | IOException e) {
             LOG.error("Exception while accessing keystore", e);
             return null;
         }
     }
 
     /**
-     * Return a certificate from the configured keystore with the given alias.
+     * Return a certificate from the configured keystore with the given alias. With the {@code pem} keystore format, the
+     * first certificate of the PEM chain is returned regardless of alias.
      *
      * @param keyAlias the alias of the certificate to retrieve
      * @return the certificate in the keystore with the given alias, or {@link Optional#empty()} if an exception occurs
      * while accessing the keystore
      */
     public Optional<X509Certificate> getCertificate(String keyAlias) {
-        try {
-            KeyStore store = KeyStore.getInstance(KEYSTORE_TYPE);
+        if (config.getKeystoreFormat() == KeystoreFormat.PEM) {
+            return getPemCertificate();
+        }
 
-            try {
-                store.load(Files.newInputStream(Path.of(config.getKeystoreFile())), "".toCharArray());
-            } catch (NoSuchFileException e) {
-                return Optional.empty();
-            }
+        try (InputStream keystore = Files.newInputStream(Path.of(config.getKeystoreFile()))) {
+            KeyStore store = Pkcs12Codec.decode(keystore);
 
             return switch (store.getCertificate(keyAlias)) {
                 case X509Certificate c -> Optional.of(c);
                 case null, default -> Optional.empty();
             };
-        } catch (KeyStoreException | CertificateException | NoSuchAlgorithmException | IOException e) {
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (GeneralSecurityException | IOException e) {
             LOG.error("Exception while accessing keystore", e);
             return Optional.empty();
         }
     }
+
+    /**
+     * Return the certificate chain from the configured keystore with the given alias. With the {@code pem} keystore
+     * format, the PEM chain is returned regardless of alias.
+     *
+     * @param keyAlias the alias of the certificate chain to retrieve
+     * @return the certificate chain in the keystore with the given alias, starting with the certificate of its private
+     * key, or an empty list if there is none or an exception occurs while accessing the keystore
+     */
+    public List<X509Certificate> getCertificateChain(String keyAlias) {
+        if (config.getKeystoreFormat() == KeystoreFormat.PEM) {
+            try (InputStream certificateFile = Files.newInputStream(Path.of(config.getPemCertificateFile()))) {
+                return PemCodec.decodeCertificates(certificateFile);
+            } catch (NoSuchFileException e) {
+                return List.of();
+            } catch (CertificateException | IOException e) {
+                LOG.error("Exception while accessing PEM certificate chain", e);
+                return List.of();
+            }
+        }
+
+        try (InputStream keystore = Files.newInputStream(Path.of(config.getKeystoreFile()))) {
+            Certificate[] chain = Pkcs12Codec.decode(keystore).getCertificateChain(keyAlias);
+            if (chain == null) {
+                return List.of();
+            }
+            return Stream.of(chain)
+                    .map(X509Certificate.class::cast)
+                    .toList();
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (GeneralSecurityException | IOException e) {
+            LOG.error("Exception while accessing keystore", e);
+            return List.of();
+        }
+    }
+
+    private KeyPair getPemKeyPair() {
+        try (Reader privateKeyFile = Files.newBufferedReader(Path.of(config.getPemPrivateKeyFile()))) {
+            PrivateKey privateKey = PemCodec.decodePrivateKey(privateKeyFile);
+            Optional<X509Certificate> certificate = getPemCertificate();
+            if (certificate.isEmpty()) {
+                LOG.error("Certificate not found in {} when loading PEM files", config.getPemCertificateFile());
+                return null;
+            }
+
+            return new KeyPair(certificate.get().getPublicKey(), privateKey);
+        } catch (IOException e) {
+            LOG.error("Exception while accessing PEM private key", e);
+            return null;
+        }
+    }
+
+    private Optional<X509Certificate> getPemCertificate() {
+        try (InputStream certificateFile = Files.newInputStream(Path.of(config.getPemCertificateFile()))) {
+            return PemCodec.decodeCertificates(certificateFile).stream().findFirst();
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (CertificateException | IOException e) {
+            LOG.error("Exception while accessing PEM certificate chain", e);
+            return Optional.empty();
+        }
+    }
 }
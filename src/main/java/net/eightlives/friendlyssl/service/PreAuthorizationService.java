@@ -0,0 +1,161 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.RateLimitDeferredException;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import net.eightlives.friendlyssl.model.RateLimit;
+import org.shredzone.acme4j.Account;
+import org.shredzone.acme4j.Authorization;
+import org.shredzone.acme4j.Login;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeNotSupportedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+@Component
+public class PreAuthorizationService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PreAuthorizationService.class);
+
+    private final FriendlySSLConfig config;
+    private final AcmeSessionService sessionService;
+    private final AcmeAccountService accountService;
+    private final ChallengeProcessorService challengeProcessorService;
+    private final PKCS12KeyStoreService keyStoreService;
+    private final RateLimitService rateLimitService;
+    private final Clock clock;
+
+    private final Map<String, Instant> authorizedUntil = new ConcurrentHashMap<>();
+
+    public PreAuthorizationService(FriendlySSLConfig config,
+                                   AcmeSessionService sessionService,
+                                   AcmeAccountService accountService,
+                                   ChallengeProcessorService challengeProcessorService,
+                                   PKCS12KeyStoreService keyStoreService,
+                                   RateLimitService rateLimitService,
+                                   Clock clock) {
+        this.config = config;
+        this.sessionService = sessionService;
+        this.accountService = accountService;
+        this.challengeProcessorService = challengeProcessorService;
+        this.keyStoreService = keyStoreService;
+        this.rateLimitService = rateLimitService;
+        this.clock = clock;
+    }
+
+    /**
+     * Authorize the configured domain ahead of its next renewal, so that the renewal order is ready to be finalized as
+     * soon as it is created. The domain is authorized once the current time is within the configured number of hours
+     * before auto-renewal is due, unless an authorization obtained earlier is known to still be valid at the renewal
+     * time. The authorization is requested with the ACME server's newAuthz resource, or if the server does not
+     * support pre-authorization, with an order that is never finalized. Such an order, and failed validations, count
+     * against the local rate limit budgets like any other.
+     *
+     * @return the next time that pre-authorization should be run
+     */
+    public Instant preAuthorize() {
+        Optional<Instant> renewTime = keyStoreService.getCertificate(config.getCertificateKeyAlias())
+                .map(certificate -> AutoRenewService.renewalTime(certificate, config));
+        Instant now = clock.instant();
+        if (renewTime.isEmpty() || !now.isBefore(renewTime.get())) {
+            return now.plus(config.getErrorRetryWaitHours(), ChronoUnit.HOURS);
+        }
+
+        Instant preAuthorizationTime = renewTime.get().minus(config.getPreAuthorizationHoursBefore(), ChronoUnit.HOURS);
+        if (now.isBefore(preAuthorizationTime)) {
+            return preAuthorizationTime;
+        }
+
+        String domain = config.getDomain();
+        Instant renewalFinished = renewTime.get().plusSeconds(config.getOrderDeadlineSeconds());
+        if (getAuthorizedUntil(domain).filter(renewalFinished::isBefore).isPresent()) {
+            return renewTime.get();
+        }
+
+        LOG.info("Pre-authorizing {} ahead of renewal at {}", domain,
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(renewTime.get().atZone(ZoneOffset.UTC)));
+        OrderDeadline deadline = OrderDeadline.after(Duration.ofSeconds(config.getOrderDeadlineSeconds()), clock);
+        try {
+            Session session = sessionService.getSession();
+            String ca = session.getServerUri().toString();
+            Login login = accountService.getOrCreateAccountLogin(session);
+            List<Authorization> authorizations = requestAuthorizations(login.getAccount(), ca, domain);
+            try {
+                challengeProcessorService.process(authorizations, deadline);
+            } catch (ExecutionException e) {
+                rateLimitService.record(RateLimit.FAILED_VALIDATIONS, ca, domain);
+                throw e;
+            }
+
+            earliestExpiration(authorizations).ifPresent(expires -> {
+                authorizedUntil.put(domain, expires);
+                LOG.info("{} is pre-authorized until {}", domain,
+                        DateTimeFormatter.RFC_1123_DATE_TIME.format(expires.atZone(ZoneOffset.UTC)));
+            });
+            return renewTime.get();
+        } catch (RateLimitDeferredException e) {
+            LOG.warn("Pre-authorization of {} was deferred by a rate limit", domain, e);
+            return e.getRetryAfter().isBefore(renewTime.get()) ? e.getRetryAfter() : renewTime.get();
+        } catch (Exception e) {
+            sessionService.refreshAfter(e);
+            LOG.error("Exception while pre-authorizing {}, retry in {} hours", domain, config.getErrorRetryWaitHours(), e);
+            Instant retryTime = clock.instant().plus(config.getErrorRetryWaitHours(), ChronoUnit.HOURS);
+            return retryTime.isBefore(renewTime.get()) ? retryTime : renewTime.get();
+        }
+    }
+
+    /**
+     * Return the time until which the given domain is known to be authorized by an earlier pre-authorization.
+     *
+     * @param domain the domain to look up
+     * @return the time at which the domain's pre-authorization expires, or {@link Optional#empty()} if the domain has
+     * not been pre-authorized or its pre-authorization has expired
+     */
+    public Optional<Instant> getAuthorizedUntil(String domain) {
+        return Optional.ofNullable(authorizedUntil.get(domain)).filter(clock.instant()::isBefore);
+    }
+
+    private List<Authorization> requestAuthorizations(Account account, String ca, String domain) throws AcmeException {
+        try {
+            return List.of(account.preAuthorizeDomain(domain));
+        } catch (AcmeNotSupportedException e) {
+            LOG.info("ACME server does not support pre-authorization, authorizing {} with an order instead", domain);
+            rateLimitService.checkNewOrder(ca, domain);
+            List<Authorization> authorizations = account.newOrder().domain(domain).create().getAuthorizations();
+            rateLimitService.record(RateLimit.NEW_ORDERS, ca, domain);
+            return authorizations;
+        }
+    }
+
+    /**
+     * The earliest expiration of the given authorizations, or {@link Optional#empty()} if any of them does not expire
+     * at a known time.
+     */
+    private static Optional<Instant> earliestExpiration(List<Authorization> authorizations) {
+        Instant earliest = Instant.MAX;
+        for (Authorization authorization : authorizations) {
+            Optional<Instant> expires = authorization.getExpires();
+            if (expires.isEmpty()) {
+                return Optional.empty();
+            }
+            if (expires.get().isBefore(earliest)) {
+                earliest = expires.get();
+            }
+        }
+        return authorizations.isEmpty() ? Optional.empty() : Optional.of(earliest);
+    }
+}
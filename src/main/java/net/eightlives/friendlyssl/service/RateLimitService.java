@@ -0,0 +1,263 @@
+package net.eightlives.friendlyssl.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.RateLimitDeferredException;
+import net.eightlives.friendlyssl.model.RateLimit;
+import net.eightlives.friendlyssl.model.RateLimitUsage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+@Component
+public class RateLimitService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitService.class);
+    private static final String PUBLIC_SUFFIXES_RESOURCE = "/friendly-ssl-public-suffixes.txt";
+
+    private final FriendlySSLConfig config;
+    private final ObjectMapper objectMapper;
+    private final Clock clock;
+    private final Set<String> publicSuffixes;
+    private final Object writeLock = new Object();
+
+    private Map<UsageKey, List<Instant>> usage;
+    private boolean unwritten;
+
+    public RateLimitService(FriendlySSLConfig config, ObjectMapper objectMapper, Clock clock) {
+        this.config = config;
+        this.objectMapper = objectMapper;
+        this.clock = clock;
+        this.publicSuffixes = publicSuffixes(config.getRateLimitPublicSuffixes());
+    }
+
+    /**
+     * Check that a new order for the given domain is within the budget of every {@link RateLimit} of the given CA.
+     * Each rate limit is budgeted as a sliding window: an order is allowed while fewer than the limit's number of uses
+     * were recorded within its window.
+     *
+     * @param ca     the ACME session URL of the CA to order from
+     * @param domain the domain to order a certificate for
+     * @throws RateLimitDeferredException if any of the rate limits is exhausted, with the earliest time at which all
+     *                                    of them allow the order again
+     */
+    public void checkNewOrder(String ca, String domain) {
+        checkNewOrder(ca, List.of(domain));
+    }
+
+    /**
+     * Check that a new order of one certificate for all the given domains is within the budget of every
+     * {@link RateLimit} of the given CA, as described for a single domain.
+     *
+     * @param ca      the ACME session URL of the CA to order from
+     * @param domains the domains to order a certificate for
+     * @throws RateLimitDeferredException if any of the rate limits is exhausted, with the earliest time at which all
+     *                                    of them allow the order again
+     */
+    public synchronized void checkNewOrder(String ca, List<String> domains) {
+        if (!config.isRateLimitEnabled()) {
+            return;
+        }
+
+        Instant now = clock.instant();
+        RateLimit exhausted = null;
+        Instant allowedAt = now;
+        for (RateLimit rateLimit : RateLimit.values()) {
+            for (String key : keysFor(rateLimit, ca, domains)) {
+                Instant limitAllowedAt = allowedAt(new UsageKey(rateLimit, ca, key), now);
+                if (limitAllowedAt.isAfter(allowedAt)) {
+                    exhausted = rateLimit;
+                    allowedAt = limitAllowedAt;
+                }
+            }
+        }
+        if (exhausted != null) {
+            LOG.warn("Local budget for the {} rate limit of {} is exhausted, deferring order for {} until {}",
+                    exhausted, ca, String.join(", ", domains), allowedAt);
+            throw new RateLimitDeferredException(exhausted, allowedAt);
+        }
+    }
+
+    /**
+     * Record a use of the given rate limit of the given CA for the given domain.
+     *
+     * @param rateLimit the rate limit that was used
+     * @param ca        the ACME session URL of the CA whose rate limit was used
+     * @param domain    the domain it was used for
+     */
+    public void record(RateLimit rateLimit, String ca, String domain) {
+        record(rateLimit, ca, List.of(domain));
+    }
+
+    /**
+     * Record a use of the given rate limit of the given CA by an order of one certificate for all the given domains.
+     * The use is written to the usage file before this returns, together with any others recorded while an earlier
+     * write was in progress.
+     *
+     * @param rateLimit the rate limit that was used
+     * @param ca        the ACME session URL of the CA whose rate limit was used
+     * @param domains   the domains of the order
+     */
+    public void record(RateLimit rateLimit, String ca, List<String> domains) {
+        if (!config.isRateLimitEnabled()) {
+            return;
+        }
+
+        synchronized (this) {
+            Instant now = clock.instant();
+            for (String key : keysFor(rateLimit, ca, domains)) {
+                usage().computeIfAbsent(new UsageKey(rateLimit, ca, key), _ -> new ArrayList<>()).add(now);
+            }
+            usage().forEach((key, uses) -> uses.removeIf(use -> !use.isAfter(now.minus(key.rateLimit().getWindow()))));
+            usage().values().removeIf(List::isEmpty);
+            unwritten = true;
+        }
+        write();
+    }
+
+    /**
+     * Returns the keys a rate limit is counted by for an order of the given domains. New orders are counted once per
+     * account, which is approximated by the CA. Certificates are counted once per registered domain among the domains,
+     * and duplicates by the exact set of domains. Failed validations are counted for every domain, since the order
+     * does not tell which one failed.
+     */
+    private Set<String> keysFor(RateLimit rateLimit, String ca, List<String> domains) {
+        return switch (rateLimit) {
+            case NEW_ORDERS -> Set.of(ca);
+            case CERTIFICATES_PER_DOMAIN -> domains.stream()
+                    .map(this::registeredDomain)
+                    .collect(Collectors.toCollection(TreeSet::new));
+            case DUPLICATE_CERTIFICATES -> Set.of(String.join(",", new TreeSet<>(domains)));
+            case FAILED_VALIDATIONS -> new TreeSet<>(domains);
+        };
+    }
+
+    private Instant allowedAt(UsageKey usageKey, Instant now) {
+        RateLimit rateLimit = usageKey.rateLimit();
+        List<Instant> uses = usage().getOrDefault(usageKey, List.of()).stream()
+                .filter(use -> use.isAfter(now.minus(rateLimit.getWindow())))
+                .sorted()
+                .toList();
+        if (uses.size() < rateLimit.getLimit()) {
+            return now;
+        }
+        return uses.get(uses.size() - rateLimit.getLimit()).plus(rateLimit.getWindow());
+    }
+
+    /**
+     * Returns the registered domain of the given domain: the label before its longest public suffix, which is its
+     * top-level domain unless it ends with one of the public suffixes bundled in {@value #PUBLIC_SUFFIXES_RESOURCE} or
+     * configured in {@code friendly-ssl.rate-limit-public-suffixes}.
+     */
+    private String registeredDomain(String domain) {
+        String[] labels = domain.toLowerCase(Locale.ROOT).split("\\.");
+        int suffixLabels = 1;
+        for (int i = 1; i < labels.length - 1; i++) {
+            if (publicSuffixes.contains(String.join(".", Arrays.copyOfRange(labels, i, labels.length)))) {
+                suffixLabels = labels.length - i;
+                break;
+            }
+        }
+        int start = Math.max(0, labels.length - suffixLabels - 1);
+        return String.join(".", Arrays.copyOfRange(labels, start, labels.length));
+    }
+
+    private static Set<String> publicSuffixes(List<String> configured) {
+        Set<String> suffixes = new HashSet<>();
+        try (InputStream bundled = RateLimitService.class.getResourceAsStream(PUBLIC_SUFFIXES_RESOURCE)) {
+            if (bundled == null) {
+                throw new IllegalStateException("Public suffix list " + PUBLIC_SUFFIXES_RESOURCE + " is missing");
+            }
+            new String(bundled.readAllBytes(), StandardCharsets.UTF_8).lines()
+                    .map(String::strip)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("//"))
+                    .forEach(suffixes::add);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read public suffix list " + PUBLIC_SUFFIXES_RESOURCE, e);
+        }
+        configured.forEach(suffix -> suffixes.add(suffix.strip().toLowerCase(Locale.ROOT)));
+        return Set.copyOf(suffixes);
+    }
+
+    private Map<UsageKey, List<Instant>> usage() {
+        if (usage == null) {
+            usage = read();
+        }
+        return usage;
+    }
+
+    private Map<UsageKey, List<Instant>> read() {
+        Map<UsageKey, List<Instant>> read = new HashMap<>();
+        try {
+            RateLimitUsage[] usages = objectMapper.readValue(
+                    Files.newInputStream(usageFile()), RateLimitUsage[].class);
+            for (RateLimitUsage rateLimitUsage : usages) {
+                String ca = rateLimitUsage.ca() == null ? config.getAcmeSessionUrl() : rateLimitUsage.ca();
+                read.put(new UsageKey(rateLimitUsage.rateLimit(), ca, rateLimitUsage.key()),
+                        new ArrayList<>(rateLimitUsage.uses()));
+            }
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            LOG.warn("Could not read rate limit usage from {}, starting with full budgets", usageFile(), e);
+        }
+        return read;
+    }
+
+    /**
+     * Write the recorded uses to the usage file, unless another thread has written them already. The file is written
+     * by one thread at a time without holding the lock on the uses, so orders are not held up by the write, and the
+     * uses recorded while it is in progress are all written by the next write instead of each rewriting the file.
+     */
+    private void write() {
+        synchronized (writeLock) {
+            List<RateLimitUsage> usages;
+            synchronized (this) {
+                if (!unwritten) {
+                    return;
+                }
+                unwritten = false;
+                usages = usage().entrySet().stream()
+                        .map(entry -> new RateLimitUsage(entry.getKey().rateLimit(), entry.getKey().ca(),
+                                entry.getKey().key(), List.copyOf(entry.getValue())))
+                        .toList();
+            }
+
+            Path usageFile = usageFile();
+            Path tempFile = usageFile.resolveSibling(usageFile.getFileName() + ".tmp");
+            try {
+                objectMapper.writerWithDefaultPrettyPrinter().writeValue(Files.newBufferedWriter(tempFile), usages);
+                Files.move(tempFile, usageFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOG.warn("Could not write rate limit usage to {}, budgets will start over after a restart",
+                        usageFile, e);
+            }
+        }
+    }
+
+    private Path usageFile() {
+        return Path.of(config.getRateLimitFile());
+    }
+
+    private record UsageKey(RateLimit rateLimit, String ca, String key) {
+    }
+}
@@ -0,0 +1,180 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.OrderDeadlineExceededException;
+import net.eightlives.friendlyssl.model.FailureClass;
+import org.shredzone.acme4j.exception.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+@Component
+public class RenewalBackoffService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RenewalBackoffService.class);
+    private static final String ACME_ERROR_PREFIX = "urn:ietf:params:acme:error:";
+    private static final Pattern HTTP_SERVER_ERROR = Pattern.compile("HTTP 5\\d\\d");
+    private static final Duration MIN_DELAY = Duration.ofMinutes(1);
+    private static final int MAX_DOUBLINGS = 20;
+
+    private final FriendlySSLConfig config;
+    private final PKCS12KeyStoreService keyStoreService;
+    private final Clock clock;
+
+    private final Map<FailureClass, Integer> consecutiveFailures = new EnumMap<>(FailureClass.class);
+    private final Map<String, Integer> consecutiveCaFailures = new HashMap<>();
+    private final Map<String, Instant> openUntil = new HashMap<>();
+
+    public RenewalBackoffService(FriendlySSLConfig config, PKCS12KeyStoreService keyStoreService, Clock clock) {
+        this.config = config;
+        this.keyStoreService = keyStoreService;
+        this.clock = clock;
+    }
+
+    /**
+     * Classify a certificate order failure by the deepest cause in its chain that can be classified. The chain is
+     * not followed past a challenge processing failure, since a timeout or I/O error inside a challenge task is a
+     * failed validation rather than an unavailable CA, nor past an expired order deadline, which is this
+     * application's own time budget running out.
+     *
+     * @param failure the failure to classify
+     * @return the class of the failure, which is {@link FailureClass#UNKNOWN} if no cause could be classified
+     */
+    public static FailureClass classify(Throwable failure) {
+        FailureClass failureClass = FailureClass.UNKNOWN;
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ExecutionException) {
+                return FailureClass.VALIDATION_FAILED;
+            }
+            if (cause instanceof OrderDeadlineExceededException) {
+                return FailureClass.UNKNOWN;
+            }
+            FailureClass causeClass = classifyCause(cause);
+            if (causeClass != FailureClass.UNKNOWN) {
+                failureClass = causeClass;
+            }
+        }
+        return failureClass;
+    }
+
+    private static FailureClass classifyCause(Throwable cause) {
+        return switch (cause) {
+            case AcmeRateLimitedException _ -> FailureClass.RATE_LIMITED;
+            case AcmeUnauthorizedException _, AcmeUserActionRequiredException _ -> FailureClass.ACCOUNT;
+            case AcmeServerException serverException -> classifyProblem(serverException.getType().toString());
+            case AcmeNetworkException _, IOException _, TimeoutException _ -> FailureClass.TRANSIENT_NETWORK;
+            case AcmeException acmeException when acmeException.getMessage() != null
+                    && HTTP_SERVER_ERROR.matcher(acmeException.getMessage()).find() -> FailureClass.SERVER_ERROR;
+            default -> FailureClass.UNKNOWN;
+        };
+    }
+
+    private static FailureClass classifyProblem(String type) {
+        if (!type.startsWith(ACME_ERROR_PREFIX)) {
+            return FailureClass.UNKNOWN;
+        }
+        return switch (type.substring(ACME_ERROR_PREFIX.length())) {
+            case "serverInternal" -> FailureClass.SERVER_ERROR;
+            case "accountDoesNotExist", "externalAccountRequired" -> FailureClass.ACCOUNT;
+            case "connection", "dns", "incorrectResponse", "caa", "tls", "rejectedIdentifier" ->
+                    FailureClass.VALIDATION_FAILED;
+            default -> FailureClass.UNKNOWN;
+        };
+    }
+
+    /**
+     * Returns the time until which the circuit breaker of the given CA is open. While it is open, the CA is
+     * considered unavailable and no order should be sent to it. Once that time has passed a single trial order is let
+     * through: if it fails because the CA is still unavailable the breaker opens again for longer, and if it succeeds
+     * the breaker closes.
+     *
+     * @param ca the ACME session URL of the CA
+     * @return the time at which an order may be sent to the CA again, or empty if its circuit breaker is not open
+     */
+    public synchronized Optional<Instant> getOpenUntil(String ca) {
+        return Optional.ofNullable(openUntil.get(ca)).filter(until -> until.isAfter(clock.instant()));
+    }
+
+    /**
+     * Record a successful order, closing the circuit breaker of the CA and resetting every backoff.
+     *
+     * @param ca the ACME session URL of the CA the order was sent to
+     */
+    public synchronized void recordSuccess(String ca) {
+        if (openUntil.remove(ca) != null) {
+            LOG.info("Certificate order succeeded, closing circuit breaker of {}", ca);
+        }
+        consecutiveFailures.clear();
+        consecutiveCaFailures.remove(ca);
+    }
+
+    /**
+     * Record a failed order and compute when it should be retried. The delay is the failure class's base delay,
+     * doubled for each consecutive failure of that class and limited to {@code friendly-ssl.error-retry-max-hours},
+     * with random jitter of up to half of it so that many instances do not retry in lockstep. It is never more than
+     * half of the time left before the current certificate expires. A failure that means the CA is unavailable also
+     * counts towards opening the circuit breaker of the CA, which stays open until the retry, while any other answer
+     * from the CA closes it.
+     *
+     * @param ca           the ACME session URL of the CA the order was sent to
+     * @param failureClass the class of the failure
+     * @return the time at which the order should be retried
+     */
+    public synchronized Instant recordFailure(String ca, FailureClass failureClass) {
+        Instant now = clock.instant();
+        int failures = consecutiveFailures.merge(failureClass, 1, Integer::sum);
+
+        Duration baseDelay = failureClass.getBaseDelay() == null
+                ? Duration.ofHours(config.getErrorRetryWaitHours())
+                : failureClass.getBaseDelay();
+        Duration maxDelay = Duration.ofHours(config.getErrorRetryMaxHours());
+        Duration delay = baseDelay.multipliedBy(1L << Math.min(failures - 1, MAX_DOUBLINGS));
+        if (delay.compareTo(maxDelay) > 0) {
+            delay = maxDelay;
+        }
+        delay = delay.minusMillis(ThreadLocalRandom.current().nextLong(delay.toMillis() / 2 + 1));
+
+        Optional<Instant> expiration = keyStoreService.getCertificate(config.getCertificateKeyAlias())
+                .map(X509Certificate::getNotAfter)
+                .map(Date::toInstant);
+        if (expiration.isPresent() && expiration.get().isAfter(now)) {
+            Duration expiryCap = Duration.between(now, expiration.get()).dividedBy(2);
+            if (expiryCap.compareTo(MIN_DELAY) < 0) {
+                expiryCap = MIN_DELAY;
+            }
+            if (delay.compareTo(expiryCap) > 0) {
+                delay = expiryCap;
+            }
+        }
+        Instant retryAt = now.plus(delay);
+
+        if (failureClass.isCaUnavailable()) {
+            int caFailures = consecutiveCaFailures.merge(ca, 1, Integer::sum);
+            if (caFailures >= config.getCircuitBreakerThreshold()) {
+                LOG.warn("CA {} unavailable for {} consecutive orders, opening its circuit breaker until {}",
+                        ca, caFailures, retryAt);
+                openUntil.put(ca, retryAt);
+            }
+        } else if (failureClass != FailureClass.UNKNOWN) {
+            consecutiveCaFailures.remove(ca);
+            openUntil.remove(ca);
+        }
+
+        return retryAt;
+    }
+}
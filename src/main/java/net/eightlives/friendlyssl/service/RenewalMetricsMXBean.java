@@ -0,0 +1,40 @@
+package net.eightlives.friendlyssl.service;
+
+import java.util.Map;
+
+/**
+ * JMX view of what certificate renewals cost, keyed by renewal phase where applicable: {@code session}, {@code login},
+ * {@code order}, {@code reload} and, with the handshake self-test, {@code handshake}.
+ */
+public interface RenewalMetricsMXBean {
+
+    /**
+     * @return the number of renewals that were attempted, including failed ones
+     */
+    long getRenewalCount();
+
+    /**
+     * @return the number of renewals that failed or were deferred
+     */
+    long getFailureCount();
+
+    /**
+     * @return how long the last renewal took, in milliseconds
+     */
+    long getLastRenewalMillis();
+
+    /**
+     * @return the average time a renewal took, in milliseconds
+     */
+    long getAverageRenewalMillis();
+
+    /**
+     * @return the average time per phase that renewals spent in it, in milliseconds
+     */
+    Map<String, Long> getAveragePhaseMillis();
+
+    /**
+     * @return the longest time per phase that a renewal spent in it, in milliseconds
+     */
+    Map<String, Long> getMaxPhaseMillis();
+}
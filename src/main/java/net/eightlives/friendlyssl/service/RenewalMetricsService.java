@@ -0,0 +1,128 @@
+package net.eightlives.friendlyssl.service;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+@Component
+public final class RenewalMetricsService implements RenewalMetricsMXBean {
+
+    /**
+     * The phases of a certificate renewal.
+     */
+    public enum Phase {
+        /**
+         * Getting the ACME session of the CA.
+         */
+        SESSION,
+        /**
+         * Getting the account login.
+         */
+        LOGIN,
+        /**
+         * Ordering the certificate and writing it to the keystore.
+         */
+        ORDER,
+        /**
+         * Waiting for the SSL context to reload the certificate.
+         */
+        RELOAD,
+        /**
+         * A single loopback handshake of the handshake self-test, so its average is the handshake latency.
+         */
+        HANDSHAKE
+    }
+
+    private final LongAdder renewals = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalRenewalNanos = new LongAdder();
+    private final AtomicLong lastRenewalNanos = new AtomicLong();
+    private final Map<Phase, PhaseStats> phases = new ConcurrentHashMap<>();
+
+    public RenewalMetricsService(MBeanRegistrationService mBeanRegistrationService) {
+        mBeanRegistrationService.register("Renewal", "metrics", this, RenewalMetricsMXBean.class);
+    }
+
+    /**
+     * Record the time a renewal spent in one of its phases.
+     *
+     * @param phase    the phase the renewal finished
+     * @param duration how long the phase took
+     */
+    public void recordPhase(Phase phase, Duration duration) {
+        PhaseStats phaseStats = phases.computeIfAbsent(phase, _ -> new PhaseStats());
+        phaseStats.count.increment();
+        phaseStats.totalNanos.add(duration.toNanos());
+        phaseStats.maxNanos.accumulate(duration.toNanos());
+    }
+
+    /**
+     * Record a finished renewal.
+     *
+     * @param success  whether the renewal installed a new certificate
+     * @param duration how long the renewal took
+     */
+    public void recordRenewal(boolean success, Duration duration) {
+        renewals.increment();
+        if (!success) {
+            failures.increment();
+        }
+        totalRenewalNanos.add(duration.toNanos());
+        lastRenewalNanos.set(duration.toNanos());
+    }
+
+    @Override
+    public long getRenewalCount() {
+        return renewals.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getLastRenewalMillis() {
+        return Duration.ofNanos(lastRenewalNanos.get()).toMillis();
+    }
+
+    @Override
+    public long getAverageRenewalMillis() {
+        long count = renewals.sum();
+        return count == 0 ? 0 : Duration.ofNanos(totalRenewalNanos.sum() / count).toMillis();
+    }
+
+    @Override
+    public Map<String, Long> getAveragePhaseMillis() {
+        return collect(phaseStats -> {
+            long count = phaseStats.count.sum();
+            return count == 0 ? 0 : Duration.ofNanos(phaseStats.totalNanos.sum() / count).toMillis();
+        });
+    }
+
+    @Override
+    public Map<String, Long> getMaxPhaseMillis() {
+        return collect(phaseStats -> Duration.ofNanos(phaseStats.maxNanos.get()).toMillis());
+    }
+
+    private Map<String, Long> collect(ToLongFunction<PhaseStats> value) {
+        Map<String, Long> values = new TreeMap<>();
+        phases.forEach((phase, phaseStats) ->
+                values.put(phase.name().toLowerCase(Locale.ROOT), value.applyAsLong(phaseStats)));
+        return values;
+    }
+
+    private static class PhaseStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    }
+}
@@ -0,0 +1,61 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.InventoryEntry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans how the certificates due in a batch are ordered. With {@code friendly-ssl.san-coalescing-enabled}, due
+ * certificates with the same key type are coalesced into one order for a certificate naming all their domains, up to
+ * {@code friendly-ssl.san-coalescing-max-names} domains each, so a batch costs one order, finalization and download
+ * per group instead of per certificate. Every order of a batch goes to the same CA with the same account, so only the
+ * key type, which the shared certificate must have, keeps certificates apart.
+ * <p>
+ * A certificate whose last order failed is ordered on its own, so a domain that can no longer be validated does not
+ * fail the orders of the others again.
+ */
+@Component
+public class SanCoalescingPlanner {
+
+    private final FriendlySSLConfig config;
+
+    public SanCoalescingPlanner(FriendlySSLConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Group the given certificates into orders.
+     *
+     * @param due the certificates to renew, in order of priority
+     * @return the domains of each order, in order of the priority of their first domain
+     */
+    public List<List<String>> plan(List<InventoryEntry> due) {
+        int maxNames = config.getSanCoalescingMaxNames();
+        if (!config.isSanCoalescingEnabled() || maxNames < 2) {
+            return due.stream().map(entry -> List.of(entry.domain())).toList();
+        }
+
+        List<List<String>> groups = new ArrayList<>();
+        Map<String, List<String>> openGroups = new HashMap<>();
+        for (InventoryEntry entry : due) {
+            if (entry.lastRenewalStatus() == CertificateRenewalStatus.ERROR) {
+                groups.add(List.of(entry.domain()));
+                continue;
+            }
+            List<String> group = openGroups.get(entry.keyType());
+            if (group == null || group.size() >= maxNames) {
+                group = new ArrayList<>();
+                openGroups.put(entry.keyType(), group);
+                groups.add(group);
+            }
+            group.add(entry.domain());
+        }
+        return groups.stream().map(List::copyOf).toList();
+    }
+}
@@ -32,7 +32,7 @@ public class UpdateCheckerService {
 
     /**
      * Start updating the given resource and checking its status at the returned intervals until it receives a valid
-     * or invalid status, or an exception occurs.
+     * or invalid status, or an exception occurs. Cancelling the returned future with interruption stops the updates.
      *
      * @param resource the resource to update
      * @return a {@link ScheduledFuture} that:
@@ -63,7 +63,10 @@ public class UpdateCheckerService {
                             Thread.sleep(updateAcmeJsonResource(resource));
                             break;
                     }
-                } catch (InterruptedException ignored) {
+                } catch (InterruptedException e) {
+                    LOG.info("Resource update cancelled");
+                    Thread.currentThread().interrupt();
+                    throw new UpdateFailedException();
                 }
             }
         }, millisecondsUntilRetry, TimeUnit.MILLISECONDS);
@@ -0,0 +1,90 @@
+package net.eightlives.friendlyssl.task;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A scope of tasks that each run in their own virtual thread. If any task fails, every other task in the scope is
+ * cancelled and interrupted immediately, and {@link #join(Duration)} throws the first failure. Closing the scope
+ * cancels any task that is still running and waits for all of them to finish, so no task outlives its scope.
+ */
+public class FailFastTaskScope implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final List<Future<?>> tasks = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Construct a new {@link FailFastTaskScope}.
+     *
+     * @param name the prefix of the names of the virtual threads that run this scope's tasks
+     */
+    public FailFastTaskScope(String name) {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    /**
+     * Start running the given task in a new virtual thread.
+     *
+     * @param task the task to run
+     * @param <T>  the task's result type
+     * @return the {@link Future} of the task
+     */
+    public <T> Future<T> fork(Callable<T> task) {
+        Future<T> future = executor.submit(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                if (failure.compareAndSet(null, e)) {
+                    cancelAll();
+                }
+                throw e;
+            }
+        });
+        tasks.add(future);
+        return future;
+    }
+
+    /**
+     * Wait for every task in this scope to complete, for the first task to fail, or for the timeout to elapse,
+     * whichever happens first. Any task still running when a failure or timeout occurs is cancelled.
+     *
+     * @param timeout the longest time to wait
+     * @throws ExecutionException   if a task failed, with the first failure as its cause
+     * @throws TimeoutException     if the timeout elapsed before every task completed
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public void join(Duration timeout) throws ExecutionException, TimeoutException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        try {
+            for (Future<?> task : tasks) {
+                try {
+                    task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException | CancellationException e) {
+                    break;
+                }
+            }
+        } catch (TimeoutException | InterruptedException e) {
+            cancelAll();
+            throw e;
+        }
+
+        Throwable firstFailure = failure.get();
+        if (firstFailure != null) {
+            throw new ExecutionException(firstFailure);
+        }
+    }
+
+    @Override
+    public void close() {
+        cancelAll();
+        executor.shutdownNow();
+        executor.close();
+    }
+
+    private void cancelAll() {
+        tasks.forEach(task -> task.cancel(true));
+    }
+}
@@ -0,0 +1,22 @@
+package net.eightlives.friendlyssl.task;
+
+/**
+ * JMX view of a {@link VirtualThreadScheduledExecutor}.
+ */
+public interface SchedulerMetricsMXBean {
+
+    /**
+     * @return the number of tasks that are scheduled but not yet due
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of tasks that are currently running
+     */
+    int getActiveTasks();
+
+    /**
+     * @return the number of task runs that have finished, including periodic runs and runs that failed
+     */
+    long getCompletedTasks();
+}
@@ -0,0 +1,238 @@
+package net.eightlives.friendlyssl.task;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ScheduledExecutorService} that keeps a single daemon platform thread as a timer and hands every task to
+ * its own virtual thread once the task is due. Tasks may therefore block (sleeping, network I/O, waiting on latches)
+ * without holding up the timer or each other.
+ * <p>
+ * Shutting down cancels every task that is not yet due instead of waiting for it. {@link #close()} additionally waits
+ * up to the configured shutdown timeout for running tasks to finish before interrupting them.
+ * </p>
+ */
+public class VirtualThreadScheduledExecutor extends AbstractExecutorService
+        implements ScheduledExecutorService, SchedulerMetricsMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadScheduledExecutor.class);
+
+    private final String name;
+    private final Duration shutdownTimeout;
+    private final ScheduledThreadPoolExecutor timer;
+    private final ExecutorService workers;
+    private final Set<DispatchedFuture<?>> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger activeTasks = new AtomicInteger();
+    private final AtomicLong completedTasks = new AtomicLong();
+
+    /**
+     * Construct a new {@link VirtualThreadScheduledExecutor}.
+     *
+     * @param name            the name of the timer thread and the prefix of the names of the virtual threads that
+     *                        run tasks
+     * @param shutdownTimeout how long {@link #close()} waits for running tasks to finish before interrupting them
+     */
+    public VirtualThreadScheduledExecutor(String name, Duration shutdownTimeout) {
+        this.name = name;
+        this.shutdownTimeout = shutdownTimeout;
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                Thread.ofPlatform().name(name + "-timer").daemon().factory());
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.timer.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+        this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(Executors.callable(command, null), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        DispatchedFuture<V> future = new DispatchedFuture<>(callable, 0);
+        future.arm(unit.toNanos(delay));
+        return future;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        DispatchedFuture<Void> future = new DispatchedFuture<>(Executors.callable(command, null), unit.toNanos(period));
+        future.arm(unit.toNanos(initialDelay));
+        return future;
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException("Delay must be positive");
+        }
+        DispatchedFuture<Void> future = new DispatchedFuture<>(Executors.callable(command, null), -unit.toNanos(delay));
+        future.arm(unit.toNanos(initialDelay));
+        return future;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        schedule(command, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void shutdown() {
+        timer.shutdown();
+        pending.forEach(future -> future.cancel(false));
+        workers.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        timer.shutdownNow();
+        List<DispatchedFuture<?>> notStarted = new ArrayList<>(pending);
+        notStarted.forEach(future -> future.cancel(false));
+        workers.shutdownNow();
+        return new ArrayList<>(notStarted);
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return timer.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return timer.isTerminated() && workers.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return timer.awaitTermination(timeout, unit)
+                && workers.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Shut down, wait up to the shutdown timeout for running tasks to finish, then interrupt any that are left.
+     */
+    @Override
+    public void close() {
+        shutdown();
+        try {
+            if (!awaitTermination(shutdownTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                LOG.warn("Tasks of {} still running after {}, interrupting", name, shutdownTimeout);
+                shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    @Override
+    public int getActiveTasks() {
+        return activeTasks.get();
+    }
+
+    @Override
+    public long getCompletedTasks() {
+        return completedTasks.get();
+    }
+
+    /**
+     * A task that waits on the timer until it is due and then runs in a virtual thread. Periodic tasks rearm
+     * themselves on the timer after each run, so runs of the same task never overlap.
+     */
+    private class DispatchedFuture<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+        /**
+         * Zero for a one-shot task, positive for a fixed rate and negative for a fixed delay, in nanoseconds.
+         */
+        private final long period;
+        private volatile long nextRunNanos;
+        private volatile ScheduledFuture<?> trigger;
+
+        private DispatchedFuture(Callable<V> callable, long period) {
+            super(callable);
+            this.period = period;
+        }
+
+        private void arm(long delayNanos) {
+            nextRunNanos = System.nanoTime() + delayNanos;
+            pending.add(this);
+            try {
+                trigger = timer.schedule(this::dispatch, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                pending.remove(this);
+                super.cancel(false);
+                throw e;
+            }
+        }
+
+        private void dispatch() {
+            pending.remove(this);
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                super.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            activeTasks.incrementAndGet();
+            try {
+                if (period == 0) {
+                    super.run();
+                } else if (runAndReset() && !isShutdown()) {
+                    long delay = period > 0 ? nextRunNanos + period - System.nanoTime() : -period;
+                    try {
+                        arm(Math.max(0, delay));
+                    } catch (RejectedExecutionException e) {
+                        LOG.debug("{} shut down, periodic task not rescheduled", name);
+                    }
+                }
+            } finally {
+                activeTasks.decrementAndGet();
+                completedTasks.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                pending.remove(this);
+                ScheduledFuture<?> currentTrigger = trigger;
+                if (currentTrigger != null) {
+                    currentTrigger.cancel(false);
+                }
+            }
+            return cancelled;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextRunNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.eightlives.friendlyssl.tls;
+
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslBundleKey;
+
+import javax.net.ssl.*;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.stream.Stream;
+
+/**
+ * A Tomcat SSL context that outlives certificate reloads. Spring Boot builds a new SSL context for each reload of an
+ * SSL bundle, which empties the server's TLS session cache and replaces its session ticket keys, so every client has
+ * to make a full handshake again. This context is built once and only its keys are replaced by {@link #update}, so
+ * sessions established before a reload can still be resumed after it.
+ * <p>
+ * Every key entry of the bundle's keystore is served, chosen for each handshake by the SNI hostname as described by
+ * {@link SniKeyManager}. The bundle's key alias names the certificate served when no other certificate matches.
+ * <p>
+ * Session ticket keys belong to the JSSE server session context and are rotated by it on its own schedule, which is
+ * set by the {@code jdk.tls.server.statelessKeyTimeout} system property.
+ */
+public class PersistentSslContext implements org.apache.tomcat.util.net.SSLContext {
+
+    private final SSLContext context;
+    private final SniKeyManager keyManager;
+    private final TrustManager[] trustManagers;
+
+    /**
+     * @param bundle                the SSL bundle to take the protocol, trust material and initial keys from
+     * @param keyManager            the key manager to load the bundle's keys into and serve them from
+     * @param sessionCacheSize      the most sessions to cache for resumption
+     * @param sessionTimeoutSeconds the number of seconds a cached session may be resumed for
+     * @throws IllegalStateException if the bundle's keys cannot be read or the SSL context cannot be created
+     */
+    public PersistentSslContext(SslBundle bundle, SniKeyManager keyManager, int sessionCacheSize,
+                                int sessionTimeoutSeconds) {
+        this.keyManager = keyManager;
+        load(bundle);
+        trustManagers = bundle.getManagers().getTrustManagers();
+        try {
+            context = SSLContext.getInstance(bundle.getProtocol());
+            context.init(new KeyManager[]{keyManager}, trustManagers, null);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not create SSL context", e);
+        }
+        SSLSessionContext sessionContext = context.getServerSessionContext();
+        sessionContext.setSessionCacheSize(sessionCacheSize);
+        sessionContext.setSessionTimeout(sessionTimeoutSeconds);
+    }
+
+    /**
+     * Serve the keys of the given SSL bundle from now on, keeping the session cache and session ticket keys.
+     *
+     * @param bundle the reloaded SSL bundle
+     * @throws IllegalStateException if the bundle's keys cannot be read
+     */
+    public void update(SslBundle bundle) {
+        load(bundle);
+    }
+
+    /**
+     * The context was initialized when it was created, and is not initialized again by Tomcat.
+     */
+    @Override
+    public void init(KeyManager[] keyManagers, TrustManager[] trustManagers, SecureRandom random) {
+    }
+
+    /**
+     * The context outlives the SSL host configurations it is used by, so it is not destroyed with them.
+     */
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public SSLSessionContext getServerSessionContext() {
+        return context.getServerSessionContext();
+    }
+
+    @Override
+    public SSLEngine createSSLEngine() {
+        return context.createSSLEngine();
+    }
+
+    @Override
+    public SSLServerSocketFactory getServerSocketFactory() {
+        return context.getServerSocketFactory();
+    }
+
+    @Override
+    public SSLParameters getSupportedSSLParameters() {
+        return context.getSupportedSSLParameters();
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias) {
+        return keyManager.getCertificateChain(alias);
+    }
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+        return Stream.of(trustManagers)
+                .filter(X509TrustManager.class::isInstance)
+                .flatMap(trustManager -> Stream.of(((X509TrustManager) trustManager).getAcceptedIssuers()))
+                .toArray(X509Certificate[]::new);
+    }
+
+    private void load(SslBundle bundle) {
+        SslBundleKey key = bundle.getKey();
+        String password = key.getPassword() != null ? key.getPassword() : bundle.getStores().getKeyStorePassword();
+        keyManager.load(bundle.getStores().getKeyStore(), password == null ? new char[0] : password.toCharArray(),
+                key.getAlias());
+    }
+}
@@ -0,0 +1,337 @@
+package net.eightlives.friendlyssl.tls;
+
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x500.style.IETFUtils;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.*;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A key manager that serves every managed certificate from one SSL context, choosing the certificate for each
+ * handshake by the SNI hostname the client asked for: a certificate naming the hostname exactly is preferred, then one
+ * with a matching wildcard name, then the default certificate.
+ * <p>
+ * Certificates are looked up in an immutable index, so choosing one during a handshake takes no lock and a constant
+ * number of map lookups. Changes copy the index and swap it in, so adding, replacing or removing one certificate
+ * leaves the SSL context and every other certificate as they are, and handshakes in progress finish with the index
+ * they started with.
+ * <p>
+ * A handler can be told of SNI hostnames that no certificate names, for example to order one for them. It is called on
+ * the handshake thread, which is served the certificate the handler put for the hostname, if any, or else the default
+ * certificate.
+ */
+@Component
+public class SniKeyManager extends X509ExtendedKeyManager {
+
+    private static final int DNS_NAME = 2;
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private volatile Index index = Index.EMPTY;
+    private volatile Consumer<String> unknownHostnameHandler = _ -> {
+    };
+    private Set<String> loadedAliases = Set.of();
+
+    /**
+     * A managed certificate.
+     *
+     * @param alias      the name of the certificate
+     * @param chain      the certificate chain, starting with the certificate of the private key
+     * @param privateKey the private key of the certificate
+     * @param names      the lower case DNS names of the certificate, which may be wildcards
+     */
+    public record Entry(String alias, X509Certificate[] chain, PrivateKey privateKey, Set<String> names) {
+
+        /**
+         * Create an entry named after the DNS names of the certificate, or its common name if it has none.
+         *
+         * @param alias      the name of the certificate
+         * @param chain      the certificate chain, starting with the certificate of the private key
+         * @param privateKey the private key of the certificate
+         * @return the new entry
+         */
+        public static Entry of(String alias, X509Certificate[] chain, PrivateKey privateKey) {
+            return new Entry(alias, chain.clone(), privateKey, dnsNames(chain[0]));
+        }
+
+        private boolean matches(String keyType) {
+            int signatureSeparator = keyType.indexOf('_');
+            String keyAlgorithm = signatureSeparator < 0 ? keyType : keyType.substring(0, signatureSeparator);
+            return privateKey.getAlgorithm().equals(keyAlgorithm);
+        }
+    }
+
+    private record Index(Map<String, Entry> byAlias, Map<String, List<Entry>> byName, String defaultAlias) {
+
+        private static final Index EMPTY = new Index(Map.of(), Map.of(), null);
+
+        private static Index of(Map<String, Entry> byAlias, String defaultAlias) {
+            Map<String, List<Entry>> byName = new HashMap<>();
+            for (Entry entry : byAlias.values()) {
+                for (String name : entry.names()) {
+                    byName.computeIfAbsent(name, _ -> new ArrayList<>()).add(entry);
+                }
+            }
+            byName.replaceAll((_, entries) -> List.copyOf(entries));
+            String resolvedDefault = defaultAlias != null && byAlias.containsKey(defaultAlias)
+                    ? defaultAlias
+                    : byAlias.keySet().stream().sorted().findFirst().orElse(null);
+            return new Index(Map.copyOf(byAlias), Map.copyOf(byName), resolvedDefault);
+        }
+    }
+
+    /**
+     * Replace the certificates loaded from a keystore earlier with the key entries of the given keystore. Certificates
+     * that were put individually are kept, unless the keystore has an entry with the same alias.
+     *
+     * @param keyStore     the keystore holding the certificates
+     * @param password     the password of the private keys
+     * @param defaultAlias the alias of the certificate to serve when no certificate matches the SNI hostname, or
+     *                     {@code null} for the first alias in alphabetical order
+     * @throws IllegalStateException if a private key cannot be read from the keystore
+     */
+    public synchronized void load(KeyStore keyStore, char[] password, String defaultAlias) {
+        Map<String, Entry> entries = new HashMap<>(index.byAlias());
+        entries.keySet().removeAll(loadedAliases);
+        Set<String> aliases = new HashSet<>();
+        try {
+            for (String alias : Collections.list(keyStore.aliases())) {
+                Key key = keyStore.isKeyEntry(alias) ? keyStore.getKey(alias, password) : null;
+                Certificate[] chain = keyStore.getCertificateChain(alias);
+                if (key instanceof PrivateKey privateKey && chain != null && chain.length > 0) {
+                    X509Certificate[] x509Chain = Arrays.copyOf(chain, chain.length, X509Certificate[].class);
+                    Entry existing = index.byAlias().get(alias);
+                    entries.put(alias, existing != null && Arrays.equals(existing.chain(), x509Chain)
+                            && existing.privateKey().equals(privateKey)
+                            ? existing
+                            : Entry.of(alias, x509Chain, privateKey));
+                    aliases.add(alias);
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not read keys from keystore", e);
+        }
+        loadedAliases = Set.copyOf(aliases);
+        index = Index.of(entries, defaultAlias);
+    }
+
+    /**
+     * Add a certificate, or replace the certificate with the same alias.
+     *
+     * @param entry the certificate to serve
+     */
+    public synchronized void put(Entry entry) {
+        putAll(List.of(entry));
+    }
+
+    /**
+     * Add certificates, or replace the certificates with the same aliases, rebuilding the index once for all of them.
+     *
+     * @param entries the certificates to serve
+     */
+    public synchronized void putAll(Collection<Entry> entries) {
+        Map<String, Entry> byAlias = new HashMap<>(index.byAlias());
+        for (Entry entry : entries) {
+            byAlias.put(entry.alias(), entry);
+        }
+        index = Index.of(byAlias, index.defaultAlias());
+    }
+
+    /**
+     * Stop serving the certificate with the given alias.
+     *
+     * @param alias the alias of the certificate
+     */
+    public synchronized void remove(String alias) {
+        Map<String, Entry> entries = new HashMap<>(index.byAlias());
+        if (entries.remove(alias) != null) {
+            index = Index.of(entries, index.defaultAlias());
+        }
+    }
+
+    /**
+     * Set the handler told of SNI hostnames that no certificate names, exactly or by wildcard. It is called during
+     * the handshake, so it must return quickly and leave any slow work to another thread. A certificate it puts for the
+     * hostname before returning is served to the handshake.
+     *
+     * @param handler the handler, given the lower case hostname
+     */
+    public void onUnknownHostname(Consumer<String> handler) {
+        unknownHostnameHandler = handler;
+    }
+
+    /**
+     * Returns the certificate that would be served for the given SNI hostname.
+     *
+     * @param hostname the hostname the client asked for, or {@code null} if it did not send one
+     * @param keyType  the key algorithm the certificate must have, such as {@code RSA} or {@code EC}
+     * @return the certificate naming the hostname, then one with a matching wildcard name, then the default
+     * certificate if it has the key type
+     */
+    public Optional<Entry> select(String hostname, String keyType) {
+        Index current = index;
+        if (hostname != null) {
+            String name = hostname.toLowerCase(Locale.ROOT);
+            Optional<Entry> exact = find(current.byName().get(name), keyType);
+            if (exact.isPresent()) {
+                return exact;
+            }
+            int firstDot = name.indexOf('.');
+            if (firstDot > 0) {
+                Optional<Entry> wildcard = find(current.byName().get(WILDCARD_PREFIX + name.substring(firstDot + 1)), keyType);
+                if (wildcard.isPresent()) {
+                    return wildcard;
+                }
+            }
+            if (!isManaged(current, name)) {
+                unknownHostnameHandler.accept(name);
+                if (index != current && isManaged(index, name)) {
+                    return select(name, keyType);
+                }
+            }
+        }
+        return current.defaultAlias() == null
+                ? Optional.empty()
+                : Optional.of(current.byAlias().get(current.defaultAlias())).filter(entry -> entry.matches(keyType));
+    }
+
+    /**
+     * Returns whether a managed certificate names the given hostname, exactly or by wildcard.
+     *
+     * @param hostname the hostname the client asked for
+     * @return {@code true} if a certificate is managed for the hostname
+     */
+    public boolean isManaged(String hostname) {
+        return isManaged(index, hostname.toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+        SSLSession handshakeSession = socket instanceof SSLSocket sslSocket ? sslSocket.getHandshakeSession() : null;
+        return select(serverName(handshakeSession), keyType).map(Entry::alias).orElse(null);
+    }
+
+    @Override
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+        SSLSession handshakeSession = engine == null ? null : engine.getHandshakeSession();
+        return select(serverName(handshakeSession), keyType).map(Entry::alias).orElse(null);
+    }
+
+    @Override
+    public String[] getServerAliases(String keyType, Principal[] issuers) {
+        String[] aliases = index.byAlias().values().stream()
+                .filter(entry -> entry.matches(keyType))
+                .map(Entry::alias)
+                .sorted()
+                .toArray(String[]::new);
+        return aliases.length == 0 ? null : aliases;
+    }
+
+    @Override
+    public X509Certificate[] getCertificateChain(String alias) {
+        Entry entry = entry(alias);
+        return entry == null ? null : entry.chain().clone();
+    }
+
+    @Override
+    public PrivateKey getPrivateKey(String alias) {
+        Entry entry = entry(alias);
+        return entry == null ? null : entry.privateKey();
+    }
+
+    /**
+     * Certificates are only served, never presented to other servers.
+     */
+    @Override
+    public String[] getClientAliases(String keyType, Principal[] issuers) {
+        return null;
+    }
+
+    @Override
+    public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+        return null;
+    }
+
+    @Override
+    public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+        return null;
+    }
+
+    private Entry entry(String alias) {
+        Index current = index;
+        String resolvedAlias = alias == null ? current.defaultAlias() : alias;
+        return resolvedAlias == null ? null : current.byAlias().get(resolvedAlias);
+    }
+
+    private static boolean isManaged(Index current, String name) {
+        int firstDot = name.indexOf('.');
+        return current.byName().containsKey(name)
+                || (firstDot > 0 && current.byName().containsKey(WILDCARD_PREFIX + name.substring(firstDot + 1)));
+    }
+
+    private static Optional<Entry> find(List<Entry> entries, String keyType) {
+        if (entries == null) {
+            return Optional.empty();
+        }
+        for (Entry entry : entries) {
+            if (entry.matches(keyType)) {
+                return Optional.of(entry);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the SNI hostname of the handshake, or {@code null} if the client did not send one.
+     */
+    static String serverName(SSLSession handshakeSession) {
+        if (handshakeSession instanceof ExtendedSSLSession extendedSession) {
+            for (SNIServerName serverName : extendedSession.getRequestedServerNames()) {
+                if (serverName instanceof SNIHostName hostName) {
+                    return hostName.getAsciiName();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> dnsNames(X509Certificate certificate) {
+        Set<String> names = new HashSet<>();
+        try {
+            Collection<List<?>> alternativeNames = certificate.getSubjectAlternativeNames();
+            if (alternativeNames != null) {
+                for (List<?> alternativeName : alternativeNames) {
+                    if (alternativeName.get(0) instanceof Integer type && type == DNS_NAME) {
+                        names.add(((String) alternativeName.get(1)).toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        } catch (CertificateParsingException e) {
+            // The certificate is then only served by default
+        }
+        if (names.isEmpty()) {
+            commonName(certificate).ifPresent(names::add);
+        }
+        return Set.copyOf(names);
+    }
+
+    private static Optional<String> commonName(X509Certificate certificate) {
+        RDN[] commonNames = X500Name.getInstance(certificate.getSubjectX500Principal().getEncoded())
+                .getRDNs(BCStyle.CN);
+        return commonNames.length == 0
+                ? Optional.empty()
+                : Optional.of(IETFUtils.valueToString(commonNames[0].getFirst().getValue()).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,94 @@
+package net.eightlives.friendlyssl.tls;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.http11.AbstractHttp11JsseProtocol;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.apache.tomcat.util.net.SSLHostConfigCertificate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.Ssl;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Makes Tomcat's HTTPS connector serve from a {@link PersistentSslContext}, so that TLS sessions survive certificate
+ * reloads. Spring Boot still replaces the connector's SSL host configuration when the SSL bundle is reloaded; the
+ * replacement is then pointed at the same persistent context, which is updated with the reloaded keys.
+ * <p>
+ * On-demand certificates are served by the persistent context's {@link SniKeyManager}, so it is also installed when
+ * they are enabled.
+ */
+@Component
+@ConditionalOnClass(name = "org.apache.catalina.startup.Tomcat")
+@ConditionalOnExpression("${friendly-ssl.session-resumption-enabled:false} or ${friendly-ssl.on-demand-enabled:false}")
+public class TomcatSessionResumptionCustomizer implements WebServerFactoryCustomizer<TomcatServletWebServerFactory> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TomcatSessionResumptionCustomizer.class);
+
+    private final FriendlySSLConfig config;
+    private final ServerProperties serverConfig;
+    private final SslBundles sslBundles;
+    private final SniKeyManager keyManager;
+
+    public TomcatSessionResumptionCustomizer(FriendlySSLConfig config,
+                                             ServerProperties serverConfig,
+                                             SslBundles sslBundles,
+                                             SniKeyManager keyManager) {
+        this.config = config;
+        this.serverConfig = serverConfig;
+        this.sslBundles = sslBundles;
+        this.keyManager = keyManager;
+    }
+
+    @Override
+    public void customize(TomcatServletWebServerFactory factory) {
+        factory.addConnectorCustomizers(this::customizeConnector);
+    }
+
+    /**
+     * Point the SSL host configurations of the given connector at a new {@link PersistentSslContext}, and again each
+     * time Spring Boot replaces them after a reload of the SSL bundle. Does nothing if the connector does not use an
+     * SSL bundle.
+     *
+     * @param connector the connector to customize, after Spring Boot has configured its SSL
+     */
+    void customizeConnector(Connector connector) {
+        Ssl ssl = serverConfig.getSsl();
+        if (!Ssl.isEnabled(ssl) || ssl.getBundle() == null
+                || !(connector.getProtocolHandler() instanceof AbstractHttp11JsseProtocol<?> protocol)) {
+            LOG.warn("TLS session resumption across reloads requires server.ssl.bundle and a Tomcat HTTPS connector");
+            return;
+        }
+
+        String bundleName = ssl.getBundle();
+        PersistentSslContext context = new PersistentSslContext(sslBundles.getBundle(bundleName), keyManager,
+                config.getSessionCacheSize(), config.getSessionTimeoutSeconds());
+        useContext(protocol, context);
+        sslBundles.addBundleUpdateHandler(bundleName, bundle -> update(protocol, context, bundle));
+    }
+
+    private static void update(AbstractHttp11JsseProtocol<?> protocol, PersistentSslContext context, SslBundle bundle) {
+        context.update(bundle);
+        useContext(protocol, context);
+        LOG.info("Reloaded certificate into the persistent SSL context, TLS sessions are kept");
+    }
+
+    /**
+     * Tomcat prefers a provided SSL context to the one it generated from the keystore, so engines created from now on
+     * use the persistent context.
+     */
+    private static void useContext(AbstractHttp11JsseProtocol<?> protocol, PersistentSslContext context) {
+        for (SSLHostConfig sslHostConfig : protocol.findSslHostConfigs()) {
+            for (SSLHostConfigCertificate certificate : sslHostConfig.getCertificates(true)) {
+                certificate.setSslContext(context);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package net.eightlives.friendlyssl.acme;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AcmeRequestThrottleTest {
+
+    private static final URI CA = URI.create("https://acme-v02.api.letsencrypt.org/acme/new-order");
+    private static final URI OTHER_CA = URI.create("https://acme.zerossl.com/v2/DV90/newOrder");
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(SECOND * 100);
+    private final AcmeRequestThrottle throttle = new AcmeRequestThrottle(4, now::get);
+
+    @DisplayName("Up to one second's worth of requests should be sent at once, then requests should be spaced evenly")
+    @Test
+    void burstThenSpaced() {
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, throttle.reserve(CA));
+        }
+        assertEquals(SECOND / 4, throttle.reserve(CA));
+        assertEquals(SECOND / 2, throttle.reserve(CA));
+    }
+
+    @DisplayName("A quiet period should allow a burst again")
+    @Test
+    void quietPeriod() {
+        for (int i = 0; i < 6; i++) {
+            throttle.reserve(CA);
+        }
+
+        now.addAndGet(SECOND * 10);
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, throttle.reserve(CA));
+        }
+        assertEquals(SECOND / 4, throttle.reserve(CA));
+    }
+
+    @DisplayName("Each CA should be throttled on its own")
+    @Test
+    void perCa() {
+        for (int i = 0; i < 4; i++) {
+            throttle.reserve(CA);
+        }
+
+        assertEquals(0, throttle.reserve(OTHER_CA));
+        assertEquals(SECOND / 4, throttle.reserve(CA));
+    }
+}
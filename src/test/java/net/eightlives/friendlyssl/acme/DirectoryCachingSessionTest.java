@@ -0,0 +1,67 @@
+package net.eightlives.friendlyssl.acme;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectoryCachingSessionTest {
+
+    private static final Instant FIXED_CLOCK = Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC));
+    private static final Clock CLOCK = Clock.fixed(FIXED_CLOCK, ZoneId.of("UTC"));
+
+    private DirectoryCachingSession session;
+
+    @BeforeEach
+    void setUp() {
+        session = new DirectoryCachingSession(URI.create("acme://letsencrypt.org/staging"), Duration.ofMinutes(60), CLOCK);
+    }
+
+    @DisplayName("Directory without a server expiration expires after the time to live")
+    @Test
+    void noServerExpiration() {
+        session.setDirectoryExpires(null);
+
+        assertEquals(ZonedDateTime.now(CLOCK).plusMinutes(60), session.getDirectoryExpires());
+    }
+
+    @DisplayName("Directory with a server expiration keeps the server expiration")
+    @Test
+    void serverExpiration() {
+        ZonedDateTime serverExpiration = ZonedDateTime.now(CLOCK).plusMinutes(5);
+
+        session.setDirectoryExpires(serverExpiration);
+
+        assertEquals(serverExpiration, session.getDirectoryExpires());
+    }
+
+    @DisplayName("Directory is never revalidated by last modified time")
+    @Test
+    void noLastModified() {
+        session.setDirectoryLastModified(ZonedDateTime.now(CLOCK));
+
+        assertNull(session.getDirectoryLastModified());
+    }
+
+    @DisplayName("Purging the directory cache clears the expiration")
+    @Test
+    void purge() {
+        session.setDirectoryExpires(null);
+
+        session.purgeDirectoryCache();
+
+        assertNull(session.getDirectoryExpires());
+        assertFalse(session.hasDirectory());
+    }
+
+    @DisplayName("Invalid session URL should throw an exception")
+    @Test
+    void invalidUrl() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new DirectoryCachingSession(URI.create("fake"), Duration.ofMinutes(60), CLOCK));
+    }
+}
@@ -0,0 +1,63 @@
+package net.eightlives.friendlyssl.acme;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EndpointLatencyRecorderTest {
+
+    private final EndpointLatencyRecorder recorder = new EndpointLatencyRecorder();
+
+    @DisplayName("Endpoint should leave out the path segments that identify a resource")
+    @ParameterizedTest
+    @CsvSource({
+            "HEAD, https://acme-v02.api.letsencrypt.org/acme/new-nonce, HEAD acme-v02.api.letsencrypt.org/acme/new-nonce",
+            "POST, https://acme-v02.api.letsencrypt.org/acme/authz-v3/1234567, POST acme-v02.api.letsencrypt.org/acme/authz-v3",
+            "POST, https://acme-v02.api.letsencrypt.org/acme/chall-v3/1234567/AbCdEf, POST acme-v02.api.letsencrypt.org/acme/chall-v3",
+            "POST, https://acme-v02.api.letsencrypt.org/acme/cert/fa3c2b1d0e9f8a7b6c5d4e3f2a1b0c9d8e7f, POST acme-v02.api.letsencrypt.org/acme/cert",
+            "POST, https://localhost:14000/authZ/fX3Q8wYyP3vK4Yw3kVx0sQ4sQyW3C7GgJm0t9bJpTqQ, POST localhost/authZ",
+            "GET, https://localhost:14000/dir, GET localhost/dir"
+    })
+    void endpoint(String method, String uri, String endpoint) {
+        assertEquals(endpoint, EndpointLatencyRecorder.endpoint(request(method, uri)));
+    }
+
+    @DisplayName("Responses should be counted and averaged per endpoint")
+    @Test
+    void recordResponse() {
+        recorder.recordResponse(request("POST", "https://example.com/acme/authz-v3/1"), Duration.ofMillis(100));
+        recorder.recordResponse(request("POST", "https://example.com/acme/authz-v3/2"), Duration.ofMillis(300));
+        recorder.recordResponse(request("HEAD", "https://example.com/acme/new-nonce"), Duration.ofMillis(50));
+
+        assertEquals(Map.of("POST example.com/acme/authz-v3", 2L, "HEAD example.com/acme/new-nonce", 1L),
+                recorder.getRequestCounts());
+        assertEquals(Map.of("POST example.com/acme/authz-v3", 200L, "HEAD example.com/acme/new-nonce", 50L),
+                recorder.getAverageLatencyMillis());
+        assertEquals(Map.of("POST example.com/acme/authz-v3", 300L, "HEAD example.com/acme/new-nonce", 50L),
+                recorder.getMaxLatencyMillis());
+        assertEquals(Map.of("POST example.com/acme/authz-v3", 0L, "HEAD example.com/acme/new-nonce", 0L),
+                recorder.getFailureCounts());
+    }
+
+    @DisplayName("Failures should be counted without affecting latency")
+    @Test
+    void recordFailure() {
+        recorder.recordFailure(request("POST", "https://example.com/acme/new-order"));
+
+        assertEquals(Map.of("POST example.com/acme/new-order", 1L), recorder.getFailureCounts());
+        assertEquals(Map.of("POST example.com/acme/new-order", 0L), recorder.getRequestCounts());
+        assertEquals(Map.of("POST example.com/acme/new-order", 0L), recorder.getAverageLatencyMillis());
+    }
+
+    private static HttpRequest request(String method, String uri) {
+        return HttpRequest.newBuilder(URI.create(uri)).method(method, HttpRequest.BodyPublishers.noBody()).build();
+    }
+}
@@ -0,0 +1,101 @@
+package net.eightlives.friendlyssl.acme;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LatencyRecordingHttpClientTest {
+
+    private static final HttpRequest REQUEST = HttpRequest.newBuilder(URI.create("https://example.com/acme/new-order"))
+            .POST(HttpRequest.BodyPublishers.noBody())
+            .build();
+    private static final HttpResponse.BodyHandler<String> HANDLER = HttpResponse.BodyHandlers.ofString();
+
+    private LatencyRecordingHttpClient client;
+
+    @Mock
+    private HttpClient delegate;
+    @Mock
+    private EndpointLatencyRecorder recorder;
+    @Mock
+    private HttpResponse<String> response;
+
+    @BeforeEach
+    void setUp() {
+        client = new LatencyRecordingHttpClient(delegate, recorder);
+    }
+
+    @DisplayName("Response should be returned and its latency recorded")
+    @Test
+    void send() throws Exception {
+        when(delegate.send(REQUEST, HANDLER)).thenReturn(response);
+
+        assertSame(response, client.send(REQUEST, HANDLER));
+        verify(recorder, times(1)).recordResponse(eq(REQUEST), any(Duration.class));
+        verify(recorder, never()).recordFailure(any());
+    }
+
+    @DisplayName("Failure should be rethrown and recorded")
+    @Test
+    void sendFailure() throws Exception {
+        IOException failure = new IOException();
+        when(delegate.send(REQUEST, HANDLER)).thenThrow(failure);
+
+        assertSame(failure, assertThrows(IOException.class, () -> client.send(REQUEST, HANDLER)));
+        verify(recorder, times(1)).recordFailure(REQUEST);
+        verify(recorder, never()).recordResponse(any(), any());
+    }
+
+    @DisplayName("Asynchronous response should be recorded when it completes")
+    @Test
+    void sendAsync() throws Exception {
+        CompletableFuture<HttpResponse<String>> future = new CompletableFuture<>();
+        when(delegate.sendAsync(REQUEST, HANDLER)).thenReturn(future);
+
+        CompletableFuture<HttpResponse<String>> result = client.sendAsync(REQUEST, HANDLER);
+        verify(recorder, never()).recordResponse(any(), any());
+        future.complete(response);
+
+        assertSame(response, result.get());
+        verify(recorder, times(1)).recordResponse(eq(REQUEST), any(Duration.class));
+    }
+
+    @DisplayName("Asynchronous failure should be recorded when it completes")
+    @Test
+    void sendAsyncFailure() {
+        CompletableFuture<HttpResponse<String>> future = new CompletableFuture<>();
+        when(delegate.sendAsync(REQUEST, HANDLER)).thenReturn(future);
+
+        CompletableFuture<HttpResponse<String>> result = client.sendAsync(REQUEST, HANDLER);
+        future.completeExceptionally(new IOException());
+
+        assertThrows(ExecutionException.class, result::get);
+        verify(recorder, times(1)).recordFailure(REQUEST);
+    }
+
+    @DisplayName("Closing should close the wrapped client")
+    @Test
+    void close() {
+        client.close();
+
+        verify(delegate, times(1)).close();
+    }
+}
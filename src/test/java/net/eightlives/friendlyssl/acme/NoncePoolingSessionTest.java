@@ -0,0 +1,213 @@
+package net.eightlives.friendlyssl.acme;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NoncePoolingSessionTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @DisplayName("When the pool is empty")
+    @Nested
+    class EmptyPool {
+
+        private final NoncePoolingSession session = new TestSession(4, () -> {
+        });
+
+        @DisplayName("the request should fetch a nonce and sign with the fetched nonce")
+        @Test
+        void fetchedNonceReserved() {
+            assertNull(session.getNonce());
+            session.setNonce(null);
+            session.setNonce("fetched");
+
+            assertEquals("fetched", session.getNonce());
+            assertEquals(0, session.getPooledNonces());
+            assertEquals(1, session.getNonceFetches());
+            assertEquals(0, session.getNonceFetchesAvoided());
+        }
+
+        @DisplayName("a request whose nonce fetch failed should not affect the next request of the thread")
+        @Test
+        void failedFetch() throws ExecutionException, InterruptedException {
+            assertNull(session.getNonce());
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                executor.submit(() -> session.setNonce("pooled")).get();
+
+                assertEquals("pooled", session.getNonce());
+                assertEquals("pooled", session.getNonce());
+                session.setNonce("response");
+                executor.submit(session::getNonce).get();
+            }
+
+            assertEquals(0, session.getConcurrentSignedRequests());
+        }
+
+        @DisplayName("a request that failed on a thread that has ended should not count as in flight")
+        @Test
+        void failedOnEndedThread() throws InterruptedException {
+            Thread.ofVirtual().start(session::getNonce).join();
+
+            session.getNonce();
+
+            assertEquals(0, session.getConcurrentSignedRequests());
+        }
+
+        @DisplayName("the response nonce should be pooled for the next request")
+        @Test
+        void responseNoncePooled() {
+            assertNull(session.getNonce());
+            session.setNonce("fetched");
+            session.getNonce();
+            session.setNonce("response");
+
+            assertEquals(1, session.getPooledNonces());
+            assertEquals("response", session.getNonce());
+            assertEquals("response", session.getNonce());
+            assertEquals(1, session.getNonceFetchesAvoided());
+        }
+    }
+
+    @DisplayName("When the pool has nonces")
+    @Nested
+    class FilledPool {
+
+        private final NoncePoolingSession session = new TestSession(4, () -> {
+        });
+
+        @DisplayName("both reads of one request should return the same nonce")
+        @Test
+        void sameNoncePerRequest() {
+            session.setNonce("first");
+            session.setNonce("second");
+
+            String nonce = session.getNonce();
+
+            assertEquals(nonce, session.getNonce());
+            assertEquals(1, session.getPooledNonces());
+        }
+
+        @DisplayName("parallel requests should each get their own nonce")
+        @Test
+        void parallelRequests() throws ExecutionException, InterruptedException {
+            session.setNonce("first");
+            session.setNonce("second");
+
+            String nonce = session.getNonce();
+            String otherNonce;
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                otherNonce = executor.submit(session::getNonce).get();
+            }
+
+            assertNotEquals(nonce, otherNonce);
+            assertEquals(1, session.getConcurrentSignedRequests());
+        }
+
+        @DisplayName("a response without a nonce should still end its request")
+        @Test
+        void responseWithoutNonce() throws ExecutionException, InterruptedException {
+            session.setNonce("first");
+            session.setNonce("second");
+
+            session.getNonce();
+            session.getNonce();
+            session.setNonce(null);
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                executor.submit(session::getNonce).get();
+            }
+
+            assertEquals(0, session.getConcurrentSignedRequests());
+        }
+
+        @DisplayName("expired nonces should be discarded")
+        @Test
+        void expiredNonces() {
+            session.setNonce("old");
+            clock.advance(Duration.ofMinutes(2));
+
+            assertNull(session.getNonce());
+            assertEquals(1, session.getNonceFetches());
+        }
+
+        @DisplayName("the oldest nonces should be dropped when the pool is full")
+        @Test
+        void capacity() {
+            for (int i = 0; i < 6; i++) {
+                session.setNonce("nonce-" + i);
+            }
+
+            assertEquals(4, session.getPooledNonces());
+            assertEquals("nonce-5", session.getNonce());
+        }
+    }
+
+    @DisplayName("Taking a nonce that leaves the pool below half its capacity should refill it in the background")
+    @Test
+    void refill() throws InterruptedException {
+        AtomicInteger fetched = new AtomicInteger();
+        NoncePoolingSession[] holder = new NoncePoolingSession[1];
+        CountDownLatch refilled = new CountDownLatch(2);
+        holder[0] = new TestSession(4, () -> {
+            holder[0].setNonce("prefetched-" + fetched.incrementAndGet());
+            refilled.countDown();
+        });
+
+        assertNull(holder[0].getNonce());
+
+        assertTrue(refilled.await(1, TimeUnit.SECONDS));
+        assertEquals(2, fetched.get());
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            while (holder[0].getNoncesPrefetched() < 2) {
+                Thread.onSpinWait();
+            }
+        });
+        assertEquals(2, holder[0].getPooledNonces());
+    }
+
+    private class TestSession extends NoncePoolingSession {
+
+        private final Runnable fetch;
+
+        private TestSession(int capacity, Runnable fetch) {
+            super(URI.create("acme://letsencrypt.org/staging"), Duration.ofMinutes(60), capacity, clock);
+            this.fetch = fetch;
+        }
+
+        @Override
+        protected void fetchNonce() {
+            fetch.run();
+        }
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant instant = Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC));
+
+        void advance(Duration duration) {
+            instant = instant.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package net.eightlives.friendlyssl.acme;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.NetworkSettings;
+import org.shredzone.acme4j.provider.GenericAcmeProvider;
+import org.shredzone.acme4j.provider.letsencrypt.LetsEncryptAcmeProvider;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedClientAcmeProviderTest {
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final EndpointLatencyRecorder recorder = new EndpointLatencyRecorder();
+
+    private HttpServer server;
+    private HttpClient httpClient;
+    private SharedClientAcmeProvider provider;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        String baseUrl = "http://localhost:" + server.getAddress().getPort();
+        server.createContext("/dir", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = ("{\"newNonce\": \"" + baseUrl + "/nonce\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.createContext("/nonce", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            exchange.getResponseHeaders().add("Replay-Nonce", "bm9uY2U");
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+
+        httpClient = new LatencyRecordingHttpClient(
+                HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build(), recorder);
+        provider = new SharedClientAcmeProvider(new GenericAcmeProvider(), httpClient);
+    }
+
+    @AfterEach
+    void tearDown() {
+        httpClient.close();
+        server.stop(0);
+    }
+
+    @DisplayName("Connections of different sessions should share the client and its connection")
+    @Test
+    void connectionsShareClient() throws Exception {
+        URI serverUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/dir");
+
+        for (int i = 0; i < 2; i++) {
+            Session session = new Session(serverUri, provider);
+            try (Connection connection = session.connect()) {
+                connection.resetNonce(session);
+            }
+            assertEquals("bm9uY2U", session.getNonce());
+        }
+
+        assertEquals(1, clientPorts.size());
+        assertEquals(Map.of("GET localhost/dir", 2L, "HEAD localhost/nonce", 2L), recorder.getRequestCounts());
+    }
+
+    @DisplayName("With a client factory, each connection should get a client built from its session's network settings")
+    @Test
+    void clientPerConnection() throws Exception {
+        URI serverUri = URI.create("http://localhost:" + server.getAddress().getPort() + "/dir");
+        List<NetworkSettings> settings = new ArrayList<>();
+        SharedClientAcmeProvider perConnection = new SharedClientAcmeProvider(new GenericAcmeProvider(),
+                networkSettings -> {
+                    settings.add(networkSettings);
+                    return new LatencyRecordingHttpClient(
+                            HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build(), recorder);
+                });
+
+        Session session = new Session(serverUri, perConnection);
+        try (Connection connection = session.connect()) {
+            connection.resetNonce(session);
+        }
+
+        assertEquals("bm9uY2U", session.getNonce());
+        assertEquals(2, settings.size());
+        assertTrue(settings.stream().allMatch(networkSettings -> networkSettings == session.networkSettings()));
+        assertEquals(Map.of("GET localhost/dir", 1L, "HEAD localhost/nonce", 1L), recorder.getRequestCounts());
+    }
+
+    @DisplayName("Server URIs should be accepted and resolved by the wrapped provider")
+    @Test
+    void delegatesResolution() {
+        SharedClientAcmeProvider letsEncrypt = new SharedClientAcmeProvider(new LetsEncryptAcmeProvider(), httpClient);
+        URI serverUri = URI.create("acme://letsencrypt.org/staging");
+
+        assertTrue(letsEncrypt.accepts(serverUri));
+        assertFalse(provider.accepts(serverUri));
+        assertEquals(new LetsEncryptAcmeProvider().resolve(serverUri), letsEncrypt.resolve(serverUri));
+    }
+}
@@ -0,0 +1,64 @@
+package net.eightlives.friendlyssl.acme;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ThrottlingHttpClientTest {
+
+    private static final HttpRequest REQUEST = HttpRequest.newBuilder(URI.create("https://example.com/acme/new-order"))
+            .POST(HttpRequest.BodyPublishers.noBody())
+            .build();
+    private static final HttpResponse.BodyHandler<String> HANDLER = HttpResponse.BodyHandlers.ofString();
+
+    private ThrottlingHttpClient client;
+
+    @Mock
+    private HttpClient delegate;
+    @Mock
+    private AcmeRequestThrottle throttle;
+    @Mock
+    private HttpResponse<String> response;
+
+    @BeforeEach
+    void setUp() {
+        client = new ThrottlingHttpClient(delegate, throttle);
+    }
+
+    @DisplayName("A request should be sent once the throttle allows it")
+    @Test
+    void send() throws Exception {
+        when(delegate.send(REQUEST, HANDLER)).thenReturn(response);
+
+        assertSame(response, client.send(REQUEST, HANDLER));
+        var order = inOrder(throttle, delegate);
+        order.verify(throttle).acquire(REQUEST.uri());
+        order.verify(delegate).send(REQUEST, HANDLER);
+    }
+
+    @DisplayName("An asynchronous request should be sent after the wait the throttle reserved")
+    @Test
+    void sendAsync() throws Exception {
+        when(throttle.reserve(REQUEST.uri())).thenReturn(TimeUnit.MILLISECONDS.toNanos(50));
+        when(delegate.sendAsync(REQUEST, HANDLER)).thenReturn(CompletableFuture.completedFuture(response));
+
+        CompletableFuture<HttpResponse<String>> future = client.sendAsync(REQUEST, HANDLER);
+
+        assertSame(response, future.get(5, TimeUnit.SECONDS));
+        verify(delegate, times(1)).sendAsync(REQUEST, HANDLER);
+    }
+}
@@ -9,6 +9,7 @@ import net.eightlives.friendlyssl.service.PKCS12KeyStoreService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.extension.ExtensionContext;
 import org.junit.jupiter.api.parallel.Execution;
@@ -28,6 +29,10 @@ import org.springframework.test.web.servlet.MockMvc;
 import java.security.cert.X509Certificate;
 import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -35,6 +40,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @Tag("controller")
@@ -115,6 +121,53 @@ class CertificateControllerTest {
                 ));
     }
 
+    @DisplayName("Test deferred order returns 429 with Retry-After")
+    @Test
+    void deferred() throws Exception {
+        CertificateRenewal renewal = new CertificateRenewal(CertificateRenewalStatus.DEFERRED, Instant.ofEpochSecond(100000));
+        when(createRenewService.renewCertificate()).thenReturn(renewal);
+        when(keyStoreService.getCertificate("friendly-test")).thenReturn(Optional.of(mock(X509Certificate.class)));
+
+        mvc.perform(get("/friendly-ssl/certificate/order"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "Fri, 2 Jan 1970 03:46:40 GMT"))
+                .andExpect(result -> assertEquals(
+                        objectMapper.writer().writeValueAsString(renewal),
+                        result.getResponse().getContentAsString()
+                ));
+    }
+
+    @DisplayName("Test order returns 503 while too many orders are waiting")
+    @Test
+    void queueFull() throws Exception {
+        X509Certificate certificate = mock(X509Certificate.class);
+        CertificateRenewal renewal = new CertificateRenewal(CertificateRenewalStatus.SUCCESS, Instant.ofEpochSecond(100000));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(keyStoreService.getCertificate("friendly-test")).thenReturn(Optional.of(certificate));
+        when(createRenewService.renewCertificate()).thenAnswer(_ -> {
+            started.countDown();
+            release.await();
+            return renewal;
+        });
+
+        CompletableFuture<Integer> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return mvc.perform(get("/friendly-ssl/certificate/order")).andReturn().getResponse().getStatus();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        mvc.perform(get("/friendly-ssl/certificate/order"))
+                .andExpect(status().isServiceUnavailable());
+        release.countDown();
+        assertEquals(200, waiting.get(5, TimeUnit.SECONDS));
+        mvc.perform(get("/friendly-ssl/certificate/order"))
+                .andExpect(status().isOk());
+    }
+
     static class ErrorStatusAndCertificateProvider implements ArgumentsProvider {
 
         @Override
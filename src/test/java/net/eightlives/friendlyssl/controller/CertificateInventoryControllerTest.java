@@ -0,0 +1,133 @@
+package net.eightlives.friendlyssl.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.InventoryEntry;
+import net.eightlives.friendlyssl.model.InventoryPage;
+import net.eightlives.friendlyssl.service.CertificateInventoryService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@Tag("controller")
+@Tag("slow")
+@ExtendWith(MockitoExtension.class)
+@WebMvcTest(controllers = CertificateInventoryController.class)
+@ActiveProfiles({"test-base", "test-existing-keystore"})
+@Execution(ExecutionMode.SAME_THREAD)
+class CertificateInventoryControllerTest {
+
+    private static final InventoryEntry ENTRY = new InventoryEntry("shop.test.me", Instant.ofEpochSecond(100000),
+            "CN=Test CA", "RSA", CertificateRenewalStatus.SUCCESS, Instant.ofEpochSecond(50000));
+
+    @SpringBootApplication
+    static class TestApp {
+    }
+
+    @Autowired
+    private MockMvc mvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @MockBean
+    private CertificateInventoryService inventoryService;
+
+    @DisplayName("Test inventory returns the first page of all certificates by default")
+    @Test
+    void list() throws Exception {
+        InventoryPage page = new InventoryPage(List.of(ENTRY), 0, 50, 1);
+        when(inventoryService.page(null, 0, 50)).thenReturn(page);
+
+        mvc.perform(get("/friendly-ssl/certificate/inventory"))
+                .andExpect(status().isOk())
+                .andExpect(result -> assertEquals(
+                        objectMapper.writer().writeValueAsString(page),
+                        result.getResponse().getContentAsString()
+                ));
+    }
+
+    @DisplayName("Test inventory returns the requested page of certificates due within the given hours")
+    @Test
+    void listDue() throws Exception {
+        InventoryPage page = new InventoryPage(List.of(), 2, 10, 21);
+        when(inventoryService.page(Duration.ofHours(72), 2, 10)).thenReturn(page);
+
+        mvc.perform(get("/friendly-ssl/certificate/inventory")
+                        .param("dueWithinHours", "72")
+                        .param("page", "2")
+                        .param("size", "10"))
+                .andExpect(status().isOk())
+                .andExpect(result -> assertEquals(
+                        objectMapper.writer().writeValueAsString(page),
+                        result.getResponse().getContentAsString()
+                ));
+    }
+
+    @DisplayName("Test inventory accepts the largest due hours")
+    @Test
+    void listDueMax() throws Exception {
+        InventoryPage page = new InventoryPage(List.of(ENTRY), 0, 50, 1);
+        when(inventoryService.page(Duration.ofHours(CertificateInventoryController.MAX_DUE_WITHIN_HOURS), 0, 50))
+                .thenReturn(page);
+
+        mvc.perform(get("/friendly-ssl/certificate/inventory")
+                        .param("dueWithinHours", String.valueOf(CertificateInventoryController.MAX_DUE_WITHIN_HOURS)))
+                .andExpect(status().isOk());
+    }
+
+    @DisplayName("Test inventory returns 400 for an out of range parameter")
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"page=-1", "size=0", "size=501", "dueWithinHours=-1", "dueWithinHours=87601",
+            "dueWithinHours=9223372036854775807"})
+    void badRequest(String query) throws Exception {
+        mvc.perform(get("/friendly-ssl/certificate/inventory?" + query))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(inventoryService);
+    }
+
+    @DisplayName("Test inventory returns the certificate of a domain")
+    @Test
+    void getDomain() throws Exception {
+        when(inventoryService.get("shop.test.me")).thenReturn(Optional.of(ENTRY));
+
+        mvc.perform(get("/friendly-ssl/certificate/inventory/shop.test.me"))
+                .andExpect(status().isOk())
+                .andExpect(result -> assertEquals(
+                        objectMapper.writer().writeValueAsString(ENTRY),
+                        result.getResponse().getContentAsString()
+                ));
+    }
+
+    @DisplayName("Test inventory returns 404 for a domain without a certificate")
+    @Test
+    void getUnknownDomain() throws Exception {
+        when(inventoryService.get("other.test.me")).thenReturn(Optional.empty());
+
+        mvc.perform(get("/friendly-ssl/certificate/inventory/other.test.me"))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,42 @@
+package net.eightlives.friendlyssl.keystore;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AtomicFilesTest {
+
+    @DisplayName("A new file should be written without leaving a temporary file behind")
+    @Test
+    void newFile(@TempDir Path temp) throws IOException {
+        Path file = temp.resolve("fullchain.pem");
+
+        AtomicFiles.write(file, "certificate".getBytes());
+
+        assertEquals("certificate", Files.readString(file));
+        assertFalse(Files.exists(temp.resolve("fullchain.pem.tmp")));
+    }
+
+    @DisplayName("An existing file should be replaced, keeping its permissions")
+    @DisabledOnOs(OS.WINDOWS)
+    @Test
+    void existingFile(@TempDir Path temp) throws IOException {
+        Path file = temp.resolve("privkey.pem");
+        Files.writeString(file, "old key");
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+
+        AtomicFiles.write(file, "new key".getBytes());
+
+        assertEquals("new key", Files.readString(file));
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file));
+    }
+}
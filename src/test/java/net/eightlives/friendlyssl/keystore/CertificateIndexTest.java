@@ -0,0 +1,188 @@
+package net.eightlives.friendlyssl.keystore;
+
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CertificateIndexTest {
+
+    private static final StoredCertificate SHOP = new StoredCertificate("shop.test.me", "3a/shop.test.me.p12",
+            Instant.ofEpochSecond(1700000000), "ab".repeat(32), "CN=Test CA", "RSA");
+    private static final StoredCertificate API = new StoredCertificate("api.test.me", "0f/api.test.me.p12",
+            Instant.ofEpochSecond(1800000000), "cd".repeat(32), "CN=Test CA", "EC");
+
+    @TempDir
+    Path directory;
+
+    @DisplayName("Appended entries should be read back by domain in alphabetical order")
+    @Test
+    void roundTrip() throws IOException {
+        Path file = directory.resolve("index.dat");
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(Map.of(), index.entries());
+            index.append(SHOP);
+            index.append(API);
+        }
+
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(List.of(API, SHOP), List.copyOf(index.entries().values()));
+        }
+    }
+
+    @DisplayName("A later entry for a domain should replace an earlier one, and a removal should drop it")
+    @Test
+    void supersede() throws IOException {
+        Path file = directory.resolve("index.dat");
+        StoredCertificate renewed = new StoredCertificate("shop.test.me", "3a/shop.test.me.p12",
+                Instant.ofEpochSecond(1900000000), "ef".repeat(32), "CN=Other CA", "RSA");
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            index.append(SHOP);
+            index.append(API);
+            index.append(renewed);
+            index.appendRemoval("api.test.me");
+        }
+
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(Map.of("shop.test.me", renewed), index.entries());
+        }
+    }
+
+    @DisplayName("An index mostly made of superseded records should be compacted when opened")
+    @Test
+    void compact() throws IOException {
+        Path file = directory.resolve("index.dat");
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            index.append(SHOP);
+            index.append(SHOP);
+            index.append(SHOP);
+        }
+        long size = Files.size(file);
+
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(1, index.records());
+            assertEquals(Map.of("shop.test.me", SHOP), index.entries());
+            index.append(API);
+        }
+
+        assertTrue(Files.size(file) < size + 100);
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(2, index.entries().size());
+        }
+    }
+
+    @DisplayName("A record cut short by a crash should be discarded, keeping the records before it")
+    @Test
+    void truncated() throws IOException {
+        Path file = directory.resolve("index.dat");
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            index.append(SHOP);
+            index.append(API);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(Map.of("shop.test.me", SHOP), index.entries());
+            index.append(API);
+        }
+
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(2, index.entries().size());
+        }
+    }
+
+    @DisplayName("A corrupted record should end the index")
+    @Test
+    void corrupted() throws IOException {
+        Path file = directory.resolve("index.dat");
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            index.append(SHOP);
+            index.append(API);
+        }
+        byte[] content = Files.readAllBytes(file);
+        content[content.length - 20] ^= 1;
+        Files.write(file, content);
+
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(Map.of("shop.test.me", SHOP), index.entries());
+        }
+    }
+
+    @DisplayName("A record with a corrupted length should end the index")
+    @Test
+    void corruptedLength() throws IOException {
+        Path file = directory.resolve("index.dat");
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            index.append(SHOP);
+        }
+        Files.write(file, ByteBuffer.allocate(12).putInt(Integer.MAX_VALUE).array(), StandardOpenOption.APPEND);
+
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(Map.of("shop.test.me", SHOP), index.entries());
+            index.append(API);
+        }
+
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(2, index.entries().size());
+        }
+    }
+
+    @DisplayName("An index of version 1 should be read without issuer and key type and rewritten in the current version")
+    @Test
+    void version1() throws IOException {
+        Path file = directory.resolve("index.dat");
+        byte[] domain = SHOP.domain().getBytes(StandardCharsets.UTF_8);
+        byte[] relativeFile = SHOP.file().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + domain.length + 2 + relativeFile.length + 8 + 32)
+                .put((byte) 1)
+                .putShort((short) domain.length).put(domain)
+                .putShort((short) relativeFile.length).put(relativeFile)
+                .putLong(SHOP.notAfter().getEpochSecond())
+                .put(HexFormat.of().parseHex(SHOP.fingerprint()))
+                .flip();
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        Files.write(file, ByteBuffer.allocate(8 + 4 + body.remaining() + 4)
+                .putInt(0x46534349).putInt(1)
+                .putInt(body.remaining()).put(body).putInt((int) crc.getValue())
+                .array());
+        StoredCertificate withoutIssuer = new StoredCertificate(SHOP.domain(), SHOP.file(), SHOP.notAfter(),
+                SHOP.fingerprint(), "", "");
+
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(Map.of("shop.test.me", withoutIssuer), index.entries());
+            index.append(API);
+        }
+
+        assertEquals(2, ByteBuffer.wrap(Files.readAllBytes(file)).getInt(4));
+        try (CertificateIndex index = CertificateIndex.open(file)) {
+            assertEquals(Map.of("api.test.me", API, "shop.test.me", withoutIssuer), index.entries());
+        }
+    }
+
+    @DisplayName("A file that is not a certificate index should fail to open")
+    @Test
+    void notAnIndex() throws IOException {
+        Path file = directory.resolve("index.dat");
+        Files.writeString(file, "not an index");
+
+        assertThrows(IOException.class, () -> CertificateIndex.open(file));
+    }
+}
@@ -0,0 +1,113 @@
+package net.eightlives.friendlyssl.keystore;
+
+import net.eightlives.friendlyssl.model.Pkcs12Profile;
+import org.bouncycastle.asn1.nist.NISTObjectIdentifiers;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.ContentInfo;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.pkcs.PKCS12PfxPdu;
+import org.bouncycastle.pkcs.PKCS12SafeBag;
+import org.bouncycastle.pkcs.PKCS12SafeBagFactory;
+import org.bouncycastle.pkcs.PKCS8EncryptedPrivateKeyInfo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Pkcs12CodecTest {
+
+    private static final String ALIAS = "friendlyssl";
+    private static final byte[] LOCAL_KEY_ID = "abcdef".getBytes();
+
+    private List<X509Certificate> certificateChain;
+    private PrivateKey privateKey;
+
+    @BeforeEach
+    void setUp() throws CertificateException, IOException {
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        certificateChain = new ArrayList<>((Collection<? extends X509Certificate>)
+                certificateFactory.generateCertificates(Files.newInputStream(
+                        Path.of("src", "test", "resources", "certificate_chain.pem"))));
+        privateKey = KeyPairUtils.readKeyPair(Files.newBufferedReader(
+                Path.of("src", "test", "resources", "keypair.pem"))).getPrivate();
+    }
+
+    @DisplayName("A keystore encoded with any profile should decode to the same key and certificate")
+    @ParameterizedTest(name = "{0}")
+    @EnumSource(Pkcs12Profile.class)
+    void roundTrip(Pkcs12Profile profile) throws IOException, GeneralSecurityException {
+        byte[] encoded = new Pkcs12Codec(profile, 1000).encode(certificateChain, privateKey, ALIAS, LOCAL_KEY_ID);
+
+        KeyStore store = Pkcs12Codec.decode(new ByteArrayInputStream(encoded));
+
+        assertEquals(privateKey, store.getKey(ALIAS, new char[0]));
+        assertEquals(certificateChain.getFirst(), store.getCertificate(ALIAS));
+    }
+
+    @DisplayName("The AES-256 profile should encrypt the key and certificates with PBES2 and check integrity with SHA-256")
+    @Test
+    void aes256() throws Exception {
+        PKCS12PfxPdu pfx = new PKCS12PfxPdu(
+                new Pkcs12Codec(Pkcs12Profile.AES_256, 1000).encode(certificateChain, privateKey, ALIAS, LOCAL_KEY_ID));
+
+        ContentInfo[] contentInfos = pfx.getContentInfos();
+        assertEquals(PKCSObjectIdentifiers.encryptedData, contentInfos[0].getContentType());
+        assertEquals(PKCSObjectIdentifiers.id_PBES2, keyEncryptionAlgorithm(contentInfos[contentInfos.length - 1]));
+        assertEquals(NISTObjectIdentifiers.id_sha256, pfx.getMacAlgorithmID().getAlgorithm());
+        assertEquals(1000, pfx.toASN1Structure().getMacData().getIterationCount().intValue());
+    }
+
+    @DisplayName("The certificates-in-clear profile should only encrypt the key")
+    @Test
+    void certsInClear() throws Exception {
+        PKCS12PfxPdu pfx = new PKCS12PfxPdu(
+                new Pkcs12Codec(Pkcs12Profile.CERTS_IN_CLEAR, 1000).encode(certificateChain, privateKey, ALIAS, LOCAL_KEY_ID));
+
+        ContentInfo[] contentInfos = pfx.getContentInfos();
+        assertEquals(PKCSObjectIdentifiers.data, contentInfos[0].getContentType());
+        assertEquals(PKCSObjectIdentifiers.id_PBES2, keyEncryptionAlgorithm(contentInfos[contentInfos.length - 1]));
+        assertEquals(NISTObjectIdentifiers.id_sha256, pfx.getMacAlgorithmID().getAlgorithm());
+    }
+
+    @DisplayName("The legacy profile should encrypt with 3DES and RC2 and check integrity with SHA-1")
+    @Test
+    void legacy() throws Exception {
+        PKCS12PfxPdu pfx = new PKCS12PfxPdu(
+                new Pkcs12Codec(Pkcs12Profile.LEGACY, 2048).encode(certificateChain, privateKey, ALIAS, LOCAL_KEY_ID));
+
+        ContentInfo[] contentInfos = pfx.getContentInfos();
+        assertEquals(PKCSObjectIdentifiers.encryptedData, contentInfos[0].getContentType());
+        assertEquals(PKCSObjectIdentifiers.pbeWithSHAAnd3_KeyTripleDES_CBC, keyEncryptionAlgorithm(contentInfos[contentInfos.length - 1]));
+        assertEquals(OIWObjectIdentifiers.idSHA1, pfx.getMacAlgorithmID().getAlgorithm());
+        assertEquals(2048, pfx.toASN1Structure().getMacData().getIterationCount().intValue());
+    }
+
+    @DisplayName("A malformed keystore should fail to decode")
+    @Test
+    void malformed() {
+        assertThrows(IOException.class, () -> Pkcs12Codec.decode(new ByteArrayInputStream("not a keystore".getBytes())));
+    }
+
+    private static Object keyEncryptionAlgorithm(ContentInfo keyContentInfo) {
+        PKCS12SafeBag keyBag = new PKCS12SafeBagFactory(keyContentInfo).getSafeBags()[0];
+        return ((PKCS8EncryptedPrivateKeyInfo) keyBag.getBagValue()).getEncryptionAlgorithm().getAlgorithm();
+    }
+}
@@ -0,0 +1,29 @@
+package net.eightlives.friendlyssl.listener;
+
+import net.eightlives.friendlyssl.event.CertificateRenewalAttempted;
+import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.service.CertificateInventoryService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class CertificateRenewalAttemptedListenerTest {
+
+    @Mock
+    private CertificateInventoryService inventoryService;
+
+    @DisplayName("The result of an order should be recorded in the inventory")
+    @Test
+    void renewalAttempted() {
+        new CertificateRenewalAttemptedListener(inventoryService).onApplicationEvent(
+                new CertificateRenewalAttempted(this, "shop.test.me", CertificateRenewalStatus.ERROR));
+
+        verify(inventoryService, times(1)).renewalAttempted("shop.test.me", CertificateRenewalStatus.ERROR);
+    }
+}
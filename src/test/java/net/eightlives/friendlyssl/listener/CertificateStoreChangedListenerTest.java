@@ -0,0 +1,50 @@
+package net.eightlives.friendlyssl.listener;
+
+import net.eightlives.friendlyssl.event.CertificateStoreChanged;
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import net.eightlives.friendlyssl.service.CertificateInventoryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CertificateStoreChangedListenerTest {
+
+    private CertificateStoreChangedListener listener;
+
+    @Mock
+    private CertificateInventoryService inventoryService;
+
+    @BeforeEach
+    void setUp() {
+        listener = new CertificateStoreChangedListener(inventoryService);
+    }
+
+    @DisplayName("A stored certificate should be added to the inventory")
+    @Test
+    void stored() {
+        StoredCertificate certificate = new StoredCertificate("shop.test.me", "ab/shop.test.me.p12",
+                Instant.ofEpochSecond(100000), "ab".repeat(32), "CN=Test CA", "RSA");
+
+        listener.onApplicationEvent(new CertificateStoreChanged(this, "shop.test.me", certificate));
+
+        verify(inventoryService, times(1)).stored(certificate);
+        verifyNoMoreInteractions(inventoryService);
+    }
+
+    @DisplayName("A removed certificate should be removed from the inventory")
+    @Test
+    void removed() {
+        listener.onApplicationEvent(new CertificateStoreChanged(this, "shop.test.me", null));
+
+        verify(inventoryService, times(1)).removed("shop.test.me");
+        verifyNoMoreInteractions(inventoryService);
+    }
+}
@@ -3,6 +3,7 @@ package net.eightlives.friendlyssl.listener;
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.event.ChallengeTokenRequested;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.model.OrderDeadline;
 import net.eightlives.friendlyssl.service.ChallengeTokenStore;
 import net.eightlives.friendlyssl.service.UpdateCheckerService;
 import org.junit.jupiter.api.*;
@@ -16,6 +17,8 @@ import org.shredzone.acme4j.Authorization;
 import org.shredzone.acme4j.challenge.Http01Challenge;
 import org.shredzone.acme4j.exception.AcmeException;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.*;
@@ -28,6 +31,7 @@ class ChallengeTokenRequestedListenerTest {
 
     private static final String CHALLENGE_TOKEN = "this is a token";
     private static final String CHALLENGE_AUTH = "this is an authorization";
+    private static final OrderDeadline DEADLINE = OrderDeadline.after(Duration.ofMinutes(5), Clock.systemUTC());
 
     private ChallengeTokenRequestedListener listener;
 
@@ -53,9 +57,9 @@ class ChallengeTokenRequestedListenerTest {
         listener.onApplicationEvent(new ChallengeTokenRequested(this, "token"));
     }
 
-    @DisplayName("Test getChallengeTokenVerification")
+    @DisplayName("Test verifyChallenge")
     @Nested
-    class GetChallengeTokenVerification {
+    class VerifyChallenge {
 
         private final Map<String, String> tokensToContent = new HashMap<>();
 
@@ -73,8 +77,7 @@ class ChallengeTokenRequestedListenerTest {
         void challengeTriggerException() throws AcmeException {
             doThrow(new AcmeException()).when(challenge).trigger();
 
-            assertThrows(FriendlySSLException.class,
-                    () -> listener.getChallengeTokenVerification(challenge, auth));
+            assertThrows(FriendlySSLException.class, () -> listener.verifyChallenge(challenge, auth, DEADLINE));
         }
 
         @DisplayName("when challenge trigger does not cause exception")
@@ -90,9 +93,27 @@ class ChallengeTokenRequestedListenerTest {
             @DisplayName("when onApplicationEvent is not called within token-requested-timeout-seconds")
             @Test
             void listenerFutureTimeout() {
-                CompletableFuture<Void> future = listener.getChallengeTokenVerification(challenge, auth);
+                FriendlySSLException exception = assertThrows(FriendlySSLException.class,
+                        () -> listener.verifyChallenge(challenge, auth, DEADLINE));
+                assertInstanceOf(TimeoutException.class, exception.getCause());
+            }
+
+            @DisplayName("when the order deadline passes before token-requested-timeout-seconds")
+            @Test
+            void deadlineTimeout() {
+                OrderDeadline passed = OrderDeadline.after(Duration.ZERO, Clock.systemUTC());
 
-                assertThrows(ExecutionException.class, future::get);
+                FriendlySSLException exception = assertThrows(FriendlySSLException.class,
+                        () -> listener.verifyChallenge(challenge, auth, passed));
+                assertInstanceOf(TimeoutException.class, exception.getCause());
+            }
+
+            @DisplayName("when the waiting thread is interrupted")
+            @Test
+            void interrupted() {
+                Thread.currentThread().interrupt();
+
+                assertThrows(InterruptedException.class, () -> listener.verifyChallenge(challenge, auth, DEADLINE));
             }
 
             @DisplayName("when onApplicationEvent is called within token-requested-timeout-seconds")
@@ -103,33 +124,43 @@ class ChallengeTokenRequestedListenerTest {
                 private ScheduledFuture<Void> updateCheckerResult;
 
                 @BeforeEach
-                void setUp() {
+                void setUp() throws AcmeException {
+                    doAnswer(invocation -> {
+                        listener.onApplicationEvent(new ChallengeTokenRequested(this, CHALLENGE_TOKEN));
+                        return null;
+                    }).when(challenge).trigger();
                     when(updateCheckerService.start(auth)).thenReturn(updateCheckerResult);
                     when(config.getAuthChallengeTimeoutSeconds()).thenReturn(1);
                 }
 
                 @DisplayName("and update checker fails")
                 @ParameterizedTest(name = "with exception {0}")
-                @ValueSource(classes = {TimeoutException.class, InterruptedException.class, ExecutionException.class, CancellationException.class})
+                @ValueSource(classes = {TimeoutException.class, ExecutionException.class, CancellationException.class})
                 void updateCheckerException(Class<Throwable> exceptionClass) throws InterruptedException, ExecutionException, TimeoutException {
-                    when(updateCheckerResult.get(1, TimeUnit.SECONDS)).thenThrow(exceptionClass);
+                    when(updateCheckerResult.get(1000L, TimeUnit.MILLISECONDS)).thenThrow(exceptionClass);
 
-                    CompletableFuture<Void> future = listener.getChallengeTokenVerification(challenge, auth);
-                    listener.onApplicationEvent(new ChallengeTokenRequested(this, CHALLENGE_TOKEN));
+                    FriendlySSLException exception = assertThrows(FriendlySSLException.class,
+                            () -> listener.verifyChallenge(challenge, auth, DEADLINE));
+                    assertInstanceOf(exceptionClass, exception.getCause());
+                    verify(updateCheckerResult).cancel(true);
+                }
 
-                    ExecutionException exception = assertThrows(ExecutionException.class, future::get);
-                    assertInstanceOf(FriendlySSLException.class, exception.getCause());
+                @DisplayName("and update checker is interrupted")
+                @Test
+                void updateCheckerInterrupted() throws InterruptedException, ExecutionException, TimeoutException {
+                    when(updateCheckerResult.get(1000L, TimeUnit.MILLISECONDS)).thenThrow(InterruptedException.class);
+
+                    assertThrows(InterruptedException.class, () -> listener.verifyChallenge(challenge, auth, DEADLINE));
+                    verify(updateCheckerResult).cancel(true);
                 }
 
                 @DisplayName("and update checker completes")
                 @Test
                 void updateCheckerCompletes() throws InterruptedException, ExecutionException, TimeoutException {
-                    when(updateCheckerResult.get(1, TimeUnit.SECONDS)).thenReturn(null);
-
-                    CompletableFuture<Void> future = listener.getChallengeTokenVerification(challenge, auth);
-                    listener.onApplicationEvent(new ChallengeTokenRequested(this, CHALLENGE_TOKEN));
+                    when(updateCheckerResult.get(1000L, TimeUnit.MILLISECONDS)).thenReturn(null);
 
-                    assertTrue(future.isDone());
+                    assertDoesNotThrow(() -> listener.verifyChallenge(challenge, auth, DEADLINE));
+                    verify(updateCheckerResult).cancel(true);
                 }
             }
         }
@@ -4,7 +4,13 @@ import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.factory.RecursiveTimerTaskFactory;
 import net.eightlives.friendlyssl.model.CertificateRenewal;
 import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.OrderJournalEntry;
+import net.eightlives.friendlyssl.model.OrderState;
 import net.eightlives.friendlyssl.service.AutoRenewService;
+import net.eightlives.friendlyssl.service.BulkRenewalService;
+import net.eightlives.friendlyssl.service.CertificateCreateRenewService;
+import net.eightlives.friendlyssl.service.OrderJournalService;
+import net.eightlives.friendlyssl.service.PreAuthorizationService;
 import net.eightlives.friendlyssl.task.RecursiveTimerTask;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -16,6 +22,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 
 import java.time.Instant;
+import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
@@ -33,13 +40,22 @@ class FriendlySSLApplicationListenerTest {
     @Mock
     private AutoRenewService autoRenewService;
     @Mock
+    private BulkRenewalService bulkRenewalService;
+    @Mock
+    private PreAuthorizationService preAuthorizationService;
+    @Mock
+    private CertificateCreateRenewService createRenewService;
+    @Mock
+    private OrderJournalService orderJournalService;
+    @Mock
     private RecursiveTimerTaskFactory timerTaskFactory;
     @Mock
     private ScheduledExecutorService timer;
 
     @BeforeEach
     void setUp() {
-        listener = new FriendlySSLApplicationListener(config, autoRenewService, timerTaskFactory, timer);
+        listener = new FriendlySSLApplicationListener(config, autoRenewService, bulkRenewalService, preAuthorizationService,
+                createRenewService, orderJournalService, timerTaskFactory, timer);
     }
 
     @DisplayName("Testing that create or renew service is not called when auto renew is disabled")
@@ -54,26 +70,103 @@ class FriendlySSLApplicationListenerTest {
         verify(autoRenewService, times(0)).autoRenew();
     }
 
-    @DisplayName("Testing that create or renew service is correctly scheduled when auto renew is enabled")
+    @DisplayName("Testing that create or renew service is scheduled without bulk renewal when on-demand issuance is disabled")
+    @Test
+    void onApplicationEventOnDemandDisabled() {
+        when(config.isAutoRenewEnabled()).thenReturn(true);
+        RecursiveTimerTask timerTask = mock(RecursiveTimerTask.class);
+        when(timerTaskFactory.create(same(timer), any())).thenReturn(timerTask);
+
+        ApplicationReadyEvent event = mock(ApplicationReadyEvent.class);
+        listener.onApplicationEvent(event);
+
+        verify(timerTaskFactory, times(1)).create(same(timer), any());
+        verify(timer, times(1)).schedule(timerTask, 1, TimeUnit.SECONDS);
+        verifyNoInteractions(bulkRenewalService);
+    }
+
+    @DisplayName("Testing that create or renew service and bulk renewal are correctly scheduled when auto renew is enabled")
     @Test
     void onApplicationEventConfigEnabled() {
         when(config.isAutoRenewEnabled()).thenReturn(true);
+        when(config.isOnDemandEnabled()).thenReturn(true);
         RecursiveTimerTask timerTask = mock(RecursiveTimerTask.class);
-        ArgumentCaptor<Supplier<Instant>> createOrRenewSupplier = ArgumentCaptor.forClass(Supplier.class);
-        when(timerTaskFactory.create(same(timer), createOrRenewSupplier.capture())).thenReturn(timerTask);
+        RecursiveTimerTask bulkRenewalTask = mock(RecursiveTimerTask.class);
+        ArgumentCaptor<Supplier<Instant>> suppliers = ArgumentCaptor.forClass(Supplier.class);
+        when(timerTaskFactory.create(same(timer), suppliers.capture()))
+                .thenReturn(timerTask)
+                .thenReturn(bulkRenewalTask);
         CertificateRenewal renewal = new CertificateRenewal(CertificateRenewalStatus.SUCCESS,
                 Instant.ofEpochMilli(100000));
         when(autoRenewService.autoRenew()).thenReturn(renewal);
+        Instant bulkRenewalTime = Instant.ofEpochMilli(300000);
+        when(bulkRenewalService.renewDue()).thenReturn(bulkRenewalTime);
 
         ApplicationReadyEvent event = mock(ApplicationReadyEvent.class);
         listener.onApplicationEvent(event);
 
-        ArgumentCaptor<RecursiveTimerTask> timerTaskArg = ArgumentCaptor.forClass(RecursiveTimerTask.class);
-        ArgumentCaptor<Long> secondsArg = ArgumentCaptor.forClass(Long.class);
-        verify(timer, times(1)).schedule(timerTaskArg.capture(), secondsArg.capture(), eq(TimeUnit.SECONDS));
+        verify(timer, times(1)).schedule(timerTask, 1, TimeUnit.SECONDS);
+        verify(timer, times(1)).schedule(bulkRenewalTask, 1, TimeUnit.SECONDS);
+        assertEquals(renewal.time(), suppliers.getAllValues().get(0).get());
+        assertEquals(bulkRenewalTime, suppliers.getAllValues().get(1).get());
+    }
+
+    @DisplayName("Testing that pre-authorization is scheduled along with auto renew when it is enabled")
+    @Test
+    void onApplicationEventPreAuthorizationEnabled() {
+        when(config.isAutoRenewEnabled()).thenReturn(true);
+        when(config.isPreAuthorizationEnabled()).thenReturn(true);
+        RecursiveTimerTask autoRenewTask = mock(RecursiveTimerTask.class);
+        RecursiveTimerTask preAuthorizationTask = mock(RecursiveTimerTask.class);
+        ArgumentCaptor<Supplier<Instant>> suppliers = ArgumentCaptor.forClass(Supplier.class);
+        when(timerTaskFactory.create(same(timer), suppliers.capture()))
+                .thenReturn(autoRenewTask)
+                .thenReturn(preAuthorizationTask);
+        Instant preAuthorizationTime = Instant.ofEpochMilli(200000);
+        when(preAuthorizationService.preAuthorize()).thenReturn(preAuthorizationTime);
+
+        ApplicationReadyEvent event = mock(ApplicationReadyEvent.class);
+        listener.onApplicationEvent(event);
+
+        verify(timer, times(1)).schedule(autoRenewTask, 1, TimeUnit.SECONDS);
+        verify(timer, times(1)).schedule(preAuthorizationTask, 1, TimeUnit.SECONDS);
+        assertEquals(preAuthorizationTime, suppliers.getAllValues().get(1).get());
+    }
+
+    @DisplayName("Testing that an unfinished order is resumed when auto renew is disabled")
+    @Test
+    void onApplicationEventResumeOrder() {
+        when(config.getDomain()).thenReturn("domain.com");
+        when(orderJournalService.getInFlightOrder("domain.com")).thenReturn(Optional.of(new OrderJournalEntry(
+                "domain.com", "https://example.com/acme/order/1", OrderState.AUTHORIZING, "", Instant.EPOCH)));
+
+        ApplicationReadyEvent event = mock(ApplicationReadyEvent.class);
+        listener.onApplicationEvent(event);
+
+        ArgumentCaptor<Runnable> resume = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer, times(1)).schedule(resume.capture(), eq(1L), eq(TimeUnit.SECONDS));
+        resume.getValue().run();
+        verify(createRenewService, times(1)).renewCertificate();
+        verifyNoInteractions(autoRenewService);
+    }
+
+    @DisplayName("Testing that auto renew resumes an unfinished order instead of checking the certificate")
+    @Test
+    void onApplicationEventAutoRenewResumesOrder() {
+        when(config.isAutoRenewEnabled()).thenReturn(true);
+        when(config.getDomain()).thenReturn("domain.com");
+        when(orderJournalService.getInFlightOrder("domain.com")).thenReturn(Optional.of(new OrderJournalEntry(
+                "domain.com", "https://example.com/acme/order/1", OrderState.FINALIZING, "", Instant.EPOCH)));
+        ArgumentCaptor<Supplier<Instant>> autoRenewSupplier = ArgumentCaptor.forClass(Supplier.class);
+        when(timerTaskFactory.create(same(timer), autoRenewSupplier.capture())).thenReturn(mock(RecursiveTimerTask.class));
+        CertificateRenewal renewal = new CertificateRenewal(CertificateRenewalStatus.SUCCESS,
+                Instant.ofEpochMilli(100000));
+        when(createRenewService.renewCertificate()).thenReturn(renewal);
+
+        ApplicationReadyEvent event = mock(ApplicationReadyEvent.class);
+        listener.onApplicationEvent(event);
 
-        assertEquals(timerTask, timerTaskArg.getValue());
-        assertEquals(1, secondsArg.getValue());
-        assertEquals(renewal.time(), createOrRenewSupplier.getValue().get());
+        assertEquals(renewal.time(), autoRenewSupplier.getAllValues().getFirst().get());
+        verifyNoInteractions(autoRenewService);
     }
 }
@@ -1,5 +1,8 @@
 package net.eightlives.friendlyssl.listener;
 
+import net.eightlives.friendlyssl.keystore.PemCodec;
+import net.eightlives.friendlyssl.keystore.Pkcs12Codec;
+import net.eightlives.friendlyssl.model.KeystoreFormat;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
@@ -16,9 +19,11 @@ import org.springframework.core.env.ConfigurableEnvironment;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.time.Instant;
@@ -71,6 +76,7 @@ public class KeystoreCheckListenerTest {
 
         listener.environmentPrepared(null, environment);
 
+        assertFalse(Files.exists(temp.resolve("not_exists.p12.tmp")));
         KeyStore store = KeyStore.getInstance("PKCS12");
         store.load(Files.newInputStream(notExists), "".toCharArray());
         X509Certificate certificate = (X509Certificate) store.getCertificate("friendlyssl");
@@ -116,6 +122,24 @@ public class KeystoreCheckListenerTest {
         assertArrayEquals(keystore, Files.readAllBytes(keystorePath));
     }
 
+    @DisplayName("When a valid certificate for the domain is present under another alias, it is kept under the configured alias")
+    @Test
+    void certificateRenamed(@TempDir Path temp) throws GeneralSecurityException, IOException {
+        Path keystorePath = temp.resolve("keystore.p12");
+        when(environment.getProperty("friendly-ssl.keystore-file")).thenReturn(keystorePath.toString());
+        when(environment.getProperty("friendly-ssl.certificate-key-alias")).thenReturn("other");
+        listener.environmentPrepared(null, environment);
+        X509Certificate existing = (X509Certificate) Pkcs12Codec.decode(Files.newInputStream(keystorePath))
+                .getCertificate("other");
+
+        when(environment.getProperty("friendly-ssl.certificate-key-alias")).thenReturn("friendlyssl");
+        listener.environmentPrepared(null, environment);
+
+        KeyStore store = Pkcs12Codec.decode(Files.newInputStream(keystorePath));
+        assertEquals(existing, store.getCertificate("friendlyssl"));
+        assertNotNull(store.getKey("friendlyssl", new char[0]));
+    }
+
     @DisplayName("When an existing certificate is present")
     @Nested
     class CertificateExists {
@@ -165,4 +189,54 @@ public class KeystoreCheckListenerTest {
             }
         }
     }
+
+    @DisplayName("When the keystore format is PEM")
+    @Nested
+    class PemFormat {
+
+        private Path certificateFile;
+        private Path privateKeyFile;
+
+        @BeforeEach
+        void setUp(@TempDir Path temp) {
+            certificateFile = temp.resolve("certs").resolve("fullchain.pem");
+            privateKeyFile = temp.resolve("privkey.pem");
+
+            when(environment.getProperty("friendly-ssl.keystore-format", KeystoreFormat.class, KeystoreFormat.PKCS12))
+                    .thenReturn(KeystoreFormat.PEM);
+            when(environment.getProperty("friendly-ssl.pem-certificate-file", "fullchain.pem"))
+                    .thenReturn(certificateFile.toString());
+            when(environment.getProperty("friendly-ssl.pem-private-key-file", "privkey.pem"))
+                    .thenReturn(privateKeyFile.toString());
+        }
+
+        @DisplayName("and the PEM files do not exist, a self-signed certificate is written to them")
+        @Test
+        void pemNotExists() throws IOException, CertificateException {
+            listener.environmentPrepared(null, environment);
+
+            X509Certificate certificate = PemCodec.decodeCertificates(Files.newInputStream(certificateFile)).getFirst();
+            PrivateKey privateKey = PemCodec.decodePrivateKey(Files.newBufferedReader(privateKeyFile));
+
+            assertEquals("DC=NET,DC=EIGHTLIVES,DC=FRIENDLYSSL,CN=test.me",
+                    certificate.getSubjectX500Principal().getName());
+            assertEquals(privateKey.getAlgorithm(), certificate.getPublicKey().getAlgorithm());
+            assertTrue(Files.notExists(notExists));
+        }
+
+        @DisplayName("and the PEM files hold a certificate, they are left as they are")
+        @Test
+        void pemExists() throws IOException {
+            Files.createDirectories(certificateFile.getParent());
+            Files.copy(Path.of("src", "test", "resources", "certificate_chain.pem"), certificateFile);
+            Files.copy(Path.of("src", "test", "resources", "keypair.pem"), privateKeyFile);
+
+            listener.environmentPrepared(null, environment);
+
+            assertArrayEquals(Files.readAllBytes(Path.of("src", "test", "resources", "certificate_chain.pem")),
+                    Files.readAllBytes(certificateFile));
+            assertArrayEquals(Files.readAllBytes(Path.of("src", "test", "resources", "keypair.pem")),
+                    Files.readAllBytes(privateKeyFile));
+        }
+    }
 }
@@ -3,8 +3,10 @@ package net.eightlives.friendlyssl.service;
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
 import net.eightlives.friendlyssl.factory.AccountBuilderFactory;
+import net.eightlives.friendlyssl.model.AcmeCa;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.ArgumentCaptor;
@@ -21,20 +23,26 @@ import org.shredzone.acme4j.toolbox.JSON;
 import org.shredzone.acme4j.util.KeyPairUtils;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyPair;
+import java.time.Clock;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class AcmeAccountServiceTest {
 
+    private static final String SESSION_URL = "acme://letsencrypt.org/staging";
+
     private AcmeAccountService service;
     private AcmeServerException accountDoesNotExistException;
 
@@ -45,11 +53,17 @@ class AcmeAccountServiceTest {
     @Mock
     private AccountBuilderFactory accountBuilderFactory;
     @Mock
+    private PKCS12KeyStoreService keyStoreService;
+    @Mock
+    private MBeanRegistrationService mBeanRegistrationService;
+    @Mock
     private Session session;
 
     @BeforeEach
     void setUp() throws MalformedURLException {
-        service = new AcmeAccountService(config, termsOfServiceService, accountBuilderFactory);
+        service = new AcmeAccountService(config, termsOfServiceService, accountBuilderFactory,
+                new AcmeCaService(config, keyStoreService, mBeanRegistrationService, Clock.systemUTC()));
+        lenient().when(session.getServerUri()).thenReturn(URI.create(SESSION_URL));
         accountDoesNotExistException = new AcmeServerException(new Problem(
                 JSON.parse("{\"type\":\"urn:ietf:params:acme:error:accountDoesNotExist\"}"),
                 new URL("http://localhost")));
@@ -58,6 +72,8 @@ class AcmeAccountServiceTest {
     @DisplayName("getting TOS link throws FriendlySSLException")
     @Test
     void getTermsOfServiceLinkException() {
+        when(config.getAccountPrivateKeyFile())
+                .thenReturn(Path.of("src", "test", "resources", "keypair.pem").toString());
         when(termsOfServiceService.getTermsOfServiceLink(session)).thenThrow(
                 new FriendlySSLException(""));
 
@@ -240,6 +256,132 @@ class AcmeAccountServiceTest {
         @AfterEach
         void tearDown() throws IOException {
             Files.deleteIfExists(Path.of("src", "test", "resources", "non-existing.pem"));
+            Files.deleteIfExists(Path.of("src", "test", "resources", "non-existing.pem.url"));
+            Files.deleteIfExists(Path.of("src", "test", "resources", "keypair.pem.url"));
+        }
+    }
+
+    @DisplayName("Account login caching")
+    @Nested
+    class LoginCaching {
+
+        private static final String ACCOUNT_URL = "https://localhost:14000/my-account/1";
+
+        @TempDir
+        private Path tempDir;
+
+        @Mock
+        private Login login;
+        @Mock
+        private AccountBuilder accountBuilder;
+
+        private Path accountFile;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            accountFile = tempDir.resolve("account.pem");
+            Files.copy(Path.of("src", "test", "resources", "keypair.pem"), accountFile);
+            when(config.getAccountPrivateKeyFile()).thenReturn(accountFile.toString());
+        }
+
+        @DisplayName("when the account URL is persisted, login should be made from it without looking up the account")
+        @Test
+        void persistedAccountUrl() throws IOException {
+            Files.writeString(Path.of(accountFile + ".url"), ACCOUNT_URL + "\n");
+            when(session.login(eq(new URL(ACCOUNT_URL)), any(KeyPair.class))).thenReturn(login);
+
+            assertEquals(login, service.getOrCreateAccountLogin(session));
+
+            verifyNoInteractions(accountBuilderFactory, termsOfServiceService);
+        }
+
+        @DisplayName("a fallback CA should use the account of its own key pair and account URL")
+        @Test
+        void fallbackCaAccount() throws IOException {
+            String fallbackUrl = "acme://fallback.example.com";
+            Path fallbackAccountFile = tempDir.resolve("fallback.pem");
+            KeyPair fallbackKeyPair = KeyPairUtils.createKeyPair(2048);
+            try (Writer writer = Files.newBufferedWriter(fallbackAccountFile)) {
+                KeyPairUtils.writeKeyPair(fallbackKeyPair, writer);
+            }
+            Files.writeString(Path.of(fallbackAccountFile + ".url"), "https://fallback.example.com/account/7");
+            when(config.getFallbackCas()).thenReturn(List.of(new AcmeCa(fallbackUrl, fallbackAccountFile.toString())));
+            when(session.getServerUri()).thenReturn(URI.create(fallbackUrl));
+            when(session.login(eq(new URL("https://fallback.example.com/account/7")), any(KeyPair.class)))
+                    .thenReturn(login);
+
+            assertEquals(login, service.getOrCreateAccountLogin(session));
+
+            ArgumentCaptor<KeyPair> keyPairArg = ArgumentCaptor.forClass(KeyPair.class);
+            verify(session).login(any(URL.class), keyPairArg.capture());
+            assertEquals(fallbackKeyPair.getPublic(), keyPairArg.getValue().getPublic());
+        }
+
+        @DisplayName("the login should be cached for the session")
+        @Test
+        void loginCached() throws IOException {
+            Files.writeString(Path.of(accountFile + ".url"), ACCOUNT_URL);
+            when(session.login(eq(new URL(ACCOUNT_URL)), any(KeyPair.class))).thenReturn(login);
+
+            service.getOrCreateAccountLogin(session);
+            assertEquals(login, service.getOrCreateAccountLogin(session));
+
+            verify(session, times(1)).login(any(URL.class), any(KeyPair.class));
+        }
+
+        @DisplayName("the account key pair should be read once and reused for other sessions of the CA")
+        @Test
+        void accountKeyPairCached() throws IOException {
+            Session otherSession = mock(Session.class);
+            Login otherLogin = mock(Login.class);
+            when(otherSession.getServerUri()).thenReturn(URI.create(SESSION_URL));
+            Files.writeString(Path.of(accountFile + ".url"), ACCOUNT_URL);
+            when(session.login(eq(new URL(ACCOUNT_URL)), any(KeyPair.class))).thenReturn(login);
+            when(otherSession.login(eq(new URL(ACCOUNT_URL)), any(KeyPair.class))).thenReturn(otherLogin);
+
+            service.getOrCreateAccountLogin(session);
+            Files.delete(accountFile);
+            assertEquals(otherLogin, service.getOrCreateAccountLogin(otherSession));
+
+            assertFalse(Files.exists(accountFile));
+            ArgumentCaptor<KeyPair> keyPairArg = ArgumentCaptor.forClass(KeyPair.class);
+            verify(session).login(any(URL.class), keyPairArg.capture());
+            verify(otherSession).login(any(URL.class), same(keyPairArg.getValue()));
+        }
+
+        @DisplayName("when the account is looked up")
+        @Nested
+        class AccountLookedUp {
+
+            @BeforeEach
+            void setUp() throws AcmeException, MalformedURLException {
+                when(termsOfServiceService.getTermsOfServiceLink(session)).thenReturn(URI.create("http://localhost:8000"));
+                when(accountBuilderFactory.accountBuilder()).thenReturn(accountBuilder);
+                when(accountBuilder.useKeyPair(any(KeyPair.class))).thenReturn(accountBuilder);
+                when(accountBuilder.onlyExisting()).thenReturn(accountBuilder);
+                when(accountBuilder.createLogin(session)).thenReturn(login);
+                when(login.getAccountLocation()).thenReturn(new URL(ACCOUNT_URL));
+            }
+
+            @DisplayName("the account URL should be persisted")
+            @Test
+            void accountUrlPersisted() throws IOException {
+                service.getOrCreateAccountLogin(session);
+
+                assertEquals(ACCOUNT_URL, Files.readString(Path.of(accountFile + ".url")));
+            }
+
+            @DisplayName("refreshing should ignore the persisted account URL and cached login")
+            @Test
+            void refresh() throws IOException {
+                Files.writeString(Path.of(accountFile + ".url"), "https://localhost:14000/my-account/old");
+
+                assertEquals(login, service.refreshAccountLogin(session));
+                assertEquals(login, service.getOrCreateAccountLogin(session));
+
+                assertEquals(ACCOUNT_URL, Files.readString(Path.of(accountFile + ".url")));
+                verify(session, never()).login(any(URL.class), any(KeyPair.class));
+            }
         }
     }
 }
\ No newline at end of file
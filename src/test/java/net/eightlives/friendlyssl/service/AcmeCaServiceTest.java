@@ -0,0 +1,239 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.acme.AcmeCaHealthMXBean;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.AcmeCa;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.security.cert.X509Certificate;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AcmeCaServiceTest {
+
+    private static final String KEY_ALIAS = "friendly-test";
+    private static final AcmeCa PRIMARY = new AcmeCa("acme://letsencrypt.org", "account.pem");
+    private static final AcmeCa FALLBACK = new AcmeCa("https://acme.zerossl.com/v2/DV90", "account-zerossl.pem");
+    private static final Instant NOW = Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC));
+    private static final Clock FIXED_CLOCK = Clock.fixed(NOW, ZoneId.of("UTC"));
+
+    private AcmeCaService service;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private PKCS12KeyStoreService keyStoreService;
+    @Mock
+    private MBeanRegistrationService mBeanRegistrationService;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(config.getAcmeSessionUrl()).thenReturn(PRIMARY.sessionUrl());
+        lenient().when(config.getAccountPrivateKeyFile()).thenReturn(PRIMARY.accountPrivateKeyFile());
+        lenient().when(config.getOrderDeadlineSeconds()).thenReturn(100);
+        lenient().when(config.getCaHealthWindowHours()).thenReturn(24);
+
+        service = new AcmeCaService(config, keyStoreService, mBeanRegistrationService, FIXED_CLOCK);
+    }
+
+    @DisplayName("CA health should be registered as an MBean")
+    @Test
+    void registersHealthMBean() {
+        verify(mBeanRegistrationService, times(1)).register("AcmeCa", "health", service, AcmeCaHealthMXBean.class);
+    }
+
+    @DisplayName("When only the ACME session URL is configured, its CA should be selected without checking expiry")
+    @Test
+    void singleCa() {
+        service.recordFailure(PRIMARY);
+
+        assertEquals(PRIMARY, service.selectCa());
+        verifyNoInteractions(keyStoreService);
+    }
+
+    @DisplayName("A CA without recorded orders should have a health score of 1")
+    @Test
+    void noOrders() {
+        assertEquals(1, service.getHealthScore(PRIMARY));
+    }
+
+    @DisplayName("Each order failed since the last success should halve the health score")
+    @Test
+    void trailingFailures() {
+        service.recordSuccess(PRIMARY, Duration.ZERO);
+        service.recordFailure(PRIMARY);
+        service.recordFailure(PRIMARY);
+
+        assertEquals(1.0 / 3 * 0.25, service.getHealthScore(PRIMARY), 1e-9);
+    }
+
+    @DisplayName("A 95th percentile duration approaching the order deadline should reduce the health score by up to half")
+    @Test
+    void latency() {
+        service.recordSuccess(PRIMARY, Duration.ofSeconds(50));
+        assertEquals(0.75, service.getHealthScore(PRIMARY), 1e-9);
+
+        service.recordSuccess(PRIMARY, Duration.ofSeconds(500));
+        assertEquals(0.5, service.getHealthScore(PRIMARY), 1e-9);
+    }
+
+    @DisplayName("Only the most recent orders should count towards the health score")
+    @Test
+    void window() {
+        service.recordFailure(PRIMARY);
+        for (int i = 0; i < AcmeCaService.HEALTH_WINDOW; i++) {
+            service.recordSuccess(PRIMARY, Duration.ZERO);
+        }
+
+        assertEquals(1, service.getHealthScore(PRIMARY));
+    }
+
+    @DisplayName("When fallback CAs are configured")
+    @Nested
+    class FallbackCas {
+
+        @BeforeEach
+        void setUp() {
+            when(config.getFallbackCas()).thenReturn(List.of(FALLBACK));
+        }
+
+        @DisplayName("the CA of the ACME session URL should be preferred")
+        @Test
+        void order() {
+            assertEquals(List.of(PRIMARY, FALLBACK), service.getCas());
+        }
+
+        @DisplayName("a CA should be found by its session URL")
+        @Test
+        void getCa() {
+            assertEquals(FALLBACK, service.getCa(FALLBACK.sessionUrl()));
+        }
+
+        @DisplayName("an unknown session URL should resolve to the preferred CA")
+        @Test
+        void getUnknownCa() {
+            assertEquals(PRIMARY, service.getCa("acme://unknown.example.com"));
+        }
+
+        @DisplayName("health should be reported per CA")
+        @Test
+        void healthMBean() {
+            service.recordSuccess(PRIMARY, Duration.ofSeconds(2));
+            service.recordFailure(FALLBACK);
+
+            assertEquals(Map.of(PRIMARY.sessionUrl(), 1.0, FALLBACK.sessionUrl(), 0.0), service.getSuccessRates());
+            assertEquals(Map.of(PRIMARY.sessionUrl(), 2000L, FALLBACK.sessionUrl(), 0L), service.getP95LatencyMillis());
+            assertEquals(Map.of(PRIMARY.sessionUrl(), 0, FALLBACK.sessionUrl(), 1), service.getRecentErrors());
+            assertEquals(0.0, service.getHealthScores().get(FALLBACK.sessionUrl()));
+        }
+
+        @DisplayName("and the certificate is far from expiring")
+        @Nested
+        class ExpiryFar {
+
+            @BeforeEach
+            void setUp() {
+                X509Certificate certificate = mock(X509Certificate.class);
+                when(certificate.getNotAfter()).thenReturn(Date.from(NOW.plus(30, ChronoUnit.DAYS)));
+                when(config.getCertificateKeyAlias()).thenReturn(KEY_ALIAS);
+                when(config.getFailoverHoursBefore()).thenReturn(48);
+                when(keyStoreService.getCertificate(KEY_ALIAS)).thenReturn(Optional.of(certificate));
+            }
+
+            @DisplayName("a healthy preferred CA should be selected even if another CA is healthier")
+            @Test
+            void preferredHealthy() {
+                service.recordSuccess(PRIMARY, Duration.ofSeconds(100));
+
+                assertEquals(PRIMARY, service.selectCa());
+            }
+
+            @DisplayName("the first healthy CA should be selected if the preferred CA is unhealthy")
+            @Test
+            void preferredUnhealthy() {
+                service.recordFailure(PRIMARY);
+
+                assertEquals(FALLBACK, service.selectCa());
+            }
+
+            @DisplayName("the preferred CA should be selected again once its failures are older than the health window")
+            @Test
+            void preferredRecovers() {
+                Clock clock = mock(Clock.class);
+                when(clock.instant()).thenReturn(NOW);
+                service = new AcmeCaService(config, keyStoreService, mBeanRegistrationService, clock);
+                service.recordFailure(PRIMARY);
+                assertEquals(FALLBACK, service.selectCa());
+
+                when(clock.instant()).thenReturn(NOW.plus(Duration.ofHours(25)));
+                assertEquals(1, service.getHealthScore(PRIMARY));
+                assertEquals(PRIMARY, service.selectCa());
+
+                service.recordSuccess(PRIMARY, Duration.ZERO);
+                assertEquals(PRIMARY, service.selectCa());
+            }
+
+            @DisplayName("the preferred CA should be selected if no CA is healthy")
+            @Test
+            void noneHealthy() {
+                service.recordFailure(PRIMARY);
+                service.recordFailure(FALLBACK);
+
+                assertEquals(PRIMARY, service.selectCa());
+            }
+        }
+
+        @DisplayName("and the certificate is close to expiring")
+        @Nested
+        class ExpiryClose {
+
+            @BeforeEach
+            void setUp() {
+                X509Certificate certificate = mock(X509Certificate.class);
+                when(certificate.getNotAfter()).thenReturn(Date.from(NOW.plus(24, ChronoUnit.HOURS)));
+                when(config.getCertificateKeyAlias()).thenReturn(KEY_ALIAS);
+                when(config.getFailoverHoursBefore()).thenReturn(48);
+                when(keyStoreService.getCertificate(KEY_ALIAS)).thenReturn(Optional.of(certificate));
+            }
+
+            @DisplayName("the healthiest CA should be selected")
+            @Test
+            void healthiest() {
+                service.recordSuccess(PRIMARY, Duration.ofSeconds(100));
+
+                assertEquals(FALLBACK, service.selectCa());
+            }
+
+            @DisplayName("the preferred CA should be selected if it is as healthy as any other")
+            @Test
+            void tie() {
+                assertEquals(PRIMARY, service.selectCa());
+            }
+        }
+
+        @DisplayName("and there is no certificate, the healthiest CA should be selected")
+        @Test
+        void noCertificate() {
+            when(config.getCertificateKeyAlias()).thenReturn(KEY_ALIAS);
+            when(config.getFailoverHoursBefore()).thenReturn(48);
+            when(keyStoreService.getCertificate(KEY_ALIAS)).thenReturn(Optional.empty());
+            service.recordSuccess(PRIMARY, Duration.ofSeconds(100));
+
+            assertEquals(FALLBACK, service.selectCa());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.acme.NoncePoolMXBean;
+import net.eightlives.friendlyssl.acme.NoncePoolingSession;
+import net.eightlives.friendlyssl.acme.SharedClientAcmeProvider;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.model.AcmeCa;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shredzone.acme4j.Problem;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeRateLimitedException;
+import org.shredzone.acme4j.exception.AcmeServerException;
+import org.shredzone.acme4j.provider.letsencrypt.LetsEncryptAcmeProvider;
+import org.shredzone.acme4j.toolbox.JSON;
+
+import java.net.URI;
+import java.net.URL;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AcmeSessionServiceTest {
+
+    private static final String SESSION_URL = "acme://letsencrypt.org/staging";
+
+    private AcmeSessionService service;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private MBeanRegistrationService mBeanRegistrationService;
+    @Mock
+    private PKCS12KeyStoreService keyStoreService;
+
+    @BeforeEach
+    void setUp() {
+        service = new AcmeSessionService(config, Clock.systemUTC(), mBeanRegistrationService,
+                new AcmeTransportService(config, mBeanRegistrationService),
+                new AcmeCaService(config, keyStoreService, mBeanRegistrationService, Clock.systemUTC()));
+    }
+
+    @DisplayName("Invalid session URL should throw an exception")
+    @Test
+    void invalidUrl() {
+        when(config.getAcmeSessionUrl()).thenReturn("fake");
+
+        assertThrows(IllegalArgumentException.class, () -> service.getSession());
+    }
+
+    @DisplayName("When session URL is valid")
+    @Nested
+    class ValidUrl {
+
+        @BeforeEach
+        void setUp() {
+            when(config.getAcmeSessionUrl()).thenReturn(SESSION_URL);
+            when(config.getNoncePoolSize()).thenReturn(8);
+        }
+
+        @DisplayName("the same session should be returned for every call")
+        @Test
+        void sessionReused() {
+            when(config.getDirectoryTtlMinutes()).thenReturn(60);
+
+            Session session = service.getSession();
+
+            assertSame(session, service.getSession());
+            assertEquals(URI.create(SESSION_URL), session.getServerUri());
+            verify(mBeanRegistrationService, times(1))
+                    .register("NoncePool", SESSION_URL, (NoncePoolingSession) session, NoncePoolMXBean.class);
+        }
+
+        @DisplayName("the session should connect through a shared client when shared connections are enabled")
+        @Test
+        void sharedConnections() {
+            when(config.getDirectoryTtlMinutes()).thenReturn(60);
+            when(config.isAcmeSharedConnections()).thenReturn(true);
+            when(config.isAcmeHttp2Enabled()).thenReturn(true);
+
+            Session session = service.getSession();
+
+            SharedClientAcmeProvider provider = assertInstanceOf(SharedClientAcmeProvider.class, session.provider());
+            assertInstanceOf(LetsEncryptAcmeProvider.class, provider.getDelegate());
+        }
+
+        @DisplayName("the session should connect through acme4j's provider when shared connections are disabled")
+        @Test
+        void sharedConnectionsDisabled() {
+            when(config.getDirectoryTtlMinutes()).thenReturn(60);
+
+            assertInstanceOf(LetsEncryptAcmeProvider.class, service.getSession().provider());
+        }
+
+        @DisplayName("a new session should be returned when the session URL changes")
+        @Test
+        void sessionUrlChanged() {
+            when(config.getDirectoryTtlMinutes()).thenReturn(60);
+            Session session = service.getSession();
+
+            when(config.getAcmeSessionUrl()).thenReturn("acme://letsencrypt.org");
+
+            assertNotSame(session, service.getSession());
+        }
+
+        @DisplayName("each CA should have its own session")
+        @Test
+        void sessionPerCa() {
+            when(config.getDirectoryTtlMinutes()).thenReturn(60);
+            Session session = service.getSession();
+
+            Session fallbackSession = service.getSession(new AcmeCa("acme://letsencrypt.org", "fallback.pem"));
+
+            assertNotSame(session, fallbackSession);
+            assertEquals(URI.create("acme://letsencrypt.org"), fallbackSession.getServerUri());
+            assertSame(fallbackSession, service.getSession(new AcmeCa("acme://letsencrypt.org", "fallback.pem")));
+        }
+
+        @DisplayName("and the session has a cached directory")
+        @Nested
+        class CachedDirectory {
+
+            private Session session;
+
+            @BeforeEach
+            void setUp() {
+                when(config.getDirectoryTtlMinutes()).thenReturn(60);
+                session = service.getSession();
+                session.setDirectoryExpires(ZonedDateTime.now().plusMinutes(60));
+            }
+
+            @DisplayName("a rate limited failure with a retry-after time should purge the directory")
+            @Test
+            void retryAfter() throws Exception {
+                Problem problem = new Problem(
+                        JSON.parse("{\"type\": \"urn:ietf:params:acme:error:rateLimited\"}"), new URL("https://example.com"));
+
+                service.refreshAfter(new FriendlySSLException(new AcmeRateLimitedException(problem, Instant.now(), null)));
+
+                assertNull(session.getDirectoryExpires());
+            }
+
+            @DisplayName("a bad nonce failure should purge the directory")
+            @Test
+            void badNonce() throws Exception {
+                Problem problem = new Problem(
+                        JSON.parse("{\"type\": \"urn:ietf:params:acme:error:badNonce\"}"), new URL("https://example.com"));
+
+                service.refreshAfter(new FriendlySSLException(new AcmeServerException(problem)));
+
+                assertNull(session.getDirectoryExpires());
+            }
+
+            @DisplayName("any other failure should keep the directory")
+            @Test
+            void otherFailure() {
+                service.refreshAfter(new FriendlySSLException(""));
+
+                assertNotNull(session.getDirectoryExpires());
+            }
+        }
+    }
+}
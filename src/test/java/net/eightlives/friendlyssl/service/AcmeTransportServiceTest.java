@@ -0,0 +1,107 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.acme.EndpointLatencyMXBean;
+import net.eightlives.friendlyssl.acme.EndpointLatencyRecorder;
+import net.eightlives.friendlyssl.acme.SharedClientAcmeProvider;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shredzone.acme4j.provider.AcmeProvider;
+import org.shredzone.acme4j.provider.GenericAcmeProvider;
+import org.shredzone.acme4j.provider.letsencrypt.LetsEncryptAcmeProvider;
+import org.shredzone.acme4j.provider.pebble.PebbleAcmeProvider;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AcmeTransportServiceTest {
+
+    private AcmeTransportService service;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private MBeanRegistrationService mBeanRegistrationService;
+
+    @BeforeEach
+    void setUp() {
+        service = new AcmeTransportService(config, mBeanRegistrationService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.destroy();
+    }
+
+    @DisplayName("Endpoint latency should be registered as an MBean")
+    @Test
+    void registersLatencyMBean() {
+        verify(mBeanRegistrationService, times(1)).register(eq("AcmeTransport"), eq("endpoints"),
+                any(EndpointLatencyRecorder.class), eq(EndpointLatencyMXBean.class));
+    }
+
+    @DisplayName("Server URI without a provider should throw an exception")
+    @Test
+    void noProvider() {
+        assertThrows(IllegalArgumentException.class, () -> service.getProvider(URI.create("fake")));
+    }
+
+    @DisplayName("When shared connections and the request throttle are disabled, acme4j's provider should be returned")
+    @Test
+    void sharedConnectionsDisabled() {
+        assertInstanceOf(LetsEncryptAcmeProvider.class, service.getProvider(URI.create("acme://letsencrypt.org")));
+        assertInstanceOf(GenericAcmeProvider.class, service.getProvider(URI.create("https://example.com/dir")));
+    }
+
+    @DisplayName("When shared connections are disabled but requests are throttled, acme4j's provider should be wrapped")
+    @Test
+    void sharedConnectionsDisabledThrottled() {
+        when(config.getAcmeRequestsPerSecond()).thenReturn(10);
+        AcmeTransportService throttled = new AcmeTransportService(config, mBeanRegistrationService);
+
+        AcmeProvider provider = throttled.getProvider(URI.create("acme://letsencrypt.org"));
+
+        assertInstanceOf(LetsEncryptAcmeProvider.class,
+                assertInstanceOf(SharedClientAcmeProvider.class, provider).getDelegate());
+        throttled.destroy();
+    }
+
+    @DisplayName("When shared connections are enabled")
+    @Nested
+    class SharedConnectionsEnabled {
+
+        @BeforeEach
+        void setUp() {
+            when(config.isAcmeSharedConnections()).thenReturn(true);
+            when(config.isAcmeHttp2Enabled()).thenReturn(true);
+        }
+
+        @DisplayName("acme4j's provider should be wrapped")
+        @Test
+        void wrapsProvider() {
+            assertInstanceOf(LetsEncryptAcmeProvider.class, delegate(service.getProvider(URI.create("acme://letsencrypt.org"))));
+            assertInstanceOf(GenericAcmeProvider.class, delegate(service.getProvider(URI.create("https://example.com/dir"))));
+        }
+
+        @DisplayName("Pebble's provider should be wrapped")
+        @Test
+        void wrapsPebbleProvider() {
+            assertInstanceOf(PebbleAcmeProvider.class, delegate(service.getProvider(URI.create("acme://pebble"))));
+        }
+
+        private AcmeProvider delegate(AcmeProvider provider) {
+            return assertInstanceOf(SharedClientAcmeProvider.class, provider).getDelegate();
+        }
+    }
+}
@@ -18,13 +18,17 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.Date;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -47,7 +51,7 @@ public class AutoRenewServiceTest {
     void setUp() {
         service = new AutoRenewService(config, createRenewService, keyStoreService, clock);
 
-        when(config.getCertificateKeyAlias()).thenReturn("friendly-test");
+        lenient().when(config.getCertificateKeyAlias()).thenReturn("friendly-test");
     }
 
     @DisplayName("When no certificate exists")
@@ -73,6 +77,7 @@ public class AutoRenewServiceTest {
                     Path.of("src", "test", "resources", "certificate_chain.pem")));
             when(keyStoreService.getCertificate("friendly-test")).thenReturn(Optional.of(certificate));
             when(config.getAutoRenewalHoursBefore()).thenReturn(3);
+            when(config.getAutoRenewalLifetimeFraction()).thenReturn(0.33);
         }
 
         @DisplayName("When certificate is unexpired")
@@ -101,4 +106,31 @@ public class AutoRenewServiceTest {
             assertEquals(renewal, result);
         }
     }
+
+    @DisplayName("A certificate should be renewed the configured number of hours before it expires")
+    @Test
+    void renewalTimeHoursBefore() {
+        when(config.getAutoRenewalHoursBefore()).thenReturn(72);
+        when(config.getAutoRenewalLifetimeFraction()).thenReturn(0.33);
+
+        assertEquals(CERT_EXPIRATION.minus(72, ChronoUnit.HOURS),
+                AutoRenewService.renewalTime(certificate(Duration.ofDays(90)), config));
+    }
+
+    @DisplayName("A short-lived certificate should be renewed once the configured fraction of its lifetime is left")
+    @Test
+    void renewalTimeLifetimeFraction() {
+        when(config.getAutoRenewalHoursBefore()).thenReturn(72);
+        when(config.getAutoRenewalLifetimeFraction()).thenReturn(0.25);
+
+        assertEquals(CERT_EXPIRATION.minus(36, ChronoUnit.HOURS),
+                AutoRenewService.renewalTime(certificate(Duration.ofDays(6)), config));
+    }
+
+    private static X509Certificate certificate(Duration lifetime) {
+        X509Certificate certificate = mock(X509Certificate.class);
+        when(certificate.getNotBefore()).thenReturn(Date.from(CERT_EXPIRATION.minus(lifetime)));
+        when(certificate.getNotAfter()).thenReturn(Date.from(CERT_EXPIRATION));
+        return certificate;
+    }
 }
@@ -0,0 +1,303 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.model.AcmeCa;
+import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.InventoryEntry;
+import net.eightlives.friendlyssl.model.InventoryPage;
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import net.eightlives.friendlyssl.tls.SniKeyManager;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.Login;
+import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BulkRenewalServiceTest {
+
+    private static final Instant NOW = Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC));
+    private static final Clock FIXED_CLOCK = Clock.fixed(NOW, ZoneId.of("UTC"));
+    private static final AcmeCa CA = new AcmeCa("acme://letsencrypt.org", "account.pem");
+
+    private BulkRenewalService service;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private CertificateInventoryService inventoryService;
+    @Mock
+    private CertificateStoreService certificateStore;
+    @Mock
+    private CertificateCreateRenewService certificateCreateRenewService;
+    @Mock
+    private AcmeSessionService sessionService;
+    @Mock
+    private AcmeCaService caService;
+    @Mock
+    private AcmeAccountService accountService;
+    @Mock
+    private SniKeyManager keyManager;
+    @Mock
+    private MBeanRegistrationService mBeanRegistrationService;
+    @Mock
+    private Session session;
+    @Mock
+    private Login login;
+    @Mock
+    private Certificate certificate;
+
+    private static KeyPair keyPair;
+    private static List<X509Certificate> chain;
+
+    @BeforeAll
+    static void createCertificate() throws Exception {
+        keyPair = KeyPairUtils.createKeyPair(2048);
+        X500Name name = new X500Name("CN=shop.test.me");
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(name, BigInteger.ONE, Date.from(NOW),
+                        Date.from(NOW.plus(90, ChronoUnit.DAYS)), name, keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256WITHRSA").build(keyPair.getPrivate())));
+        chain = List.of(certificate);
+    }
+
+    @BeforeEach
+    void setUp() {
+
+        lenient().when(config.getAutoRenewalHoursBefore()).thenReturn(72);
+        lenient().when(config.getErrorRetryWaitHours()).thenReturn(1);
+        lenient().when(config.getBulkRenewalConcurrency()).thenReturn(4);
+        lenient().when(caService.selectCa()).thenReturn(CA);
+        lenient().when(sessionService.getSession(CA)).thenReturn(session);
+        lenient().when(accountService.getOrCreateAccountLogin(session)).thenReturn(login);
+        lenient().when(certificateStore.load(anyString())).thenReturn(Optional.of(
+                new KeyStore.PrivateKeyEntry(keyPair.getPrivate(), chain.toArray(X509Certificate[]::new))));
+        lenient().when(certificate.getCertificateChain()).thenReturn(chain);
+
+        service = new BulkRenewalService(config, inventoryService, certificateStore, certificateCreateRenewService,
+                sessionService, caService, accountService, keyManager, new SanCoalescingPlanner(config),
+                mBeanRegistrationService, FIXED_CLOCK);
+    }
+
+    @DisplayName("Bulk renewal progress should be registered as an MBean")
+    @Test
+    void registersMBean() {
+        verify(mBeanRegistrationService, times(1)).register("Renewal", "bulk", service, BulkRenewalMXBean.class);
+    }
+
+    @DisplayName("When checking for due certificates")
+    @Nested
+    class RenewDue {
+
+        @DisplayName("only stored certificates that are not waiting to retry a failed order should be renewed")
+        @Test
+        void due() {
+            when(inventoryService.page(Duration.ofHours(72), 0, Integer.MAX_VALUE)).thenReturn(page(
+                    entry("failed.test.me", 1, CertificateRenewalStatus.ERROR, NOW.minus(10, ChronoUnit.MINUTES)),
+                    entry("friendly.test.me", 2, null, null),
+                    entry("shop.test.me", 2, CertificateRenewalStatus.ERROR, NOW.minus(2, ChronoUnit.HOURS))));
+            when(certificateStore.get("friendly.test.me")).thenReturn(Optional.empty());
+            when(certificateStore.get("shop.test.me")).thenReturn(Optional.of(stored("shop.test.me", 2)));
+            when(certificateCreateRenewService.orderHostCertificate(eq("shop.test.me"), any(KeyPair.class), any()))
+                    .thenAnswer(installs());
+
+            service.renewDue();
+
+            verify(certificateCreateRenewService, times(1)).orderHostCertificate(eq("shop.test.me"), any(KeyPair.class), any());
+            verifyNoMoreInteractions(certificateCreateRenewService);
+            verify(certificateStore, times(1)).put("shop.test.me", chain, keyPair.getPrivate());
+            verify(keyManager, times(1)).putAll(argThat(entries -> entries.stream()
+                    .map(SniKeyManager.Entry::alias).toList().equals(List.of("shop.test.me"))));
+        }
+
+        @DisplayName("the next check should be when the next certificate comes due or a failed order may be retried")
+        @Test
+        void nextCheck() {
+            when(inventoryService.page(Duration.ofHours(72), 0, Integer.MAX_VALUE)).thenReturn(page());
+            when(certificateStore.list()).thenReturn(List.of(stored("failed.test.me", 2), stored("later.test.me", 4)));
+            when(inventoryService.get("failed.test.me")).thenReturn(Optional.of(
+                    entry("failed.test.me", 2, CertificateRenewalStatus.ERROR, NOW.minus(20, ChronoUnit.MINUTES))));
+            when(inventoryService.get("later.test.me")).thenReturn(Optional.of(entry("later.test.me", 4, null, null)));
+
+            assertEquals(NOW.plus(40, ChronoUnit.MINUTES), service.renewDue());
+        }
+
+        @DisplayName("the next check should be no later than an hour from now")
+        @Test
+        void nextCheckCapped() {
+            when(inventoryService.page(Duration.ofHours(72), 0, Integer.MAX_VALUE)).thenReturn(page());
+            when(certificateStore.list()).thenReturn(List.of(stored("later.test.me", 30)));
+            when(inventoryService.get("later.test.me")).thenReturn(Optional.of(entry("later.test.me", 30, null, null)));
+
+            assertEquals(NOW.plus(1, ChronoUnit.HOURS), service.renewDue());
+        }
+    }
+
+    @DisplayName("Certificates should be ordered in priority order when one order runs at a time")
+    @Test
+    void priority() {
+        when(config.getBulkRenewalConcurrency()).thenReturn(1);
+        when(certificateCreateRenewService.orderHostCertificate(anyString(), any(KeyPair.class), any())).thenAnswer(installs());
+
+        service.renew(due("c.test.me", "a.test.me", "b.test.me"));
+
+        InOrder order = inOrder(certificateCreateRenewService);
+        order.verify(certificateCreateRenewService).orderHostCertificate(eq("c.test.me"), any(KeyPair.class), any());
+        order.verify(certificateCreateRenewService).orderHostCertificate(eq("a.test.me"), any(KeyPair.class), any());
+        order.verify(certificateCreateRenewService).orderHostCertificate(eq("b.test.me"), any(KeyPair.class), any());
+        assertEquals(3, service.getSucceeded());
+    }
+
+    @DisplayName("No more than the configured number of orders should run at once, all with one account login")
+    @Test
+    void concurrency() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(certificateCreateRenewService.orderHostCertificate(anyString(), any(KeyPair.class), any())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            running.decrementAndGet();
+            return installs().answer(invocation);
+        });
+        List<InventoryEntry> due = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            due.add(entry("host" + i + ".test.me", 2, null, null));
+        }
+
+        service.renew(due);
+
+        assertEquals(4, maxRunning.get());
+        assertEquals(12, service.getSucceeded());
+        assertEquals(12, service.getBatchSize());
+        assertEquals(0, service.getQueued());
+        assertEquals(0, service.getRunning());
+        verify(accountService, times(1)).getOrCreateAccountLogin(session);
+    }
+
+    @DisplayName("Coalesced certificates should be ordered together and the certificate stored for each domain")
+    @Test
+    void coalesced() {
+        when(config.isSanCoalescingEnabled()).thenReturn(true);
+        when(config.getSanCoalescingMaxNames()).thenReturn(2);
+        when(certificateCreateRenewService.orderSanCertificate(eq(List.of("a.test.me", "b.test.me")), any(KeyPair.class), any()))
+                .thenAnswer(installs());
+        when(certificateCreateRenewService.orderHostCertificate(eq("c.test.me"), any(KeyPair.class), any()))
+                .thenAnswer(installs());
+
+        service.renew(due("a.test.me", "b.test.me", "c.test.me"));
+
+        verify(certificateStore, times(1)).put("a.test.me", chain, keyPair.getPrivate());
+        verify(certificateStore, times(1)).put("b.test.me", chain, keyPair.getPrivate());
+        verify(certificateStore, times(1)).put("c.test.me", chain, keyPair.getPrivate());
+        verify(keyManager, times(1)).putAll(argThat(entries -> entries.stream()
+                .map(SniKeyManager.Entry::alias).toList().equals(List.of("a.test.me", "b.test.me"))));
+        verify(keyManager, times(1)).putAll(argThat(entries -> entries.size() == 1));
+        verify(keyManager, never()).put(any());
+        assertEquals(3, service.getSucceeded());
+    }
+
+    @DisplayName("A failed coalesced order should count every certificate of the order as failed")
+    @Test
+    void coalescedFailure() {
+        when(config.isSanCoalescingEnabled()).thenReturn(true);
+        when(config.getSanCoalescingMaxNames()).thenReturn(100);
+        when(certificateCreateRenewService.orderSanCertificate(eq(List.of("a.test.me", "b.test.me")), any(KeyPair.class), any()))
+                .thenThrow(new FriendlySSLException("Order failed"));
+
+        service.renew(due("a.test.me", "b.test.me"));
+
+        assertEquals(2, service.getFailed());
+        verify(certificateStore, never()).put(anyString(), anyList(), any());
+    }
+
+    @DisplayName("A failed order should be counted without stopping the others")
+    @Test
+    void failure() {
+        when(certificateCreateRenewService.orderHostCertificate(eq("bad.test.me"), any(KeyPair.class), any()))
+                .thenThrow(new FriendlySSLException("Order failed"));
+        when(certificateCreateRenewService.orderHostCertificate(eq("good.test.me"), any(KeyPair.class), any()))
+                .thenAnswer(installs());
+
+        service.renew(due("bad.test.me", "good.test.me"));
+
+        assertEquals(1, service.getFailed());
+        assertEquals(1, service.getSucceeded());
+        verify(certificateStore, times(1)).put(eq("good.test.me"), anyList(), any());
+        verify(certificateStore, never()).put(eq("bad.test.me"), anyList(), any());
+    }
+
+    @DisplayName("When the account login fails, no certificate should be ordered")
+    @Test
+    void loginFailure() {
+        when(accountService.getOrCreateAccountLogin(session)).thenThrow(new FriendlySSLException("Login failed"));
+
+        service.renew(due("shop.test.me"));
+
+        verifyNoInteractions(certificateCreateRenewService);
+        assertEquals(0, service.getBatchSize());
+    }
+
+    /**
+     * Answers an order by installing the certificate chain with the key pair it was ordered for.
+     */
+    private Answer<Certificate> installs() {
+        return invocation -> {
+            invocation.<BiConsumer<List<X509Certificate>, PrivateKey>>getArgument(2)
+                    .accept(chain, invocation.<KeyPair>getArgument(1).getPrivate());
+            return certificate;
+        };
+    }
+
+    private static List<InventoryEntry> due(String... domains) {
+        return Arrays.stream(domains).map(domain -> entry(domain, 2, null, null)).toList();
+    }
+
+    private static InventoryPage page(InventoryEntry... entries) {
+        return new InventoryPage(List.of(entries), 0, Integer.MAX_VALUE, entries.length);
+    }
+
+    private static InventoryEntry entry(String domain, int daysLeft, CertificateRenewalStatus status, Instant time) {
+        return new InventoryEntry(domain, NOW.plus(daysLeft, ChronoUnit.DAYS), "CN=Test CA", "RSA", status, time);
+    }
+
+    private static StoredCertificate stored(String domain, int daysLeft) {
+        return new StoredCertificate(domain, "ab/" + domain + ".p12", NOW.plus(daysLeft, ChronoUnit.DAYS),
+                "ab".repeat(32), "CN=Test CA", "RSA");
+    }
+}
@@ -0,0 +1,57 @@
+package net.eightlives.friendlyssl.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSRServiceTest {
+
+    private static final String DOMAIN = "domain.com";
+
+    private final KeyPair keyPair = KeyPairUtils.createKeyPair(2048);
+
+    private CSRService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new CSRService();
+    }
+
+    @DisplayName("The CSR for the same domain and key pair should be reused")
+    @Test
+    void reused() {
+        byte[] first = service.generateCSR(DOMAIN, keyPair);
+        first[0] = 0;
+
+        byte[] second = service.generateCSR(DOMAIN, keyPair);
+
+        assertNotEquals(0, second[0]);
+        assertArrayEquals(second, service.generateCSR(DOMAIN, keyPair));
+    }
+
+    @DisplayName("A new CSR should be signed for another domain or key pair")
+    @Test
+    void signedAgain() {
+        byte[] first = service.generateCSR(DOMAIN, keyPair);
+
+        assertFalse(Arrays.equals(first, service.generateCSR("other.com", keyPair)));
+        assertFalse(Arrays.equals(first, service.generateCSR(DOMAIN, KeyPairUtils.createKeyPair(2048))));
+    }
+
+    @DisplayName("The CSR for several domains should be reused for the same domains in the same order")
+    @Test
+    void severalDomains() {
+        byte[] first = service.generateCSR(List.of(DOMAIN, "www.domain.com"), keyPair);
+
+        assertArrayEquals(first, service.generateCSR(List.of(DOMAIN, "www.domain.com"), keyPair));
+        assertFalse(Arrays.equals(first, service.generateCSR(List.of("www.domain.com", DOMAIN), keyPair)));
+        assertFalse(Arrays.equals(first, service.generateCSR(DOMAIN, keyPair)));
+    }
+}
@@ -1,9 +1,18 @@
 package net.eightlives.friendlyssl.service;
 
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.event.CertificateRenewalAttempted;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.exception.HandshakeSelfTestException;
+import net.eightlives.friendlyssl.exception.RateLimitDeferredException;
+import net.eightlives.friendlyssl.model.AcmeCa;
 import net.eightlives.friendlyssl.model.CertificateRenewal;
 import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.FailureClass;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import net.eightlives.friendlyssl.model.OrderState;
+import net.eightlives.friendlyssl.model.PublishedCertificate;
+import net.eightlives.friendlyssl.model.RateLimit;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.extension.ExtensionContext;
@@ -13,33 +22,46 @@ import org.junit.jupiter.params.provider.ArgumentsProvider;
 import org.junit.jupiter.params.provider.ArgumentsSource;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.shredzone.acme4j.Login;
 import org.shredzone.acme4j.Session;
+import org.shredzone.acme4j.exception.AcmeNetworkException;
+import org.shredzone.acme4j.exception.AcmeRateLimitedException;
 import org.shredzone.acme4j.util.KeyPairUtils;
 import org.springframework.boot.autoconfigure.ssl.SslProperties;
 import org.springframework.boot.autoconfigure.web.ServerProperties;
 import org.springframework.boot.ssl.SslBundle;
 import org.springframework.boot.ssl.SslBundles;
 import org.springframework.boot.web.server.Ssl;
+import org.springframework.context.ApplicationEventPublisher;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyPair;
+import java.security.PrivateKey;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.time.*;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
@@ -52,17 +74,33 @@ class CertificateCreateRenewServiceTest {
     public static final Instant CERT_RENEWAL = Instant.from(OffsetDateTime.of(2012, 12, 22, 7, 41, 51, 0, ZoneOffset.UTC))
             .minus(72, ChronoUnit.HOURS);
 
+    private static final AcmeCa CA = new AcmeCa("acme://letsencrypt.org", "account.pem");
+
     private CertificateCreateRenewService service;
 
     @Mock
     private FriendlySSLConfig config;
     @Mock
+    private AcmeSessionService sessionService;
+    @Mock
+    private AcmeCaService caService;
+    @Mock
     private AcmeAccountService accountService;
     @Mock
     private PKCS12KeyStoreService keyStoreService;
     @Mock
+    private CertificateOrderService certificateOrderService;
+    @Mock
     private CertificateOrderHandlerService certificateOrderHandlerService;
     @Mock
+    private OrderJournalService orderJournalService;
+    @Mock
+    private HandshakeSelfTestService handshakeSelfTestService;
+    @Mock
+    private RenewalBackoffService backoffService;
+    @Mock
+    private RenewalMetricsService renewalMetrics;
+    @Mock
     private SslBundle sslBundle;
     @Mock()
     private ServerProperties serverConfig;
@@ -70,11 +108,15 @@ class CertificateCreateRenewServiceTest {
     private SslProperties sslConfig;
     @Mock
     private SslBundles sslBundles;
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
 
     @BeforeEach
     void setUp() {
+        when(config.getOrderDeadlineSeconds()).thenReturn(120);
+        when(caService.selectCa()).thenReturn(CA);
         service = new CertificateCreateRenewService(
-                config, serverConfig, sslConfig, accountService, keyStoreService, certificateOrderHandlerService,
+                config, serverConfig, sslConfig, sessionService, caService, accountService, keyStoreService, certificateOrderService, certificateOrderHandlerService, orderJournalService, handshakeSelfTestService, backoffService, renewalMetrics, applicationEventPublisher,
                 Clock.fixed(FIXED_CLOCK, ZoneId.of("UTC")), sslBundles
         );
     }
@@ -83,26 +125,204 @@ class CertificateCreateRenewServiceTest {
     @ParameterizedTest(name = "for method {0}")
     @ArgumentsSource(ServiceCallProvider.class)
     void invalidURL(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
-        when(config.getAcmeSessionUrl()).thenReturn("fake");
+        when(sessionService.getSession(CA)).thenThrow(new IllegalArgumentException());
 
         assertThrows(IllegalArgumentException.class, () -> serviceCall.apply(service));
     }
 
+    @DisplayName("When the circuit breaker is open, no order should be attempted until it allows one")
+    @ParameterizedTest(name = "for method {0}")
+    @ArgumentsSource(ServiceCallProvider.class)
+    void circuitOpen(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
+        when(backoffService.getOpenUntil(CA.sessionUrl())).thenReturn(Optional.of(FIXED_CLOCK.plus(10, ChronoUnit.MINUTES)));
+        when(config.getDomain()).thenReturn("friendly.test.me");
+
+        CertificateRenewal renewal = serviceCall.apply(service);
+
+        assertEquals(CertificateRenewalStatus.ERROR, renewal.status());
+        assertEquals(FIXED_CLOCK.plus(10, ChronoUnit.MINUTES), renewal.time());
+        verifyNoInteractions(sessionService, accountService, certificateOrderHandlerService);
+        verifyAttempt("friendly.test.me", CertificateRenewalStatus.ERROR);
+    }
+
+    @DisplayName("A renewal requested while another is running should wait for it and get its result")
+    @Test
+    void singleFlight() throws Exception {
+        KeyPair keyPair = KeyPairUtils.createKeyPair(2048);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(keyStoreService.getKeyPair(any())).thenAnswer(_ -> {
+            started.countDown();
+            release.await();
+            return keyPair;
+        });
+        when(backoffService.getOpenUntil(CA.sessionUrl())).thenReturn(Optional.of(FIXED_CLOCK.plus(10, ChronoUnit.MINUTES)));
+
+        CompletableFuture<CertificateRenewal> first = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> first.complete(service.renewCertificate()));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<CertificateRenewal> second = new CompletableFuture<>();
+        Thread secondCaller = Thread.ofVirtual().start(() -> second.complete(service.createCertificate()));
+        while (secondCaller.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        verify(keyStoreService, times(1)).getKeyPair(any());
+        verify(backoffService, times(1)).getOpenUntil(CA.sessionUrl());
+    }
+
+    @DisplayName("When ordering a certificate for a hostname")
+    @Nested
+    class OrderHostCertificate {
+
+        private final KeyPair keyPair = KeyPairUtils.createKeyPair(2048);
+
+        @Mock
+        private BiConsumer<List<X509Certificate>, PrivateKey> installer;
+
+        @DisplayName("and the circuit breaker is open, no order should be attempted")
+        @Test
+        void circuitOpen() {
+            when(backoffService.getOpenUntil(CA.sessionUrl())).thenReturn(Optional.of(FIXED_CLOCK.plus(10, ChronoUnit.MINUTES)));
+
+            assertThrows(FriendlySSLException.class, () -> service.orderHostCertificate("shop.test.me", keyPair, installer));
+            verifyNoInteractions(sessionService, accountService, certificateOrderService);
+        }
+
+        @DisplayName("When the CA is reachable")
+        @Nested
+        class CaReachable {
+
+            @Mock
+            private Session session;
+            @Mock
+            private Login login;
+
+            @BeforeEach
+            void setUp() {
+                when(sessionService.getSession(CA)).thenReturn(session);
+                when(accountService.getOrCreateAccountLogin(session)).thenReturn(login);
+            }
+
+            @DisplayName("the certificate should be ordered for the hostname and installed, leaving the keystore and retry delay alone")
+            @Test
+            void success() {
+                org.shredzone.acme4j.Certificate certificate = mock(org.shredzone.acme4j.Certificate.class);
+                X509Certificate x509Certificate = mock(X509Certificate.class);
+                when(certificate.getCertificateChain()).thenReturn(List.of(x509Certificate));
+                when(orderJournalService.getDomainKeyPair("shop.test.me")).thenReturn(Optional.empty());
+                when(certificateOrderService.orderCertificate(eq(List.of("shop.test.me")), eq(login), eq(keyPair), any(OrderDeadline.class)))
+                        .thenReturn(Optional.of(certificate));
+
+                assertEquals(certificate, service.orderHostCertificate("shop.test.me", keyPair, installer));
+                verify(installer).accept(List.of(x509Certificate), keyPair.getPrivate());
+                verify(orderJournalService).advance("shop.test.me", OrderState.INSTALLED);
+                verify(caService).recordSuccess(CA, Duration.ZERO);
+                verify(renewalMetrics).recordRenewal(true, Duration.ZERO);
+                verifyNoInteractions(certificateOrderHandlerService, sslBundles);
+                verify(backoffService, never()).recordSuccess(any());
+                verifyAttempt("shop.test.me", CertificateRenewalStatus.SUCCESS);
+            }
+
+            @DisplayName("a journaled order for the hostname should be resumed with its key pair and closed once installed")
+            @Test
+            void resumeJournaled() {
+                KeyPair journaledKeyPair = KeyPairUtils.createKeyPair(2048);
+                org.shredzone.acme4j.Certificate certificate = mock(org.shredzone.acme4j.Certificate.class);
+                X509Certificate x509Certificate = mock(X509Certificate.class);
+                when(certificate.getCertificateChain()).thenReturn(List.of(x509Certificate));
+                when(orderJournalService.getDomainKeyPair("shop.test.me")).thenReturn(Optional.of(journaledKeyPair));
+                when(certificateOrderService.orderCertificate(eq(List.of("shop.test.me")), eq(login), eq(journaledKeyPair), any(OrderDeadline.class)))
+                        .thenReturn(Optional.of(certificate));
+
+                assertEquals(certificate, service.orderHostCertificate("shop.test.me", keyPair, installer));
+                InOrder order = inOrder(installer, orderJournalService);
+                order.verify(installer).accept(List.of(x509Certificate), journaledKeyPair.getPrivate());
+                order.verify(orderJournalService).advance("shop.test.me", OrderState.INSTALLED);
+            }
+
+            @DisplayName("a certificate that fails to install should leave the journaled order open")
+            @Test
+            void installFails() {
+                org.shredzone.acme4j.Certificate certificate = mock(org.shredzone.acme4j.Certificate.class);
+                when(certificate.getCertificateChain()).thenReturn(List.of());
+                when(orderJournalService.getDomainKeyPair("shop.test.me")).thenReturn(Optional.empty());
+                when(certificateOrderService.orderCertificate(eq(List.of("shop.test.me")), eq(login), eq(keyPair), any(OrderDeadline.class)))
+                        .thenReturn(Optional.of(certificate));
+                doThrow(new FriendlySSLException("Store failed")).when(installer).accept(any(), any());
+
+                assertThrows(FriendlySSLException.class, () -> service.orderHostCertificate("shop.test.me", keyPair, installer));
+                verify(orderJournalService, never()).advance(any(), any());
+            }
+
+            @DisplayName("a failure because the CA is unavailable should count against the CA but not the retry delay")
+            @Test
+            void caUnavailable() {
+                when(certificateOrderService.orderCertificate(eq(List.of("shop.test.me")), eq(login), eq(keyPair), any(OrderDeadline.class)))
+                        .thenThrow(new FriendlySSLException(new AcmeNetworkException(new IOException())));
+
+                assertThrows(FriendlySSLException.class, () -> service.orderHostCertificate("shop.test.me", keyPair, installer));
+                verify(caService).recordFailure(CA);
+                verify(renewalMetrics).recordRenewal(eq(false), any(Duration.class));
+                verify(backoffService, never()).recordFailure(any(), any());
+                verifyAttempt("shop.test.me", CertificateRenewalStatus.ERROR);
+            }
+
+            @DisplayName("an order that returns no certificate should fail")
+            @Test
+            void noCertificate() {
+                when(certificateOrderService.orderCertificate(eq(List.of("shop.test.me")), eq(login), eq(keyPair), any(OrderDeadline.class)))
+                        .thenReturn(Optional.empty());
+
+                assertThrows(FriendlySSLException.class, () -> service.orderHostCertificate("shop.test.me", keyPair, installer));
+                verify(caService, never()).recordFailure(CA);
+            }
+
+            @DisplayName("one certificate should be ordered for several domains, with an attempt published for each")
+            @Test
+            void severalDomains() {
+                List<String> domains = List.of("shop.test.me", "blog.test.me");
+                org.shredzone.acme4j.Certificate certificate = mock(org.shredzone.acme4j.Certificate.class);
+                X509Certificate x509Certificate = mock(X509Certificate.class);
+                when(certificate.getCertificateChain()).thenReturn(List.of(x509Certificate));
+                when(certificateOrderService.orderCertificate(eq(domains), eq(login), eq(keyPair), any(OrderDeadline.class)))
+                        .thenReturn(Optional.of(certificate));
+
+                assertEquals(certificate, service.orderSanCertificate(domains, keyPair, installer));
+                InOrder order = inOrder(installer, orderJournalService);
+                order.verify(orderJournalService).getDomainKeyPair("shop.test.me,blog.test.me");
+                order.verify(installer).accept(List.of(x509Certificate), keyPair.getPrivate());
+                order.verify(orderJournalService).advance("shop.test.me,blog.test.me", OrderState.INSTALLED);
+                verify(caService).recordSuccess(CA, Duration.ZERO);
+                ArgumentCaptor<CertificateRenewalAttempted> events = ArgumentCaptor.forClass(CertificateRenewalAttempted.class);
+                verify(applicationEventPublisher, times(2)).publishEvent(events.capture());
+                assertEquals(domains, events.getAllValues().stream().map(CertificateRenewalAttempted::getDomain).toList());
+                assertTrue(events.getAllValues().stream()
+                        .allMatch(event -> event.getStatus() == CertificateRenewalStatus.SUCCESS));
+            }
+        }
+    }
+
     @DisplayName("When session URL is valid")
     @Nested
     class SessionURLValid {
 
+        @Mock
+        private Session session;
+
         @BeforeEach
         void setUp() {
-            when(config.getAcmeSessionUrl()).thenReturn("acme://letsencrypt.org/staging");
+            when(sessionService.getSession(CA)).thenReturn(session);
         }
 
         @DisplayName("When account service throws an exception, CertificateRenewal error should be returned")
         @ParameterizedTest(name = "for method {0}")
         @ArgumentsSource(ServiceCallProvider.class)
         void accountServiceException(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
-            when(config.getErrorRetryWaitHours()).thenReturn(2);
-            when(accountService.getOrCreateAccountLogin(any(Session.class))).thenThrow(
+            when(backoffService.recordFailure(eq(CA.sessionUrl()), any(FailureClass.class))).thenReturn(FIXED_CLOCK.plus(2, ChronoUnit.HOURS));
+            when(accountService.getOrCreateAccountLogin(session)).thenThrow(
                     new FriendlySSLException("")
             );
 
@@ -110,6 +330,9 @@ class CertificateCreateRenewServiceTest {
 
             assertEquals(CertificateRenewalStatus.ERROR, renewal.status());
             assertEquals(FIXED_CLOCK.plus(2, ChronoUnit.HOURS), renewal.time());
+            verify(sessionService).refreshAfter(any(FriendlySSLException.class));
+            verify(backoffService).recordFailure(CA.sessionUrl(), FailureClass.UNKNOWN);
+            verify(caService, never()).recordFailure(CA);
         }
 
         @DisplayName("When account service succeeds")
@@ -123,14 +346,14 @@ class CertificateCreateRenewServiceTest {
 
             @BeforeEach
             void setUp() {
-                when(accountService.getOrCreateAccountLogin(any(Session.class))).thenReturn(login);
+                when(accountService.getOrCreateAccountLogin(session)).thenReturn(login);
             }
 
             @DisplayName("When server.ssl is not configured, ")
             @ParameterizedTest(name = "for method {0}")
             @ArgumentsSource(ServiceCallProvider.class)
             void serverSslNotConfigured(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
-                when(config.getErrorRetryWaitHours()).thenReturn(2);
+                when(backoffService.recordFailure(eq(CA.sessionUrl()), any(FailureClass.class))).thenReturn(FIXED_CLOCK.plus(2, ChronoUnit.HOURS));
 
                 CertificateRenewal renewal = serviceCall.apply(service);
 
@@ -154,7 +377,7 @@ class CertificateCreateRenewServiceTest {
                 @ParameterizedTest(name = "for method {0}")
                 @ArgumentsSource(ServiceCallProvider.class)
                 void serverSslBundleNotConfigured(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
-                    when(config.getErrorRetryWaitHours()).thenReturn(2);
+                    when(backoffService.recordFailure(eq(CA.sessionUrl()), any(FailureClass.class))).thenReturn(FIXED_CLOCK.plus(2, ChronoUnit.HOURS));
 
                     CertificateRenewal renewal = serviceCall.apply(service);
 
@@ -175,7 +398,7 @@ class CertificateCreateRenewServiceTest {
                     @ParameterizedTest(name = "for method {0}")
                     @ArgumentsSource(ServiceCallProvider.class)
                     void serverSslBundleNotFound(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
-                        when(config.getErrorRetryWaitHours()).thenReturn(2);
+                        when(backoffService.recordFailure(eq(CA.sessionUrl()), any(FailureClass.class))).thenReturn(FIXED_CLOCK.plus(2, ChronoUnit.HOURS));
 
                         CertificateRenewal renewal = serviceCall.apply(service);
 
@@ -199,8 +422,8 @@ class CertificateCreateRenewServiceTest {
                         @ParameterizedTest(name = "for method {0}")
                         @ArgumentsSource(ServiceCallProvider.class)
                         void certificateOrderFails(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
-                            when(config.getErrorRetryWaitHours()).thenReturn(2);
-                            when(certificateOrderHandlerService.handleCertificateOrder(any(), any())).thenThrow(new FriendlySSLException("error"));
+                            when(backoffService.recordFailure(eq(CA.sessionUrl()), any(FailureClass.class))).thenReturn(FIXED_CLOCK.plus(2, ChronoUnit.HOURS));
+                            when(certificateOrderHandlerService.handleCertificateOrder(any(), any(), any())).thenThrow(new FriendlySSLException("error"));
 
                             CertificateRenewal renewal = serviceCall.apply(service);
 
@@ -208,6 +431,53 @@ class CertificateCreateRenewServiceTest {
                             assertEquals(FIXED_CLOCK.plus(2, ChronoUnit.HOURS), renewal.time());
                         }
 
+                        @DisplayName("When certificate order fails because the CA is unavailable, the CA's health should suffer, ")
+                        @ParameterizedTest(name = "for method {0}")
+                        @ArgumentsSource(ServiceCallProvider.class)
+                        void certificateOrderCaUnavailable(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
+                            when(backoffService.recordFailure(CA.sessionUrl(), FailureClass.TRANSIENT_NETWORK))
+                                    .thenReturn(FIXED_CLOCK.plus(5, ChronoUnit.MINUTES));
+                            when(certificateOrderHandlerService.handleCertificateOrder(any(), any(), any()))
+                                    .thenThrow(new FriendlySSLException(new AcmeNetworkException(new IOException())));
+
+                            CertificateRenewal renewal = serviceCall.apply(service);
+
+                            assertEquals(CertificateRenewalStatus.ERROR, renewal.status());
+                            assertEquals(FIXED_CLOCK.plus(5, ChronoUnit.MINUTES), renewal.time());
+                            verify(caService).recordFailure(CA);
+                            verify(renewalMetrics).recordRenewal(eq(false), any(Duration.class));
+                        }
+
+                        @DisplayName("When certificate order is deferred by a local rate limit budget, ")
+                        @ParameterizedTest(name = "for method {0}")
+                        @ArgumentsSource(ServiceCallProvider.class)
+                        void certificateOrderDeferred(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
+                            Instant retryAfter = FIXED_CLOCK.plus(5, ChronoUnit.HOURS);
+                            when(certificateOrderHandlerService.handleCertificateOrder(any(), any(), any()))
+                                    .thenThrow(new RateLimitDeferredException(RateLimit.NEW_ORDERS, retryAfter));
+
+                            CertificateRenewal renewal = serviceCall.apply(service);
+
+                            assertEquals(CertificateRenewalStatus.DEFERRED, renewal.status());
+                            assertEquals(retryAfter, renewal.time());
+                        }
+
+                        @DisplayName("When certificate order is rate limited by the CA, ")
+                        @ParameterizedTest(name = "for method {0}")
+                        @ArgumentsSource(ServiceCallProvider.class)
+                        void certificateOrderRateLimited(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
+                            Instant retryAfter = FIXED_CLOCK.plus(5, ChronoUnit.HOURS);
+                            AcmeRateLimitedException rateLimited = mock(AcmeRateLimitedException.class);
+                            when(rateLimited.getRetryAfter()).thenReturn(Optional.of(retryAfter));
+                            when(certificateOrderHandlerService.handleCertificateOrder(any(), any(), any()))
+                                    .thenThrow(new FriendlySSLException(rateLimited));
+
+                            CertificateRenewal renewal = serviceCall.apply(service);
+
+                            assertEquals(CertificateRenewalStatus.DEFERRED, renewal.status());
+                            assertEquals(retryAfter, renewal.time());
+                        }
+
                         @DisplayName("When certificate order succeeds")
                         @Nested
                         class CertificateOrderSucceeds {
@@ -218,15 +488,44 @@ class CertificateCreateRenewServiceTest {
                                 X509Certificate certificate = (X509Certificate) certificateFactory.generateCertificate(Files.newInputStream(
                                         Path.of("src", "test", "resources", "certificate_chain.pem")));
                                 when(acmeCert.getCertificate()).thenReturn(certificate);
-                                when(certificateOrderHandlerService.handleCertificateOrder(eq(login), any(KeyPair.class)))
-                                        .thenReturn(acmeCert);
+                                lenient().when(certificateOrderHandlerService.handleCertificateOrder(eq(login), any(KeyPair.class), any(OrderDeadline.class)))
+                                        .thenReturn(new PublishedCertificate(acmeCert, true));
+                            }
+
+                            @DisplayName("When the keystore is unchanged, the SSL context reload should not be waited for")
+                            @Test
+                            void keystoreUnchanged() {
+                                when(certificateOrderHandlerService.handleCertificateOrder(eq(login), any(KeyPair.class), any(OrderDeadline.class)))
+                                        .thenReturn(new PublishedCertificate(acmeCert, false));
+                                when(config.getAutoRenewalHoursBefore()).thenReturn(72);
+                                when(config.getAutoRenewalLifetimeFraction()).thenReturn(0.33);
+
+                                CertificateRenewal renewal = service.createCertificate();
+
+                                assertEquals(CertificateRenewalStatus.SUCCESS, renewal.status());
+                                assertEquals(CERT_RENEWAL, renewal.time());
+                                verifyNoInteractions(sslConfig);
+                            }
+
+                            @DisplayName("A single SSL bundle update handler should be added however many renewals run")
+                            @Test
+                            void singleUpdateHandler() {
+                                when(certificateOrderHandlerService.handleCertificateOrder(eq(login), any(KeyPair.class), any(OrderDeadline.class)))
+                                        .thenReturn(new PublishedCertificate(acmeCert, false));
+                                when(config.getAutoRenewalHoursBefore()).thenReturn(72);
+                                when(config.getAutoRenewalLifetimeFraction()).thenReturn(0.33);
+
+                                service.createCertificate();
+                                service.createCertificate();
+
+                                verify(sslBundles, times(1)).addBundleUpdateHandler(eq("friendlyssl"), any());
                             }
 
                             @DisplayName("When spring.ssl.bundle is not configured, ")
                             @ParameterizedTest(name = "for method {0}")
                             @ArgumentsSource(ServiceCallProvider.class)
                             void springSslBundleNotConfigured(Function<CertificateCreateRenewService, CertificateRenewal> serviceCall) {
-                                when(config.getErrorRetryWaitHours()).thenReturn(2);
+                                when(backoffService.recordFailure(eq(CA.sessionUrl()), any(FailureClass.class))).thenReturn(FIXED_CLOCK.plus(2, ChronoUnit.HOURS));
 
                                 CertificateRenewal renewal = serviceCall.apply(service);
 
@@ -256,7 +555,7 @@ class CertificateCreateRenewServiceTest {
                                     @DisplayName("When calling ::createCertificate and SSL Bundle change is not picked up within the quiet period")
                                     @Test
                                     void createCertificateTimeout() {
-                                        when(config.getErrorRetryWaitHours()).thenReturn(2);
+                                        when(backoffService.recordFailure(eq(CA.sessionUrl()), any(FailureClass.class))).thenReturn(FIXED_CLOCK.plus(2, ChronoUnit.HOURS));
 
                                         CertificateRenewal renewal = service.createCertificate();
 
@@ -268,6 +567,7 @@ class CertificateCreateRenewServiceTest {
                                     @Test
                                     void createCertificate() {
                                         when(config.getAutoRenewalHoursBefore()).thenReturn(72);
+                                        when(config.getAutoRenewalLifetimeFraction()).thenReturn(0.33);
 
                                         try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
                                             executor.submit(() -> {
@@ -283,6 +583,66 @@ class CertificateCreateRenewServiceTest {
 
                                             assertEquals(CertificateRenewalStatus.SUCCESS, renewal.status());
                                             assertEquals(CERT_RENEWAL, renewal.time());
+                                            verify(backoffService).recordSuccess(CA.sessionUrl());
+                                            verify(caService).recordSuccess(eq(CA), any(Duration.class));
+                                            verify(renewalMetrics).recordRenewal(eq(true), any(Duration.class));
+                                            verify(renewalMetrics, times(4)).recordPhase(any(), any(Duration.class));
+                                            verifyNoInteractions(handshakeSelfTestService);
+                                        }
+                                    }
+
+                                    @DisplayName("When calling ::createCertificate and the handshake self-test passes")
+                                    @Test
+                                    void selfTestPasses() {
+                                        when(config.isHandshakeSelfTestEnabled()).thenReturn(true);
+                                        when(config.getAutoRenewalHoursBefore()).thenReturn(72);
+                                        when(config.getAutoRenewalLifetimeFraction()).thenReturn(0.33);
+                                        when(acmeCert.getCertificateChain()).thenReturn(List.of());
+
+                                        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                                            executor.submit(() -> {
+                                                try {
+                                                    Thread.sleep(1000);
+                                                } catch (InterruptedException e) {
+                                                    throw new RuntimeException(e);
+                                                }
+                                                handlerCaptor.getValue().accept(null);
+                                            });
+
+                                            CertificateRenewal renewal = service.createCertificate();
+
+                                            assertEquals(CertificateRenewalStatus.SUCCESS, renewal.status());
+                                            verify(handshakeSelfTestService).verify(eq(List.of()), any(OrderDeadline.class));
+                                            verify(certificateOrderHandlerService, never()).rollBack();
+                                        }
+                                    }
+
+                                    @DisplayName("When calling ::createCertificate and the handshake self-test fails, the previous certificate should be restored")
+                                    @Test
+                                    void selfTestFails() {
+                                        when(config.isHandshakeSelfTestEnabled()).thenReturn(true);
+                                        when(acmeCert.getCertificateChain()).thenReturn(List.of());
+                                        doThrow(new HandshakeSelfTestException("server did not serve the new certificate"))
+                                                .when(handshakeSelfTestService).verify(eq(List.of()), any(OrderDeadline.class));
+                                        when(backoffService.recordFailure(CA.sessionUrl(), FailureClass.UNKNOWN))
+                                                .thenReturn(FIXED_CLOCK.plus(2, ChronoUnit.HOURS));
+
+                                        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                                            executor.submit(() -> {
+                                                try {
+                                                    Thread.sleep(1000);
+                                                } catch (InterruptedException e) {
+                                                    throw new RuntimeException(e);
+                                                }
+                                                handlerCaptor.getValue().accept(null);
+                                            });
+
+                                            CertificateRenewal renewal = service.createCertificate();
+
+                                            assertEquals(CertificateRenewalStatus.ERROR, renewal.status());
+                                            assertEquals(FIXED_CLOCK.plus(2, ChronoUnit.HOURS), renewal.time());
+                                            verify(certificateOrderHandlerService).rollBack();
+                                            verify(caService, never()).recordFailure(CA);
                                         }
                                     }
                                 }
@@ -295,6 +655,7 @@ class CertificateCreateRenewServiceTest {
                                     void setUp() {
                                         when(config.getCertificateKeyAlias()).thenReturn("friendlyssl");
                                         when(config.getAutoRenewalHoursBefore()).thenReturn(72);
+                                        when(config.getAutoRenewalLifetimeFraction()).thenReturn(0.33);
                                     }
 
                                     @DisplayName("When keystore service cannot find the certificate by name")
@@ -302,7 +663,7 @@ class CertificateCreateRenewServiceTest {
                                     void keystoreNoCertificateFound() {
                                         try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
                                             service = new CertificateCreateRenewService(
-                                                    config, serverConfig, sslConfig, accountService, keyStoreService, certificateOrderHandlerService,
+                                                    config, serverConfig, sslConfig, sessionService, caService, accountService, keyStoreService, certificateOrderService, certificateOrderHandlerService, orderJournalService, handshakeSelfTestService, backoffService, renewalMetrics, applicationEventPublisher,
                                                     Clock.fixed(CERT_EXPIRATION.minus(3, ChronoUnit.HOURS), ZoneId.of("UTC")),
                                                     sslBundles
                                             );
@@ -329,7 +690,7 @@ class CertificateCreateRenewServiceTest {
                                     void keystoreCertificateFound() {
                                         try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
                                             service = new CertificateCreateRenewService(
-                                                    config, serverConfig, sslConfig, accountService, keyStoreService, certificateOrderHandlerService,
+                                                    config, serverConfig, sslConfig, sessionService, caService, accountService, keyStoreService, certificateOrderService, certificateOrderHandlerService, orderJournalService, handshakeSelfTestService, backoffService, renewalMetrics, applicationEventPublisher,
                                                     Clock.fixed(CERT_EXPIRATION.minus(3, ChronoUnit.HOURS), ZoneId.of("UTC")),
                                                     sslBundles
                                             );
@@ -360,6 +721,13 @@ class CertificateCreateRenewServiceTest {
         }
     }
 
+    private void verifyAttempt(String domain, CertificateRenewalStatus status) {
+        ArgumentCaptor<CertificateRenewalAttempted> event = ArgumentCaptor.forClass(CertificateRenewalAttempted.class);
+        verify(applicationEventPublisher, times(1)).publishEvent(event.capture());
+        assertEquals(domain, event.getValue().getDomain());
+        assertEquals(status, event.getValue().getStatus());
+    }
+
     static class ServiceCallProvider implements ArgumentsProvider {
 
         @Override
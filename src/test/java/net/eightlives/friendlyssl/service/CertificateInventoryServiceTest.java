@@ -0,0 +1,187 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.InventoryEntry;
+import net.eightlives.friendlyssl.model.InventoryPage;
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CertificateInventoryServiceTest {
+
+    private static final String KEY_ALIAS = "friendly-test";
+    private static final String DOMAIN = "friendly.test.me";
+    private static final Instant NOW = Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC));
+    private static final Clock FIXED_CLOCK = Clock.fixed(NOW, ZoneId.of("UTC"));
+
+    private CertificateInventoryService service;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private PKCS12KeyStoreService keyStoreService;
+    @Mock
+    private CertificateStoreService certificateStore;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(config.getDomain()).thenReturn(DOMAIN);
+        lenient().when(config.getCertificateKeyAlias()).thenReturn(KEY_ALIAS);
+
+        service = new CertificateInventoryService(config, keyStoreService, certificateStore, FIXED_CLOCK);
+    }
+
+    @DisplayName("The inventory should be read from the keystore and the certificate store when first used")
+    @Test
+    void load() {
+        X509Certificate configured = certificate(5);
+        when(certificateStore.list()).thenReturn(List.of(storedCertificate("shop.test.me", 10)));
+        when(keyStoreService.getCertificateChain(KEY_ALIAS)).thenReturn(List.of(configured));
+
+        assertEquals(List.of(DOMAIN, "shop.test.me"), domains(service.page(null, 0, 10)));
+        assertEquals(Optional.of(new InventoryEntry(DOMAIN, NOW.plus(5, ChronoUnit.DAYS), "CN=Test CA", "RSA",
+                null, null)), service.get(DOMAIN));
+
+        service.get("shop.test.me");
+        verify(certificateStore, times(1)).list();
+        verify(keyStoreService, times(1)).getCertificateChain(KEY_ALIAS);
+    }
+
+    @DisplayName("Without a certificate for the configured domain, only stored certificates should be listed")
+    @Test
+    void noConfiguredCertificate() {
+        when(certificateStore.list()).thenReturn(List.of(storedCertificate("shop.test.me", 10)));
+        when(keyStoreService.getCertificateChain(KEY_ALIAS)).thenReturn(List.of());
+
+        assertEquals(List.of("shop.test.me"), domains(service.page(null, 0, 10)));
+        assertEquals(Optional.empty(), service.get(DOMAIN));
+    }
+
+    @DisplayName("When the inventory is loaded")
+    @Nested
+    class Loaded {
+
+        @BeforeEach
+        void setUp() {
+            when(certificateStore.list()).thenReturn(List.of(storedCertificate("a.test.me", 30),
+                    storedCertificate("b.test.me", 2), storedCertificate("c.test.me", 10),
+                    storedCertificate("d.test.me", -1)));
+            X509Certificate configured = certificate(5);
+            when(keyStoreService.getCertificateChain(KEY_ALIAS)).thenReturn(List.of(configured));
+            service.get(DOMAIN);
+        }
+
+        @DisplayName("certificates should be listed soonest to expire first, a page at a time")
+        @Test
+        void pages() {
+            InventoryPage first = service.page(null, 0, 2);
+            InventoryPage second = service.page(null, 1, 2);
+            InventoryPage last = service.page(null, 2, 2);
+
+            assertEquals(List.of("d.test.me", "b.test.me"), domains(first));
+            assertEquals(List.of(DOMAIN, "c.test.me"), domains(second));
+            assertEquals(List.of("a.test.me"), domains(last));
+            assertEquals(5, first.total());
+            assertEquals(2, last.page());
+            assertEquals(2, last.size());
+        }
+
+        @DisplayName("only certificates expiring within the given time should be listed as due, including expired ones")
+        @Test
+        void due() {
+            InventoryPage page = service.page(Duration.ofDays(7), 0, 10);
+
+            assertEquals(List.of("d.test.me", "b.test.me", DOMAIN), domains(page));
+            assertEquals(3, page.total());
+        }
+
+        @DisplayName("a stored certificate should replace the entry of its domain")
+        @Test
+        void stored() {
+            service.stored(storedCertificate("a.test.me", 1));
+
+            assertEquals(List.of("d.test.me", "a.test.me", "b.test.me"), domains(service.page(Duration.ofDays(3), 0, 10)));
+            assertEquals(5, service.page(null, 0, 10).total());
+        }
+
+        @DisplayName("a removed certificate should no longer be listed")
+        @Test
+        void removed() {
+            service.removed("b.test.me");
+
+            assertEquals(Optional.empty(), service.get("b.test.me"));
+            assertEquals(List.of("d.test.me", DOMAIN, "c.test.me", "a.test.me"), domains(service.page(null, 0, 10)));
+        }
+
+        @DisplayName("the result of an order should be recorded on the domain's certificate")
+        @Test
+        void renewalAttempted() {
+            service.renewalAttempted("c.test.me", CertificateRenewalStatus.ERROR);
+
+            InventoryEntry entry = service.get("c.test.me").orElseThrow();
+            assertEquals(CertificateRenewalStatus.ERROR, entry.lastRenewalStatus());
+            assertEquals(NOW, entry.lastRenewalTime());
+        }
+
+        @DisplayName("the result of an order should be kept for a certificate stored after it")
+        @Test
+        void renewalAttemptedBeforeStored() {
+            service.renewalAttempted("new.test.me", CertificateRenewalStatus.SUCCESS);
+            service.stored(storedCertificate("new.test.me", 90));
+
+            assertEquals(CertificateRenewalStatus.SUCCESS, service.get("new.test.me").orElseThrow().lastRenewalStatus());
+        }
+
+        @DisplayName("an order for the configured domain should read its certificate from the keystore again")
+        @Test
+        void configuredDomainRenewed() {
+            X509Certificate renewed = certificate(90);
+            when(keyStoreService.getCertificateChain(KEY_ALIAS)).thenReturn(List.of(renewed));
+
+            service.renewalAttempted(DOMAIN, CertificateRenewalStatus.SUCCESS);
+
+            assertEquals(new InventoryEntry(DOMAIN, NOW.plus(90, ChronoUnit.DAYS), "CN=Test CA", "RSA",
+                    CertificateRenewalStatus.SUCCESS, NOW), service.get(DOMAIN).orElseThrow());
+            assertEquals(List.of("d.test.me", "b.test.me", "c.test.me", "a.test.me", DOMAIN),
+                    domains(service.page(null, 0, 10)));
+        }
+    }
+
+    private static StoredCertificate storedCertificate(String domain, int daysLeft) {
+        return new StoredCertificate(domain, "ab/" + domain + ".p12", NOW.plus(daysLeft, ChronoUnit.DAYS),
+                "ab".repeat(32), "CN=Test CA", "EC");
+    }
+
+    private static X509Certificate certificate(int daysLeft) {
+        X509Certificate certificate = mock(X509Certificate.class);
+        PublicKey publicKey = mock(PublicKey.class);
+        when(certificate.getNotAfter()).thenReturn(Date.from(NOW.plus(daysLeft, ChronoUnit.DAYS)));
+        when(certificate.getIssuerX500Principal()).thenReturn(new X500Principal("CN=Test CA"));
+        when(certificate.getPublicKey()).thenReturn(publicKey);
+        when(publicKey.getAlgorithm()).thenReturn("RSA");
+        return certificate;
+    }
+
+    private static List<String> domains(InventoryPage page) {
+        return page.entries().stream().map(InventoryEntry::domain).toList();
+    }
+}
@@ -3,6 +3,12 @@ package net.eightlives.friendlyssl.service;
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
 import net.eightlives.friendlyssl.exception.KeyStoreGeneratorException;
+import net.eightlives.friendlyssl.exception.OrderDeadlineExceededException;
+import net.eightlives.friendlyssl.keystore.PemCodec;
+import net.eightlives.friendlyssl.model.KeystoreFormat;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import net.eightlives.friendlyssl.model.OrderState;
+import net.eightlives.friendlyssl.model.PublishedCertificate;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -19,17 +25,25 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyPair;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class CertificateOrderHandlerServiceTest {
 
+    private static final OrderDeadline DEADLINE = OrderDeadline.after(Duration.ofMinutes(5), Clock.systemUTC());
+
     private CertificateOrderHandlerService service;
 
     @Mock
@@ -39,6 +53,8 @@ class CertificateOrderHandlerServiceTest {
     @Mock
     private PKCS12KeyStoreService keyStoreService;
     @Mock
+    private OrderJournalService orderJournalService;
+    @Mock
     private Login login;
     @Mock
     private Certificate certificate;
@@ -50,25 +66,38 @@ class CertificateOrderHandlerServiceTest {
         when(config.getDomain()).thenReturn("domain.com");
         domainKeyPair = KeyPairUtils.readKeyPair(Files.newBufferedReader(
                 Path.of("src", "test", "resources", "keypair.pem")));
-        service = new CertificateOrderHandlerService(config, certificateOrderService, keyStoreService);
+        service = new CertificateOrderHandlerService(config, certificateOrderService, keyStoreService,
+                orderJournalService);
     }
 
     @DisplayName("CertificateOrderService throws an exception")
     @Test
     void certificateOrderServiceThrowsException() {
-        when(certificateOrderService.orderCertificate("domain.com", login, domainKeyPair))
+        when(certificateOrderService.orderCertificate("domain.com", login, domainKeyPair, DEADLINE))
                 .thenThrow(new FriendlySSLException(""));
 
-        assertThrows(FriendlySSLException.class, () -> service.handleCertificateOrder(login, domainKeyPair));
+        assertThrows(FriendlySSLException.class, () -> service.handleCertificateOrder(login, domainKeyPair, DEADLINE));
     }
 
     @DisplayName("CertificateOrderService does not return a certificate")
     @Test
     void certificateOrderServiceCertificateNotFound() {
-        when(certificateOrderService.orderCertificate("domain.com", login, domainKeyPair))
+        when(certificateOrderService.orderCertificate("domain.com", login, domainKeyPair, DEADLINE))
                 .thenReturn(Optional.empty());
 
-        assertThrows(FriendlySSLException.class, () -> service.handleCertificateOrder(login, domainKeyPair));
+        assertThrows(FriendlySSLException.class, () -> service.handleCertificateOrder(login, domainKeyPair, DEADLINE));
+    }
+
+    @DisplayName("Order deadline passes before the certificate is downloaded")
+    @Test
+    void deadlinePassedBeforeDownload() {
+        OrderDeadline passed = OrderDeadline.after(Duration.ZERO, Clock.systemUTC());
+        when(certificateOrderService.orderCertificate("domain.com", login, domainKeyPair, passed))
+                .thenReturn(Optional.of(certificate));
+
+        assertThrows(OrderDeadlineExceededException.class,
+                () -> service.handleCertificateOrder(login, domainKeyPair, passed));
+        verify(certificate, never()).getCertificateChain();
     }
 
     @DisplayName("When CertificateOrderService returns a certificate")
@@ -77,17 +106,24 @@ class CertificateOrderHandlerServiceTest {
 
         private final List<X509Certificate> certChain = Collections.emptyList();
         private Path keystoreFile;
+        private Path pemCertificateFile;
+        private Path pemPrivateKeyFile;
 
         @BeforeEach
         void setUp(@TempDir Path temp) throws IOException {
             domainKeyPair = KeyPairUtils.readKeyPair(Files.newBufferedReader(
                     Path.of("src", "test", "resources", "keypair.pem")));
-            when(certificateOrderService.orderCertificate("domain.com", login, domainKeyPair))
+            when(certificateOrderService.orderCertificate("domain.com", login, domainKeyPair, DEADLINE))
                     .thenReturn(Optional.of(certificate));
             keystoreFile = temp.resolve("not_exists");
+            pemCertificateFile = temp.resolve("fullchain.pem");
+            pemPrivateKeyFile = temp.resolve("privkey.pem");
 
-            when(config.getKeystoreFile()).thenReturn(keystoreFile.toString());
-            when(certificate.getCertificateChain()).thenReturn(certChain);
+            lenient().when(config.getKeystoreFile()).thenReturn(keystoreFile.toString());
+            lenient().when(config.getPemCertificateFile()).thenReturn(pemCertificateFile.toString());
+            lenient().when(config.getPemPrivateKeyFile()).thenReturn(pemPrivateKeyFile.toString());
+            when(config.getKeystoreFormat()).thenReturn(KeystoreFormat.PKCS12);
+            lenient().when(certificate.getCertificateChain()).thenReturn(certChain);
         }
 
         @DisplayName("and KeyStoreGeneratorException is thrown")
@@ -96,7 +132,7 @@ class CertificateOrderHandlerServiceTest {
             when(keyStoreService.generateKeyStore(certChain, domainKeyPair.getPrivate()))
                     .thenThrow(new KeyStoreGeneratorException(new RuntimeException()));
 
-            assertThrows(FriendlySSLException.class, () -> service.handleCertificateOrder(login, domainKeyPair));
+            assertThrows(FriendlySSLException.class, () -> service.handleCertificateOrder(login, domainKeyPair, DEADLINE));
         }
 
         @DisplayName("then key store file is generated and written")
@@ -105,13 +141,125 @@ class CertificateOrderHandlerServiceTest {
             when(keyStoreService.generateKeyStore(certChain, domainKeyPair.getPrivate()))
                     .thenReturn("this is a certificate".getBytes());
 
-            Certificate cert = service.handleCertificateOrder(login, domainKeyPair);
-            assertSame(certificate, cert);
+            PublishedCertificate published = service.handleCertificateOrder(login, domainKeyPair, DEADLINE);
+            assertSame(certificate, published.certificate());
+            assertTrue(published.changed());
 
             verify(keyStoreService, times(1))
                     .generateKeyStore(certChain, domainKeyPair.getPrivate());
 
             assertTrue(Files.exists(keystoreFile));
+            assertFalse(Files.exists(pemCertificateFile));
+            verify(orderJournalService, times(1)).advance("domain.com", OrderState.INSTALLED);
+        }
+
+        @DisplayName("and the keystore format is PEM, then the PEM files are written instead of the key store")
+        @Test
+        void pemFilesWritten() throws IOException {
+            when(config.getKeystoreFormat()).thenReturn(KeystoreFormat.PEM);
+
+            assertSame(certificate, service.handleCertificateOrder(login, domainKeyPair, DEADLINE).certificate());
+
+            verify(keyStoreService, never()).generateKeyStore(any(), any());
+            assertFalse(Files.exists(keystoreFile));
+            assertTrue(Files.exists(pemCertificateFile));
+            assertEquals(domainKeyPair.getPrivate(),
+                    PemCodec.decodePrivateKey(Files.newBufferedReader(pemPrivateKeyFile)));
+            verify(orderJournalService, times(1)).advance("domain.com", OrderState.INSTALLED);
+        }
+
+        @DisplayName("and the keystore format is both, then the key store and the PEM files are written")
+        @Test
+        void bothWritten() {
+            when(config.getKeystoreFormat()).thenReturn(KeystoreFormat.BOTH);
+            when(keyStoreService.generateKeyStore(certChain, domainKeyPair.getPrivate()))
+                    .thenReturn("this is a certificate".getBytes());
+
+            service.handleCertificateOrder(login, domainKeyPair, DEADLINE);
+
+            assertTrue(Files.exists(keystoreFile));
+            assertTrue(Files.exists(pemCertificateFile));
+            assertTrue(Files.exists(pemPrivateKeyFile));
+        }
+
+        @DisplayName("and the keystore already holds the same chain and key, then nothing is written")
+        @Test
+        void keystoreUnchanged() throws Exception {
+            Files.writeString(keystoreFile, "installed");
+            when(config.getCertificateKeyAlias()).thenReturn("friendlyssl");
+            when(keyStoreService.getCertificateChain("friendlyssl")).thenReturn(List.of(installedCertificate()));
+            when(keyStoreService.getKeyPair("friendlyssl")).thenReturn(domainKeyPair);
+            when(certificate.getCertificateChain()).thenReturn(List.of(installedCertificate()));
+
+            PublishedCertificate published = service.handleCertificateOrder(login, domainKeyPair, DEADLINE);
+
+            assertFalse(published.changed());
+            assertEquals("installed", Files.readString(keystoreFile));
+            verify(keyStoreService, never()).generateKeyStore(any(), any());
+            verify(orderJournalService, times(1)).advance("domain.com", OrderState.INSTALLED);
+        }
+
+        @DisplayName("and the keystore already holds the same chain and key but the file is missing, then it is written")
+        @Test
+        void keystoreFileMissing() throws Exception {
+            when(config.getCertificateKeyAlias()).thenReturn("friendlyssl");
+            when(keyStoreService.getCertificateChain("friendlyssl")).thenReturn(List.of(installedCertificate()));
+            when(keyStoreService.getKeyPair("friendlyssl")).thenReturn(domainKeyPair);
+            when(certificate.getCertificateChain()).thenReturn(List.of(installedCertificate()));
+            when(keyStoreService.generateKeyStore(any(), eq(domainKeyPair.getPrivate())))
+                    .thenReturn("this is a certificate".getBytes());
+
+            assertTrue(service.handleCertificateOrder(login, domainKeyPair, DEADLINE).changed());
+            assertTrue(Files.exists(keystoreFile));
+        }
+
+        @DisplayName("and the same certificate is ordered twice, then it is only written once")
+        @Test
+        void writtenOnce() throws Exception {
+            when(certificate.getCertificateChain()).thenReturn(List.of(installedCertificate()));
+            when(keyStoreService.generateKeyStore(any(), eq(domainKeyPair.getPrivate())))
+                    .thenReturn("this is a certificate".getBytes());
+
+            assertTrue(service.handleCertificateOrder(login, domainKeyPair, DEADLINE).changed());
+            assertFalse(service.handleCertificateOrder(login, domainKeyPair, DEADLINE).changed());
+            verify(keyStoreService, times(1)).generateKeyStore(any(), any());
+        }
+
+        @DisplayName("and the new certificate is rolled back, then the previous keystore is restored")
+        @Test
+        void rollBack() throws Exception {
+            Files.writeString(keystoreFile, "previous");
+            when(keyStoreService.generateKeyStore(certChain, domainKeyPair.getPrivate()))
+                    .thenReturn("this is a certificate".getBytes());
+
+            service.handleCertificateOrder(login, domainKeyPair, DEADLINE);
+            assertEquals("this is a certificate", Files.readString(keystoreFile));
+
+            assertTrue(service.rollBack());
+            assertEquals("previous", Files.readString(keystoreFile));
+            assertFalse(service.rollBack());
         }
+
+        private X509Certificate installedCertificate() throws IOException, CertificateException {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(
+                    Files.newInputStream(Path.of("src", "test", "resources", "certificate_chain.pem")));
+        }
+    }
+
+    @DisplayName("When an unfinished order is resumed, its journaled key pair should be ordered and written")
+    @Test
+    void resumedOrderKeyPair(@TempDir Path temp) {
+        KeyPair journaledKeyPair = KeyPairUtils.createKeyPair(2048);
+        List<X509Certificate> certChain = Collections.emptyList();
+        when(orderJournalService.getDomainKeyPair("domain.com")).thenReturn(Optional.of(journaledKeyPair));
+        when(certificateOrderService.orderCertificate("domain.com", login, journaledKeyPair, DEADLINE))
+                .thenReturn(Optional.of(certificate));
+        when(config.getKeystoreFormat()).thenReturn(KeystoreFormat.PKCS12);
+        when(config.getKeystoreFile()).thenReturn(temp.resolve("keystore.p12").toString());
+        when(certificate.getCertificateChain()).thenReturn(certChain);
+        when(keyStoreService.generateKeyStore(certChain, journaledKeyPair.getPrivate()))
+                .thenReturn("this is a certificate".getBytes());
+
+        assertSame(certificate, service.handleCertificateOrder(login, domainKeyPair, DEADLINE).certificate());
     }
 }
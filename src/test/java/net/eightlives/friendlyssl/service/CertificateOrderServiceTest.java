@@ -2,7 +2,13 @@ package net.eightlives.friendlyssl.service;
 
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.exception.OrderDeadlineExceededException;
+import net.eightlives.friendlyssl.exception.RateLimitDeferredException;
 import net.eightlives.friendlyssl.exception.UpdateFailedException;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import net.eightlives.friendlyssl.model.OrderJournalEntry;
+import net.eightlives.friendlyssl.model.OrderState;
+import net.eightlives.friendlyssl.model.RateLimit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -10,24 +16,39 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.shredzone.acme4j.*;
+import org.shredzone.acme4j.connector.Connection;
+import org.shredzone.acme4j.connector.Resource;
 import org.shredzone.acme4j.exception.AcmeException;
+import org.shredzone.acme4j.exception.AcmeServerException;
+import org.shredzone.acme4j.exception.AcmeUnauthorizedException;
+import org.shredzone.acme4j.toolbox.JSON;
+import org.shredzone.acme4j.toolbox.JSONBuilder;
 import org.shredzone.acme4j.util.KeyPairUtils;
 
 import java.io.IOException;
+import java.net.URI;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.KeyPair;
+import java.time.*;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.*;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -36,20 +57,32 @@ class CertificateOrderServiceTest {
     private static final String DOMAIN = "domain.com";
     private static final byte[] CSR = "this is a certificate signing request".getBytes();
     private static final int ORDER_TIMEOUT_SECONDS = 3;
+    private static final Clock FIXED_CLOCK = Clock.fixed(
+            Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC)), ZoneId.of("UTC"));
+    private static final String CA = "acme://letsencrypt.org";
+    private static final OrderDeadline DEADLINE = OrderDeadline.after(Duration.ofMinutes(5), FIXED_CLOCK);
 
     private CertificateOrderService service;
 
     @Mock
     private FriendlySSLConfig config;
     @Mock
+    private AcmeAccountService accountService;
+    @Mock
     private ChallengeProcessorService challengeProcessorService;
     @Mock
     private CSRService csrService;
     @Mock
     private UpdateCheckerService updateCheckerService;
     @Mock
+    private OrderJournalService orderJournalService;
+    @Mock
+    private RateLimitService rateLimitService;
+    @Mock
     private Login login;
     @Mock
+    private Session loginSession;
+    @Mock
     private Account account;
     @Mock
     private OrderBuilder orderBuilder;
@@ -58,12 +91,36 @@ class CertificateOrderServiceTest {
 
     @BeforeEach
     void setUp() throws IOException {
-        when(login.getAccount()).thenReturn(account);
-        when(account.newOrder()).thenReturn(orderBuilder);
-        when(orderBuilder.domain(anyString())).thenReturn(orderBuilder);
+        lenient().when(login.getAccount()).thenReturn(account);
+        lenient().when(login.getSession()).thenReturn(loginSession);
+        lenient().when(loginSession.getServerUri()).thenReturn(URI.create(CA));
+        lenient().when(account.newOrder()).thenReturn(orderBuilder);
+        lenient().when(orderBuilder.domains(anyCollection())).thenReturn(orderBuilder);
         domainKeyPair = KeyPairUtils.readKeyPair(Files.newBufferedReader(
                 Path.of("src", "test", "resources", "keypair.pem")));
-        service = new CertificateOrderService(config, challengeProcessorService, csrService, updateCheckerService);
+        service = new CertificateOrderService(config, accountService, challengeProcessorService, csrService,
+                updateCheckerService, orderJournalService, rateLimitService);
+    }
+
+    @DisplayName("When the order deadline has passed, no order should be created")
+    @Test
+    void deadlinePassed() throws AcmeException {
+        OrderDeadline passed = new OrderDeadline(FIXED_CLOCK.instant(), FIXED_CLOCK);
+
+        assertThrows(OrderDeadlineExceededException.class,
+                () -> service.orderCertificate(DOMAIN, login, domainKeyPair, passed));
+        verify(orderBuilder, never()).create();
+    }
+
+    @DisplayName("When a new order would exceed a rate limit, no order should be created")
+    @Test
+    void rateLimited() throws AcmeException {
+        RateLimitDeferredException deferred = new RateLimitDeferredException(RateLimit.NEW_ORDERS, FIXED_CLOCK.instant());
+        doThrow(deferred).when(rateLimitService).checkNewOrder(CA, List.of(DOMAIN));
+
+        assertSame(deferred, assertThrows(RateLimitDeferredException.class,
+                () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE)));
+        verify(orderBuilder, never()).create();
     }
 
     @DisplayName("When account creation throws an exception")
@@ -71,7 +128,209 @@ class CertificateOrderServiceTest {
     void accountCreationFails() throws AcmeException {
         when(orderBuilder.create()).thenThrow(new AcmeException());
 
-        assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair));
+        assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+        verifyNoInteractions(accountService);
+    }
+
+    @DisplayName("An order for several domains should name all of them and be looked up under the joined domains")
+    @Test
+    void severalDomains() throws AcmeException {
+        List<String> domains = List.of(DOMAIN, "www.domain.com");
+        when(orderBuilder.create()).thenThrow(new AcmeException());
+
+        assertThrows(FriendlySSLException.class, () -> service.orderCertificate(domains, login, domainKeyPair, DEADLINE));
+        verify(orderJournalService, times(1)).getInFlightOrder("domain.com,www.domain.com");
+        verify(rateLimitService, times(1)).checkNewOrder(CA, domains);
+        verify(orderBuilder, times(1)).domains(domains);
+    }
+
+    @DisplayName("When the account login is rejected")
+    @Nested
+    class AccountLoginRejected {
+
+        @Mock
+        private Session session;
+        @Mock
+        private Login refreshedLogin;
+        @Mock
+        private Order order;
+
+        @BeforeEach
+        void setUp() throws AcmeException {
+            when(login.getSession()).thenReturn(session);
+            when(session.getServerUri()).thenReturn(URI.create(CA));
+            when(accountService.refreshAccountLogin(session)).thenReturn(refreshedLogin);
+            when(refreshedLogin.getAccount()).thenReturn(account);
+        }
+
+        @DisplayName("because the account does not exist, the account should be looked up and the order retried")
+        @Test
+        void accountDoesNotExist() throws AcmeException, MalformedURLException {
+            AcmeServerException accountDoesNotExist = new AcmeServerException(new Problem(
+                    JSON.parse("{\"type\":\"urn:ietf:params:acme:error:accountDoesNotExist\"}"),
+                    new URL("http://localhost")));
+            when(orderBuilder.create()).thenThrow(accountDoesNotExist).thenThrow(new AcmeException());
+
+            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+            verify(orderBuilder, times(2)).create();
+        }
+
+        @DisplayName("because the login is unauthorized, the account should be looked up and the order retried")
+        @Test
+        void unauthorized() throws AcmeException, MalformedURLException {
+            AcmeUnauthorizedException unauthorized = new AcmeUnauthorizedException(new Problem(
+                    JSON.parse("{\"type\":\"urn:ietf:params:acme:error:unauthorized\"}"),
+                    new URL("http://localhost")));
+            when(orderBuilder.create()).thenThrow(unauthorized).thenReturn(order);
+            when(order.getAuthorizations()).thenThrow(new FriendlySSLException(""));
+
+            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+            verify(refreshedLogin).getAccount();
+        }
+    }
+
+    @DisplayName("When the account login is rejected after the deadline has passed, the account should not be looked up")
+    @Test
+    void accountLoginRejectedAfterDeadline() throws AcmeException, MalformedURLException {
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(FIXED_CLOCK.instant(), FIXED_CLOCK.instant().plus(Duration.ofMinutes(10)));
+        OrderDeadline deadline = new OrderDeadline(FIXED_CLOCK.instant().plus(Duration.ofMinutes(5)), clock);
+        when(orderBuilder.create()).thenThrow(new AcmeUnauthorizedException(new Problem(
+                JSON.parse("{\"type\":\"urn:ietf:params:acme:error:unauthorized\"}"), new URL("http://localhost"))));
+
+        assertThrows(OrderDeadlineExceededException.class,
+                () -> service.orderCertificate(DOMAIN, login, domainKeyPair, deadline));
+        verify(accountService, never()).refreshAccountLogin(any());
+    }
+
+    @DisplayName("When the created order is already ready, challenges should not be processed")
+    @Test
+    void orderReady() throws AcmeException, ExecutionException, InterruptedException, TimeoutException {
+        Order order = mock(Order.class);
+        when(orderBuilder.create()).thenReturn(order);
+        when(order.getStatus()).thenReturn(Status.READY);
+        when(csrService.generateCSR(List.of(DOMAIN), domainKeyPair)).thenThrow(new FriendlySSLException(""));
+
+        assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+        verify(challengeProcessorService, never()).process(any(), any());
+        verify(order, never()).getAuthorizations();
+    }
+
+    @DisplayName("When an order profile is configured")
+    @Nested
+    class ProfileConfigured {
+
+        @Mock
+        private Connection connection;
+        @Mock
+        private Order order;
+
+        @BeforeEach
+        void setUp() {
+            when(config.getAcmeProfile()).thenReturn("shortlived");
+        }
+
+        @DisplayName("and the CA offers it, the order should be created with the profile")
+        @Test
+        void offered() throws AcmeException, MalformedURLException {
+            URL newOrderUrl = new URL("https://example.com/acme/new-order");
+            URL orderUrl = new URL("https://example.com/acme/order/1");
+            when(loginSession.getMetadata()).thenReturn(new Metadata(
+                    JSON.parse("{\"profiles\":{\"classic\":\"\",\"shortlived\":\"\"}}")));
+            when(loginSession.connect()).thenReturn(connection);
+            when(loginSession.resourceUrl(Resource.NEW_ORDER)).thenReturn(newOrderUrl);
+            when(connection.getLocation()).thenReturn(orderUrl);
+            when(login.bindOrder(orderUrl)).thenReturn(order);
+            when(order.getStatus()).thenReturn(Status.READY);
+            when(csrService.generateCSR(List.of(DOMAIN), domainKeyPair)).thenThrow(new FriendlySSLException(""));
+
+            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+            ArgumentCaptor<JSONBuilder> claims = ArgumentCaptor.forClass(JSONBuilder.class);
+            verify(connection).sendSignedRequest(eq(newOrderUrl), claims.capture(), eq(login));
+            assertEquals("shortlived", claims.getValue().toMap().get("profile"));
+            verify(orderBuilder, never()).create();
+        }
+
+        @DisplayName("and the CA does not offer it, the order should be created without a profile")
+        @Test
+        void notOffered() throws AcmeException {
+            when(loginSession.getMetadata()).thenReturn(new Metadata(JSON.empty()));
+            when(orderBuilder.create()).thenThrow(new AcmeException());
+
+            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+            verify(loginSession, never()).connect();
+        }
+    }
+
+    @DisplayName("When an unfinished order is journaled")
+    @Nested
+    class UnfinishedOrder {
+
+        private static final String ORDER_URL = "https://example.com/acme/order/1";
+
+        @Mock
+        private Order order;
+
+        @BeforeEach
+        void setUp() {
+            when(orderJournalService.getInFlightOrder(DOMAIN)).thenReturn(Optional.of(new OrderJournalEntry(
+                    DOMAIN, ORDER_URL, OrderState.FINALIZING, "", FIXED_CLOCK.instant())));
+        }
+
+        @DisplayName("and the order is still being issued, it should be resumed without being finalized again")
+        @Test
+        void resumeProcessing() throws Exception {
+            ScheduledFuture updateCheckerFuture = mock(ScheduledFuture.class);
+            Certificate orderCert = mock(Certificate.class);
+            when(login.bindOrder(new URL(ORDER_URL))).thenReturn(order);
+            when(order.getStatus()).thenReturn(Status.PROCESSING);
+            when(updateCheckerService.start(order)).thenReturn(updateCheckerFuture);
+            when(order.getCertificate()).thenReturn(orderCert);
+
+            assertEquals(Optional.of(orderCert), service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+            verify(order, times(1)).fetch();
+            verify(orderBuilder, never()).create();
+            verify(challengeProcessorService, never()).process(any(), any());
+            verify(order, never()).execute(any(byte[].class));
+            verify(orderJournalService, times(1)).advance(DOMAIN, OrderState.VALID);
+        }
+
+        @DisplayName("and the order is pending, its challenges should be processed")
+        @Test
+        void resumePending() throws Exception {
+            List<Authorization> authorizations = List.of(mock(Authorization.class));
+            when(login.bindOrder(new URL(ORDER_URL))).thenReturn(order);
+            when(order.getStatus()).thenReturn(Status.PENDING);
+            when(order.getAuthorizations()).thenReturn(authorizations);
+            doThrow(new FriendlySSLException("")).when(challengeProcessorService).process(authorizations, DEADLINE);
+
+            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+            verify(orderBuilder, never()).create();
+        }
+
+        @DisplayName("and the order is invalid, it should be discarded and a new order created")
+        @Test
+        void resumeInvalid() throws Exception {
+            when(login.bindOrder(new URL(ORDER_URL))).thenReturn(order);
+            when(order.getStatus()).thenReturn(Status.INVALID);
+            when(orderBuilder.create()).thenThrow(new AcmeException());
+
+            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+            verify(orderJournalService, times(1)).discard(DOMAIN);
+            verify(orderBuilder, times(1)).create();
+        }
+
+        @DisplayName("and the order cannot be fetched, it should be discarded and a new order created")
+        @Test
+        void resumeFetchFails() throws Exception {
+            when(login.bindOrder(new URL(ORDER_URL))).thenReturn(order);
+            when(order.fetch()).thenThrow(new AcmeException());
+            when(orderBuilder.create()).thenThrow(new AcmeException());
+
+            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+            verify(orderJournalService, times(1)).discard(DOMAIN);
+            verify(orderBuilder, times(1)).create();
+        }
     }
 
     @DisplayName("When account creation succeeds")
@@ -91,50 +350,47 @@ class CertificateOrderServiceTest {
 
         @DisplayName("and challenge processor throws an exception")
         @Test
-        void challengeProcessorFails() {
-            when(challengeProcessorService.process(authorizations)).thenThrow(new FriendlySSLException(""));
+        void challengeProcessorFails() throws ExecutionException, InterruptedException, TimeoutException {
+            doThrow(new FriendlySSLException("")).when(challengeProcessorService).process(authorizations, DEADLINE);
 
-            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair));
+            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
         }
 
         @DisplayName("and challenge is processed successfully")
         @Nested
         class ChallengeProcessed {
 
-            @Mock
-            private CompletableFuture<Void> challengeProcessorFuture;
+            @DisplayName("and waiting for the challenges fails")
+            @ParameterizedTest(name = "with exception {0}")
+            @ValueSource(classes = {InterruptedException.class, ExecutionException.class, CancellationException.class, TimeoutException.class})
+            void challengeProcessorWaitFails(Class<Throwable> exceptionClass) throws ExecutionException, InterruptedException, TimeoutException {
+                doThrow(exceptionClass).when(challengeProcessorService).process(authorizations, DEADLINE);
 
-            @BeforeEach
-            void setUp() {
-                when(challengeProcessorService.process(authorizations))
-                        .thenReturn(challengeProcessorFuture);
+                assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
+                verify(rateLimitService, times(ExecutionException.class.equals(exceptionClass) ? 1 : 0))
+                        .record(RateLimit.FAILED_VALIDATIONS, CA, List.of(DOMAIN));
             }
 
-            @DisplayName("and future retrieval fails")
-            @ParameterizedTest(name = "with exception {0}")
-            @ValueSource(classes = {InterruptedException.class, ExecutionException.class, CancellationException.class})
-            void challengeProcessorFutureFails(Class<Throwable> exceptionClass) throws ExecutionException, InterruptedException {
-                when(challengeProcessorFuture.get()).thenThrow(exceptionClass);
+            @DisplayName("and the deadline passes while waiting for the challenges, the deadline should be reported")
+            @Test
+            void challengeProcessorDeadlinePasses() throws ExecutionException, InterruptedException, TimeoutException {
+                doThrow(TimeoutException.class).when(challengeProcessorService).process(authorizations, DEADLINE);
 
-                assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair));
+                assertThrows(OrderDeadlineExceededException.class,
+                        () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
             }
 
-            @DisplayName("and future retrieval succeeds")
+            @DisplayName("and waiting for the challenges succeeds")
             @Nested
             class ChallengeProcessRetrieved {
 
-                @BeforeEach
-                void setUp() throws ExecutionException, InterruptedException {
-                    when(challengeProcessorFuture.get()).thenReturn(null);
-                }
-
                 @DisplayName("and CSR service throws an exception")
                 @Test
                 void csrServiceFails() {
-                    when(csrService.generateCSR(DOMAIN, domainKeyPair))
+                    when(csrService.generateCSR(List.of(DOMAIN), domainKeyPair))
                             .thenThrow(new FriendlySSLException(""));
 
-                    assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair));
+                    assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
                 }
 
                 @DisplayName("and CSR service succeeds")
@@ -143,7 +399,7 @@ class CertificateOrderServiceTest {
 
                     @BeforeEach
                     void setUp() {
-                        when(csrService.generateCSR(DOMAIN, domainKeyPair))
+                        when(csrService.generateCSR(List.of(DOMAIN), domainKeyPair))
                                 .thenReturn("this is a certificate signing request".getBytes());
                     }
 
@@ -152,7 +408,7 @@ class CertificateOrderServiceTest {
                     void orderExecutionFails() throws AcmeException {
                         doThrow(new AcmeException()).when(order).execute(CSR);
 
-                        assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair));
+                        assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
                     }
 
                     @DisplayName("and order execution succeeds")
@@ -164,7 +420,7 @@ class CertificateOrderServiceTest {
                         void updateCheckerServiceFails() {
                             when(updateCheckerService.start(order)).thenThrow(new UpdateFailedException());
 
-                            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair));
+                            assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
                         }
 
                         @DisplayName("and update checker service returns")
@@ -184,10 +440,10 @@ class CertificateOrderServiceTest {
                             @ParameterizedTest(name = "with exception {0}")
                             @ValueSource(classes = {InterruptedException.class, ExecutionException.class, CancellationException.class, TimeoutException.class})
                             void updateCheckerFutureFails(Class<Throwable> exceptionClass) throws ExecutionException, InterruptedException, TimeoutException {
-                                when(updateCheckerFuture.get(ORDER_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                                when(updateCheckerFuture.get(ORDER_TIMEOUT_SECONDS * 1000L, TimeUnit.MILLISECONDS))
                                         .thenThrow(exceptionClass);
 
-                                assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair));
+                                assertThrows(FriendlySSLException.class, () -> service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE));
                             }
 
                             @DisplayName("and future retrieval succeeds")
@@ -199,7 +455,7 @@ class CertificateOrderServiceTest {
                                 void nullCertificate() {
                                     when(order.getCertificate()).thenReturn(null);
 
-                                    Optional<Certificate> certificate = service.orderCertificate(DOMAIN, login, domainKeyPair);
+                                    Optional<Certificate> certificate = service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE);
 
                                     assertEquals(Optional.empty(), certificate);
                                 }
@@ -210,9 +466,16 @@ class CertificateOrderServiceTest {
                                     Certificate orderCert = mock(Certificate.class);
                                     when(order.getCertificate()).thenReturn(orderCert);
 
-                                    Optional<Certificate> certificate = service.orderCertificate(DOMAIN, login, domainKeyPair);
+                                    Optional<Certificate> certificate = service.orderCertificate(DOMAIN, login, domainKeyPair, DEADLINE);
 
                                     assertEquals(Optional.of(orderCert), certificate);
+                                    verify(orderJournalService, times(1)).start(DOMAIN, null, domainKeyPair);
+                                    verify(orderJournalService, times(1)).advance(DOMAIN, OrderState.AUTHORIZING);
+                                    verify(orderJournalService, times(1)).advance(DOMAIN, OrderState.FINALIZING);
+                                    verify(orderJournalService, times(1)).advance(DOMAIN, OrderState.VALID);
+                                    verify(rateLimitService, times(1)).record(RateLimit.NEW_ORDERS, CA, List.of(DOMAIN));
+                                    verify(rateLimitService, times(1)).record(RateLimit.CERTIFICATES_PER_DOMAIN, CA, List.of(DOMAIN));
+                                    verify(rateLimitService, times(1)).record(RateLimit.DUPLICATE_CERTIFICATES, CA, List.of(DOMAIN));
                                 }
                             }
                         }
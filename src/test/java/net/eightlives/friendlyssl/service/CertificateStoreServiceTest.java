@@ -0,0 +1,174 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.event.CertificateStoreChanged;
+import net.eightlives.friendlyssl.keystore.CertificateIndex;
+import net.eightlives.friendlyssl.keystore.Pkcs12Codec;
+import net.eightlives.friendlyssl.model.Pkcs12Profile;
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shredzone.acme4j.util.KeyPairUtils;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CertificateStoreServiceTest {
+
+    private static final KeyPair KEY_PAIR = KeyPairUtils.createKeyPair(2048);
+    private static final Instant NOT_AFTER = Instant.now().plus(90, ChronoUnit.DAYS).truncatedTo(ChronoUnit.SECONDS);
+
+    private CertificateStoreService store;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private PKCS12KeyStoreService keyStoreService;
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setUp() {
+        when(config.getCertificateStoreDirectory()).thenReturn(directory.toString());
+        lenient().when(keyStoreService.generateKeyStore(anyList(), any(PrivateKey.class), anyString()))
+                .thenAnswer(invocation -> new Pkcs12Codec(Pkcs12Profile.AES_256, 1000).encode(
+                        invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2), null));
+        store = new CertificateStoreService(config, keyStoreService, applicationEventPublisher);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+    }
+
+    @DisplayName("A stored certificate should be written to its shard and indexed")
+    @Test
+    void put() throws Exception {
+        X509Certificate certificate = certificate("CN=shop.test.me");
+
+        StoredCertificate entry = store.put("shop.test.me", List.of(certificate), KEY_PAIR.getPrivate());
+
+        String shard = CertificateStoreService.shard("shop.test.me");
+        assertEquals(shard + "/shop.test.me.p12", entry.file());
+        assertEquals(NOT_AFTER, entry.notAfter());
+        assertEquals("CN=shop.test.me", entry.issuer());
+        assertEquals("RSA", entry.keyType());
+        assertEquals(CertificateOrderHandlerService.fingerprint(List.of(certificate), KEY_PAIR.getPrivate()),
+                entry.fingerprint());
+        assertTrue(Files.exists(directory.resolve(shard).resolve("shop.test.me.p12")));
+        assertEquals(Optional.of(entry), store.get("shop.test.me"));
+        ArgumentCaptor<CertificateStoreChanged> event = ArgumentCaptor.forClass(CertificateStoreChanged.class);
+        verify(applicationEventPublisher, times(1)).publishEvent(event.capture());
+        assertEquals("shop.test.me", event.getValue().getDomain());
+        assertEquals(Optional.of(entry), event.getValue().getCertificate());
+    }
+
+    @DisplayName("A stored certificate should be loaded from its keystore")
+    @Test
+    void load() throws Exception {
+        X509Certificate certificate = certificate("CN=shop.test.me");
+        store.put("shop.test.me", List.of(certificate), KEY_PAIR.getPrivate());
+
+        KeyStore.PrivateKeyEntry entry = store.load("shop.test.me").orElseThrow();
+
+        assertEquals(KEY_PAIR.getPrivate(), entry.getPrivateKey());
+        assertEquals(certificate, entry.getCertificate());
+        assertEquals(Optional.empty(), store.load("other.test.me"));
+    }
+
+    @DisplayName("Stored certificates should be listed from the index after a restart, without reading keystores")
+    @Test
+    void reopen() throws Exception {
+        store.put("shop.test.me", List.of(certificate("CN=shop.test.me")), KEY_PAIR.getPrivate());
+        store.put("api.test.me", List.of(certificate("CN=api.test.me")), KEY_PAIR.getPrivate());
+        store.close();
+
+        CertificateStoreService reopened = new CertificateStoreService(config, keyStoreService, applicationEventPublisher);
+        try (reopened) {
+            assertEquals(List.of("api.test.me", "shop.test.me"),
+                    reopened.list().stream().map(StoredCertificate::domain).toList());
+            Files.delete(directory.resolve(CertificateStoreService.shard("api.test.me")).resolve("api.test.me.p12"));
+            assertTrue(reopened.get("api.test.me").isPresent());
+            assertEquals(Optional.empty(), reopened.load("api.test.me"));
+        }
+    }
+
+    @DisplayName("Entries indexed without issuer and key type should have them filled in from their keystores")
+    @Test
+    void reindex() throws Exception {
+        StoredCertificate entry = store.put("shop.test.me", List.of(certificate("CN=shop.test.me")), KEY_PAIR.getPrivate());
+        store.close();
+        try (CertificateIndex index = CertificateIndex.open(directory.resolve("index.dat"))) {
+            index.append(new StoredCertificate(entry.domain(), entry.file(), entry.notAfter(), entry.fingerprint(),
+                    "", ""));
+        }
+
+        try (CertificateStoreService reopened = new CertificateStoreService(config, keyStoreService, applicationEventPublisher)) {
+            assertEquals(Optional.of(entry), reopened.get("shop.test.me"));
+        }
+        try (CertificateIndex index = CertificateIndex.open(directory.resolve("index.dat"))) {
+            assertEquals(entry, index.entries().get("shop.test.me"));
+        }
+    }
+
+    @DisplayName("A removed certificate should be deleted and dropped from the index")
+    @Test
+    void remove() throws Exception {
+        store.put("shop.test.me", List.of(certificate("CN=shop.test.me")), KEY_PAIR.getPrivate());
+
+        assertTrue(store.remove("shop.test.me"));
+        assertFalse(store.remove("shop.test.me"));
+
+        ArgumentCaptor<CertificateStoreChanged> event = ArgumentCaptor.forClass(CertificateStoreChanged.class);
+        verify(applicationEventPublisher, times(2)).publishEvent(event.capture());
+        assertEquals("shop.test.me", event.getValue().getDomain());
+        assertEquals(Optional.empty(), event.getValue().getCertificate());
+
+        assertEquals(Optional.empty(), store.get("shop.test.me"));
+        assertFalse(Files.exists(directory.resolve(CertificateStoreService.shard("shop.test.me")).resolve("shop.test.me.p12")));
+        store.close();
+        try (CertificateStoreService reopened = new CertificateStoreService(config, keyStoreService, applicationEventPublisher)) {
+            assertEquals(List.of(), reopened.list());
+        }
+    }
+
+    private static X509Certificate certificate(String subject) throws Exception {
+        return new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(new X500Name(subject), BigInteger.ONE,
+                        Date.from(Instant.now()), Date.from(NOT_AFTER), new X500Name(subject), KEY_PAIR.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256WITHRSA").build(KEY_PAIR.getPrivate())));
+    }
+}
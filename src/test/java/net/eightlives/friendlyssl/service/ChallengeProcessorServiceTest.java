@@ -2,6 +2,7 @@ package net.eightlives.friendlyssl.service;
 
 import net.eightlives.friendlyssl.exception.FriendlySSLException;
 import net.eightlives.friendlyssl.listener.ChallengeTokenRequestedListener;
+import net.eightlives.friendlyssl.model.OrderDeadline;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -13,20 +14,23 @@ import org.shredzone.acme4j.Authorization;
 import org.shredzone.acme4j.Status;
 import org.shredzone.acme4j.challenge.Http01Challenge;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import static org.junit.jupiter.api.Assertions.*;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class ChallengeProcessorServiceTest {
 
+    private static final OrderDeadline DEADLINE = OrderDeadline.after(Duration.ofMinutes(5), Clock.systemUTC());
+
     private ChallengeProcessorService service;
 
     @Mock
@@ -43,9 +47,9 @@ class ChallengeProcessorServiceTest {
         Authorization auth = mock(Authorization.class);
         when(auth.getStatus()).thenReturn(Status.VALID);
 
-        CompletableFuture<Void> responseFuture = service.process(List.of(auth));
+        assertDoesNotThrow(() -> service.process(List.of(auth), DEADLINE));
 
-        assertTrue(responseFuture.isDone());
+        verifyNoInteractions(challengeTokenRequestedListener);
     }
 
     @DisplayName("When authorizations are invalid")
@@ -63,14 +67,16 @@ class ChallengeProcessorServiceTest {
             when(auth.findChallenge(Http01Challenge.class)).thenReturn(Optional.of(challenge));
         }
 
-        @DisplayName("and no HTTP challenge found for any authorization, an exception should be thrown")
+        @DisplayName("and no HTTP challenge found for any authorization, an exception should be thrown before any challenge is processed")
         @Test
         void noHttpChallengeException() {
             Authorization noHttpAuth = mock(Authorization.class);
             when(noHttpAuth.getStatus()).thenReturn(Status.PENDING);
             when(noHttpAuth.findChallenge(Http01Challenge.class)).thenReturn(Optional.empty());
 
-            assertThrows(FriendlySSLException.class, () -> service.process(List.of(auth, noHttpAuth)));
+            assertThrows(FriendlySSLException.class, () -> service.process(List.of(auth, noHttpAuth), DEADLINE));
+
+            verifyNoInteractions(challengeTokenRequestedListener);
         }
 
         @DisplayName("and all authorizations have HTTP challenges")
@@ -79,59 +85,70 @@ class ChallengeProcessorServiceTest {
 
             @DisplayName("when challengeTokenRequestedListener throws exception")
             @Test
-            void listenerException() {
-                when(challengeTokenRequestedListener.getChallengeTokenVerification(challenge, auth))
-                        .thenThrow(new FriendlySSLException(""));
+            void listenerException() throws InterruptedException {
+                doThrow(new FriendlySSLException("")).when(challengeTokenRequestedListener)
+                        .verifyChallenge(challenge, auth, DEADLINE);
 
-                assertThrows(FriendlySSLException.class, () -> service.process(List.of(auth)));
+                ExecutionException e = assertThrows(ExecutionException.class,
+                        () -> service.process(List.of(auth), DEADLINE));
+                assertInstanceOf(FriendlySSLException.class, e.getCause());
             }
 
             @DisplayName("when all processed authorizations complete successfully")
             @Test
-            void futuresComplete() {
-                when(challengeTokenRequestedListener.getChallengeTokenVerification(challenge, auth))
-                        .thenReturn(CompletableFuture.completedFuture(null));
+            void challengesComplete() throws InterruptedException {
+                assertDoesNotThrow(() -> service.process(List.of(auth), DEADLINE));
 
-                assertTrue(service.process(List.of(auth)).isDone());
+                verify(challengeTokenRequestedListener).verifyChallenge(challenge, auth, DEADLINE);
             }
 
-            @DisplayName("when trigger succeeds")
+            @DisplayName("when there are multiple authorizations")
             @Nested
-            class TriggerSucceeds {
+            class MultipleAuthorizations {
 
-                private final CompletableFuture<Void> challengeFuture = new CompletableFuture<>();
+                private final CountDownLatch siblingInterrupted = new CountDownLatch(1);
+
+                @Mock
+                private Authorization otherAuth;
+                @Mock
+                private Http01Challenge otherChallenge;
 
                 @BeforeEach
-                void setUp() {
-                    when(challengeTokenRequestedListener.getChallengeTokenVerification(challenge, auth))
-                            .thenReturn(challengeFuture);
+                void setUp() throws InterruptedException {
+                    when(otherAuth.getStatus()).thenReturn(Status.PENDING);
+                    when(otherAuth.findChallenge(Http01Challenge.class)).thenReturn(Optional.of(otherChallenge));
+                    doAnswer(invocation -> {
+                        try {
+                            Thread.sleep(Duration.ofMinutes(1));
+                        } catch (InterruptedException e) {
+                            siblingInterrupted.countDown();
+                            throw e;
+                        }
+                        return null;
+                    }).when(challengeTokenRequestedListener).verifyChallenge(eq(otherChallenge), eq(otherAuth), any());
                 }
 
-                @DisplayName("and challenge future fails")
+                @DisplayName("and one fails, the others should be cancelled")
                 @Test
-                void challengeFutureFails() {
-                    challengeFuture.completeExceptionally(new FriendlySSLException(""));
+                void failureCancelsSiblings() throws InterruptedException {
+                    doThrow(new FriendlySSLException("")).when(challengeTokenRequestedListener)
+                            .verifyChallenge(challenge, auth, DEADLINE);
 
-                    Exception e = assertThrows(ExecutionException.class, () -> service.process(List.of(auth)).get(1, TimeUnit.SECONDS));
+                    ExecutionException e = assertThrows(ExecutionException.class,
+                            () -> service.process(List.of(otherAuth, auth), DEADLINE));
                     assertInstanceOf(FriendlySSLException.class, e.getCause());
+                    assertTrue(siblingInterrupted.await(1, TimeUnit.SECONDS));
                 }
 
-                @DisplayName("and challenge future times out")
-                @Test
-                void challengeFutureTimeout() {
-                    challengeFuture.completeExceptionally(new TimeoutException());
-
-                    Exception e = assertThrows(ExecutionException.class, () -> service.process(List.of(auth)).get(1, TimeUnit.SECONDS));
-                    assertInstanceOf(TimeoutException.class, e.getCause());
-                }
-
-                @DisplayName("and challenge future succeeds")
+                @DisplayName("and the deadline passes, the unfinished ones should be cancelled")
                 @Test
-                void challengeFutureSucceeds() throws ExecutionException, InterruptedException, TimeoutException {
-                    challengeFuture.complete(null);
+                void deadlineCancelsSiblings() throws InterruptedException {
+                    OrderDeadline shortDeadline = OrderDeadline.after(Duration.ofMillis(100), Clock.systemUTC());
+                    doNothing().when(challengeTokenRequestedListener).verifyChallenge(challenge, auth, shortDeadline);
 
-                    CompletableFuture<Void> future = service.process(List.of(auth));
-                    assertTrue(future.isDone());
+                    assertThrows(TimeoutException.class,
+                            () -> service.process(List.of(auth, otherAuth), shortDeadline));
+                    assertTrue(siblingInterrupted.await(1, TimeUnit.SECONDS));
                 }
             }
         }
@@ -0,0 +1,195 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.HandshakeSelfTestException;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shredzone.acme4j.util.KeyPairUtils;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.core.env.Environment;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class HandshakeSelfTestServiceTest {
+
+    private static final Clock CLOCK = Clock.systemUTC();
+
+    private HandshakeSelfTestService service;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private ServerProperties serverConfig;
+    @Mock
+    private Environment environment;
+    @Mock
+    private RenewalMetricsService renewalMetrics;
+
+    private KeyPair caKeyPair;
+    private X509Certificate caCertificate;
+    private KeyPair leafKeyPair;
+    private X509Certificate leafCertificate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new HandshakeSelfTestService(config, serverConfig, environment, renewalMetrics, CLOCK);
+
+        caKeyPair = KeyPairUtils.createKeyPair(2048);
+        caCertificate = certificate("CN=Test CA", caKeyPair, "CN=Test CA", caKeyPair.getPrivate());
+        leafKeyPair = KeyPairUtils.createKeyPair(2048);
+        leafCertificate = certificate("CN=test.me", leafKeyPair, "CN=Test CA", caKeyPair.getPrivate());
+    }
+
+    @DisplayName("The server should be reached over loopback on the port it listens on")
+    @Test
+    void serverAddress() {
+        when(environment.getProperty("local.server.port", Integer.class)).thenReturn(8443);
+
+        assertEquals(new InetSocketAddress(InetAddress.getLoopbackAddress(), 8443), service.serverAddress());
+    }
+
+    @DisplayName("The configured port should be used until the server has started")
+    @Test
+    void configuredPort() {
+        when(serverConfig.getPort()).thenReturn(9443);
+
+        assertEquals(9443, service.serverAddress().getPort());
+    }
+
+    @DisplayName("A served chain that differs from the new one should fail the self-test")
+    @Test
+    void chainMismatch() throws Exception {
+        X509Certificate otherLeaf = certificate("CN=test.me", leafKeyPair, "CN=test.me", leafKeyPair.getPrivate());
+
+        assertThrows(HandshakeSelfTestException.class, () -> HandshakeSelfTestService.checkChain(
+                List.of(leafCertificate, caCertificate), List.of(otherLeaf, caCertificate)));
+        assertThrows(HandshakeSelfTestException.class, () -> HandshakeSelfTestService.checkChain(
+                List.of(leafCertificate, caCertificate), List.of(leafCertificate)));
+        assertThrows(HandshakeSelfTestException.class, () -> HandshakeSelfTestService.checkChain(
+                List.of(leafCertificate, leafCertificate), List.of(leafCertificate, leafCertificate)));
+        assertDoesNotThrow(() -> HandshakeSelfTestService.checkChain(
+                List.of(leafCertificate, caCertificate), List.of(leafCertificate, caCertificate)));
+    }
+
+    @DisplayName("When the server is not listening, the self-test should fail")
+    @Test
+    void serverNotListening() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        when(environment.getProperty("local.server.port", Integer.class)).thenReturn(port);
+        when(config.getHandshakeSelfTestCount()).thenReturn(1);
+        when(config.getDomain()).thenReturn("test.me");
+
+        assertThrows(HandshakeSelfTestException.class, () -> service.verify(
+                List.of(leafCertificate, caCertificate), OrderDeadline.after(Duration.ofSeconds(10), CLOCK)));
+    }
+
+    @DisplayName("When the server is listening")
+    @Nested
+    class ServerListening {
+
+        private SSLServerSocket serverSocket;
+        private ExecutorService executor;
+
+        @BeforeEach
+        void setUp() throws Exception {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(null, null);
+            keyStore.setKeyEntry("test", leafKeyPair.getPrivate(), new char[0],
+                    new X509Certificate[]{leafCertificate, caCertificate});
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, new char[0]);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagerFactory.getKeyManagers(), null, null);
+
+            serverSocket = (SSLServerSocket) context.getServerSocketFactory()
+                    .createServerSocket(0, 10, InetAddress.getLoopbackAddress());
+            executor = Executors.newVirtualThreadPerTaskExecutor();
+            executor.submit(() -> {
+                while (!serverSocket.isClosed()) {
+                    try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+                        socket.startHandshake();
+                    } catch (IOException e) {
+                        // The client closes the connection as soon as the handshake is done
+                    }
+                }
+            });
+
+            when(environment.getProperty("local.server.port", Integer.class)).thenReturn(serverSocket.getLocalPort());
+            when(config.getHandshakeSelfTestCount()).thenReturn(3);
+            when(config.getDomain()).thenReturn("test.me");
+        }
+
+        @AfterEach
+        void tearDown() throws IOException {
+            serverSocket.close();
+            executor.shutdownNow();
+        }
+
+        @DisplayName("and serves the new chain, each handshake should be timed")
+        @Test
+        void servesNewChain() {
+            service.verify(List.of(leafCertificate, caCertificate), OrderDeadline.after(Duration.ofSeconds(10), CLOCK));
+
+            verify(renewalMetrics, times(3)).recordPhase(eq(RenewalMetricsService.Phase.HANDSHAKE), any(Duration.class));
+        }
+
+        @DisplayName("and serves another certificate, the self-test should fail on the first handshake")
+        @Test
+        void servesOtherCertificate() throws Exception {
+            X509Certificate newCertificate = certificate("CN=test.me", leafKeyPair, "CN=test.me", leafKeyPair.getPrivate());
+
+            assertThrows(HandshakeSelfTestException.class, () -> service.verify(
+                    List.of(newCertificate), OrderDeadline.after(Duration.ofSeconds(10), CLOCK)));
+            verify(renewalMetrics, times(1)).recordPhase(eq(RenewalMetricsService.Phase.HANDSHAKE), any(Duration.class));
+        }
+    }
+
+    private static X509Certificate certificate(String subject, KeyPair subjectKeyPair, String issuer,
+                                               PrivateKey issuerKey) throws Exception {
+        Instant now = Instant.now();
+        return new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(new X500Name(issuer), BigInteger.valueOf(now.toEpochMilli()),
+                        Date.from(now), Date.from(now.plus(1, ChronoUnit.DAYS)), new X500Name(subject),
+                        subjectKeyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256WITHRSA").build(issuerKey)));
+    }
+}
@@ -0,0 +1,74 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.task.SchedulerMetricsMXBean;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MBeanRegistrationServiceTest {
+
+    private static final SchedulerMetricsMXBean METRICS = new SchedulerMetricsMXBean() {
+        @Override
+        public int getQueueDepth() {
+            return 1;
+        }
+
+        @Override
+        public int getActiveTasks() {
+            return 2;
+        }
+
+        @Override
+        public long getCompletedTasks() {
+            return 3;
+        }
+    };
+
+    private MBeanServer mBeanServer;
+    private MBeanRegistrationService service;
+    private ObjectName objectName;
+
+    @BeforeEach
+    void setUp() throws JMException {
+        mBeanServer = MBeanServerFactory.newMBeanServer();
+        service = new MBeanRegistrationService(mBeanServer);
+        objectName = new ObjectName("net.eightlives.friendlyssl:type=Scheduler,name=test");
+    }
+
+    @DisplayName("Registered MBeans expose the MXBean attributes")
+    @Test
+    void register() throws JMException {
+        service.register("Scheduler", "test", METRICS, SchedulerMetricsMXBean.class);
+
+        assertEquals(1, mBeanServer.getAttribute(objectName, "QueueDepth"));
+        assertEquals(2, mBeanServer.getAttribute(objectName, "ActiveTasks"));
+        assertEquals(3L, mBeanServer.getAttribute(objectName, "CompletedTasks"));
+    }
+
+    @DisplayName("Registering under an existing name replaces the existing MBean")
+    @Test
+    void registerReplaces() {
+        service.register("Scheduler", "test", METRICS, SchedulerMetricsMXBean.class);
+        MBeanRegistrationService otherService = new MBeanRegistrationService(mBeanServer);
+
+        assertDoesNotThrow(() -> otherService.register("Scheduler", "test", METRICS, SchedulerMetricsMXBean.class));
+        assertTrue(mBeanServer.isRegistered(objectName));
+    }
+
+    @DisplayName("Destroying the service unregisters its MBeans")
+    @Test
+    void destroy() {
+        service.register("Scheduler", "test", METRICS, SchedulerMetricsMXBean.class);
+
+        service.destroy();
+
+        assertFalse(mBeanServer.isRegistered(objectName));
+    }
+}
@@ -0,0 +1,206 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.model.StoredCertificate;
+import net.eightlives.friendlyssl.tls.SniKeyManager;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shredzone.acme4j.Certificate;
+import org.shredzone.acme4j.util.KeyPairUtils;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OnDemandIssuanceServiceTest {
+
+    private static final Instant NOW = Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC));
+    private static final Clock FIXED_CLOCK = Clock.fixed(NOW, ZoneId.of("UTC"));
+    private static final KeyPair KEY_PAIR = KeyPairUtils.createKeyPair(2048);
+
+    private final SniKeyManager keyManager = new SniKeyManager();
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private CertificateCreateRenewService certificateCreateRenewService;
+    @Mock
+    private CertificateStoreService certificateStore;
+    @Mock
+    private ObjectProvider<OnDemandDecision> decisions;
+    @Mock
+    private ScheduledExecutorService timer;
+
+    @DisplayName("When on-demand issuance is disabled, unknown hostnames should not be ordered")
+    @Test
+    void disabled() {
+        new OnDemandIssuanceService(config, keyManager, certificateCreateRenewService, certificateStore, decisions, timer,
+                FIXED_CLOCK);
+
+        keyManager.select("shop.test.me", "RSA");
+
+        verifyNoInteractions(timer, certificateCreateRenewService);
+    }
+
+    @DisplayName("When on-demand issuance is enabled")
+    @Nested
+    class Enabled {
+
+        private OnDemandIssuanceService service;
+
+        @BeforeEach
+        void setUp() {
+            when(config.isOnDemandEnabled()).thenReturn(true);
+            when(config.getOnDemandAllowedDomains()).thenReturn(List.of("shop.test.me", "*.customers.test.me"));
+            lenient().when(config.getOnDemandIssuancesPerHour()).thenReturn(2);
+            lenient().when(config.getErrorRetryWaitHours()).thenReturn(1);
+            lenient().when(decisions.orderedStream()).thenAnswer(_ -> Stream.empty());
+
+            service = new OnDemandIssuanceService(config, keyManager, certificateCreateRenewService, certificateStore,
+                    decisions, timer, FIXED_CLOCK);
+        }
+
+        @DisplayName("an unknown hostname that is not allowed should not be ordered")
+        @Test
+        void notAllowed() {
+            assertFalse(service.request("other.test.me"));
+            assertFalse(service.request("customers.test.me"));
+            verifyNoInteractions(timer);
+        }
+
+        @DisplayName("an allowed hostname should be ordered once however many handshakes ask for it")
+        @Test
+        void singleFlight() {
+            keyManager.select("shop.test.me", "RSA");
+            keyManager.select("shop.test.me", "RSA");
+            keyManager.select("a.b.customers.test.me", "RSA");
+
+            verify(timer, times(2)).execute(any(Runnable.class));
+        }
+
+        @DisplayName("an ordered certificate should be stored and served")
+        @Test
+        void issue() throws Exception {
+            X509Certificate certificate = certificate("CN=shop.test.me");
+            Certificate acmeCertificate = mock(Certificate.class);
+            when(certificateCreateRenewService.orderHostCertificate(eq("shop.test.me"), any(KeyPair.class), any()))
+                    .thenAnswer(invocation -> {
+                        invocation.<BiConsumer<List<X509Certificate>, PrivateKey>>getArgument(2)
+                                .accept(List.of(certificate), KEY_PAIR.getPrivate());
+                        return acmeCertificate;
+                    });
+
+            assertTrue(service.request("shop.test.me"));
+            runOrder();
+
+            verify(certificateStore).put("shop.test.me", List.of(certificate), KEY_PAIR.getPrivate());
+            assertEquals(Optional.of("shop.test.me"), keyManager.select("shop.test.me", "RSA").map(SniKeyManager.Entry::alias));
+            assertTrue(keyManager.isManaged("shop.test.me"));
+        }
+
+        @DisplayName("a stored certificate should be read and served to the handshake that asks for it, without ordering")
+        @Test
+        void stored() throws Exception {
+            X509Certificate certificate = certificate("CN=shop.test.me");
+            when(certificateStore.get("shop.test.me")).thenReturn(Optional.of(new StoredCertificate("shop.test.me",
+                    "3a/shop.test.me.p12", NOW.plus(30, ChronoUnit.DAYS), "ab".repeat(32), "CN=Test CA", "RSA")));
+            when(certificateStore.load("shop.test.me")).thenReturn(Optional.of(
+                    new KeyStore.PrivateKeyEntry(KEY_PAIR.getPrivate(), new X509Certificate[]{certificate})));
+
+            assertEquals(Optional.of("shop.test.me"), keyManager.select("shop.test.me", "RSA").map(SniKeyManager.Entry::alias));
+            verifyNoInteractions(timer);
+        }
+
+        @DisplayName("an expired stored certificate should be ordered again")
+        @Test
+        void storedExpired() {
+            when(certificateStore.get("shop.test.me")).thenReturn(Optional.of(new StoredCertificate("shop.test.me",
+                    "3a/shop.test.me.p12", NOW.minus(1, ChronoUnit.DAYS), "ab".repeat(32), "CN=Test CA", "RSA")));
+
+            assertTrue(service.request("shop.test.me"));
+            verify(certificateStore, never()).load(any());
+        }
+
+        @DisplayName("a hostname refused by a decision hook should not be ordered, nor asked for again for a while")
+        @Test
+        void refused() {
+            when(decisions.orderedStream()).thenAnswer(_ -> Stream.of((OnDemandDecision) _ -> true,
+                    (OnDemandDecision) hostname -> !hostname.equals("shop.test.me")));
+
+            service.request("shop.test.me");
+            runOrder();
+
+            verifyNoInteractions(certificateCreateRenewService);
+            assertFalse(service.request("shop.test.me"));
+        }
+
+        @DisplayName("a failed order should not be retried for a while")
+        @Test
+        void failed() {
+            when(certificateCreateRenewService.orderHostCertificate(eq("shop.test.me"), any(KeyPair.class), any()))
+                    .thenThrow(new FriendlySSLException("invalid"));
+
+            service.request("shop.test.me");
+            runOrder();
+
+            assertFalse(keyManager.isManaged("shop.test.me"));
+            assertFalse(service.request("shop.test.me"));
+        }
+
+        @DisplayName("no more certificates than the hourly budget should be ordered")
+        @Test
+        void rateLimited() {
+            when(certificateCreateRenewService.orderHostCertificate(any(), any(KeyPair.class), any()))
+                    .thenThrow(new FriendlySSLException("invalid"));
+
+            service.issue("a.customers.test.me");
+            service.issue("b.customers.test.me");
+            service.issue("c.customers.test.me");
+
+            verify(certificateCreateRenewService, times(2)).orderHostCertificate(any(), any(KeyPair.class), any());
+            assertTrue(service.request("c.customers.test.me"));
+        }
+
+        private void runOrder() {
+            ArgumentCaptor<Runnable> order = ArgumentCaptor.forClass(Runnable.class);
+            verify(timer).execute(order.capture());
+            order.getValue().run();
+        }
+    }
+
+    private static X509Certificate certificate(String subject) throws Exception {
+        return new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(new X500Name(subject), BigInteger.ONE,
+                        Date.from(NOW), Date.from(NOW.plus(90, ChronoUnit.DAYS)), new X500Name(subject),
+                        KEY_PAIR.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256WITHRSA").build(KEY_PAIR.getPrivate())));
+    }
+}
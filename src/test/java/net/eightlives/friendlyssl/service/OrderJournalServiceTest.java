@@ -0,0 +1,155 @@
+package net.eightlives.friendlyssl.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.OrderJournalEntry;
+import net.eightlives.friendlyssl.model.OrderState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyPair;
+import java.time.*;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OrderJournalServiceTest {
+
+    private static final String DOMAIN = "domain.com";
+    private static final String ORDER_URL = "https://example.com/acme/order/1";
+    private static final Clock FIXED_CLOCK = Clock.fixed(
+            Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC)), ZoneId.of("UTC"));
+
+    private OrderJournalService service;
+    private Path journalFile;
+
+    @Mock
+    private FriendlySSLConfig config;
+
+    @BeforeEach
+    void setUp(@TempDir Path temp) {
+        journalFile = temp.resolve("order-journal.json");
+        when(config.getOrderJournalFile()).thenReturn(journalFile.toString());
+        service = new OrderJournalService(config, new ObjectMapper().findAndRegisterModules(), FIXED_CLOCK);
+    }
+
+    @DisplayName("Without a journal, there should be no unfinished order")
+    @Test
+    void noJournal() {
+        assertEquals(Optional.empty(), service.getInFlightOrder(DOMAIN));
+        assertEquals(Optional.empty(), service.getDomainKeyPair(DOMAIN));
+    }
+
+    @DisplayName("With an unreadable journal, there should be no unfinished order")
+    @Test
+    void unreadableJournal() throws IOException {
+        Files.writeString(journalFile, "not json");
+
+        assertEquals(Optional.empty(), service.getInFlightOrder(DOMAIN));
+    }
+
+    @DisplayName("Advancing a domain without an order should not create a journal")
+    @Test
+    void advanceWithoutOrder() {
+        service.advance(DOMAIN, OrderState.AUTHORIZING);
+
+        assertFalse(Files.exists(journalFile));
+    }
+
+    @DisplayName("When an order is started")
+    @Nested
+    class OrderStarted {
+
+        private KeyPair domainKeyPair;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            domainKeyPair = KeyPairUtils.readKeyPair(Files.newBufferedReader(
+                    Path.of("src", "test", "resources", "keypair.pem")));
+            service.start(DOMAIN, new URL(ORDER_URL), domainKeyPair);
+        }
+
+        @DisplayName("it should be journaled as created with its key pair")
+        @Test
+        void created() {
+            OrderJournalEntry entry = service.getInFlightOrder(DOMAIN).orElseThrow();
+
+            assertEquals(ORDER_URL, entry.orderUrl());
+            assertEquals(OrderState.CREATED, entry.state());
+            assertEquals(FIXED_CLOCK.instant(), entry.updated());
+            assertEquals(domainKeyPair.getPublic(), service.getDomainKeyPair(DOMAIN).orElseThrow().getPublic());
+            assertFalse(Files.exists(journalFile.resolveSibling("order-journal.json.tmp")));
+        }
+
+        @DisplayName("its key pair should be journaled in a file readable only by its owner")
+        @Test
+        void ownerOnly() throws IOException {
+            assumeTrue(Files.getFileStore(journalFile).supportsFileAttributeView(PosixFileAttributeView.class));
+
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(journalFile));
+        }
+
+        @DisplayName("it should move forward through its states")
+        @Test
+        void advance() {
+            service.advance(DOMAIN, OrderState.AUTHORIZING);
+            service.advance(DOMAIN, OrderState.FINALIZING);
+
+            assertEquals(OrderState.FINALIZING, service.getInFlightOrder(DOMAIN).orElseThrow().state());
+        }
+
+        @DisplayName("it should not move back to a state it has passed")
+        @Test
+        void advanceBackwards() {
+            service.advance(DOMAIN, OrderState.FINALIZING);
+            service.advance(DOMAIN, OrderState.AUTHORIZING);
+
+            assertEquals(OrderState.FINALIZING, service.getInFlightOrder(DOMAIN).orElseThrow().state());
+        }
+
+        @DisplayName("it should no longer be unfinished, nor keep its key pair, once installed")
+        @Test
+        void installed() throws IOException {
+            service.advance(DOMAIN, OrderState.VALID);
+            service.advance(DOMAIN, OrderState.INSTALLED);
+
+            assertEquals(Optional.empty(), service.getInFlightOrder(DOMAIN));
+            assertEquals(Optional.empty(), service.getDomainKeyPair(DOMAIN));
+            assertFalse(Files.readString(journalFile).contains("PRIVATE KEY"));
+        }
+
+        @DisplayName("it should no longer be unfinished once discarded")
+        @Test
+        void discarded() {
+            service.discard(DOMAIN);
+
+            assertEquals(Optional.empty(), service.getInFlightOrder(DOMAIN));
+        }
+
+        @DisplayName("it should not affect orders for other domains")
+        @Test
+        void otherDomain() throws IOException {
+            service.start("other.com", new URL("https://example.com/acme/order/2"), domainKeyPair);
+            service.advance("other.com", OrderState.INSTALLED);
+
+            assertEquals(OrderState.CREATED, service.getInFlightOrder(DOMAIN).orElseThrow().state());
+            assertEquals(Optional.empty(), service.getInFlightOrder("other.com"));
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package net.eightlives.friendlyssl.service;
 
 import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.KeystoreFormat;
+import net.eightlives.friendlyssl.model.Pkcs12Profile;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
@@ -19,6 +21,7 @@ import java.security.cert.X509Certificate;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -49,6 +52,8 @@ class PKCS12KeyStoreServiceTest {
         void setUp() throws CertificateException, IOException {
             when(localIdGeneratorService.generate()).thenReturn("abcdef".getBytes());
             when(config.getCertificateKeyAlias()).thenReturn(PK_FRIENDLY_NAME);
+            when(config.getKeystoreProfile()).thenReturn(Pkcs12Profile.LEGACY);
+            when(config.getKeystoreIterations()).thenReturn(2048);
 
             CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
             certificateChain = new ArrayList<>((Collection<? extends X509Certificate>)
@@ -60,7 +65,7 @@ class PKCS12KeyStoreServiceTest {
                     Path.of("src", "test", "resources", "keypair.pem"))).getPrivate();
         }
 
-        @DisplayName("Generated keystore should match snapshot in relevant areas")
+        @DisplayName("Generated legacy keystore should match snapshot in relevant areas")
         @RepeatedTest(value = 50)
         void generateKeystore() throws IOException {
             byte[] snapshot = Files.readAllBytes(
@@ -205,4 +210,118 @@ class PKCS12KeyStoreServiceTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @DisplayName("Test getCertificateChain")
+    @Nested
+    class GetCertificateChain {
+
+        @DisplayName("when key store file does not exist")
+        @Test
+        void keyStoreNotFound() {
+            when(config.getKeystoreFile()).thenReturn(
+                    Path.of("src", "test", "resources", "notreal.p12").toString());
+
+            assertEquals(List.of(), service.getCertificateChain(PK_FRIENDLY_NAME));
+        }
+
+        @DisplayName("when key store file is invalid")
+        @Test
+        void invalidKeyStore() {
+            when(config.getKeystoreFile()).thenReturn(
+                    Path.of("src", "test", "resources", "invalid.p12").toString());
+
+            assertEquals(List.of(), service.getCertificateChain(PK_FRIENDLY_NAME));
+        }
+
+        @DisplayName("when key alias is not in the key store")
+        @Test
+        void keyAliasNotFound() {
+            when(config.getKeystoreFile()).thenReturn(
+                    Path.of("src", "test", "resources", "existing_old_keystore.p12").toString());
+
+            assertEquals(List.of(), service.getCertificateChain("NotFound"));
+        }
+
+        @DisplayName("when the certificate chain is in the key store")
+        @Test
+        void validKeyStore() throws CertificateException, IOException {
+            when(config.getKeystoreFile()).thenReturn(
+                    Path.of("src", "test", "resources", "existing_old_keystore.p12").toString());
+
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            Certificate certificate = certificateFactory.generateCertificate(Files.newInputStream(
+                    Path.of("src", "test", "resources", "certificate_chain.pem")));
+
+            List<X509Certificate> chain = service.getCertificateChain(PK_FRIENDLY_NAME);
+
+            assertFalse(chain.isEmpty());
+            assertEquals(certificate, chain.getFirst());
+        }
+    }
+
+    @DisplayName("When the keystore format is PEM")
+    @Nested
+    class PemFormat {
+
+        private Certificate certificate;
+
+        @BeforeEach
+        void setUp() throws IOException, CertificateException {
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            certificate = certificateFactory.generateCertificate(Files.newInputStream(
+                    Path.of("src", "test", "resources", "certificate_chain.pem")));
+
+            when(config.getKeystoreFormat()).thenReturn(KeystoreFormat.PEM);
+            lenient().when(config.getPemCertificateFile()).thenReturn(
+                    Path.of("src", "test", "resources", "certificate_chain.pem").toString());
+            lenient().when(config.getPemPrivateKeyFile()).thenReturn(
+                    Path.of("src", "test", "resources", "keypair.pem").toString());
+        }
+
+        @DisplayName("the first certificate of the chain should be returned regardless of alias")
+        @Test
+        void getCertificate() {
+            assertEquals(Optional.of(certificate), service.getCertificate("NotFound"));
+        }
+
+        @DisplayName("the whole chain should be returned regardless of alias")
+        @Test
+        void getCertificateChain() throws IOException, CertificateException {
+            List<X509Certificate> chain = service.getCertificateChain("NotFound");
+
+            assertEquals(certificate, chain.getFirst());
+            assertEquals(CertificateFactory.getInstance("X.509").generateCertificates(Files.newInputStream(
+                    Path.of("src", "test", "resources", "certificate_chain.pem"))).size(), chain.size());
+        }
+
+        @DisplayName("the private key should be returned with the public key of the first certificate")
+        @Test
+        void getKeyPair() throws IOException {
+            PrivateKey privateKey = KeyPairUtils.readKeyPair(Files.newBufferedReader(
+                    Path.of("src", "test", "resources", "keypair.pem"))).getPrivate();
+
+            KeyPair keyPair = service.getKeyPair(PK_FRIENDLY_NAME);
+
+            assertEquals(certificate.getPublicKey(), keyPair.getPublic());
+            assertEquals(privateKey, keyPair.getPrivate());
+        }
+
+        @DisplayName("no certificate should be returned when the chain file does not exist")
+        @Test
+        void certificateNotFound() {
+            when(config.getPemCertificateFile()).thenReturn(
+                    Path.of("src", "test", "resources", "notreal.pem").toString());
+
+            assertEquals(Optional.empty(), service.getCertificate(PK_FRIENDLY_NAME));
+        }
+
+        @DisplayName("no key pair should be returned when the private key file does not exist")
+        @Test
+        void privateKeyNotFound() {
+            when(config.getPemPrivateKeyFile()).thenReturn(
+                    Path.of("src", "test", "resources", "notreal.pem").toString());
+
+            assertNull(service.getKeyPair(PK_FRIENDLY_NAME));
+        }
+    }
+}
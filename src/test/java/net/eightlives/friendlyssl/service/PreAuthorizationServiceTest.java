@@ -0,0 +1,216 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.exception.RateLimitDeferredException;
+import net.eightlives.friendlyssl.model.OrderDeadline;
+import net.eightlives.friendlyssl.model.RateLimit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shredzone.acme4j.*;
+import org.shredzone.acme4j.exception.AcmeNotSupportedException;
+
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PreAuthorizationServiceTest {
+
+    private static final String DOMAIN = "domain.com";
+    private static final String KEY_ALIAS = "friendly-test";
+    private static final String CA = "acme://letsencrypt.org";
+    private static final Instant NOW = Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC));
+    private static final Clock FIXED_CLOCK = Clock.fixed(NOW, ZoneId.of("UTC"));
+
+    private PreAuthorizationService service;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private AcmeSessionService sessionService;
+    @Mock
+    private AcmeAccountService accountService;
+    @Mock
+    private ChallengeProcessorService challengeProcessorService;
+    @Mock
+    private PKCS12KeyStoreService keyStoreService;
+    @Mock
+    private RateLimitService rateLimitService;
+    @Mock
+    private X509Certificate certificate;
+
+    @BeforeEach
+    void setUp() {
+        service = new PreAuthorizationService(config, sessionService, accountService, challengeProcessorService,
+                keyStoreService, rateLimitService, FIXED_CLOCK);
+        when(config.getCertificateKeyAlias()).thenReturn(KEY_ALIAS);
+    }
+
+    @DisplayName("When no certificate exists, pre-authorization should be retried later")
+    @Test
+    void noCertificate() {
+        when(keyStoreService.getCertificate(KEY_ALIAS)).thenReturn(Optional.empty());
+        when(config.getErrorRetryWaitHours()).thenReturn(1);
+
+        assertEquals(NOW.plus(1, ChronoUnit.HOURS), service.preAuthorize());
+        verifyNoInteractions(accountService, challengeProcessorService);
+    }
+
+    @DisplayName("When a certificate exists")
+    @Nested
+    class CertificateExists {
+
+        @BeforeEach
+        void setUp() {
+            when(keyStoreService.getCertificate(KEY_ALIAS)).thenReturn(Optional.of(certificate));
+            when(config.getAutoRenewalHoursBefore()).thenReturn(72);
+            when(config.getAutoRenewalLifetimeFraction()).thenReturn(0.33);
+            when(certificate.getNotBefore()).thenReturn(Date.from(NOW.minus(80, ChronoUnit.DAYS)));
+        }
+
+        @DisplayName("and renewal is already due, pre-authorization should be left to the renewal")
+        @Test
+        void renewalDue() {
+            when(certificate.getNotAfter()).thenReturn(Date.from(NOW.plus(2, ChronoUnit.DAYS)));
+            when(config.getErrorRetryWaitHours()).thenReturn(1);
+
+            assertEquals(NOW.plus(1, ChronoUnit.HOURS), service.preAuthorize());
+            verifyNoInteractions(accountService, challengeProcessorService);
+        }
+
+        @DisplayName("and renewal is not due for longer than the pre-authorization window, it should wait for the window")
+        @Test
+        void beforeWindow() {
+            when(certificate.getNotAfter()).thenReturn(Date.from(NOW.plus(10, ChronoUnit.DAYS)));
+            when(config.getPreAuthorizationHoursBefore()).thenReturn(48);
+
+            assertEquals(NOW.plus(5, ChronoUnit.DAYS), service.preAuthorize());
+            verifyNoInteractions(accountService, challengeProcessorService);
+        }
+
+        @DisplayName("and renewal is due within the pre-authorization window")
+        @Nested
+        class WithinWindow {
+
+            private static final Instant RENEW_TIME = NOW.plus(1, ChronoUnit.DAYS);
+
+            @Mock
+            private Session session;
+            @Mock
+            private Login login;
+            @Mock
+            private Account account;
+            @Mock
+            private Authorization authorization;
+
+            @BeforeEach
+            void setUp() {
+                when(certificate.getNotAfter()).thenReturn(Date.from(NOW.plus(4, ChronoUnit.DAYS)));
+                when(config.getPreAuthorizationHoursBefore()).thenReturn(48);
+                when(config.getDomain()).thenReturn(DOMAIN);
+                when(config.getOrderDeadlineSeconds()).thenReturn(120);
+                when(sessionService.getSession()).thenReturn(session);
+                when(session.getServerUri()).thenReturn(URI.create(CA));
+                when(accountService.getOrCreateAccountLogin(session)).thenReturn(login);
+                when(login.getAccount()).thenReturn(account);
+            }
+
+            @DisplayName("the domain should be authorized with newAuthz and its expiration tracked")
+            @Test
+            void preAuthorized() throws Exception {
+                when(account.preAuthorizeDomain(DOMAIN)).thenReturn(authorization);
+                when(authorization.getExpires()).thenReturn(Optional.of(NOW.plus(30, ChronoUnit.DAYS)));
+
+                assertEquals(RENEW_TIME, service.preAuthorize());
+                assertEquals(Optional.of(NOW.plus(30, ChronoUnit.DAYS)), service.getAuthorizedUntil(DOMAIN));
+                verify(challengeProcessorService, times(1)).process(eq(List.of(authorization)), any(OrderDeadline.class));
+
+                assertEquals(RENEW_TIME, service.preAuthorize());
+                verify(account, times(1)).preAuthorizeDomain(DOMAIN);
+            }
+
+            @DisplayName("the domain should be authorized again if the tracked authorization expires before renewal")
+            @Test
+            void authorizationExpiresBeforeRenewal() throws Exception {
+                when(account.preAuthorizeDomain(DOMAIN)).thenReturn(authorization);
+                when(authorization.getExpires()).thenReturn(Optional.of(NOW.plus(1, ChronoUnit.HOURS)));
+
+                service.preAuthorize();
+                service.preAuthorize();
+
+                verify(account, times(2)).preAuthorizeDomain(DOMAIN);
+            }
+
+            @DisplayName("the domain should be authorized with an order if newAuthz is not supported")
+            @Test
+            void preAuthorizationNotSupported() throws Exception {
+                OrderBuilder orderBuilder = mock(OrderBuilder.class);
+                Order order = mock(Order.class);
+                when(account.preAuthorizeDomain(DOMAIN)).thenThrow(new AcmeNotSupportedException("pre-authorization"));
+                when(account.newOrder()).thenReturn(orderBuilder);
+                when(orderBuilder.domain(DOMAIN)).thenReturn(orderBuilder);
+                when(orderBuilder.create()).thenReturn(order);
+                when(order.getAuthorizations()).thenReturn(List.of(authorization));
+                when(authorization.getExpires()).thenReturn(Optional.of(NOW.plus(30, ChronoUnit.DAYS)));
+
+                assertEquals(RENEW_TIME, service.preAuthorize());
+                verify(challengeProcessorService, times(1)).process(eq(List.of(authorization)), any(OrderDeadline.class));
+                verify(order, never()).execute(any(byte[].class));
+                verify(rateLimitService, times(1)).checkNewOrder(CA, DOMAIN);
+                verify(rateLimitService, times(1)).record(RateLimit.NEW_ORDERS, CA, DOMAIN);
+            }
+
+            @DisplayName("an order that would exceed a rate limit should be deferred, but no later than the renewal")
+            @Test
+            void rateLimited() throws Exception {
+                when(account.preAuthorizeDomain(DOMAIN)).thenThrow(new AcmeNotSupportedException("pre-authorization"));
+                doThrow(new RateLimitDeferredException(RateLimit.NEW_ORDERS, NOW.plus(2, ChronoUnit.HOURS)))
+                        .when(rateLimitService).checkNewOrder(CA, DOMAIN);
+
+                assertEquals(NOW.plus(2, ChronoUnit.HOURS), service.preAuthorize());
+                verify(account, never()).newOrder();
+                verifyNoInteractions(challengeProcessorService);
+            }
+
+            @DisplayName("a failed validation should be recorded")
+            @Test
+            void validationFailed() throws Exception {
+                when(account.preAuthorizeDomain(DOMAIN)).thenReturn(authorization);
+                doThrow(new ExecutionException(new FriendlySSLException(""))).when(challengeProcessorService)
+                        .process(eq(List.of(authorization)), any(OrderDeadline.class));
+                when(config.getErrorRetryWaitHours()).thenReturn(1);
+
+                assertEquals(NOW.plus(1, ChronoUnit.HOURS), service.preAuthorize());
+                verify(rateLimitService, times(1)).record(RateLimit.FAILED_VALIDATIONS, CA, DOMAIN);
+            }
+
+            @DisplayName("a failure should be retried later, but no later than the renewal")
+            @Test
+            void failure() throws Exception {
+                FriendlySSLException failure = new FriendlySSLException("");
+                when(account.preAuthorizeDomain(DOMAIN)).thenReturn(authorization);
+                doThrow(failure).when(challengeProcessorService).process(eq(List.of(authorization)), any(OrderDeadline.class));
+                when(config.getErrorRetryWaitHours()).thenReturn(48);
+
+                assertEquals(RENEW_TIME, service.preAuthorize());
+                assertEquals(Optional.empty(), service.getAuthorizedUntil(DOMAIN));
+                verify(sessionService, times(1)).refreshAfter(failure);
+            }
+        }
+    }
+}
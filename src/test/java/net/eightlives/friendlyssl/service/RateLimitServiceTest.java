@@ -0,0 +1,224 @@
+package net.eightlives.friendlyssl.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.RateLimitDeferredException;
+import net.eightlives.friendlyssl.model.RateLimit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RateLimitServiceTest {
+
+    private static final String DOMAIN = "www.domain.com";
+    private static final String CA = "acme://letsencrypt.org";
+    private static final Instant NOW = Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC));
+
+    private Path usageFile;
+
+    @Mock
+    private FriendlySSLConfig config;
+
+    @BeforeEach
+    void setUp(@TempDir Path temp) {
+        usageFile = temp.resolve("rate-limits.json");
+    }
+
+    private RateLimitService serviceAt(Instant now) {
+        return new RateLimitService(config, new ObjectMapper().findAndRegisterModules(), Clock.fixed(now, ZoneId.of("UTC")));
+    }
+
+    @DisplayName("When rate limiting is disabled, orders should never be deferred and nothing should be recorded")
+    @Test
+    void disabled() {
+        when(config.isRateLimitEnabled()).thenReturn(false);
+        RateLimitService service = serviceAt(NOW);
+
+        for (int i = 0; i < RateLimit.DUPLICATE_CERTIFICATES.getLimit(); i++) {
+            service.record(RateLimit.DUPLICATE_CERTIFICATES, CA, DOMAIN);
+        }
+
+        assertDoesNotThrow(() -> service.checkNewOrder(CA, DOMAIN));
+        assertFalse(Files.exists(usageFile));
+    }
+
+    @DisplayName("When rate limiting is enabled")
+    @Nested
+    class Enabled {
+
+        @BeforeEach
+        void setUp() {
+            when(config.isRateLimitEnabled()).thenReturn(true);
+            lenient().when(config.getRateLimitFile()).thenReturn(usageFile.toString());
+            lenient().when(config.getAcmeSessionUrl()).thenReturn(CA);
+        }
+
+        @DisplayName("an order within every budget should be allowed")
+        @Test
+        void withinBudget() {
+            RateLimitService service = serviceAt(NOW);
+
+            for (int i = 0; i < RateLimit.DUPLICATE_CERTIFICATES.getLimit() - 1; i++) {
+                service.record(RateLimit.DUPLICATE_CERTIFICATES, CA, DOMAIN);
+            }
+
+            assertDoesNotThrow(() -> service.checkNewOrder(CA, DOMAIN));
+        }
+
+        @DisplayName("an order over budget should be deferred until the oldest counted use leaves the window")
+        @Test
+        void overBudget() {
+            serviceAt(NOW.minus(2, ChronoUnit.DAYS)).record(RateLimit.DUPLICATE_CERTIFICATES, CA, DOMAIN);
+            RateLimitService service = serviceAt(NOW);
+            for (int i = 0; i < RateLimit.DUPLICATE_CERTIFICATES.getLimit() - 1; i++) {
+                service.record(RateLimit.DUPLICATE_CERTIFICATES, CA, DOMAIN);
+            }
+
+            RateLimitDeferredException deferred = assertThrows(RateLimitDeferredException.class,
+                    () -> service.checkNewOrder(CA, DOMAIN));
+            assertEquals(NOW.plus(5, ChronoUnit.DAYS), deferred.getRetryAfter());
+        }
+
+        @DisplayName("uses outside the window should not count against the budget")
+        @Test
+        void outsideWindow() {
+            RateLimitService earlier = serviceAt(NOW.minus(2, ChronoUnit.HOURS));
+            for (int i = 0; i < RateLimit.FAILED_VALIDATIONS.getLimit(); i++) {
+                earlier.record(RateLimit.FAILED_VALIDATIONS, CA, DOMAIN);
+            }
+
+            assertDoesNotThrow(() -> serviceAt(NOW).checkNewOrder(CA, DOMAIN));
+        }
+
+        @DisplayName("certificates should be counted per registered domain")
+        @Test
+        void registeredDomain() {
+            RateLimitService service = serviceAt(NOW);
+            for (int i = 0; i < RateLimit.CERTIFICATES_PER_DOMAIN.getLimit(); i++) {
+                service.record(RateLimit.CERTIFICATES_PER_DOMAIN, CA, "host" + i + ".domain.com");
+            }
+
+            assertThrows(RateLimitDeferredException.class, () -> service.checkNewOrder(CA, DOMAIN));
+            assertDoesNotThrow(() -> service.checkNewOrder(CA, "www.other.com"));
+        }
+
+        @DisplayName("domains under a bundled public suffix of several labels should have their own registered domains")
+        @Test
+        void bundledPublicSuffix() {
+            RateLimitService service = serviceAt(NOW);
+            for (int i = 0; i < RateLimit.CERTIFICATES_PER_DOMAIN.getLimit(); i++) {
+                service.record(RateLimit.CERTIFICATES_PER_DOMAIN, CA, "host" + i + ".shop.co.uk");
+            }
+
+            assertThrows(RateLimitDeferredException.class, () -> service.checkNewOrder(CA, "www.shop.co.uk"));
+            assertDoesNotThrow(() -> service.checkNewOrder(CA, "www.other.co.uk"));
+        }
+
+        @DisplayName("domains under a configured public suffix should have their own registered domains")
+        @Test
+        void configuredPublicSuffix() {
+            when(config.getRateLimitPublicSuffixes()).thenReturn(List.of("Hosting.Example.com"));
+            RateLimitService service = serviceAt(NOW);
+            for (int i = 0; i < RateLimit.CERTIFICATES_PER_DOMAIN.getLimit(); i++) {
+                service.record(RateLimit.CERTIFICATES_PER_DOMAIN, CA, "host" + i + ".customer.hosting.example.com");
+            }
+
+            assertThrows(RateLimitDeferredException.class,
+                    () -> service.checkNewOrder(CA, "www.customer.hosting.example.com"));
+            assertDoesNotThrow(() -> service.checkNewOrder(CA, "www.other.hosting.example.com"));
+        }
+
+        @DisplayName("uses recorded concurrently should all be written to the usage file")
+        @Test
+        void concurrentRecords() throws InterruptedException {
+            RateLimitService service = serviceAt(NOW);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < RateLimit.CERTIFICATES_PER_DOMAIN.getLimit(); i++) {
+                String domain = "host" + i + ".domain.com";
+                threads.add(Thread.ofVirtual().start(
+                        () -> service.record(RateLimit.CERTIFICATES_PER_DOMAIN, CA, domain)));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertThrows(RateLimitDeferredException.class, () -> serviceAt(NOW).checkNewOrder(CA, DOMAIN));
+        }
+
+        @DisplayName("a certificate for several domains should be counted once per registered domain")
+        @Test
+        void severalDomainsRegisteredDomain() {
+            RateLimitService service = serviceAt(NOW);
+            for (int i = 0; i < RateLimit.CERTIFICATES_PER_DOMAIN.getLimit() - 1; i++) {
+                service.record(RateLimit.CERTIFICATES_PER_DOMAIN, CA, List.of("a.domain.com", "b.domain.com"));
+            }
+
+            assertDoesNotThrow(() -> service.checkNewOrder(CA, DOMAIN));
+        }
+
+        @DisplayName("duplicate certificates for several domains should be counted by the exact set of domains")
+        @Test
+        void severalDomainsDuplicates() {
+            RateLimitService service = serviceAt(NOW);
+            for (int i = 0; i < RateLimit.DUPLICATE_CERTIFICATES.getLimit(); i++) {
+                service.record(RateLimit.DUPLICATE_CERTIFICATES, CA, List.of("a.domain.com", "b.domain.com"));
+            }
+
+            assertThrows(RateLimitDeferredException.class,
+                    () -> service.checkNewOrder(CA, List.of("b.domain.com", "a.domain.com")));
+            assertDoesNotThrow(() -> service.checkNewOrder(CA, "a.domain.com"));
+        }
+
+        @DisplayName("budgets should be counted per CA")
+        @Test
+        void perCa() {
+            RateLimitService service = serviceAt(NOW);
+            for (int i = 0; i < RateLimit.DUPLICATE_CERTIFICATES.getLimit(); i++) {
+                service.record(RateLimit.DUPLICATE_CERTIFICATES, CA, DOMAIN);
+            }
+
+            assertThrows(RateLimitDeferredException.class, () -> service.checkNewOrder(CA, DOMAIN));
+            assertDoesNotThrow(() -> service.checkNewOrder("acme://fallback.example.com", DOMAIN));
+        }
+
+        @DisplayName("usage recorded without a CA should count against the CA of the ACME session URL")
+        @Test
+        void usageWithoutCa() throws IOException {
+            StringBuilder uses = new StringBuilder();
+            for (int i = 0; i < RateLimit.DUPLICATE_CERTIFICATES.getLimit(); i++) {
+                uses.append(i == 0 ? "" : ",").append('"').append(NOW.minus(i + 1, ChronoUnit.HOURS)).append('"');
+            }
+            Files.writeString(usageFile, """
+                    [{"rateLimit": "DUPLICATE_CERTIFICATES", "key": "%s", "uses": [%s]}]
+                    """.formatted(DOMAIN, uses));
+
+            assertThrows(RateLimitDeferredException.class, () -> serviceAt(NOW).checkNewOrder(CA, DOMAIN));
+        }
+
+        @DisplayName("an unreadable usage file should start with full budgets")
+        @Test
+        void unreadableUsage() throws IOException {
+            Files.writeString(usageFile, "not json");
+
+            assertDoesNotThrow(() -> serviceAt(NOW).checkNewOrder(CA, DOMAIN));
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.exception.FriendlySSLException;
+import net.eightlives.friendlyssl.exception.OrderDeadlineExceededException;
+import net.eightlives.friendlyssl.model.FailureClass;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.ArgumentsProvider;
+import org.junit.jupiter.params.provider.ArgumentsSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shredzone.acme4j.exception.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.cert.X509Certificate;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RenewalBackoffServiceTest {
+
+    private static final String KEY_ALIAS = "friendly-test";
+    private static final String CA = "acme://letsencrypt.org";
+    private static final Instant NOW = Instant.from(OffsetDateTime.of(2020, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC));
+    private static final Clock FIXED_CLOCK = Clock.fixed(NOW, ZoneId.of("UTC"));
+
+    private RenewalBackoffService service;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private PKCS12KeyStoreService keyStoreService;
+
+    @BeforeEach
+    void setUp() {
+        service = new RenewalBackoffService(config, keyStoreService, FIXED_CLOCK);
+    }
+
+    @DisplayName("Failures should be classified by their deepest classifiable cause outside challenge processing")
+    @ParameterizedTest(name = "{1} for {0}")
+    @ArgumentsSource(FailureProvider.class)
+    void classify(Throwable failure, FailureClass expected) {
+        assertEquals(expected, RenewalBackoffService.classify(failure));
+    }
+
+    @DisplayName("A challenge token timeout should not be blamed on the CA")
+    @Test
+    void challengeTimeoutNotCaUnavailable() {
+        FailureClass failureClass = RenewalBackoffService.classify(new FriendlySSLException(
+                new ExecutionException(new FriendlySSLException(new TimeoutException()))));
+
+        assertEquals(FailureClass.VALIDATION_FAILED, failureClass);
+        assertFalse(failureClass.isCaUnavailable());
+    }
+
+    @DisplayName("An expired order deadline should not be blamed on the CA")
+    @Test
+    void deadlineExpiryNotCaUnavailable() {
+        FailureClass failureClass = RenewalBackoffService.classify(
+                new OrderDeadlineExceededException("handshake self-test"));
+
+        assertFalse(failureClass.isCaUnavailable());
+    }
+
+    static class FailureProvider implements ArgumentsProvider {
+
+        @Override
+        public Stream<? extends Arguments> provideArguments(ExtensionContext context) {
+            return Stream.of(
+                    Arguments.of(new FriendlySSLException(new AcmeNetworkException(new IOException())),
+                            FailureClass.TRANSIENT_NETWORK),
+                    Arguments.of(new FriendlySSLException(new TimeoutException()), FailureClass.TRANSIENT_NETWORK),
+                    Arguments.of(new OrderDeadlineExceededException("finalization"), FailureClass.UNKNOWN),
+                    Arguments.of(new FriendlySSLException(new OrderDeadlineExceededException("handshake self-test")),
+                            FailureClass.UNKNOWN),
+                    Arguments.of(new FriendlySSLException(new AcmeException("HTTP 503")), FailureClass.SERVER_ERROR),
+                    Arguments.of(serverException("serverInternal"), FailureClass.SERVER_ERROR),
+                    Arguments.of(new FriendlySSLException(mock(AcmeRateLimitedException.class)),
+                            FailureClass.RATE_LIMITED),
+                    Arguments.of(new FriendlySSLException(new ExecutionException(new FriendlySSLException("invalid"))),
+                            FailureClass.VALIDATION_FAILED),
+                    Arguments.of(serverException("dns"), FailureClass.VALIDATION_FAILED),
+                    Arguments.of(new FriendlySSLException(mock(AcmeUserActionRequiredException.class)),
+                            FailureClass.ACCOUNT),
+                    Arguments.of(serverException("accountDoesNotExist"), FailureClass.ACCOUNT),
+                    Arguments.of(new FriendlySSLException(new ExecutionException(
+                            new AcmeNetworkException(new IOException()))), FailureClass.VALIDATION_FAILED),
+                    Arguments.of(new FriendlySSLException(new ExecutionException(
+                            new FriendlySSLException(new TimeoutException()))), FailureClass.VALIDATION_FAILED),
+                    Arguments.of(new FriendlySSLException(new AcmeException("HTTP 404")), FailureClass.UNKNOWN),
+                    Arguments.of(new FriendlySSLException("SSL is not configured"), FailureClass.UNKNOWN)
+            );
+        }
+
+        private static Throwable serverException(String type) {
+            AcmeServerException serverException = mock(AcmeServerException.class);
+            when(serverException.getType()).thenReturn(URI.create("urn:ietf:params:acme:error:" + type));
+            return new FriendlySSLException(serverException);
+        }
+    }
+
+    @DisplayName("When recording failures")
+    @Nested
+    class RecordFailure {
+
+        @BeforeEach
+        void setUp() {
+            when(config.getCertificateKeyAlias()).thenReturn(KEY_ALIAS);
+            lenient().when(config.getErrorRetryMaxHours()).thenReturn(24);
+            lenient().when(config.getCircuitBreakerThreshold()).thenReturn(3);
+        }
+
+        @DisplayName("the delay should start at the class's base delay, with up to half of it taken off as jitter")
+        @Test
+        void baseDelay() {
+            Instant retryAt = service.recordFailure(CA, FailureClass.SERVER_ERROR);
+
+            assertWithin(NOW.plus(Duration.ofMinutes(15).dividedBy(2)), NOW.plus(15, ChronoUnit.MINUTES), retryAt);
+        }
+
+        @DisplayName("unclassified failures should start at the configured retry wait")
+        @Test
+        void unknownBaseDelay() {
+            when(config.getErrorRetryWaitHours()).thenReturn(2);
+
+            Instant retryAt = service.recordFailure(CA, FailureClass.UNKNOWN);
+
+            assertWithin(NOW.plus(1, ChronoUnit.HOURS), NOW.plus(2, ChronoUnit.HOURS), retryAt);
+        }
+
+        @DisplayName("the delay should double with each consecutive failure of the same class, up to the maximum")
+        @Test
+        void exponential() {
+            service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+            service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+            Instant third = service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+            assertWithin(NOW.plus(2, ChronoUnit.HOURS), NOW.plus(4, ChronoUnit.HOURS), third);
+
+            for (int i = 0; i < 30; i++) {
+                service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+            }
+            Instant capped = service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+            assertWithin(NOW.plus(12, ChronoUnit.HOURS), NOW.plus(24, ChronoUnit.HOURS), capped);
+        }
+
+        @DisplayName("the delay should start over after a success")
+        @Test
+        void resetAfterSuccess() {
+            service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+            service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+            service.recordSuccess(CA);
+
+            Instant retryAt = service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+
+            assertWithin(NOW.plus(30, ChronoUnit.MINUTES), NOW.plus(1, ChronoUnit.HOURS), retryAt);
+        }
+
+        @DisplayName("the delay should be no more than half of the time left before the certificate expires")
+        @Test
+        void expiryCap() {
+            X509Certificate certificate = mock(X509Certificate.class);
+            when(certificate.getNotAfter()).thenReturn(Date.from(NOW.plus(2, ChronoUnit.HOURS)));
+            when(keyStoreService.getCertificate(KEY_ALIAS)).thenReturn(Optional.of(certificate));
+
+            Instant retryAt = service.recordFailure(CA, FailureClass.ACCOUNT);
+
+            assertEquals(NOW.plus(1, ChronoUnit.HOURS), retryAt);
+        }
+
+        @DisplayName("the circuit breaker should open after consecutive CA failures until the retry")
+        @Test
+        void circuitOpens() {
+            service.recordFailure(CA, FailureClass.TRANSIENT_NETWORK);
+            service.recordFailure(CA, FailureClass.SERVER_ERROR);
+            assertEquals(Optional.empty(), service.getOpenUntil(CA));
+
+            Instant retryAt = service.recordFailure(CA, FailureClass.TRANSIENT_NETWORK);
+
+            assertEquals(Optional.of(retryAt), service.getOpenUntil(CA));
+        }
+
+        @DisplayName("the circuit breaker should close after a success")
+        @Test
+        void circuitClosesOnSuccess() {
+            for (int i = 0; i < 3; i++) {
+                service.recordFailure(CA, FailureClass.SERVER_ERROR);
+            }
+
+            service.recordSuccess(CA);
+
+            assertEquals(Optional.empty(), service.getOpenUntil(CA));
+        }
+
+        @DisplayName("the circuit breaker should close when the CA answers, even with another failure")
+        @Test
+        void circuitClosesOnCaAnswer() {
+            for (int i = 0; i < 3; i++) {
+                service.recordFailure(CA, FailureClass.SERVER_ERROR);
+            }
+
+            service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+
+            assertEquals(Optional.empty(), service.getOpenUntil(CA));
+        }
+
+        @DisplayName("the circuit breaker of one CA should not affect another")
+        @Test
+        void circuitPerCa() {
+            for (int i = 0; i < 3; i++) {
+                service.recordFailure(CA, FailureClass.SERVER_ERROR);
+            }
+
+            assertEquals(Optional.empty(), service.getOpenUntil("acme://fallback.example.com"));
+        }
+
+        @DisplayName("failures that do not mean the CA is unavailable should not open the circuit breaker")
+        @Test
+        void circuitStaysClosed() {
+            for (int i = 0; i < 3; i++) {
+                service.recordFailure(CA, FailureClass.VALIDATION_FAILED);
+            }
+
+            assertEquals(Optional.empty(), service.getOpenUntil(CA));
+        }
+    }
+
+    private static void assertWithin(Instant from, Instant to, Instant actual) {
+        assertFalse(actual.isBefore(from), actual + " is before " + from);
+        assertFalse(actual.isAfter(to), actual + " is after " + to);
+    }
+}
@@ -0,0 +1,65 @@
+package net.eightlives.friendlyssl.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class RenewalMetricsServiceTest {
+
+    private RenewalMetricsService service;
+
+    @Mock
+    private MBeanRegistrationService mBeanRegistrationService;
+
+    @BeforeEach
+    void setUp() {
+        service = new RenewalMetricsService(mBeanRegistrationService);
+    }
+
+    @DisplayName("Renewal metrics should be registered as an MBean")
+    @Test
+    void registersMBean() {
+        verify(mBeanRegistrationService, times(1)).register("Renewal", "metrics", service, RenewalMetricsMXBean.class);
+    }
+
+    @DisplayName("Renewals should be counted and timed")
+    @Test
+    void renewals() {
+        service.recordRenewal(true, Duration.ofSeconds(4));
+        service.recordRenewal(false, Duration.ofSeconds(2));
+
+        assertEquals(2, service.getRenewalCount());
+        assertEquals(1, service.getFailureCount());
+        assertEquals(2000, service.getLastRenewalMillis());
+        assertEquals(3000, service.getAverageRenewalMillis());
+    }
+
+    @DisplayName("Phases should be timed separately")
+    @Test
+    void phases() {
+        service.recordPhase(RenewalMetricsService.Phase.SESSION, Duration.ofMillis(10));
+        service.recordPhase(RenewalMetricsService.Phase.SESSION, Duration.ofMillis(30));
+        service.recordPhase(RenewalMetricsService.Phase.RELOAD, Duration.ofSeconds(1));
+
+        assertEquals(Map.of("session", 20L, "reload", 1000L), service.getAveragePhaseMillis());
+        assertEquals(Map.of("session", 30L, "reload", 1000L), service.getMaxPhaseMillis());
+    }
+
+    @DisplayName("Without renewals, averages should be zero")
+    @Test
+    void noRenewals() {
+        assertEquals(0, service.getAverageRenewalMillis());
+        assertEquals(Map.of(), service.getAveragePhaseMillis());
+    }
+}
@@ -0,0 +1,98 @@
+package net.eightlives.friendlyssl.service;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import net.eightlives.friendlyssl.model.CertificateRenewalStatus;
+import net.eightlives.friendlyssl.model.InventoryEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SanCoalescingPlannerTest {
+
+    private static final Instant NOT_AFTER = Instant.parse("2020-02-05T04:05:06Z");
+
+    private SanCoalescingPlanner planner;
+
+    @Mock
+    private FriendlySSLConfig config;
+
+    @BeforeEach
+    void setUp() {
+        planner = new SanCoalescingPlanner(config);
+    }
+
+    @DisplayName("When coalescing is disabled, every certificate should be ordered on its own")
+    @Test
+    void disabled() {
+        when(config.isSanCoalescingEnabled()).thenReturn(false);
+
+        assertEquals(List.of(List.of("a.test.me"), List.of("b.test.me")),
+                planner.plan(List.of(entry("a.test.me", "RSA", null), entry("b.test.me", "RSA", null))));
+    }
+
+    @DisplayName("When coalescing is enabled")
+    @Nested
+    class Enabled {
+
+        @BeforeEach
+        void setUp() {
+            when(config.isSanCoalescingEnabled()).thenReturn(true);
+        }
+
+        @DisplayName("certificates should be grouped by key type, in order of priority")
+        @Test
+        void byKeyType() {
+            when(config.getSanCoalescingMaxNames()).thenReturn(100);
+
+            assertEquals(List.of(List.of("a.test.me", "c.test.me"), List.of("b.test.me", "d.test.me")),
+                    planner.plan(List.of(entry("a.test.me", "RSA", null), entry("b.test.me", "EC", null),
+                            entry("c.test.me", "RSA", null), entry("d.test.me", "EC", null))));
+        }
+
+        @DisplayName("no order should name more than the maximum number of domains")
+        @Test
+        void maxNames() {
+            when(config.getSanCoalescingMaxNames()).thenReturn(2);
+
+            assertEquals(List.of(List.of("a.test.me", "b.test.me"), List.of("c.test.me")),
+                    planner.plan(List.of(entry("a.test.me", "RSA", null), entry("b.test.me", "RSA", null),
+                            entry("c.test.me", "RSA", null))));
+        }
+
+        @DisplayName("a certificate whose last order failed should be ordered on its own")
+        @Test
+        void lastOrderFailed() {
+            when(config.getSanCoalescingMaxNames()).thenReturn(100);
+
+            assertEquals(List.of(List.of("a.test.me", "c.test.me"), List.of("b.test.me")),
+                    planner.plan(List.of(entry("a.test.me", "RSA", null),
+                            entry("b.test.me", "RSA", CertificateRenewalStatus.ERROR),
+                            entry("c.test.me", "RSA", CertificateRenewalStatus.SUCCESS))));
+        }
+
+        @DisplayName("a maximum of one domain should order every certificate on its own")
+        @Test
+        void maxOneName() {
+            when(config.getSanCoalescingMaxNames()).thenReturn(1);
+
+            assertEquals(List.of(List.of("a.test.me"), List.of("b.test.me")),
+                    planner.plan(List.of(entry("a.test.me", "RSA", null), entry("b.test.me", "RSA", null))));
+        }
+    }
+
+    private static InventoryEntry entry(String domain, String keyType, CertificateRenewalStatus lastRenewalStatus) {
+        return new InventoryEntry(domain, NOT_AFTER, "CN=Test CA", keyType, lastRenewalStatus,
+                lastRenewalStatus == null ? null : NOT_AFTER.minusSeconds(86400));
+    }
+}
@@ -1,6 +1,7 @@
 package net.eightlives.friendlyssl.service;
 
 import net.eightlives.friendlyssl.exception.UpdateFailedException;
+import net.eightlives.friendlyssl.task.VirtualThreadScheduledExecutor;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
@@ -31,7 +32,8 @@ class UpdateCheckerServiceTest {
     @Mock
     private AcmeJsonResource resource;
 
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ScheduledExecutorService scheduler =
+            new VirtualThreadScheduledExecutor("update-checker-scheduler", Duration.ofSeconds(1));
 
     @DisplayName("Scheduler delay tests")
     @Nested
@@ -139,6 +141,23 @@ class UpdateCheckerServiceTest {
             verify(resource, times(2)).update();
         }
 
+        @DisplayName("Resource updates stop when the future is cancelled")
+        @Test
+        void cancelStopsUpdates() throws AcmeException, InterruptedException {
+            when(resource.getJSON()).thenReturn(PENDING_STATUS_JSON);
+            doAnswer(invocation -> null)
+                    .doThrow(new AcmeRetryAfterException("", clock.instant().plus(10, ChronoUnit.SECONDS)))
+                    .when(resource).update();
+
+            ScheduledFuture<Void> future = service.start(resource);
+            verify(resource, timeout(1000).times(2)).update();
+            future.cancel(true);
+
+            Thread.sleep(200);
+            verify(resource, times(2)).update();
+            assertTrue(future.isCancelled());
+        }
+
         @DisplayName("Resource updates with a retry time in the past")
         @Test
         void retryInPast() throws AcmeException {
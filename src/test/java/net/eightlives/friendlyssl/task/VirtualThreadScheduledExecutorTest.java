@@ -0,0 +1,188 @@
+package net.eightlives.friendlyssl.task;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualThreadScheduledExecutorTest {
+
+    private final VirtualThreadScheduledExecutor executor =
+            new VirtualThreadScheduledExecutor("test-scheduler", Duration.ofMillis(200));
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @DisplayName("Scheduled tasks run in named virtual threads")
+    @Test
+    void runsOnVirtualThreads() throws ExecutionException, InterruptedException, TimeoutException {
+        Thread thread = executor.schedule(Thread::currentThread, 10, TimeUnit.MILLISECONDS).get(1, TimeUnit.SECONDS);
+
+        assertTrue(thread.isVirtual());
+        assertTrue(thread.getName().startsWith("test-scheduler-"));
+    }
+
+    @DisplayName("A blocking task does not hold up other due tasks")
+    @Test
+    void blockingTaskDoesNotBlockOthers() throws ExecutionException, InterruptedException, TimeoutException {
+        CountDownLatch release = new CountDownLatch(1);
+        ScheduledFuture<?> blocking = executor.schedule(() -> {
+            release.await();
+            return null;
+        }, 0, TimeUnit.MILLISECONDS);
+
+        assertEquals("done", executor.schedule(() -> "done", 10, TimeUnit.MILLISECONDS).get(1, TimeUnit.SECONDS));
+        assertFalse(blocking.isDone());
+        release.countDown();
+        blocking.get(1, TimeUnit.SECONDS);
+    }
+
+    @DisplayName("Task exceptions complete the future exceptionally")
+    @Test
+    void taskException() {
+        ScheduledFuture<?> future = executor.schedule(() -> {
+            throw new IllegalStateException();
+        }, 0, TimeUnit.MILLISECONDS);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+
+    @DisplayName("Cancelling a running task interrupts it")
+    @Test
+    void cancelInterrupts() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        ScheduledFuture<?> future = executor.schedule(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        future.cancel(true);
+
+        assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @DisplayName("Periodic tasks run repeatedly until cancelled")
+    @Test
+    void fixedDelay() throws InterruptedException {
+        CountDownLatch runs = new CountDownLatch(3);
+        ScheduledFuture<?> future = executor.scheduleWithFixedDelay(runs::countDown, 0, 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(runs.await(1, TimeUnit.SECONDS));
+        future.cancel(false);
+        assertTrue(future.isCancelled());
+    }
+
+    @DisplayName("Metrics")
+    @Nested
+    class Metrics {
+
+        @DisplayName("count queued, active and completed tasks")
+        @Test
+        void counts() throws InterruptedException, ExecutionException, TimeoutException {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            executor.schedule(() -> "later", 1, TimeUnit.HOURS);
+            ScheduledFuture<?> running = executor.schedule(() -> {
+                started.countDown();
+                release.await();
+                return null;
+            }, 0, TimeUnit.MILLISECONDS);
+
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+            assertEquals(1, executor.getQueueDepth());
+            assertEquals(1, executor.getActiveTasks());
+            assertEquals(0, executor.getCompletedTasks());
+
+            release.countDown();
+            running.get(1, TimeUnit.SECONDS);
+            assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+                while (executor.getCompletedTasks() == 0) {
+                    Thread.onSpinWait();
+                }
+            });
+            assertEquals(0, executor.getActiveTasks());
+        }
+    }
+
+    @DisplayName("Shutdown")
+    @Nested
+    class Shutdown {
+
+        @DisplayName("cancels tasks that are not yet due")
+        @Test
+        void shutdownCancelsPending() throws InterruptedException {
+            ScheduledFuture<?> future = executor.schedule(() -> "later", 1, TimeUnit.HOURS);
+
+            executor.shutdown();
+
+            assertTrue(future.isCancelled());
+            assertEquals(0, executor.getQueueDepth());
+            assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+            assertThrows(RejectedExecutionException.class, () -> executor.schedule(() -> "rejected", 0, TimeUnit.SECONDS));
+        }
+
+        @DisplayName("shutdownNow returns tasks that never started")
+        @Test
+        void shutdownNowReturnsPending() {
+            executor.schedule(() -> "later", 1, TimeUnit.HOURS);
+
+            List<Runnable> notStarted = executor.shutdownNow();
+
+            assertEquals(1, notStarted.size());
+        }
+
+        @DisplayName("close lets running tasks finish within the shutdown timeout")
+        @Test
+        void closeWaitsForRunningTasks() throws InterruptedException {
+            CountDownLatch started = new CountDownLatch(1);
+            AtomicInteger finished = new AtomicInteger();
+            executor.schedule(() -> {
+                started.countDown();
+                Thread.sleep(50);
+                return finished.incrementAndGet();
+            }, 0, TimeUnit.MILLISECONDS);
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+
+            executor.close();
+
+            assertEquals(1, finished.get());
+            assertTrue(executor.isTerminated());
+        }
+
+        @DisplayName("close interrupts tasks still running after the shutdown timeout")
+        @Test
+        void closeInterruptsStuckTasks() throws InterruptedException {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch interrupted = new CountDownLatch(1);
+            executor.schedule(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(Duration.ofMinutes(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+            assertTrue(started.await(1, TimeUnit.SECONDS));
+
+            executor.close();
+
+            assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package net.eightlives.friendlyssl.tls;
+
+import net.eightlives.friendlyssl.util.TestUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.shredzone.acme4j.util.KeyPairUtils;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslBundleKey;
+import org.springframework.boot.ssl.SslStoreBundle;
+
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentSslContextTest {
+
+    private SslBundle firstBundle;
+    private SslBundle renewedBundle;
+    private PersistentSslContext context;
+    private SSLServerSocket serverSocket;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        firstBundle = bundle("CN=first.test.me");
+        renewedBundle = bundle("CN=renewed.test.me");
+        context = new PersistentSslContext(firstBundle, new SniKeyManager(), 100, 600);
+
+        serverSocket = (SSLServerSocket) context.getServerSocketFactory()
+                .createServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        executor.submit(() -> {
+            while (!serverSocket.isClosed()) {
+                try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+                    socket.startHandshake();
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    // The client closes the connection as soon as the handshake is done
+                }
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    @DisplayName("The session cache settings should be applied to the server session context")
+    @Test
+    void sessionSettings() {
+        assertEquals(100, context.getServerSessionContext().getSessionCacheSize());
+        assertEquals(600, context.getServerSessionContext().getSessionTimeout());
+    }
+
+    @DisplayName("After an update, new sessions should be served the renewed certificate")
+    @Test
+    void update() throws IOException {
+        assertEquals("CN=first.test.me", subject(handshake(TestUtils.trustAllCertsContext())));
+
+        context.update(renewedBundle);
+
+        assertEquals("CN=renewed.test.me", subject(handshake(TestUtils.trustAllCertsContext())));
+        assertEquals("CN=renewed.test.me", context.getCertificateChain("test")[0].getSubjectX500Principal().getName());
+    }
+
+    @DisplayName("After an update, sessions established before it should still be resumed")
+    @Test
+    void sessionResumed() throws IOException {
+        SSLContext client = TestUtils.trustAllCertsContext();
+        SSLSession first = handshake(client);
+
+        context.update(renewedBundle);
+        SSLSession second = handshake(client);
+
+        assertArrayEquals(first.getId(), second.getId());
+    }
+
+    @DisplayName("After an update with several certificates, each should be served for the hostnames it names")
+    @Test
+    void sni() throws Exception {
+        context.update(SslBundle.of(SslStoreBundle.of(keyStore("CN=first.test.me", "CN=www.test.me"), "", null),
+                SslBundleKey.of("", "test")));
+
+        assertEquals("CN=www.test.me", subject(handshake(TestUtils.trustAllCertsContext(), "www.test.me")));
+        assertEquals("CN=first.test.me", subject(handshake(TestUtils.trustAllCertsContext(), "other.test.me")));
+        assertEquals("CN=first.test.me", subject(handshake(TestUtils.trustAllCertsContext())));
+    }
+
+    @DisplayName("A new context, as built by a plain reload, should not resume earlier sessions")
+    @Test
+    void sessionNotResumedByNewContext() throws IOException {
+        SSLContext client = TestUtils.trustAllCertsContext();
+        SSLSession first = handshake(client);
+
+        serverSocket.close();
+        serverSocket = (SSLServerSocket) new PersistentSslContext(renewedBundle, new SniKeyManager(), 100, 600).getServerSocketFactory()
+                .createServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        executor.submit(() -> {
+            while (!serverSocket.isClosed()) {
+                try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+                    socket.startHandshake();
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    // The client closes the connection as soon as the handshake is done
+                }
+            }
+        });
+        SSLSession second = handshake(client);
+
+        assertFalse(Arrays.equals(first.getId(), second.getId()));
+    }
+
+    private SSLSession handshake(SSLContext client) throws IOException {
+        return handshake(client, null);
+    }
+
+    private SSLSession handshake(SSLContext client, String hostname) throws IOException {
+        try (SSLSocket socket = (SSLSocket) client.getSocketFactory()
+                .createSocket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+            socket.setEnabledProtocols(new String[]{"TLSv1.2"});
+            if (hostname != null) {
+                SSLParameters parameters = socket.getSSLParameters();
+                parameters.setServerNames(List.of(new SNIHostName(hostname)));
+                socket.setSSLParameters(parameters);
+            }
+            socket.startHandshake();
+            return socket.getSession();
+        }
+    }
+
+    private static String subject(SSLSession session) throws IOException {
+        return ((X509Certificate) session.getPeerCertificates()[0]).getSubjectX500Principal().getName();
+    }
+
+    private static SslBundle bundle(String subject) throws Exception {
+        return SslBundle.of(SslStoreBundle.of(keyStore(subject), "", null));
+    }
+
+    /**
+     * Returns a keystore with a key entry for each subject, the first named {@code test} and the others by subject.
+     */
+    private static KeyStore keyStore(String... subjects) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        for (int i = 0; i < subjects.length; i++) {
+            KeyPair keyPair = KeyPairUtils.createKeyPair(2048);
+            Instant now = Instant.now();
+            X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                    new JcaX509v3CertificateBuilder(new X500Name(subjects[i]), BigInteger.ONE, Date.from(now),
+                            Date.from(now.plus(1, ChronoUnit.DAYS)), new X500Name(subjects[i]), keyPair.getPublic())
+                            .build(new JcaContentSignerBuilder("SHA256WITHRSA").build(keyPair.getPrivate())));
+            keyStore.setKeyEntry(i == 0 ? "test" : subjects[i], keyPair.getPrivate(), new char[0],
+                    new X509Certificate[]{certificate});
+        }
+        return keyStore;
+    }
+}
@@ -0,0 +1,234 @@
+package net.eightlives.friendlyssl.tls;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.shredzone.acme4j.util.KeyPairUtils;
+
+import javax.net.ssl.ExtendedSSLSession;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SSLEngine;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SniKeyManagerTest {
+
+    private static final KeyPair KEY_PAIR = KeyPairUtils.createKeyPair(2048);
+
+    private SniKeyManager keyManager;
+
+    @BeforeEach
+    void setUp() {
+        keyManager = new SniKeyManager();
+    }
+
+    @DisplayName("With no certificates, nothing should be selected")
+    @Test
+    void empty() {
+        assertNull(keyManager.chooseEngineServerAlias("RSA", null, engine("test.me")));
+        assertNull(keyManager.getServerAliases("RSA", null));
+        assertNull(keyManager.getCertificateChain(null));
+    }
+
+    @DisplayName("With certificates loaded from a keystore")
+    @Nested
+    class Loaded {
+
+        @BeforeEach
+        void setUp() throws Exception {
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(null, null);
+            keyStore.setKeyEntry("default", KEY_PAIR.getPrivate(), new char[0],
+                    new X509Certificate[]{certificate("CN=default.me")});
+            keyStore.setKeyEntry("exact", KEY_PAIR.getPrivate(), new char[0],
+                    new X509Certificate[]{certificate("CN=exact.me", "www.test.me", "Other.Test.me")});
+            keyStore.setKeyEntry("wildcard", KEY_PAIR.getPrivate(), new char[0],
+                    new X509Certificate[]{certificate("CN=wildcard.me", "*.test.me")});
+            keyManager.load(keyStore, new char[0], "default");
+        }
+
+        @DisplayName("a certificate naming the SNI hostname should be selected, ignoring case")
+        @Test
+        void exact() {
+            assertEquals("exact", keyManager.chooseEngineServerAlias("RSA", null, engine("www.test.me")));
+            assertEquals("exact", keyManager.chooseEngineServerAlias("RSA", null, engine("OTHER.test.me")));
+        }
+
+        @DisplayName("a wildcard certificate should be selected for other names one level below it")
+        @Test
+        void wildcard() {
+            assertEquals("wildcard", keyManager.chooseEngineServerAlias("RSA", null, engine("api.test.me")));
+            assertEquals("default", keyManager.chooseEngineServerAlias("RSA", null, engine("a.b.test.me")));
+        }
+
+        @DisplayName("the default certificate should be selected for unknown or missing SNI hostnames")
+        @Test
+        void defaultCertificate() {
+            assertEquals("default", keyManager.chooseEngineServerAlias("RSA", null, engine("unknown.me")));
+            assertEquals("default", keyManager.chooseEngineServerAlias("RSA", null, engine(null)));
+            assertEquals("default", keyManager.chooseEngineServerAlias("RSA", null, null));
+        }
+
+        @DisplayName("a certificate with another key type should not be selected")
+        @Test
+        void keyType() {
+            assertNull(keyManager.chooseEngineServerAlias("EC", null, engine("www.test.me")));
+            assertEquals("exact", keyManager.chooseEngineServerAlias("RSA_EC", null, engine("www.test.me")));
+        }
+
+        @DisplayName("the certificate chain and private key should be returned by alias")
+        @Test
+        void keys() {
+            assertEquals("CN=exact.me", keyManager.getCertificateChain("exact")[0].getSubjectX500Principal().getName());
+            assertEquals(KEY_PAIR.getPrivate(), keyManager.getPrivateKey("exact"));
+            assertEquals("CN=default.me", keyManager.getCertificateChain(null)[0].getSubjectX500Principal().getName());
+            assertArrayEquals(new String[]{"default", "exact", "wildcard"}, keyManager.getServerAliases("RSA", null));
+        }
+
+        @DisplayName("hostnames should be managed if a certificate names them exactly or by wildcard")
+        @Test
+        void managed() {
+            assertTrue(keyManager.isManaged("www.test.me"));
+            assertTrue(keyManager.isManaged("api.test.me"));
+            assertFalse(keyManager.isManaged("unknown.me"));
+        }
+
+        @DisplayName("putting a certificate should serve it without replacing the others")
+        @Test
+        void put() throws Exception {
+            X509Certificate[] exactChain = keyManager.getCertificateChain("exact");
+
+            keyManager.put(SniKeyManager.Entry.of("api", new X509Certificate[]{certificate("CN=api.me", "api.test.me")},
+                    KEY_PAIR.getPrivate()));
+
+            assertEquals("api", keyManager.chooseEngineServerAlias("RSA", null, engine("api.test.me")));
+            assertEquals("wildcard", keyManager.chooseEngineServerAlias("RSA", null, engine("web.test.me")));
+            assertArrayEquals(exactChain, keyManager.getCertificateChain("exact"));
+        }
+
+        @DisplayName("putting several certificates at once should serve each of them")
+        @Test
+        void putAll() throws Exception {
+            SniKeyManager.Entry api = SniKeyManager.Entry.of("api",
+                    new X509Certificate[]{certificate("CN=api.me", "api.test.me", "cdn.test.me")}, KEY_PAIR.getPrivate());
+            SniKeyManager.Entry cdn = new SniKeyManager.Entry("cdn", api.chain(), api.privateKey(), api.names());
+
+            keyManager.putAll(List.of(api, cdn));
+
+            assertEquals(List.of("api", "cdn"), Stream.of(keyManager.getServerAliases("RSA", null))
+                    .filter(alias -> alias.equals("api") || alias.equals("cdn")).toList());
+            assertTrue(keyManager.isManaged("cdn.test.me"));
+            assertArrayEquals(api.chain(), keyManager.getCertificateChain("cdn"));
+            assertEquals("default", keyManager.chooseEngineServerAlias("RSA", null, engine("unknown.me")));
+        }
+
+        @DisplayName("a certificate that was put should be kept when the keystore is loaded again")
+        @Test
+        void putKeptOnLoad() throws Exception {
+            keyManager.put(SniKeyManager.Entry.of("api", new X509Certificate[]{certificate("CN=api.me", "api.test.me")},
+                    KEY_PAIR.getPrivate()));
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(null, null);
+            keyStore.setKeyEntry("default", KEY_PAIR.getPrivate(), new char[0],
+                    new X509Certificate[]{certificate("CN=default.me")});
+
+            keyManager.load(keyStore, new char[0], "default");
+
+            assertEquals("api", keyManager.chooseEngineServerAlias("RSA", null, engine("api.test.me")));
+            assertNull(keyManager.getCertificateChain("exact"));
+        }
+
+        @DisplayName("the unknown hostname handler should only be told of hostnames no certificate names")
+        @Test
+        void unknownHostname() {
+            List<String> unknown = new ArrayList<>();
+            keyManager.onUnknownHostname(unknown::add);
+
+            keyManager.chooseEngineServerAlias("RSA", null, engine("www.test.me"));
+            keyManager.chooseEngineServerAlias("RSA", null, engine("api.test.me"));
+            keyManager.chooseEngineServerAlias("RSA", null, engine("Shop.Other.me"));
+            keyManager.chooseEngineServerAlias("RSA", null, engine(null));
+
+            assertEquals(List.of("shop.other.me"), unknown);
+        }
+
+        @DisplayName("a certificate the unknown hostname handler puts should be served to the handshake")
+        @Test
+        void unknownHostnamePut() {
+            keyManager.onUnknownHostname(hostname -> {
+                try {
+                    keyManager.put(SniKeyManager.Entry.of(hostname,
+                            new X509Certificate[]{certificate("CN=" + hostname)}, KEY_PAIR.getPrivate()));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            assertEquals("shop.other.me", keyManager.chooseEngineServerAlias("RSA", null, engine("shop.other.me")));
+        }
+
+        @DisplayName("removing a certificate should stop serving it")
+        @Test
+        void remove() {
+            keyManager.remove("wildcard");
+
+            assertEquals("default", keyManager.chooseEngineServerAlias("RSA", null, engine("api.test.me")));
+            assertNull(keyManager.getCertificateChain("wildcard"));
+        }
+    }
+
+    @DisplayName("Without a default alias, the first alias should be the default")
+    @Test
+    void firstAliasDefault() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("b", KEY_PAIR.getPrivate(), new char[0], new X509Certificate[]{certificate("CN=b.me")});
+        keyStore.setKeyEntry("a", KEY_PAIR.getPrivate(), new char[0], new X509Certificate[]{certificate("CN=a.me")});
+
+        keyManager.load(keyStore, new char[0], null);
+
+        assertEquals("a", keyManager.chooseEngineServerAlias("RSA", null, engine("unknown.me")));
+    }
+
+    private static SSLEngine engine(String hostname) {
+        ExtendedSSLSession session = mock(ExtendedSSLSession.class);
+        when(session.getRequestedServerNames())
+                .thenReturn(hostname == null ? List.of() : List.of(new SNIHostName(hostname)));
+        SSLEngine engine = mock(SSLEngine.class);
+        when(engine.getHandshakeSession()).thenReturn(session);
+        return engine;
+    }
+
+    private static X509Certificate certificate(String subject, String... dnsNames) throws Exception {
+        Instant now = Instant.now();
+        JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(new X500Name(subject), BigInteger.ONE,
+                Date.from(now), Date.from(now.plus(1, ChronoUnit.DAYS)), new X500Name(subject), KEY_PAIR.getPublic());
+        if (dnsNames.length > 0) {
+            builder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(Stream.of(dnsNames)
+                    .map(name -> new GeneralName(GeneralName.dNSName, name))
+                    .toArray(GeneralName[]::new)));
+        }
+        return new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256WITHRSA").build(KEY_PAIR.getPrivate())));
+    }
+}
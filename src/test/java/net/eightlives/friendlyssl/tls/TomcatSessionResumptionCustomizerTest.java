@@ -0,0 +1,146 @@
+package net.eightlives.friendlyssl.tls;
+
+import net.eightlives.friendlyssl.config.FriendlySSLConfig;
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.http11.AbstractHttp11JsseProtocol;
+import org.apache.tomcat.util.net.SSLHostConfig;
+import org.apache.tomcat.util.net.SSLHostConfigCertificate;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.shredzone.acme4j.util.KeyPairUtils;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.ssl.SslBundle;
+import org.springframework.boot.ssl.SslBundles;
+import org.springframework.boot.ssl.SslStoreBundle;
+import org.springframework.boot.web.server.Ssl;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TomcatSessionResumptionCustomizerTest {
+
+    private static final String BUNDLE = "friendlyssl";
+
+    private TomcatSessionResumptionCustomizer customizer;
+
+    @Mock
+    private FriendlySSLConfig config;
+    @Mock
+    private ServerProperties serverConfig;
+    @Mock
+    private SslBundles sslBundles;
+    @Captor
+    private ArgumentCaptor<Consumer<SslBundle>> handlerCaptor;
+
+    private Connector connector;
+    private AbstractHttp11JsseProtocol<?> protocol;
+
+    @BeforeEach
+    void setUp() {
+        customizer = new TomcatSessionResumptionCustomizer(config, serverConfig, sslBundles, new SniKeyManager());
+
+        connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+        protocol = (AbstractHttp11JsseProtocol<?>) connector.getProtocolHandler();
+    }
+
+    @DisplayName("When SSL is not configured, the connector should be left as it is")
+    @Test
+    void sslNotConfigured() {
+        customizer.customizeConnector(connector);
+
+        verifyNoInteractions(sslBundles);
+    }
+
+    @DisplayName("When SSL is configured with a bundle")
+    @Nested
+    class BundleConfigured {
+
+        private SSLHostConfigCertificate certificate;
+
+        @BeforeEach
+        void setUp() throws Exception {
+            Ssl ssl = new Ssl();
+            ssl.setBundle(BUNDLE);
+            when(serverConfig.getSsl()).thenReturn(ssl);
+            when(config.getSessionCacheSize()).thenReturn(100);
+            when(config.getSessionTimeoutSeconds()).thenReturn(600);
+            when(sslBundles.getBundle(BUNDLE)).thenReturn(bundle("CN=first.test.me"));
+
+            certificate = addSslHostConfig();
+        }
+
+        @DisplayName("the connector should serve from a persistent SSL context")
+        @Test
+        void persistentContext() {
+            customizer.customizeConnector(connector);
+
+            PersistentSslContext context = assertInstanceOf(PersistentSslContext.class, certificate.getSslContext());
+            assertEquals(100, context.getServerSessionContext().getSessionCacheSize());
+            assertEquals(600, context.getServerSessionContext().getSessionTimeout());
+        }
+
+        @DisplayName("the SSL host configuration that replaces the connector's on reload should use the same SSL context")
+        @Test
+        void reload() throws Exception {
+            customizer.customizeConnector(connector);
+            verify(sslBundles).addBundleUpdateHandler(eq(BUNDLE), handlerCaptor.capture());
+            PersistentSslContext context = (PersistentSslContext) certificate.getSslContext();
+
+            SSLHostConfigCertificate reloadedCertificate = addSslHostConfig();
+            handlerCaptor.getValue().accept(bundle("CN=renewed.test.me"));
+
+            assertSame(context, reloadedCertificate.getSslContext());
+            assertEquals("CN=renewed.test.me",
+                    context.getCertificateChain("test")[0].getSubjectX500Principal().getName());
+        }
+    }
+
+    /**
+     * Replace the connector's SSL host configuration as Spring Boot does.
+     */
+    private SSLHostConfigCertificate addSslHostConfig() {
+        SSLHostConfig sslHostConfig = new SSLHostConfig();
+        sslHostConfig.setHostName(protocol.getDefaultSSLHostConfigName());
+        SSLHostConfigCertificate certificate = new SSLHostConfigCertificate(sslHostConfig,
+                SSLHostConfigCertificate.Type.UNDEFINED);
+        sslHostConfig.addCertificate(certificate);
+        protocol.addSslHostConfig(sslHostConfig, true);
+        return certificate;
+    }
+
+    private static SslBundle bundle(String subject) throws Exception {
+        KeyPair keyPair = KeyPairUtils.createKeyPair(2048);
+        Instant now = Instant.now();
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                new JcaX509v3CertificateBuilder(new X500Name(subject), BigInteger.ONE, Date.from(now),
+                        Date.from(now.plus(1, ChronoUnit.DAYS)), new X500Name(subject), keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256WITHRSA").build(keyPair.getPrivate())));
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("test", keyPair.getPrivate(), new char[0], new X509Certificate[]{certificate});
+        return SslBundle.of(SslStoreBundle.of(keyStore, "", null));
+    }
+}